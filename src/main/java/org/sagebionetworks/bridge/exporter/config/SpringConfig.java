@@ -6,8 +6,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
@@ -18,6 +24,7 @@ import com.amazonaws.services.sqs.AmazonSQSClient;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.sagebionetworks.client.SynapseAdminClientImpl;
 import org.sagebionetworks.client.SynapseClient;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,8 +38,12 @@ import org.sagebionetworks.bridge.dynamodb.DynamoQueryHelper;
 import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.notification.S3EventNotificationCallback;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterSqsCallback;
+import org.sagebionetworks.bridge.exporter.retry.RetryBudget;
+import org.sagebionetworks.bridge.exporter.synapse.AttachmentFileHandleCache;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
+import org.sagebionetworks.bridge.exporter.synapse.ColumnModelIdCache;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
@@ -141,6 +152,18 @@ public class SpringConfig {
         return ddbClient().getTable(ddbPrefix() + "ExportTime");
     }
 
+    @Bean(name = "ddbAttachmentFileHandleTable")
+    public Table ddbAttachmentFileHandleTable() {
+        String exporterDdbPrefix = bridgeConfig().get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX);
+        return ddbClient().getTable(exporterDdbPrefix + AttachmentFileHandleCache.DDB_TABLE_ATTACHMENT_FILE_HANDLES);
+    }
+
+    @Bean(name = "ddbColumnModelIdTable")
+    public Table ddbColumnModelIdTable() {
+        String exporterDdbPrefix = bridgeConfig().get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX);
+        return ddbClient().getTable(exporterDdbPrefix + ColumnModelIdCache.DDB_TABLE_COLUMN_MODEL_IDS);
+    }
+
     @Bean
     public FileHelper fileHelper() {
         return new FileHelper();
@@ -153,10 +176,15 @@ public class SpringConfig {
         return heartbeatLogger;
     }
 
+    @Bean
+    public AmazonS3Client s3Client() {
+        return new AmazonS3Client();
+    }
+
     @Bean
     public S3Helper s3Helper() {
         S3Helper s3Helper = new S3Helper();
-        s3Helper.setS3Client(new AmazonS3Client());
+        s3Helper.setS3Client(s3Client());
         return s3Helper;
     }
 
@@ -203,9 +231,88 @@ public class SpringConfig {
         return synapseClient;
     }
 
+    // Each dependency gets its own retry budget, so an outage in one doesn't use up the retries for the other.
+    @Bean(name = "bridgeRetryBudget")
+    public RetryBudget bridgeRetryBudget() {
+        RetryBudget retryBudget = new RetryBudget();
+        retryBudget.setConfig(bridgeConfig());
+        return retryBudget;
+    }
+
+    @Bean(name = "synapseRetryBudget")
+    public RetryBudget synapseRetryBudget() {
+        RetryBudget retryBudget = new RetryBudget();
+        retryBudget.setConfig(bridgeConfig());
+        return retryBudget;
+    }
+
+    // The worker queue is bounded, to bound the number of in-flight subtasks (and the records they hold on to). When
+    // the queue is full, the caller runs the subtask itself, which keeps the record pipeline from outrunning the
+    // workers.
     @Bean(name = "workerExecutorService")
     public ExecutorService workerExecutorService() {
-        return Executors.newFixedThreadPool(bridgeConfig().getInt("threadpool.worker.count"));
+        Config config = bridgeConfig();
+        int numThreads = config.getInt("threadpool.worker.count");
+        int queueSize = config.getInt("threadpool.worker.queue.size");
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    // Attachment transfers are I/O bound, so they get their own pool, sized separately from the worker pool. The queue
+    // is unbounded, but AttachmentTransferEngine bounds the number of in-flight transfers.
+    @Bean(name = "attachmentTransferExecutorService")
+    public ExecutorService attachmentTransferExecutorService() {
+        int numThreads = bridgeConfig().getInt("attachment.transfer.thread.count");
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("attachment-transfer-%d").build());
+    }
+
+    // Exporter status updates are sent to Bridge in the background by ExporterStatusUpdater, which bounds the number of
+    // concurrent batches to the thread count. This is a scheduled pool, so failed batches can be enqueued again after a
+    // delay. Threads are daemon threads. Unsent updates are spooled to disk and recovered on the next startup, so they
+    // don't need to hold up shutdown.
+    @Bean(name = "exporterStatusExecutorService")
+    public ScheduledExecutorService exporterStatusExecutorService() {
+        int numThreads = bridgeConfig().getInt("exporter.status.thread.count");
+        return new ScheduledThreadPoolExecutor(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("exporter-status-%d").setDaemon(true).build());
+    }
+
+    // Lookup caches reload entries on this pool for refresh-ahead, so a refresh never blocks a reader. Reloads are rare
+    // single lookups, so two threads are plenty. Threads are daemon threads, so they never hold up shutdown.
+    @Bean(name = "lookupCacheRefreshExecutorService")
+    public ExecutorService lookupCacheRefreshExecutorService() {
+        return Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("lookup-cache-refresh-%d")
+                .setDaemon(true).build());
+    }
+
+    // Schema registries use this pool to preload schemas in parallel at the start of each task, and to refresh them in
+    // the background. The thread count bounds the number of concurrent schema calls to Bridge. Threads are daemon
+    // threads, so a pending refresh never holds up shutdown.
+    @Bean(name = "schemaRegistryExecutorService")
+    public ScheduledExecutorService schemaRegistryExecutorService() {
+        int numThreads = bridgeConfig().getInt("schema.registry.thread.count");
+        return new ScheduledThreadPoolExecutor(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("schema-registry-%d").setDaemon(true).build());
+    }
+
+    // SynapseAsyncJobPoller checks all outstanding Synapse async jobs on this scheduler, so waiting on a job doesn't
+    // tie up a thread per job. Each check is a single quick Synapse call, so a few threads go a long way.
+    @Bean(name = "synapseAsyncPollerExecutorService")
+    public ScheduledExecutorService synapseAsyncPollerExecutorService() {
+        int numThreads = bridgeConfig().getInt("synapse.async.poll.thread.count");
+        return new ScheduledThreadPoolExecutor(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("synapse-async-poller-%d").setDaemon(true).build());
+    }
+
+    // At the end of the stream, TSV uploads and status table writes run in parallel on this pool. Uploads spend most of
+    // their time waiting on Synapse, so this is sized separately from the worker pool. SynapseHelper rate limits the
+    // actual calls to Synapse.
+    @Bean(name = "synapseUploadExecutorService")
+    public ExecutorService synapseUploadExecutorService() {
+        int numThreads = bridgeConfig().getInt("synapse.upload.thread.count");
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+                .setNameFormat("synapse-upload-%d").setDaemon(true).build());
     }
 
     @Bean(name = "synapseColumnDefinitions")
@@ -8,6 +8,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.exporter.helper.ExporterStatusUpdater;
 import org.sagebionetworks.bridge.heartbeat.HeartbeatLogger;
 import org.sagebionetworks.bridge.sqs.PollSqsWorker;
 
@@ -19,9 +20,15 @@ import org.sagebionetworks.bridge.sqs.PollSqsWorker;
 public class WorkerLauncher implements CommandLineRunner {
     private static final Logger LOG = LoggerFactory.getLogger(WorkerLauncher.class);
 
+    private ExporterStatusUpdater exporterStatusUpdater;
     private HeartbeatLogger heartbeatLogger;
     private List<PollSqsWorker> pollSqsWorkers;
 
+    @Autowired
+    public final void setExporterStatusUpdater(ExporterStatusUpdater exporterStatusUpdater) {
+        this.exporterStatusUpdater = exporterStatusUpdater;
+    }
+
     @Autowired
     public final void setHeartbeatLogger(HeartbeatLogger heartbeatLogger) {
         this.heartbeatLogger = heartbeatLogger;
@@ -43,6 +50,9 @@ public class WorkerLauncher implements CommandLineRunner {
      */
     @Override
     public void run(String... args) {
+        LOG.info("Recovering spooled exporter status updates...");
+        exporterStatusUpdater.recoverSpool();
+
         LOG.info("Starting heartbeat...");
         new Thread(heartbeatLogger).start();
 
@@ -2,19 +2,24 @@ package org.sagebionetworks.bridge.exporter.dynamo;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.RateLimiter;
-import com.jcabi.aspects.Cacheable;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -26,6 +31,8 @@ import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.LookupCache;
+import org.sagebionetworks.bridge.exporter.util.LookupCacheManager;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.sqs.PollSqsWorkerBadRequestException;
 
@@ -44,10 +51,21 @@ public class DynamoHelper {
     private static final String STUDY_INFO_KEY_STUDY_ID_EXCLUDED_IN_EXPORT = "studyIdExcludedInExport";
     private static final String STUDY_INFO_KEY_USES_CUSTOM_EXPORT_SCHEDULE = "usesCustomExportSchedule";
 
+    private static final String PARTICIPANT_OPTIONS_KEY_DATA = "data";
+    private static final String PARTICIPANT_OPTIONS_KEY_HEALTH_CODE = "healthDataCode";
+
+    // DDB limits BatchGetItem calls to 100 keys.
+    public static final int MAX_BATCH_GET_SIZE = 100;
+
+    // Cache names, also used for config keys. Package-scoped to allow unit tests to mock.
+    static final String CACHE_NAME_SHARING_SCOPE = "sharing.scope";
+    static final String CACHE_NAME_STUDY_INFO = "study.info";
+
     static final String IDENTIFIER = "identifier";
     static final String LAST_EXPORT_DATE_TIME = "lastExportDateTime";
     static final String STUDY_ID = "studyId";
 
+    private DynamoDB ddbClient;
     private Table ddbParticipantOptionsTable;
     private Table ddbStudyTable;
     private Table ddbExportTimeTable;
@@ -58,12 +76,22 @@ public class DynamoHelper {
     // unbounded series of studies. Conservatively limit at 1 req/sec.
     private final RateLimiter rateLimiter = RateLimiter.create(1.0);
 
+    // Caches for sharing scopes and study info. These are created once, when the lookup cache manager is set.
+    private LookupCache<String, SharingScope> sharingScopeCache;
+    private LookupCache<String, StudyInfo> studyInfoCache;
+
     /** Config, used to get S3 bucket for record ID override files. */
     @Autowired
     final void setConfig(Config config) {
         timeZone = DateTimeZone.forID(config.get(BridgeExporterUtil.CONFIG_KEY_TIME_ZONE_NAME));
     }
 
+    /** DDB client, used to make BatchGetItem calls for sharing scopes. */
+    @Autowired
+    final void setDdbClient(DynamoDB ddbClient) {
+        this.ddbClient = ddbClient;
+    }
+
     /** Participant options table, used to get user sharing scope. */
     @Resource(name = "ddbParticipantOptionsTable")
     public final void setDdbParticipantOptionsTable(Table ddbParticipantOptionsTable) {
@@ -87,6 +115,13 @@ public class DynamoHelper {
         this.ddbScanHelper = ddbScanHelper;
     }
 
+    /** Lookup cache manager, used to create the sharing scope and study info caches. */
+    @Autowired
+    public final void setLookupCacheManager(LookupCacheManager lookupCacheManager) {
+        sharingScopeCache = lookupCacheManager.newCache(CACHE_NAME_SHARING_SCOPE, this::loadSharingScopeForUser);
+        studyInfoCache = lookupCacheManager.newCache(CACHE_NAME_STUDY_INFO, this::loadStudyInfo);
+    }
+
     /**
      * Gets the sharing scope for the given user.
      *
@@ -94,26 +129,107 @@ public class DynamoHelper {
      *         health code of user to get sharing scope for
      * @return the user's sharing scope
      */
-    @Cacheable(lifetime = 5, unit = TimeUnit.MINUTES)
     public SharingScope getSharingScopeForUser(String healthCode) {
+        return sharingScopeCache.get(healthCode);
+    }
+
+    // Helper method which gets the sharing scope from DDB on a cache miss.
+    private SharingScope loadSharingScopeForUser(String healthCode) {
+        Item participantOptionsItem;
+        try {
+            participantOptionsItem = ddbParticipantOptionsTable.getItem(PARTICIPANT_OPTIONS_KEY_HEALTH_CODE,
+                    healthCode);
+        } catch (RuntimeException ex) {
+            // log an error, fall back to default
+            LOG.error("Unable to get sharing options for hash[healthCode]=" + healthCode.hashCode() + ": " +
+                    ex.getMessage(), ex);
+            return SharingScope.NO_SHARING;
+        }
+
+        return parseSharingScope(healthCode, participantOptionsItem);
+    }
+
+    /**
+     * Gets the sharing scopes for a batch of users with a single BatchGetItem call. Users without participant options
+     * get NO_SHARING, same as {@link #getSharingScopeForUser}. Health codes that DDB didn't process (generally because
+     * of throttling), or all health codes if the call fails, are left out of the returned map. Callers should fall back
+     * to {@link #getSharingScopeForUser} for those.
+     *
+     * @param healthCodes
+     *         health codes of users to get sharing scopes for, at most {@link #MAX_BATCH_GET_SIZE}, no duplicates
+     * @return map from health code to sharing scope
+     */
+    public Map<String, SharingScope> getSharingScopesForUsers(Collection<String> healthCodes) {
+        if (healthCodes.size() > MAX_BATCH_GET_SIZE) {
+            throw new IllegalArgumentException("Can't get more than " + MAX_BATCH_GET_SIZE +
+                    " sharing scopes in a batch, got " + healthCodes.size());
+        }
+        if (healthCodes.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        String tableName = ddbParticipantOptionsTable.getTableName();
+        TableKeysAndAttributes keysAndAttributes = new TableKeysAndAttributes(tableName).withAttributeNames(
+                PARTICIPANT_OPTIONS_KEY_HEALTH_CODE, PARTICIPANT_OPTIONS_KEY_DATA);
+        for (String oneHealthCode : healthCodes) {
+            keysAndAttributes.addHashOnlyPrimaryKey(PARTICIPANT_OPTIONS_KEY_HEALTH_CODE, oneHealthCode);
+        }
+
+        BatchGetItemOutcome outcome;
+        try {
+            outcome = ddbClient.batchGetItem(new BatchGetItemSpec().withTableKeyAndAttributes(keysAndAttributes));
+        } catch (RuntimeException ex) {
+            LOG.error("Unable to batch get sharing options for " + healthCodes.size() + " users: " +
+                    ex.getMessage(), ex);
+            return ImmutableMap.of();
+        }
+
+        // Users without participant options aren't in the outcome, and default to no sharing.
+        Map<String, SharingScope> sharingScopesByHealthCode = new HashMap<>();
+        for (String oneHealthCode : healthCodes) {
+            sharingScopesByHealthCode.put(oneHealthCode, SharingScope.NO_SHARING);
+        }
+
+        List<Item> itemList = outcome.getTableItems().get(tableName);
+        if (itemList != null) {
+            for (Item oneItem : itemList) {
+                String healthCode = oneItem.getString(PARTICIPANT_OPTIONS_KEY_HEALTH_CODE);
+                sharingScopesByHealthCode.put(healthCode, parseSharingScope(healthCode, oneItem));
+            }
+        }
+
+        // Unprocessed keys are left out, so callers know to fall back.
+        Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+        if (unprocessedKeys != null && unprocessedKeys.get(tableName) != null) {
+            for (Map<String, AttributeValue> oneKey : unprocessedKeys.get(tableName).getKeys()) {
+                sharingScopesByHealthCode.remove(oneKey.get(PARTICIPANT_OPTIONS_KEY_HEALTH_CODE).getS());
+            }
+        }
+
+        return sharingScopesByHealthCode;
+    }
+
+    // Helper method which parses the sharing scope from a participant options item. Defaults to no sharing if the item
+    // is null or can't be parsed.
+    private static SharingScope parseSharingScope(String healthCode, Item participantOptionsItem) {
         // default sharing scope is no sharing
         SharingScope sharingScope = SharingScope.NO_SHARING;
+        if (participantOptionsItem == null) {
+            return sharingScope;
+        }
 
         try {
-            Item participantOptionsItem = ddbParticipantOptionsTable.getItem("healthDataCode", healthCode);
-            if (participantOptionsItem != null) {
-                String participantOptionsData = participantOptionsItem.getString("data");
-                Map<String, Object> participantOptionsDataMap = DefaultObjectMapper.INSTANCE.readValue(
-                        participantOptionsData, DefaultObjectMapper.TYPE_REF_RAW_MAP);
-                String sharingScopeStr = String.valueOf(participantOptionsDataMap.get("SHARING_SCOPE"));
-
-                // put this in its own try-catch block for better logging
-                try {
-                    sharingScope = SharingScope.valueOf(sharingScopeStr);
-                } catch (IllegalArgumentException ex) {
-                    LOG.error("Unable to parse sharing options for hash[healthCode]=" + healthCode.hashCode() +
-                            ", sharing scope value=" + sharingScopeStr);
-                }
+            String participantOptionsData = participantOptionsItem.getString(PARTICIPANT_OPTIONS_KEY_DATA);
+            Map<String, Object> participantOptionsDataMap = DefaultObjectMapper.INSTANCE.readValue(
+                    participantOptionsData, DefaultObjectMapper.TYPE_REF_RAW_MAP);
+            String sharingScopeStr = String.valueOf(participantOptionsDataMap.get("SHARING_SCOPE"));
+
+            // put this in its own try-catch block for better logging
+            try {
+                sharingScope = SharingScope.valueOf(sharingScopeStr);
+            } catch (IllegalArgumentException ex) {
+                LOG.error("Unable to parse sharing options for hash[healthCode]=" + healthCode.hashCode() +
+                        ", sharing scope value=" + sharingScopeStr);
             }
         } catch (IOException | RuntimeException ex) {
             // log an error, fall back to default
@@ -129,10 +245,14 @@ public class DynamoHelper {
      *
      * @param studyId
      *         study ID to fetch
-     * @return study info
+     * @return study info, or null if the study doesn't exist
      */
-    @Cacheable(lifetime = 5, unit = TimeUnit.MINUTES)
     public StudyInfo getStudyInfo(String studyId) {
+        return studyInfoCache.get(studyId);
+    }
+
+    // Helper method which gets study info from DDB on a cache miss.
+    private StudyInfo loadStudyInfo(String studyId) {
         Item studyItem = ddbStudyTable.getItem("identifier", studyId);
         if (studyItem == null) {
             return null;
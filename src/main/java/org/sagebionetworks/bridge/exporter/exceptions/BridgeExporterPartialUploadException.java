@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.exporter.exceptions;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A special kind of BridgeExporterException, which represents a table upload where some TSV segments were imported
+ * into Synapse and others failed. Redriving the whole table would import the rows from the successful segments a
+ * second time, so this carries the record IDs from the failed segments, which can be redriven individually instead.
+ * The cause is the exception from the first failed segment.
+ */
+@SuppressWarnings("serial")
+public class BridgeExporterPartialUploadException extends BridgeExporterException {
+    private final List<String> failedRecordIdList;
+
+    public BridgeExporterPartialUploadException(String message, Throwable cause, List<String> failedRecordIdList) {
+        super(message, cause);
+        this.failedRecordIdList = ImmutableList.copyOf(failedRecordIdList);
+    }
+
+    /** Record IDs of the rows that weren't imported into Synapse. */
+    public List<String> getFailedRecordIdList() {
+        return failedRecordIdList;
+    }
+}
@@ -1,10 +1,7 @@
 package org.sagebionetworks.bridge.exporter.handler;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang.StringUtils;
 import org.sagebionetworks.repo.model.table.ColumnModel;
@@ -14,6 +11,7 @@ import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
 /**
@@ -70,12 +68,11 @@ public class AppVersionExportHandler extends SynapseExportHandler {
     }
 
     @Override
-    protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) {
+    protected void writeTsvRowValues(ExportSubtask subtask, TsvRow row) {
         ExportTask task = subtask.getParentTask();
-        Item record = subtask.getOriginalRecord();
 
         // book keeping - unique app versions
-        PhoneAppVersionInfo phoneAppVersionInfo = PhoneAppVersionInfo.fromRecord(record);
+        PhoneAppVersionInfo phoneAppVersionInfo = subtask.getPhoneAppVersionInfo();
         String appVersion = phoneAppVersionInfo.getAppVersion();
         if (StringUtils.isNotBlank(appVersion)) {
             task.getMetrics().addKeyValuePair("uniqueAppVersions[" + getStudyId() + "]", appVersion);
@@ -90,9 +87,7 @@ public class AppVersionExportHandler extends SynapseExportHandler {
             originalTable = schemaKey.toString();
         }
 
-        // construct row
-        Map<String, String> rowValueMap = new HashMap<>();
-        rowValueMap.put("originalTable", originalTable);
-        return rowValueMap;
+        // write row
+        row.set("originalTable", originalTable);
     }
 }
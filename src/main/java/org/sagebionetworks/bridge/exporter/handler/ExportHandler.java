@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.exporter.handler;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.sagebionetworks.client.exceptions.SynapseException;
 
@@ -53,4 +54,16 @@ public abstract class ExportHandler {
     /** Handles the task. Whatever it might be. */
     public abstract void handle(ExportSubtask subtask) throws BridgeExporterException, IOException,
             SchemaNotFoundException, SynapseException;
+
+    /**
+     * Handles the task, returning a future that completes when the task is fully handled. Errors can either be thrown
+     * directly or returned through the future. This is what export workers call, so handlers that wait on I/O (such
+     * as attachment uploads) can free up the worker thread while they wait. By default, this calls
+     * {@link #handle} and returns a completed future.
+     */
+    public CompletableFuture<Void> handleAsync(ExportSubtask subtask) throws BridgeExporterException, IOException,
+            SchemaNotFoundException, SynapseException {
+        handle(subtask);
+        return CompletableFuture.completedFuture(null);
+    }
 }
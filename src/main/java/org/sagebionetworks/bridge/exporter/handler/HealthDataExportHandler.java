@@ -2,38 +2,28 @@ package org.sagebionetworks.bridge.exporter.handler;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.TextNode;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
-import com.jcabi.aspects.Cacheable;
 import org.apache.commons.lang3.StringUtils;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
-import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
+import org.sagebionetworks.bridge.exporter.worker.TsvRowLayout;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.exporter.util.JsonFieldExtractor;
 import org.sagebionetworks.bridge.rest.model.Study;
 import org.sagebionetworks.bridge.rest.model.SynapseExporterStatus;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
@@ -43,18 +33,20 @@ import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
 /** Synapse export worker for health data tables. */
 public class HealthDataExportHandler extends SynapseExportHandler {
-    private static final Logger LOG = LoggerFactory.getLogger(HealthDataExportHandler.class);
-
-    private static final String METADATA_FIELD_NAME_PREFIX = "metadata.";
-    private static final char MULTI_CHOICE_FIELD_SEPARATOR = '.';
-    private static final String OTHER_CHOICE_FIELD_SUFFIX = ".other";
-    private static final String TIME_ZONE_FIELD_SUFFIX = ".timezone";
+    private static final String METADATA_FIELD_NAME_PREFIX = HealthDataSerializerPlan.METADATA_FIELD_NAME_PREFIX;
+    private static final char MULTI_CHOICE_FIELD_SEPARATOR = HealthDataSerializerPlan.MULTI_CHOICE_FIELD_SEPARATOR;
+    private static final String OTHER_CHOICE_FIELD_SUFFIX = HealthDataSerializerPlan.OTHER_CHOICE_FIELD_SUFFIX;
+    private static final String TIME_ZONE_FIELD_SUFFIX = HealthDataSerializerPlan.TIME_ZONE_FIELD_SUFFIX;
     private static final long TIME_ZONE_FIELD_LENGTH = 5;
-    private static final DateTimeFormatter TIME_ZONE_FORMATTER = DateTimeFormat.forPattern("Z");
-    private static final String TIME_ZONE_UTC_STRING = "+0000";
 
     private UploadSchemaKey schemaKey;
 
+    // Most recently compiled serializer plan. See getSerializerPlan().
+    private volatile HealthDataSerializerPlan serializerPlan;
+
+    // Most recently computed Synapse column list. See getSynapseTableColumnList().
+    private volatile ColumnListMemo columnListMemo;
+
     /**
      * Schema that this handler represents. This is used for determining the table keys in DDB as well as determining
      * the Synapse table columns and corresponding TSV columns.
@@ -70,12 +62,12 @@ public class HealthDataExportHandler extends SynapseExportHandler {
 
     @Override
     protected String getDdbTableName() {
-        return "SynapseTables";
+        return SynapseHelper.DDB_TABLE_SYNAPSE_TABLES;
     }
 
     @Override
     protected String getDdbTableKeyName() {
-        return "schemaKey";
+        return SynapseHelper.DDB_KEY_SCHEMA_KEY;
     }
 
     @Override
@@ -91,14 +83,23 @@ public class HealthDataExportHandler extends SynapseExportHandler {
     @Override
     protected List<ColumnModel> getSynapseTableColumnList(ExportTask task) throws SchemaNotFoundException {
         List<UploadFieldDefinition> studyUploadMetadataFieldDefList = getStudyUploadMetadataFieldDefList();
-        List<UploadFieldDefinition> schemaFieldDefList = getSchemaFieldDefList(task.getMetrics());
-        return getSynapseTableColumnListCached(studyUploadMetadataFieldDefList, schemaFieldDefList);
+        List<UploadFieldDefinition> schemaFieldDefList = getSchemaFieldDefList(task);
+
+        // Since this is a non-trivial amount of computation, remember the most recent column list, and only recompute
+        // it if the field defs have changed. Multiple threads might compute the column list at the same time, but
+        // the result is the same, so this is harmless.
+        ColumnListMemo memo = columnListMemo;
+        if (memo == null || !memo.isComputedFrom(studyUploadMetadataFieldDefList, schemaFieldDefList)) {
+            List<ColumnModel> columnList = computeSynapseTableColumnList(studyUploadMetadataFieldDefList,
+                    schemaFieldDefList);
+            memo = new ColumnListMemo(studyUploadMetadataFieldDefList, schemaFieldDefList, columnList);
+            columnListMemo = memo;
+        }
+        return memo.columnList;
     }
 
-    // Helper method to compute the Synapse column list from the schema field def list. Since this is a non-trivial
-    // amount of computation, we also wrap this in a cacheable annotation.
-    @Cacheable(forever = true)
-    private List<ColumnModel> getSynapseTableColumnListCached(
+    // Helper method to compute the Synapse column list from the schema field def list.
+    private List<ColumnModel> computeSynapseTableColumnList(
             List<UploadFieldDefinition> studyUploadMetadataFieldDefList,
             List<UploadFieldDefinition> schemaFieldDefList) {
 
@@ -237,91 +238,71 @@ public class HealthDataExportHandler extends SynapseExportHandler {
     }
 
     @Override
-    protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws IOException, SchemaNotFoundException,
+    protected void writeTsvRowValues(ExportSubtask subtask, TsvRow row) throws IOException, SchemaNotFoundException,
             SynapseException {
+        ExportWorkerManager manager = getManager();
         ExportTask task = subtask.getParentTask();
-        Map<String, String> rowValueMap = new HashMap<>();
+
+        // Get the serializer plan. We get the field defs for every record, since the schema and the study can change
+        // (the schema registry and BridgeHelper refresh them periodically), but we only re-compile the plan if they
+        // actually changed.
+        List<UploadFieldDefinition> metadataFieldDefList = getStudyUploadMetadataFieldDefList();
+        List<UploadFieldDefinition> schemaFieldDefList = getSchemaFieldDefList(task);
+        HealthDataSerializerPlan plan = getSerializerPlan(row.getLayout(), metadataFieldDefList, schemaFieldDefList);
+
+        String synapseProjectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
+        HealthDataSerializerPlan.RecordContext context = new HealthDataSerializerPlan.RecordContext(manager,
+                task.getMetrics(), task.getTmpDir(), synapseProjectId, subtask.getRecordId());
 
         // metadata columns
         String userMetadataJsonText = subtask.getOriginalRecord().getString("userMetadata");
-        if (StringUtils.isNotBlank(userMetadataJsonText)) {
-            // extract and serialize from the raw DDB record
-            JsonNode userMetadataNode = DefaultObjectMapper.INSTANCE.readTree(userMetadataJsonText);
-            List<UploadFieldDefinition> metadataFieldDefList = getStudyUploadMetadataFieldDefList();
-            if (metadataFieldDefList != null && !metadataFieldDefList.isEmpty()) {
-                Map<String, String> metadataFieldMap = extractAndSerializeFields(subtask, metadataFieldDefList,
-                        userMetadataNode);
-
-                // Add to the row value map, but pre-pend the metadata prefix.
-                metadataFieldMap.entrySet().stream().forEach(metadataField -> rowValueMap
-                        .put(METADATA_FIELD_NAME_PREFIX + metadataField.getKey(), metadataField.getValue()));
-            }
+        if (StringUtils.isNotBlank(userMetadataJsonText) && metadataFieldDefList != null &&
+                !metadataFieldDefList.isEmpty()) {
+            // extract and serialize from the raw DDB record, streaming past fields that aren't in the study metadata
+            JsonNode userMetadataNode = JsonFieldExtractor.extractFields(userMetadataJsonText,
+                    plan.getMetadataFieldNameSet());
+            plan.serializeMetadata(context, userMetadataNode, row);
         }
 
-        // schema-specific columns - These write directly to the rowValueMap, possibly overwriting metadata if there's
-        // a name conflict.
-        List<UploadFieldDefinition> schemaFieldDefList = getSchemaFieldDefList(task.getMetrics());
-        Map<String, String> schemaFieldMap = extractAndSerializeFields(subtask, schemaFieldDefList,
-                subtask.getRecordData());
-        rowValueMap.putAll(schemaFieldMap);
-
-        return rowValueMap;
+        // schema-specific columns - These are written after the metadata, possibly overwriting metadata if there's a
+        // name conflict. Only the fields in the schema are extracted from the record data.
+        JsonNode recordDataNode = subtask.getRecordDataFields(plan.getSchemaFieldNameSet());
+        plan.serializeSchemaFields(context, recordDataNode, row);
     }
 
-    /**
-     * Helper method to serialize fields from the given JSON node and return them as a map.
-     *
-     * @param subtask
-     *         export subtask, used for looking up variables and logging info
-     * @param fieldDefList
-     *         field definition list; either study upload metadata fields or schema fields
-     * @param jsonNode
-     *         JSON node containing data; either record data or record user metadata
-     */
-    private Map<String, String> extractAndSerializeFields(ExportSubtask subtask,
-            List<UploadFieldDefinition> fieldDefList, JsonNode jsonNode) throws IOException, SynapseException {
-        ExportWorkerManager manager = getManager();
-        ExportTask task = subtask.getParentTask();
-        String synapseProjectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
-        String recordId = subtask.getRecordId();
-
-        Map<String, String> rowValueMap = new HashMap<>();
-        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
-            String oneFieldName = oneFieldDef.getName();
-            UploadFieldType bridgeType = oneFieldDef.getType();
-            JsonNode valueNode = jsonNode.get(oneFieldName);
-
-            if (BridgeExporterUtil.shouldConvertFreeformTextToAttachment(schemaKey, oneFieldName)) {
-                // special hack, see comments on shouldConvertFreeformTextToAttachment()
-                // For the purposes of this hack, the only fields in the field def that matter the field name and type
-                // (attachment).
-                oneFieldDef = new UploadFieldDefinition().name(oneFieldName).type(UploadFieldType.ATTACHMENT_V2);
-                if (valueNode != null && !valueNode.isNull() && valueNode.isTextual()) {
-                    String attachmentId = manager.getExportHelper().uploadFreeformTextAsAttachment(recordId,
-                            valueNode.textValue());
-                    valueNode = new TextNode(attachmentId);
-                } else {
-                    valueNode = null;
-                }
-            }
+    // Gets the serializer plan for the given row layout and field defs, compiling a new one if they've changed since
+    // the last plan was compiled. Multiple threads might compile a plan at the same time, but plans are immutable, so
+    // this is harmless.
+    private HealthDataSerializerPlan getSerializerPlan(TsvRowLayout rowLayout,
+            List<UploadFieldDefinition> metadataFieldDefList, List<UploadFieldDefinition> schemaFieldDefList) {
+        HealthDataSerializerPlan plan = serializerPlan;
+        if (plan == null || !plan.isCompiledFrom(rowLayout, metadataFieldDefList, schemaFieldDefList)) {
+            plan = HealthDataSerializerPlan.compile(schemaKey, rowLayout, metadataFieldDefList, schemaFieldDefList);
+            serializerPlan = plan;
+        }
+        return plan;
+    }
 
-            if (bridgeType == UploadFieldType.MULTI_CHOICE) {
-                // MULTI_CHOICE serializes into multiple fields. See getSynapseTableColumnList() for details.
-                Map<String, String> serializedMultiChoiceFields = serializeMultiChoice(recordId, oneFieldDef,
-                        valueNode);
-                rowValueMap.putAll(serializedMultiChoiceFields);
-            } else if (bridgeType == UploadFieldType.TIMESTAMP) {
-                // Similarly, TIMESTAMP serializes into 2 different fields.
-                Map<String, String> serializedTimestampFields = serializeTimestamp(recordId, oneFieldName, valueNode);
-                rowValueMap.putAll(serializedTimestampFields);
-            } else {
-                String value = manager.getSynapseHelper().serializeToSynapseType(task.getMetrics(), task.getTmpDir(),
-                        synapseProjectId, recordId, oneFieldDef, valueNode);
-                rowValueMap.put(oneFieldName, value);
-            }
+    // Column list, along with the field def lists it was computed from.
+    private static class ColumnListMemo {
+        private final List<UploadFieldDefinition> studyUploadMetadataFieldDefList;
+        private final List<UploadFieldDefinition> schemaFieldDefList;
+        private final List<ColumnModel> columnList;
+
+        ColumnListMemo(List<UploadFieldDefinition> studyUploadMetadataFieldDefList,
+                List<UploadFieldDefinition> schemaFieldDefList, List<ColumnModel> columnList) {
+            this.studyUploadMetadataFieldDefList = studyUploadMetadataFieldDefList;
+            this.schemaFieldDefList = schemaFieldDefList;
+            this.columnList = columnList;
         }
 
-        return rowValueMap;
+        // Objects.equals() checks by reference first, which is the common case, since BridgeHelper generally returns
+        // the same cached lists.
+        boolean isComputedFrom(List<UploadFieldDefinition> studyUploadMetadataFieldDefList,
+                List<UploadFieldDefinition> schemaFieldDefList) {
+            return Objects.equals(this.studyUploadMetadataFieldDefList, studyUploadMetadataFieldDefList)
+                    && Objects.equals(this.schemaFieldDefList, schemaFieldDefList);
+        }
     }
 
     /**
@@ -331,13 +312,14 @@ public class HealthDataExportHandler extends SynapseExportHandler {
     protected void postProcessTsv(TsvInfo tsvInfo) throws BridgeExporterException {
         List<String> recordIds = tsvInfo.getRecordIds();
 
-        getManager().getBridgeHelper().updateRecordExporterStatus(recordIds, SynapseExporterStatus.SUCCEEDED);
+        // Status updates are sent to Bridge in the background, so the task doesn't wait on Bridge.
+        getManager().getExporterStatusUpdater().enqueue(recordIds, SynapseExporterStatus.SUCCEEDED);
     }
 
-    // Helper method for getting the field definition list from the schema. This calls through to Bridge using the
-    // BridgeHelper, which may cache the schema for a few minutes.
-    private List<UploadFieldDefinition> getSchemaFieldDefList(Metrics metrics) throws SchemaNotFoundException {
-        UploadSchema schema = getManager().getBridgeHelper().getSchema(metrics, schemaKey);
+    // Helper method for getting the field definition list from the schema. This reads from the task's schema registry,
+    // which is refreshed in the background for long-running tasks.
+    private List<UploadFieldDefinition> getSchemaFieldDefList(ExportTask task) throws SchemaNotFoundException {
+        UploadSchema schema = getManager().getSchema(task, schemaKey);
         return schema.getFieldDefinitions();
     }
 
@@ -347,117 +329,4 @@ public class HealthDataExportHandler extends SynapseExportHandler {
         Study study = getManager().getBridgeHelper().getStudy(getStudyId());
         return study.getUploadMetadataFieldDefinitions();
     }
-
-    /**
-     * <p>
-     * Serialize a multi-choice answer to a row value map. The map is a partial map and can be written to a TSV and
-     * uploaded to Synapse.
-     * </p>
-     * <p>
-     * Package-scoped to facilitate unit testing.
-     * </p>
-     *
-     * @param fieldDef
-     *         field definition, used to get the multi-choice answer list and generate column names
-     * @param node
-     *         value of the multi-choice answer field
-     * @return partial row value map with serialized multi-choice answers
-     */
-    static Map<String, String> serializeMultiChoice(String recordId, UploadFieldDefinition fieldDef, JsonNode node) {
-        if (node == null || node.isNull() || !node.isArray()) {
-            // Missing or invalid format. Return empty map (no values).
-            return ImmutableMap.of();
-        }
-
-        // Determine selected answers. Use TreeSet to maintain answers in a predictable (alphabetical) order.
-        int numSelected = node.size();
-        Set<String> selectedSet = new TreeSet<>();
-        for (int i = 0; i < numSelected; i++) {
-            JsonNode oneSelectedNode = node.get(i);
-            String oneSelectedAnswer;
-            if (oneSelectedNode.isTextual()) {
-                // Multi-Choice answers _should_ be strings.
-                oneSelectedAnswer = oneSelectedNode.textValue();
-            } else {
-                // Convert everything else trivially to a string, for robustness.
-                oneSelectedAnswer = oneSelectedNode.toString();
-            }
-
-            selectedSet.add(oneSelectedAnswer);
-        }
-
-        // Write "true" and "false" values based on fieldDef answer list.
-        String fieldName = fieldDef.getName();
-        Map<String, String> partialValueMap = new HashMap<>();
-        for (String oneAnswer : fieldDef.getMultiChoiceAnswerList()) {
-            String answerFieldName = fieldName + MULTI_CHOICE_FIELD_SEPARATOR + oneAnswer;
-            String answerFieldValue = String.valueOf(selectedSet.contains(oneAnswer));
-            partialValueMap.put(answerFieldName, answerFieldValue);
-
-            // Remove the answer from the set, so we can determine leftover answers for "allow other".
-            selectedSet.remove(oneAnswer);
-        }
-
-        if (!selectedSet.isEmpty()) {
-            String otherChoice;
-            if (selectedSet.size() == 1) {
-                otherChoice = Iterables.getOnlyElement(selectedSet);
-            } else {
-                otherChoice = BridgeExporterUtil.COMMA_SPACE_JOINER.join(selectedSet);
-                LOG.error("Multiple other choices " + otherChoice + " for field " + fieldName + " record " + recordId);
-            }
-
-            if (Boolean.TRUE.equals(fieldDef.getAllowOtherChoices())) {
-                partialValueMap.put(fieldName + OTHER_CHOICE_FIELD_SUFFIX, otherChoice);
-            } else {
-                LOG.error("Unknown choice(s) " + otherChoice + " for field " + fieldName + " record " + recordId);
-            }
-        }
-
-        return partialValueMap;
-    }
-
-    /**
-     * <p>
-     * Serialize a timestamp to a row value map that can be written to a TSV and uploaded to Synapse. The map is a
-     * partial map. The keys are the column names and the values are the row values.
-     * </p>
-     * <p>
-     * Package-scoped to facilitate unit testing.
-     * </p>
-     *
-     * @param recordId
-     *         record ID that corresponds to the row data, used for logging
-     * @param fieldName
-     *         name of timestamp field
-     * @param node
-     *         value of timestamp field
-     * @return partial row value map with serialized timestamp
-     */
-    static Map<String, String> serializeTimestamp(String recordId, String fieldName, JsonNode node) {
-        if (node != null && !node.isNull()) {
-            if (node.isTextual()) {
-                // Timestamp in ISO format. Parse using Joda.
-                String timestampString = node.textValue();
-                try {
-                    DateTime dateTime = DateTime.parse(timestampString);
-                    String epochMillisString = String.valueOf(dateTime.getMillis());
-                    String timeZoneString = TIME_ZONE_FORMATTER.print(dateTime);
-                    return ImmutableMap.<String, String>builder().put(fieldName, epochMillisString)
-                            .put(fieldName + TIME_ZONE_FIELD_SUFFIX, timeZoneString).build();
-                } catch (IllegalArgumentException ex) {
-                    // log an error, but throw out malformatted dates
-                    LOG.error("Invalid timestamp " + timestampString + " for record ID " + recordId);
-                }
-            } else if (node.isNumber()) {
-                // Timestamp is epoch milliseconds. Push this straight across as the timestamp. The timezone is UTC
-                // ("+0000").
-                String epochMillisString = String.valueOf(node.longValue());
-                return ImmutableMap.<String, String>builder().put(fieldName, epochMillisString)
-                        .put(fieldName + TIME_ZONE_FIELD_SUFFIX, TIME_ZONE_UTC_STRING).build();
-            }
-        }
-
-        return ImmutableMap.of();
-    }
 }
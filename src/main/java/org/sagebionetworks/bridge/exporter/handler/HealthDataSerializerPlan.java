@@ -0,0 +1,562 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
+import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
+import org.sagebionetworks.bridge.exporter.worker.TsvRowLayout;
+import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
+import org.sagebionetworks.bridge.rest.model.UploadFieldType;
+import org.sagebionetworks.bridge.schema.UploadSchemaKey;
+
+/**
+ * <p>
+ * Serialization plan for a health data table, compiled once from the study upload metadata field definitions, the
+ * schema field definitions, and the TSV row layout. Each field is compiled into a specialized field serializer, with
+ * row slots, max lengths, multi-choice answer indexes, and the freeform-text-to-attachment flag resolved up front.
+ * Serializing a record is then just a loop over the serializers.
+ * </p>
+ * <p>
+ * Plans are immutable and thread-safe. HealthDataExportHandler caches the most recent plan and only re-compiles if the
+ * row layout (new task) or the field definitions (schema or study changed) change.
+ * </p>
+ */
+class HealthDataSerializerPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthDataSerializerPlan.class);
+
+    // Package-scoped, so HealthDataExportHandler can use the same constants for column names.
+    static final String METADATA_FIELD_NAME_PREFIX = "metadata.";
+    static final char MULTI_CHOICE_FIELD_SEPARATOR = '.';
+    static final String OTHER_CHOICE_FIELD_SUFFIX = ".other";
+    static final String TIME_ZONE_FIELD_SUFFIX = ".timezone";
+
+    private static final DateTimeFormatter TIME_ZONE_FORMATTER = DateTimeFormat.forPattern("Z");
+    private static final String TIME_ZONE_UTC_STRING = "+0000";
+
+    private final TsvRowLayout rowLayout;
+    private final List<UploadFieldDefinition> metadataFieldDefList;
+    private final List<UploadFieldDefinition> schemaFieldDefList;
+    private final FieldSerializer[] metadataSerializers;
+    private final FieldSerializer[] schemaSerializers;
+    private final Set<String> metadataFieldNameSet;
+    private final Set<String> schemaFieldNameSet;
+
+    /**
+     * Compiles a serialization plan.
+     *
+     * @param schemaKey
+     *         schema of the health data table, used to determine freeform text fields that need to be converted to
+     *         attachments
+     * @param rowLayout
+     *         layout of the TSV rows this plan writes to
+     * @param metadataFieldDefList
+     *         study upload metadata field definitions, may be null or empty
+     * @param schemaFieldDefList
+     *         schema field definitions
+     * @return compiled plan
+     */
+    static HealthDataSerializerPlan compile(UploadSchemaKey schemaKey, TsvRowLayout rowLayout,
+            List<UploadFieldDefinition> metadataFieldDefList, List<UploadFieldDefinition> schemaFieldDefList) {
+        return new HealthDataSerializerPlan(schemaKey, rowLayout, metadataFieldDefList, schemaFieldDefList);
+    }
+
+    private HealthDataSerializerPlan(UploadSchemaKey schemaKey, TsvRowLayout rowLayout,
+            List<UploadFieldDefinition> metadataFieldDefList, List<UploadFieldDefinition> schemaFieldDefList) {
+        this.rowLayout = rowLayout;
+        this.metadataFieldDefList = metadataFieldDefList;
+        this.schemaFieldDefList = schemaFieldDefList;
+        this.metadataSerializers = compileFieldList(schemaKey, rowLayout, metadataFieldDefList,
+                METADATA_FIELD_NAME_PREFIX);
+        this.schemaSerializers = compileFieldList(schemaKey, rowLayout, schemaFieldDefList, "");
+        this.metadataFieldNameSet = getFieldNameSet(metadataSerializers);
+        this.schemaFieldNameSet = getFieldNameSet(schemaSerializers);
+    }
+
+    // Gets the names of the top-level JSON fields read by the given serializers.
+    private static Set<String> getFieldNameSet(FieldSerializer[] serializers) {
+        ImmutableSet.Builder<String> fieldNameSetBuilder = ImmutableSet.builder();
+        for (FieldSerializer oneSerializer : serializers) {
+            fieldNameSetBuilder.add(oneSerializer.fieldName);
+        }
+        return fieldNameSetBuilder.build();
+    }
+
+    // Compiles a serializer for each field def in the list.
+    private static FieldSerializer[] compileFieldList(UploadSchemaKey schemaKey, TsvRowLayout rowLayout,
+            List<UploadFieldDefinition> fieldDefList, String columnNamePrefix) {
+        if (fieldDefList == null) {
+            return new FieldSerializer[0];
+        }
+
+        FieldSerializer[] serializers = new FieldSerializer[fieldDefList.size()];
+        for (int i = 0; i < serializers.length; i++) {
+            serializers[i] = compileField(schemaKey, rowLayout, fieldDefList.get(i), columnNamePrefix);
+        }
+        return serializers;
+    }
+
+    // Compiles a single field def into a specialized serializer.
+    private static FieldSerializer compileField(UploadSchemaKey schemaKey, TsvRowLayout rowLayout,
+            UploadFieldDefinition fieldDef, String columnNamePrefix) {
+        String fieldName = fieldDef.getName();
+        String columnName = columnNamePrefix + fieldName;
+        int slot = rowLayout.getColumnIndex(columnName);
+
+        // special hack, see comments on shouldConvertFreeformTextToAttachment()
+        // For the purposes of this hack, the only fields in the field def that matter the field name and type
+        // (attachment).
+        if (BridgeExporterUtil.shouldConvertFreeformTextToAttachment(schemaKey, fieldName)) {
+            UploadFieldDefinition attachmentFieldDef = new UploadFieldDefinition().name(fieldName)
+                    .type(UploadFieldType.ATTACHMENT_V2);
+            return new FreeformTextAttachmentSerializer(fieldName, slot, attachmentFieldDef);
+        }
+
+        UploadFieldType fieldType = fieldDef.getType();
+        switch (fieldType) {
+            case MULTI_CHOICE:
+                return new MultiChoiceSerializer(fieldName, columnName, rowLayout, fieldDef);
+            case TIMESTAMP:
+                return new TimestampSerializer(fieldName, slot,
+                        rowLayout.getColumnIndex(columnName + TIME_ZONE_FIELD_SUFFIX));
+            case ATTACHMENT_BLOB:
+            case ATTACHMENT_CSV:
+            case ATTACHMENT_JSON_BLOB:
+            case ATTACHMENT_JSON_TABLE:
+            case ATTACHMENT_V2:
+                return new AttachmentSerializer(fieldName, slot, fieldDef);
+            case BOOLEAN:
+                return new BooleanSerializer(fieldName, slot);
+            case CALENDAR_DATE:
+            case DURATION_V2:
+            case INLINE_JSON_BLOB:
+            case SINGLE_CHOICE:
+            case STRING:
+            case TIME_V2: {
+                Integer maxLength = null;
+                if (!Boolean.TRUE.equals(fieldDef.getUnboundedText())) {
+                    maxLength = SynapseHelper.getMaxLengthForFieldDef(fieldDef);
+                }
+                return new StringSerializer(fieldName, slot, maxLength);
+            }
+            case FLOAT:
+                return new FloatSerializer(fieldName, slot);
+            case INT:
+                return new IntSerializer(fieldName, slot);
+            case LARGE_TEXT_ATTACHMENT:
+                return new LargeTextAttachmentSerializer(fieldName, slot);
+            default:
+                // Fall back to the generic serializer, which also handles logging unexpected types.
+                return new GenericSerializer(fieldName, slot, fieldDef);
+        }
+    }
+
+    /**
+     * Returns true if this plan was compiled from the given row layout and field definitions. Field definition lists
+     * are checked by reference first, since BridgeHelper generally returns the same cached lists.
+     */
+    boolean isCompiledFrom(TsvRowLayout rowLayout, List<UploadFieldDefinition> metadataFieldDefList,
+            List<UploadFieldDefinition> schemaFieldDefList) {
+        return this.rowLayout == rowLayout && sameFieldDefList(this.metadataFieldDefList, metadataFieldDefList)
+                && sameFieldDefList(this.schemaFieldDefList, schemaFieldDefList);
+    }
+
+    // Helper method to check field def lists, by reference first, then by value.
+    private static boolean sameFieldDefList(List<UploadFieldDefinition> a, List<UploadFieldDefinition> b) {
+        return a == b || Objects.equals(a, b);
+    }
+
+    /**
+     * Names of the top-level user metadata fields this plan reads. Callers can use this to extract only these fields
+     * from the user metadata JSON.
+     */
+    Set<String> getMetadataFieldNameSet() {
+        return metadataFieldNameSet;
+    }
+
+    /**
+     * Names of the top-level record data fields this plan reads. Callers can use this to extract only these fields
+     * from the record data JSON.
+     */
+    Set<String> getSchemaFieldNameSet() {
+        return schemaFieldNameSet;
+    }
+
+    /**
+     * Serializes the record's user metadata into the row. Metadata columns are prefixed with "metadata.".
+     *
+     * @param context
+     *         record being serialized
+     * @param metadataNode
+     *         record user metadata
+     * @param row
+     *         row to write to
+     */
+    void serializeMetadata(RecordContext context, JsonNode metadataNode, TsvRow row) throws IOException,
+            SynapseException {
+        serializeFields(metadataSerializers, context, metadataNode, row);
+    }
+
+    /**
+     * Serializes the record data into the row. This should be called after {@link #serializeMetadata}, so that schema
+     * fields overwrite metadata if there's a name conflict.
+     *
+     * @param context
+     *         record being serialized
+     * @param dataNode
+     *         record data
+     * @param row
+     *         row to write to
+     */
+    void serializeSchemaFields(RecordContext context, JsonNode dataNode, TsvRow row) throws IOException,
+            SynapseException {
+        serializeFields(schemaSerializers, context, dataNode, row);
+    }
+
+    private static void serializeFields(FieldSerializer[] serializers, RecordContext context, JsonNode jsonNode,
+            TsvRow row) throws IOException, SynapseException {
+        for (FieldSerializer oneSerializer : serializers) {
+            oneSerializer.serialize(context, jsonNode.get(oneSerializer.fieldName), row);
+        }
+    }
+
+    /** Per-record state needed by field serializers. */
+    static class RecordContext {
+        private final ExportWorkerManager manager;
+        private final Metrics metrics;
+        private final File tmpDir;
+        private final String synapseProjectId;
+        private final String recordId;
+
+        RecordContext(ExportWorkerManager manager, Metrics metrics, File tmpDir, String synapseProjectId,
+                String recordId) {
+            this.manager = manager;
+            this.metrics = metrics;
+            this.tmpDir = tmpDir;
+            this.synapseProjectId = synapseProjectId;
+            this.recordId = recordId;
+        }
+    }
+
+    // Base class for compiled field serializers. Serializers for columns that aren't in the row layout do nothing, since
+    // the value would be dropped anyway.
+    private static abstract class FieldSerializer {
+        final String fieldName;
+
+        FieldSerializer(String fieldName) {
+            this.fieldName = fieldName;
+        }
+
+        abstract void serialize(RecordContext context, JsonNode node, TsvRow row) throws IOException,
+                SynapseException;
+    }
+
+    // Base class for fields that serialize into a single column. Missing values are written as null, so that schema
+    // fields overwrite metadata fields with the same name.
+    private static abstract class SingleColumnSerializer extends FieldSerializer {
+        private final int slot;
+
+        SingleColumnSerializer(String fieldName, int slot) {
+            super(fieldName);
+            this.slot = slot;
+        }
+
+        @Override
+        final void serialize(RecordContext context, JsonNode node, TsvRow row) throws IOException, SynapseException {
+            if (slot < 0) {
+                return;
+            }
+
+            String value = null;
+            if (node != null && !node.isNull()) {
+                value = serializeValue(context, node);
+            }
+            row.set(slot, value);
+        }
+
+        // Serializes a non-null value. Returns null if the value is invalid.
+        abstract String serializeValue(RecordContext context, JsonNode node) throws IOException, SynapseException;
+    }
+
+    private static class BooleanSerializer extends SingleColumnSerializer {
+        BooleanSerializer(String fieldName, int slot) {
+            super(fieldName, slot);
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) {
+            return node.isBoolean() ? String.valueOf(node.booleanValue()) : null;
+        }
+    }
+
+    private static class FloatSerializer extends SingleColumnSerializer {
+        FloatSerializer(String fieldName, int slot) {
+            super(fieldName, slot);
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) {
+            return node.isNumber() ? String.valueOf(node.decimalValue()) : null;
+        }
+    }
+
+    private static class IntSerializer extends SingleColumnSerializer {
+        IntSerializer(String fieldName, int slot) {
+            super(fieldName, slot);
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) {
+            return node.isNumber() ? String.valueOf(node.bigIntegerValue()) : null;
+        }
+    }
+
+    // String-like types. Some (notably INLINE_JSON_BLOB) use the whole JSON value.
+    private static class StringSerializer extends SingleColumnSerializer {
+        private final Integer maxLength;
+
+        StringSerializer(String fieldName, int slot, Integer maxLength) {
+            super(fieldName, slot);
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) {
+            String nodeValue = node.isTextual() ? node.textValue() : node.toString();
+            return BridgeExporterUtil.sanitizeString(nodeValue, fieldName, maxLength, context.recordId);
+        }
+    }
+
+    // File handles are text nodes, where the text is the attachment ID (which is the S3 Key). Attachments are
+    // uploaded by the AttachmentTransferEngine, and the file handle ID is set as a pending value, which is filled in
+    // before the row is written.
+    private static class AttachmentSerializer extends FieldSerializer {
+        private final int slot;
+        private final UploadFieldDefinition fieldDef;
+
+        AttachmentSerializer(String fieldName, int slot, UploadFieldDefinition fieldDef) {
+            super(fieldName);
+            this.slot = slot;
+            this.fieldDef = fieldDef;
+        }
+
+        @Override
+        final void serialize(RecordContext context, JsonNode node, TsvRow row) throws IOException {
+            if (slot < 0) {
+                return;
+            }
+
+            if (node == null || !node.isTextual()) {
+                row.set(slot, null);
+                return;
+            }
+
+            // We want to count the number of attachments we upload to Synapse, since this is the biggest source of
+            // Synapse traffic from us.
+            String attachmentId = getAttachmentId(context, node);
+            context.metrics.incrementCounter("numAttachments");
+            row.setPending(slot, context.manager.getAttachmentTransferEngine().uploadFromS3ToSynapseFileHandleAsync(
+                    context.tmpDir, context.synapseProjectId, fieldDef, attachmentId));
+        }
+
+        // Gets the attachment ID from a text node.
+        String getAttachmentId(RecordContext context, JsonNode node) throws IOException {
+            return node.textValue();
+        }
+    }
+
+    // Freeform text that's uploaded as an attachment. See BridgeExporterUtil.shouldConvertFreeformTextToAttachment().
+    private static class FreeformTextAttachmentSerializer extends AttachmentSerializer {
+        FreeformTextAttachmentSerializer(String fieldName, int slot, UploadFieldDefinition attachmentFieldDef) {
+            super(fieldName, slot, attachmentFieldDef);
+        }
+
+        @Override
+        String getAttachmentId(RecordContext context, JsonNode node) throws IOException {
+            return context.manager.getExportHelper().uploadFreeformTextAsAttachment(context.recordId,
+                    node.textValue());
+        }
+    }
+
+    // Large text is stored in Bridge as an attachment, but inlined in the Synapse table.
+    private static class LargeTextAttachmentSerializer extends SingleColumnSerializer {
+        LargeTextAttachmentSerializer(String fieldName, int slot) {
+            super(fieldName, slot);
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) throws IOException {
+            if (!node.isTextual()) {
+                return null;
+            }
+
+            String value = context.manager.getSynapseHelper().downloadLargeTextAttachment(node.textValue());
+            return BridgeExporterUtil.sanitizeString(value, fieldName, null, context.recordId);
+        }
+    }
+
+    // Falls back to SynapseHelper.serializeToSynapseType() for types that don't have a specialized serializer.
+    private static class GenericSerializer extends SingleColumnSerializer {
+        private final UploadFieldDefinition fieldDef;
+
+        GenericSerializer(String fieldName, int slot, UploadFieldDefinition fieldDef) {
+            super(fieldName, slot);
+            this.fieldDef = fieldDef;
+        }
+
+        @Override
+        String serializeValue(RecordContext context, JsonNode node) throws IOException, SynapseException {
+            return context.manager.getSynapseHelper().serializeToSynapseType(context.metrics, context.tmpDir,
+                    context.synapseProjectId, context.recordId, fieldDef, node);
+        }
+    }
+
+    // Timestamps serialize into 2 columns, the timestamp in epoch milliseconds and the timezone. Missing or invalid
+    // timestamps don't write any values.
+    private static class TimestampSerializer extends FieldSerializer {
+        private final int slot;
+        private final int timeZoneSlot;
+
+        TimestampSerializer(String fieldName, int slot, int timeZoneSlot) {
+            super(fieldName);
+            this.slot = slot;
+            this.timeZoneSlot = timeZoneSlot;
+        }
+
+        @Override
+        void serialize(RecordContext context, JsonNode node, TsvRow row) {
+            if (node == null || node.isNull()) {
+                return;
+            }
+
+            if (node.isTextual()) {
+                // Timestamp in ISO format. Parse using Joda.
+                String timestampString = node.textValue();
+                try {
+                    DateTime dateTime = DateTime.parse(timestampString);
+                    setIfPresent(row, slot, String.valueOf(dateTime.getMillis()));
+                    setIfPresent(row, timeZoneSlot, TIME_ZONE_FORMATTER.print(dateTime));
+                } catch (IllegalArgumentException ex) {
+                    // log an error, but throw out malformatted dates
+                    LOG.error("Invalid timestamp " + timestampString + " for record ID " + context.recordId);
+                }
+            } else if (node.isNumber()) {
+                // Timestamp is epoch milliseconds. Push this straight across as the timestamp. The timezone is UTC
+                // ("+0000").
+                setIfPresent(row, slot, String.valueOf(node.longValue()));
+                setIfPresent(row, timeZoneSlot, TIME_ZONE_UTC_STRING);
+            }
+        }
+    }
+
+    // Multi-choice fields serialize into a boolean column for each possible answer, plus an "other" column if the field
+    // allows other choices. Missing or invalid answers don't write any values.
+    private static class MultiChoiceSerializer extends FieldSerializer {
+        private final String columnName;
+        private final Map<String, Integer> answerSlotByAnswer;
+        private final int[] answerSlots;
+        private final boolean allowOtherChoices;
+        private final int otherSlot;
+
+        MultiChoiceSerializer(String fieldName, String columnName, TsvRowLayout rowLayout,
+                UploadFieldDefinition fieldDef) {
+            super(fieldName);
+            this.columnName = columnName;
+
+            List<String> answerList = fieldDef.getMultiChoiceAnswerList();
+            this.answerSlots = new int[answerList.size()];
+            this.answerSlotByAnswer = new HashMap<>();
+            for (int i = 0; i < answerSlots.length; i++) {
+                String oneAnswer = answerList.get(i);
+                answerSlots[i] = rowLayout.getColumnIndex(columnName + MULTI_CHOICE_FIELD_SEPARATOR + oneAnswer);
+                answerSlotByAnswer.put(oneAnswer, answerSlots[i]);
+            }
+
+            this.allowOtherChoices = Boolean.TRUE.equals(fieldDef.getAllowOtherChoices());
+            this.otherSlot = rowLayout.getColumnIndex(columnName + OTHER_CHOICE_FIELD_SUFFIX);
+        }
+
+        @Override
+        void serialize(RecordContext context, JsonNode node, TsvRow row) {
+            if (node == null || node.isNull() || !node.isArray()) {
+                // Missing or invalid format. Don't write any values.
+                return;
+            }
+
+            // Every answer defaults to false.
+            for (int oneSlot : answerSlots) {
+                setIfPresent(row, oneSlot, "false");
+            }
+
+            // Mark selected answers as true, and collect answers that aren't in the answer list. Use TreeSet to keep
+            // other answers in a predictable (alphabetical) order.
+            Set<String> otherSet = null;
+            int numSelected = node.size();
+            for (int i = 0; i < numSelected; i++) {
+                JsonNode oneSelectedNode = node.get(i);
+                String oneSelectedAnswer;
+                if (oneSelectedNode.isTextual()) {
+                    // Multi-Choice answers _should_ be strings.
+                    oneSelectedAnswer = oneSelectedNode.textValue();
+                } else {
+                    // Convert everything else trivially to a string, for robustness.
+                    oneSelectedAnswer = oneSelectedNode.toString();
+                }
+
+                Integer answerSlot = answerSlotByAnswer.get(oneSelectedAnswer);
+                if (answerSlot != null) {
+                    setIfPresent(row, answerSlot, "true");
+                } else {
+                    if (otherSet == null) {
+                        otherSet = new TreeSet<>();
+                    }
+                    otherSet.add(oneSelectedAnswer);
+                }
+            }
+
+            if (otherSet != null) {
+                String otherChoice;
+                if (otherSet.size() == 1) {
+                    otherChoice = Iterables.getOnlyElement(otherSet);
+                } else {
+                    otherChoice = BridgeExporterUtil.COMMA_SPACE_JOINER.join(otherSet);
+                    LOG.error("Multiple other choices " + otherChoice + " for field " + columnName + " record " +
+                            context.recordId);
+                }
+
+                if (allowOtherChoices) {
+                    setIfPresent(row, otherSlot, otherChoice);
+                } else {
+                    LOG.error("Unknown choice(s) " + otherChoice + " for field " + columnName + " record " +
+                            context.recordId);
+                }
+            }
+        }
+    }
+
+    // Helper method to set a value, if the column is in the row layout.
+    private static void setIfPresent(TsvRow row, int slot, String value) {
+        if (slot >= 0) {
+            row.set(slot, value);
+        }
+    }
+}
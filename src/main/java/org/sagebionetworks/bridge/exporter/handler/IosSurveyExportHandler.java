@@ -70,7 +70,7 @@ public class IosSurveyExportHandler extends ExportHandler {
                 .withSchemaId(schemaId).withRevision(schemaRev).build();
 
         // get schema and field type map, so we can process attachments
-        UploadSchema surveySchema = manager.getBridgeHelper().getSchema(parentTask.getMetrics(), surveySchemaKey);
+        UploadSchema surveySchema = manager.getSchema(parentTask, surveySchemaKey);
 
         // convert to health data node
         JsonNode convertedSurveyNode = manager.getExportHelper().convertSurveyRecordToHealthDataJsonNode(recordId,
@@ -1,26 +1,34 @@
 package org.sagebionetworks.bridge.exporter.handler;
 
 import java.io.IOException;
+import java.util.Set;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.JsonFieldExtractor;
 
 /** Encapsulates getting appVersion and phoneInfo from record metadata. */
 public class PhoneAppVersionInfo {
     private static final Logger LOG = LoggerFactory.getLogger(PhoneAppVersionInfo.class);
 
+    private static final String KEY_APP_VERSION = "appVersion";
+    private static final String KEY_PHONE_INFO = "phoneInfo";
+    private static final Set<String> METADATA_FIELD_NAME_SET = ImmutableSet.of(KEY_APP_VERSION, KEY_PHONE_INFO);
+
     private final String appVersion;
     private final String phoneInfo;
 
     /**
      * Creates a PhoneAppVersionInfo from the metadata of a health data record. Returns a Info with null fields if the
-     * metadata can't be parsed.
+     * metadata can't be parsed. Only the appVersion and phoneInfo fields are extracted from the metadata.
+     * Handlers should generally use ExportSubtask.getPhoneAppVersionInfo() instead, which parses the metadata once
+     * per record.
      */
     public static PhoneAppVersionInfo fromRecord(Item record) {
         String recordId = record.getString("id");
@@ -30,9 +38,9 @@ public class PhoneAppVersionInfo {
         String metadataString = record.getString("metadata");
         if (StringUtils.isNotBlank(metadataString)) {
             try {
-                JsonNode metadataJson = DefaultObjectMapper.INSTANCE.readTree(metadataString);
-                appVersion = BridgeExporterUtil.sanitizeJsonValue(metadataJson, "appVersion", 48, recordId);
-                phoneInfo = BridgeExporterUtil.sanitizeJsonValue(metadataJson, "phoneInfo", 48, recordId);
+                JsonNode metadataJson = JsonFieldExtractor.extractFields(metadataString, METADATA_FIELD_NAME_SET);
+                appVersion = BridgeExporterUtil.sanitizeJsonValue(metadataJson, KEY_APP_VERSION, 48, recordId);
+                phoneInfo = BridgeExporterUtil.sanitizeJsonValue(metadataJson, KEY_PHONE_INFO, 48, recordId);
             } catch (IOException ex) {
                 // We don't want callers to have to deal with boilerplate error handling code, so we log the error and
                 // return null fields.
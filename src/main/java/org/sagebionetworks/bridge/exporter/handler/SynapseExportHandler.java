@@ -5,12 +5,16 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.collect.ImmutableList;
@@ -18,6 +22,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
 import org.sagebionetworks.repo.model.table.ColumnChange;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
@@ -27,6 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
@@ -36,6 +42,7 @@ import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
 import org.sagebionetworks.bridge.file.FileHelper;
 
 /**
@@ -87,38 +94,195 @@ public abstract class SynapseExportHandler extends ExportHandler {
 
     /**
      * Given the record (contained in the subtask), serialize the results and write to a TSV. If a TSV hasn't been
-     * created for this handler for the parent task, this will also initialize that TSV.
+     * created for this handler for the parent task, this will also initialize that TSV. This waits for the row's
+     * attachments to upload. See {@link #handleAsync}.
      */
     @Override
     public void handle(ExportSubtask subtask) throws BridgeExporterException, IOException, SchemaNotFoundException,
             SynapseException {
+        try {
+            handleAsync(subtask).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof BridgeExporterException) {
+                throw (BridgeExporterException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SchemaNotFoundException) {
+                throw (SchemaNotFoundException) cause;
+            } else if (cause instanceof SynapseException) {
+                throw (SynapseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new BridgeExporterException(cause);
+            }
+        }
+    }
+
+    /**
+     * Given the record (contained in the subtask), serialize the results and write to a TSV. If a TSV hasn't been
+     * created for this handler for the parent task, this will also initialize that TSV. If the row has attachments
+     * that are still uploading, the row is written when they finish, and the returned future completes after the row
+     * is written.
+     */
+    @Override
+    public CompletableFuture<Void> handleAsync(ExportSubtask subtask) throws BridgeExporterException, IOException,
+            SchemaNotFoundException, SynapseException {
         String tableKey = getDdbTableKeyValue();
         ExportTask task = subtask.getParentTask();
         Metrics metrics = task.getMetrics();
         String recordId = subtask.getRecordId();
 
+        TsvInfo tsvInfo;
+        TsvRow row;
         try {
             // get TSV info (init if necessary)
-            TsvInfo tsvInfo = initTsvForTask(task);
+            tsvInfo = initTsvForTask(task);
             tsvInfo.checkInitAndThrow();
 
-            // Construct row value map. Merge row values from common columns and getTsvRowValueMap()
-            Map<String, String> rowValueMap = new HashMap<>();
-            rowValueMap.putAll(getCommonRowValueMap(subtask));
-            rowValueMap.putAll(getTsvRowValueMap(subtask));
+            // Fill in this thread's reusable row. Common columns are written first, then writeTsvRowValues(), which
+            // overwrites common columns if there's a name conflict.
+            row = tsvInfo.getReusableRow();
+            writeCommonRowValues(subtask, row);
+            writeTsvRowValues(subtask, row);
 
-            // write to TSV
-            tsvInfo.writeRow(rowValueMap);
-            // add one record into tsv
-            tsvInfo.addRecordId(recordId);
-            metrics.incrementCounter(tableKey + ".lineCount");
+            if (!row.hasPendingValues()) {
+                writeRowForRecord(task, tsvInfo, row, metrics, tableKey, recordId);
+                return CompletableFuture.completedFuture(null);
+            }
         } catch (BridgeExporterException | IOException | RuntimeException | SchemaNotFoundException |
                 SynapseException ex) {
             // Log metrics and rethrow.
-            metrics.incrementCounter(tableKey + ".errorCount");
-            LOG.error("Error processing record " + recordId + " for table " + tableKey + ": " + ex.getMessage(), ex);
+            logRowError(metrics, tableKey, recordId, ex);
             throw ex;
         }
+
+        // Attachments are still uploading. Copy the row, since the reusable row will be reused by this thread's next
+        // subtask, and write the copy when the attachments are done.
+        TsvRow pendingRow = row.copy();
+        CompletableFuture<Void> rowFuture = new CompletableFuture<>();
+        pendingRow.resolvePendingValues().whenComplete((result, resolveEx) -> {
+            Throwable error = resolveEx instanceof CompletionException ? resolveEx.getCause() : resolveEx;
+            if (error == null) {
+                try {
+                    writeRowForRecord(task, tsvInfo, pendingRow, metrics, tableKey, recordId);
+                } catch (BridgeExporterException | RuntimeException ex) {
+                    error = ex;
+                }
+            }
+
+            if (error == null) {
+                rowFuture.complete(null);
+            } else {
+                logRowError(metrics, tableKey, recordId, error);
+                rowFuture.completeExceptionally(error);
+            }
+        });
+        return rowFuture;
+    }
+
+    // Helper method to write the row to the TSV and record that it was written. If the TSV segment is full, this
+    // starts a new segment and uploads the full one in the background.
+    private void writeRowForRecord(ExportTask task, TsvInfo tsvInfo, TsvRow row, Metrics metrics, String tableKey,
+            String recordId) throws BridgeExporterException {
+        // write to TSV, along with the record ID
+        TsvInfo segment = tsvInfo;
+        while (!segment.writeRowIfOpen(row, recordId)) {
+            // The segment was closed after we got it. Write to the current segment instead. All segments share the
+            // same row layout.
+            segment = getTsvInfoForTask(task);
+        }
+        metrics.incrementCounter(tableKey + ".lineCount");
+
+        if (isSegmentFull(segment)) {
+            rollTsvSegment(task, segment);
+        }
+    }
+
+    // Helper method to check if the TSV segment has hit either of the configured limits.
+    private boolean isSegmentFull(TsvInfo segment) {
+        ExportWorkerManager manager = getManager();
+        int maxRows = manager.getTsvSegmentMaxRows();
+        int maxBytes = manager.getTsvSegmentMaxBytes();
+        return (maxRows > 0 && segment.getLineCount() >= maxRows) ||
+                (maxBytes > 0 && segment.getCharCount() >= maxBytes);
+    }
+
+    // Replaces the given full segment with a new segment, then uploads the full segment in the background. Rows that
+    // are still being written to the full segment finish before it's closed. Later rows go to the new segment.
+    private void rollTsvSegment(ExportTask task, TsvInfo fullSegment) {
+        String tableKey = getDdbTableKeyValue();
+        synchronized (this) {
+            if (getTsvInfoForTask(task) != fullSegment) {
+                // Another thread already started a new segment.
+                return;
+            }
+
+            TsvInfo nextSegment;
+            try {
+                FileHelper fileHelper = getManager().getFileHelper();
+                File tsvFile = fileHelper.newFile(task.getTmpDir(), tableKey + "." +
+                        (fullSegment.getSegmentNum() + 1) + ".tsv");
+                PrintWriter tsvWriter = new PrintWriter(fileHelper.getWriter(tsvFile));
+                nextSegment = new TsvInfo(fullSegment, tsvFile, tsvWriter);
+            } catch (FileNotFoundException ex) {
+                // Keep writing to the full segment. It'll be uploaded at the end of the stream.
+                LOG.error("Error creating new TSV segment for table " + tableKey + ": " + ex.getMessage(), ex);
+                return;
+            }
+            setTsvInfoForTask(task, nextSegment);
+        }
+
+        LOG.info("Starting background upload of TSV segment " + fullSegment.getSegmentNum() + " for table " +
+                tableKey);
+        Future<?> uploadFuture;
+        try {
+            uploadFuture = getManager().getSynapseUploadExecutor().submit(() -> {
+                uploadTsvSegment(task, fullSegment);
+                return null;
+            });
+        } catch (RejectedExecutionException ex) {
+            // Executor is shutting down. Record the failure, so it fails the table at the end of the stream.
+            CompletableFuture<Void> failedFuture = new CompletableFuture<>();
+            failedFuture.completeExceptionally(ex);
+            uploadFuture = failedFuture;
+        }
+        task.addTsvSegmentUploadFuture(tableKey, fullSegment, uploadFuture);
+    }
+
+    // Helper method to log metrics for a record that failed to export.
+    private static void logRowError(Metrics metrics, String tableKey, String recordId, Throwable t) {
+        metrics.incrementCounter(tableKey + ".errorCount");
+        LOG.error("Error processing record " + recordId + " for table " + tableKey + ": " + t.getMessage(), t);
+    }
+
+    /**
+     * Initializes the TSV for the task ahead of time, creating or updating the Synapse table if needed. This is called
+     * before the record loop starts, so that export workers don't wait on Synapse when they get the first record for
+     * this table. If initialization fails, the failure is not saved, and the TSV is initialized again when the first
+     * record arrives.
+     *
+     * @param task
+     *         export task to initialize the TSV for
+     * @return true if the TSV is ready, false if initialization failed
+     */
+    public synchronized boolean prewarmForTask(ExportTask task) {
+        if (getTsvInfoForTask(task) != null) {
+            // Already initialized.
+            return true;
+        }
+
+        TsvInfo tsvInfo = createTsvForTask(task);
+        try {
+            tsvInfo.checkInitAndThrow();
+        } catch (BridgeExporterException ex) {
+            return false;
+        }
+        setTsvInfoForTask(task, tsvInfo);
+        return true;
     }
 
     // Gets the TSV for the task, initializing it if it hasn't been created yet. Also initializes the Synapse table if
@@ -131,6 +295,14 @@ public abstract class SynapseExportHandler extends ExportHandler {
             return savedTsvInfo;
         }
 
+        TsvInfo tsvInfo = createTsvForTask(task);
+        setTsvInfoForTask(task, tsvInfo);
+        return tsvInfo;
+    }
+
+    // Creates the TSV for the task, and creates or updates the Synapse table. If this fails, this returns a TsvInfo
+    // that wraps the error.
+    private TsvInfo createTsvForTask(ExportTask task) {
         TsvInfo tsvInfo;
         try {
             // get column name list
@@ -147,8 +319,6 @@ public abstract class SynapseExportHandler extends ExportHandler {
             LOG.error("Error initializing TSV for table " + getDdbTableKeyValue() + ": " + ex.getMessage(), ex);
             tsvInfo = new TsvInfo(ex);
         }
-
-        setTsvInfoForTask(task, tsvInfo);
         return tsvInfo;
     }
 
@@ -183,7 +353,7 @@ public abstract class SynapseExportHandler extends ExportHandler {
         if (synapseTableId == null || !isExisted) {
             createNewTable(task, columnDefList);
         } else {
-            updateTableIfNeeded(synapseTableId, columnDefList);
+            updateTableIfColumnsChanged(task, synapseTableId, columnDefList);
         }
 
         // Extract column names from column models
@@ -213,6 +383,45 @@ public abstract class SynapseExportHandler extends ExportHandler {
                 synapseTableId);
     }
 
+    // Helper method which compares the column list to the fingerprint of the columns last applied to the table. If they
+    // match, the table doesn't need to be updated, and we skip getting the columns from Synapse (which is heavily rate
+    // limited). Otherwise, this falls back to updateTableIfNeeded() and saves the new fingerprint. If the update
+    // fails, the fingerprint is cleared, since we no longer know what columns the table has.
+    private void updateTableIfColumnsChanged(ExportTask task, String synapseTableId, List<ColumnModel> columnDefList)
+            throws BridgeExporterException, SynapseException {
+        ExportWorkerManager manager = getManager();
+        String fingerprint = SynapseHelper.computeColumnFingerprint(columnDefList);
+        String savedFingerprint = manager.getColumnFingerprint(task, getDdbTableName(), getDdbTableKeyName(),
+                getDdbTableKeyValue(), synapseTableId);
+        if (fingerprint.equals(savedFingerprint)) {
+            task.getMetrics().incrementCounter("columnFingerprintMatched");
+            return;
+        }
+
+        try {
+            updateTableIfNeeded(synapseTableId, columnDefList);
+        } catch (BridgeExporterException | RuntimeException | SynapseException ex) {
+            if (savedFingerprint != null) {
+                clearColumnFingerprint(task, synapseTableId);
+            }
+            throw ex;
+        }
+        manager.setColumnFingerprint(task, getDdbTableName(), getDdbTableKeyName(), getDdbTableKeyValue(),
+                synapseTableId, fingerprint);
+    }
+
+    // Helper method which clears the column fingerprint, so the next export checks the table's columns in Synapse.
+    // Errors are logged and otherwise ignored, so they don't hide the original error.
+    private void clearColumnFingerprint(ExportTask task, String synapseTableId) {
+        try {
+            getManager().invalidateColumnFingerprint(task, getDdbTableName(), getDdbTableKeyName(),
+                    getDdbTableKeyValue(), synapseTableId);
+        } catch (RuntimeException ex) {
+            LOG.error("Error clearing column fingerprint for table " + getDdbTableKeyValue() + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
     // Helper method to detect when a schema changes and updates the Synapse table accordingly. Will reject schema
     // changes that delete or modify columns. Optimized so if no columns were inserted, it won't modify the table.
     private void updateTableIfNeeded(String synapseTableId, List<ColumnModel> columnDefList)
@@ -275,7 +484,7 @@ public abstract class SynapseExportHandler extends ExportHandler {
         }
 
         // Make sure the columns have been created / get column IDs.
-        List<ColumnModel> createdColumnList = synapseHelper.createColumnModelsWithRetry(columnDefList);
+        List<ColumnModel> createdColumnList = synapseHelper.createColumnModelsWithCache(columnDefList);
 
         // Create list of column changes.
         List<ColumnChange> columnChangeList = new ArrayList<>();
@@ -307,41 +516,117 @@ public abstract class SynapseExportHandler extends ExportHandler {
         synapseHelper.updateTableColumns(schemaChangeRequest, synapseTableId);
     }
 
-    // Helper method to get row values that are common across all Synapse tables and handlers.
-    private Map<String, String> getCommonRowValueMap(ExportSubtask subtask) {
+    // Helper method to write row values that are common across all Synapse tables and handlers.
+    private void writeCommonRowValues(ExportSubtask subtask, TsvRow row) {
         ExportTask task = subtask.getParentTask();
         Item record = subtask.getOriginalRecord();
         String recordId = subtask.getRecordId();
 
         // get phone and app info
-        PhoneAppVersionInfo phoneAppVersionInfo = PhoneAppVersionInfo.fromRecord(record);
+        PhoneAppVersionInfo phoneAppVersionInfo = subtask.getPhoneAppVersionInfo();
         String appVersion = phoneAppVersionInfo.getAppVersion();
         String phoneInfo = phoneAppVersionInfo.getPhoneInfo();
 
-        // construct row
-        Map<String, String> rowValueMap = new HashMap<>();
-        rowValueMap.put("recordId", recordId);
-        rowValueMap.put("appVersion", appVersion);
-        rowValueMap.put("phoneInfo", phoneInfo);
-        rowValueMap.put("uploadDate", task.getExporterDate().toString());
+        // write row
+        row.set("recordId", recordId);
+        row.set("appVersion", appVersion);
+        row.set("phoneInfo", phoneInfo);
+        row.set("uploadDate", task.getExporterDate().toString());
 
-        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(rowValueMap,record, columnDefinition, recordId);
-
-        return rowValueMap;
+        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(row, record, columnDefinition, recordId);
     }
 
     /**
      * This is called at the end of the record stream for a given export task. This will then upload the TSV to
-     * Synapse.
+     * Synapse. If the TSV was split into segments, this waits for the full segments that are being uploaded in the
+     * background, then uploads the last segment. If any segment failed, the last segment isn't uploaded, and this
+     * throws that segment's exception. If other segments were already imported, the exception is wrapped in a
+     * {@link BridgeExporterPartialUploadException} with the record IDs that weren't imported, so the caller can
+     * redrive those records instead of the whole table.
      */
     public void uploadToSynapseForTask(ExportTask task) throws BridgeExporterException, IOException, SynapseException {
-        ExportWorkerManager manager = getManager();
         TsvInfo tsvInfo = getTsvInfoForTask(task);
         if (tsvInfo == null) {
             // No TSV. This means we never wrote any records. Skip.
             return;
         }
 
+        // Segments are submitted to the upload executor during the record stream, before any end of stream uploads,
+        // so they never wait behind this call for a thread. Wait for all of them, even if one fails, so we know
+        // which segments made it into Synapse.
+        String tableKey = getDdbTableKeyValue();
+        Throwable segmentEx = null;
+        boolean anySegmentImported = false;
+        List<String> failedRecordIdList = new ArrayList<>();
+        for (Map.Entry<TsvInfo, Future<?>> oneSegmentEntry : task.getTsvSegmentUploadFutures(tableKey).entrySet()) {
+            TsvInfo oneSegment = oneSegmentEntry.getKey();
+            Throwable oneSegmentEx = waitForSegmentUpload(oneSegmentEntry.getValue());
+            if (oneSegmentEx == null) {
+                anySegmentImported = true;
+            } else {
+                LOG.error("Error uploading TSV segment " + oneSegment.getSegmentNum() + " for table " + tableKey +
+                        ": " + oneSegmentEx.getMessage(), oneSegmentEx);
+                failedRecordIdList.addAll(oneSegment.getRecordIds());
+                if (segmentEx == null) {
+                    segmentEx = oneSegmentEx;
+                }
+            }
+        }
+
+        if (segmentEx == null) {
+            uploadTsvSegment(task, tsvInfo);
+        } else if (!anySegmentImported) {
+            // Nothing made it into Synapse, so the caller can safely redrive the whole table.
+            throwSegmentException(segmentEx);
+        } else {
+            // The last segment is never uploaded, so its records need to be redriven too.
+            failedRecordIdList.addAll(tsvInfo.getRecordIds());
+            throw new BridgeExporterPartialUploadException("Error uploading TSV segments for table " + tableKey +
+                    ", " + failedRecordIdList.size() + " records weren't imported: " + segmentEx.getMessage(),
+                    segmentEx, failedRecordIdList);
+        }
+    }
+
+    // Helper method to wait for a background segment upload. Returns the exception the upload threw, or null if it
+    // succeeded.
+    private static Throwable waitForSegmentUpload(Future<?> segmentFuture) {
+        try {
+            segmentFuture.get();
+            return null;
+        } catch (ExecutionException ex) {
+            // The real exception is in the inner exception.
+            return ex.getCause();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new BridgeExporterException("Interrupted waiting for TSV segment upload", ex);
+        }
+    }
+
+    // Helper method to rethrow a background segment upload's exception, so the caller handles it the same way as if
+    // the segment were uploaded at the end of the stream.
+    private static void throwSegmentException(Throwable t) throws BridgeExporterException, IOException,
+            SynapseException {
+        if (t instanceof BridgeExporterException) {
+            throw (BridgeExporterException) t;
+        } else if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof SynapseException) {
+            throw (SynapseException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new BridgeExporterException(t);
+        }
+    }
+
+    // Closes the TSV segment, uploads it to Synapse, verifies the line count, and updates the records' exporter status.
+    // This only throws if the TSV wasn't imported. Once the import commits, the rows are in Synapse, and redriving
+    // them would import them again, so anything that goes wrong after that is logged instead of thrown.
+    private void uploadTsvSegment(ExportTask task, TsvInfo tsvInfo) throws BridgeExporterException, IOException,
+            SynapseException {
+        ExportWorkerManager manager = getManager();
         File tsvFile = tsvInfo.getFile();
         tsvInfo.flushAndCloseWriter();
 
@@ -351,22 +636,64 @@ public abstract class SynapseExportHandler extends ExportHandler {
             String projectId = manager.getSynapseProjectIdForStudyAndTask(getStudyId(), task);
             String synapseTableId = manager.getSynapseTableIdFromDdb(task, getDdbTableName(), getDdbTableKeyName(),
                     getDdbTableKeyValue());
-            long linesProcessed = manager.getSynapseHelper().uploadTsvFileToTable(projectId, synapseTableId, tsvFile);
+            long linesProcessed;
+            try {
+                linesProcessed = manager.getSynapseHelper().uploadTsvFileToTable(projectId, synapseTableId, tsvFile);
+            } catch (SynapseServerException ex) {
+                // A client error generally means the TSV doesn't match the table's columns, so the fingerprint is
+                // stale. 429 just means we're being throttled.
+                int statusCode = ex.getStatusCode();
+                if (statusCode >= 400 && statusCode < 500 && statusCode != 429) {
+                    clearColumnFingerprint(task, synapseTableId);
+                }
+                throw ex;
+            }
             if (linesProcessed != lineCount) {
-                throw new BridgeExporterException("Wrong number of lines processed importing to table=" +
-                        synapseTableId + ", expected=" + lineCount + ", actual=" + linesProcessed);
+                LOG.error("Wrong number of lines processed importing to table=" + synapseTableId + ", expected=" +
+                        lineCount + ", actual=" + linesProcessed);
+                task.getMetrics().incrementCounter(getDdbTableKeyValue() + ".lineCountMismatch");
             }
 
+            // Record the export, so the table is pre-warmed on later runs.
+            setTableLastExportedOn(task);
+
             // call java sdk api to update records' exporter status
-            postProcessTsv(tsvInfo);
+            postProcessTsvWithRetry(tsvInfo, synapseTableId);
 
-            LOG.info("Done uploading to Synapse for table name=" + getDdbTableKeyValue() + ", id=" + synapseTableId);
+            LOG.info("Done uploading to Synapse for table name=" + getDdbTableKeyValue() + ", id=" + synapseTableId +
+                    ", segment=" + tsvInfo.getSegmentNum());
         }
 
         // We've successfully processed the file. We can delete the file now.
         manager.getFileHelper().deleteFile(tsvFile);
     }
 
+    // Helper method which records when a TSV was last imported into this handler's table. Errors are logged and
+    // otherwise ignored, since this only affects pre-warming.
+    private void setTableLastExportedOn(ExportTask task) {
+        try {
+            getManager().setTableLastExportedOn(task, getDdbTableName(), getDdbTableKeyName(), getDdbTableKeyValue());
+        } catch (RuntimeException ex) {
+            LOG.error("Error setting last export time for table " + getDdbTableKeyValue() + ": " + ex.getMessage(),
+                    ex);
+        }
+    }
+
+    // Helper method which post-processes a TSV that was imported into Synapse. Only the post-processing is retried.
+    // If it still fails, this logs the error, but doesn't throw, since the import already committed.
+    private void postProcessTsvWithRetry(TsvInfo tsvInfo, String synapseTableId) {
+        try {
+            getManager().getPostProcessTsvRetryPolicy().call(() -> {
+                postProcessTsv(tsvInfo);
+                return null;
+            });
+        } catch (BridgeExporterException | RuntimeException ex) {
+            LOG.error("Error post-processing TSV imported to table=" + synapseTableId + ", segment=" +
+                    tsvInfo.getSegmentNum() + ", records=" + BridgeExporterUtil.COMMA_SPACE_JOINER.join(
+                    tsvInfo.getRecordIds()) + ": " + ex.getMessage(), ex);
+        }
+    }
+
     /** Table name (excluding prefix) of the DDB table that holds Synapse table IDs. */
     protected abstract String getDdbTableName();
 
@@ -397,8 +724,11 @@ public abstract class SynapseExportHandler extends ExportHandler {
     /** Save the TSV into the task for this handler. */
     protected abstract void setTsvInfoForTask(ExportTask task, TsvInfo tsvInfo);
 
-    /** Creates a row values for a single row from the given export task. */
-    protected abstract Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws BridgeExporterException,
+    /**
+     * Writes the row values for a single row from the given export task into the given row. The row is laid out with
+     * the columns of this handler's TSV. Values for columns that aren't in the TSV are silently ignored.
+     */
+    protected abstract void writeTsvRowValues(ExportSubtask subtask, TsvRow row) throws BridgeExporterException,
             IOException, SchemaNotFoundException, SynapseException;
 
 
@@ -1,19 +1,26 @@
 package org.sagebionetworks.bridge.exporter.helper;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
-import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.RateLimiter;
-import com.jcabi.aspects.Cacheable;
+import com.google.common.base.Stopwatch;
+import org.joda.time.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.util.LookupCache;
+import org.sagebionetworks.bridge.exporter.util.LookupCacheManager;
 import org.sagebionetworks.bridge.rest.ClientManager;
 import org.sagebionetworks.bridge.rest.api.AuthenticationApi;
 import org.sagebionetworks.bridge.rest.api.ForWorkersApi;
@@ -32,14 +39,42 @@ import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 @Component
 public class BridgeHelper {
     private static final Logger LOG = LoggerFactory.getLogger(BridgeHelper.class);
-    private static final int MAX_BATCH_SIZE = 25;
+
+    // Config keys and cache names. Package-scoped to allow unit tests to mock.
+    static final String CACHE_NAME_SCHEMA = "schema";
+    static final String CACHE_NAME_STUDY = "study";
+    static final String CONFIG_KEY_SESSION_REFRESH_INTERVAL_MINUTES = "bridge.session.refresh.interval.minutes";
 
     private ClientManager bridgeClientManager;
     private SignIn bridgeCredentials;
 
-    // Rate limiter, used to limit the amount of traffic to Bridge, specifically for when we loop over a potentially
-    // unbounded series of studies. Conservatively limit at 1 req/sec.
-    private final RateLimiter rateLimiter = RateLimiter.create(1.0);
+    // Caches for schemas and studies. These are created once, when the lookup cache manager is set.
+    private LookupCache<UploadSchemaKey, UploadSchema> schemaCache;
+    private LookupCache<String, Study> studyCache;
+
+    // Every schema key we've successfully loaded since the process started. Export tasks use this to preload the
+    // schemas for their studies. See SchemaRegistry.
+    private final Set<UploadSchemaKey> knownSchemaKeySet = ConcurrentHashMap.newKeySet();
+
+    // Session state. The session generation is incremented every time we sign in, under the session lock. A caller
+    // that needs a new session only signs in if nobody else has signed in since it read the generation, so when the
+    // session expires under many threads at once, only one of them signs in, and the rest wait for it and reuse the
+    // new session. Session start is when we last signed in, or 0 if we haven't yet.
+    private final Object sessionLock = new Object();
+    private volatile long sessionGeneration = 0;
+    private volatile long sessionStartMillis = 0;
+    private long sessionRefreshIntervalMillis = 0;
+
+    // Session refresh stats since the process started.
+    private final AtomicLong sessionRefreshCount = new AtomicLong();
+    private final AtomicLong sessionRefreshTotalMillis = new AtomicLong();
+
+    /** Config, used to get the session refresh interval. */
+    @Autowired
+    public final void setConfig(Config config) {
+        sessionRefreshIntervalMillis = TimeUnit.MINUTES.toMillis(config.getInt(
+                CONFIG_KEY_SESSION_REFRESH_INTERVAL_MINUTES));
+    }
 
     /** Bridge Client Manager, with credentials for Exporter account. This is used to refresh the session. */
     @Autowired
@@ -53,6 +88,13 @@ public class BridgeHelper {
         this.bridgeCredentials = bridgeCredentials;
     }
 
+    /** Lookup cache manager, used to create the schema and study caches. */
+    @Autowired
+    public final void setLookupCacheManager(LookupCacheManager lookupCacheManager) {
+        schemaCache = lookupCacheManager.newCache(CACHE_NAME_SCHEMA, this::loadSchema);
+        studyCache = lookupCacheManager.newCache(CACHE_NAME_STUDY, this::loadStudy);
+    }
+
     /**
      * Signals Bridge Server that the upload is completed and to begin processing the upload. Used by Upload
      * Auto-Complete.
@@ -70,24 +112,18 @@ public class BridgeHelper {
     }
 
     /**
-     * Helper method to update export status in records
+     * Updates the exporter status of the given records in a single call to Bridge. Batching, rate limiting, and
+     * retries are handled by {@link ExporterStatusUpdater}.
      */
     public void updateRecordExporterStatus(List<String> recordIds, SynapseExporterStatus status) {
-        // update status
-        // breaking down the list into batches whenever the list size exceeds the batch size
-        List<List<String>> batches = Lists.partition(recordIds, MAX_BATCH_SIZE);
-        batches.forEach(batch-> {
-            rateLimiter.acquire();
-
-            RecordExportStatusRequest request = new RecordExportStatusRequest().recordIds(batch).synapseExporterStatus(
-                    status);
-            try {
-                sessionHelper(() -> bridgeClientManager.getClient(ForWorkersApi.class)
-                        .updateRecordExportStatuses(request).execute());
-            } catch (IOException ex) {
-                throw new BridgeSDKException("Error sending record export statuses to Bridge: " + ex.getMessage(), ex);
-            }
-        });
+        RecordExportStatusRequest request = new RecordExportStatusRequest().recordIds(recordIds).synapseExporterStatus(
+                status);
+        try {
+            sessionHelper(() -> bridgeClientManager.getClient(ForWorkersApi.class).updateRecordExportStatuses(request)
+                    .execute());
+        } catch (IOException ex) {
+            throw new BridgeSDKException("Error sending record export statuses to Bridge: " + ex.getMessage(), ex);
+        }
     }
 
     /**
@@ -102,7 +138,7 @@ public class BridgeHelper {
      *         if the schema doesn't exist
      */
     public UploadSchema getSchema(Metrics metrics, UploadSchemaKey schemaKey) throws SchemaNotFoundException {
-        UploadSchema schema = getSchemaCached(schemaKey);
+        UploadSchema schema = schemaCache.get(schemaKey);
         if (schema == null) {
             metrics.addKeyValuePair("schemasNotFound", schemaKey.toString());
             throw new SchemaNotFoundException("Schema not found: " + schemaKey.toString());
@@ -110,20 +146,42 @@ public class BridgeHelper {
         return schema;
     }
 
-    // Helper method that encapsulates just the service call, cached with annotation.
-    @Cacheable(lifetime = 5, unit = TimeUnit.MINUTES)
-    private UploadSchema getSchemaCached(UploadSchemaKey schemaKey) {
+    /**
+     * Returns the keys of all schemas in the given studies that we've loaded before. This includes all revisions
+     * previous export tasks have seen, which is generally all the schemas the next export task will need.
+     *
+     * @param studyIds
+     *         studies to get schema keys for
+     * @return known schema keys for those studies
+     */
+    public Set<UploadSchemaKey> getKnownSchemaKeysForStudies(Collection<String> studyIds) {
+        return knownSchemaKeySet.stream().filter(schemaKey -> studyIds.contains(schemaKey.getStudyId()))
+                .collect(Collectors.toSet());
+    }
+
+    // Helper method that encapsulates just the service call. Called by the schema cache on a cache miss.
+    private UploadSchema loadSchema(UploadSchemaKey schemaKey) {
+        UploadSchema schema;
         try {
-            return sessionHelper(() -> bridgeClientManager.getClient(ForWorkersApi.class).getSchemaRevisionInStudy(
+            schema = sessionHelper(() -> bridgeClientManager.getClient(ForWorkersApi.class).getSchemaRevisionInStudy(
                     schemaKey.getStudyId(), schemaKey.getSchemaId(), (long) schemaKey.getRevision()).execute().body());
         } catch (IOException ex) {
             throw new BridgeSDKException("Error getting schema from Bridge: " + ex.getMessage(), ex);
         }
+
+        if (schema != null) {
+            knownSchemaKeySet.add(schemaKey);
+        }
+        return schema;
     }
 
-    /** Calls Bridge to get a study by ID. */
-    @Cacheable(lifetime = 5, unit = TimeUnit.MINUTES)
+    /** Calls Bridge to get a study by ID. Studies are cached. */
     public Study getStudy(String studyId) {
+        return studyCache.get(studyId);
+    }
+
+    // Helper method that encapsulates just the service call. Called by the study cache on a cache miss.
+    private Study loadStudy(String studyId) {
         try {
             return sessionHelper(() -> bridgeClientManager.getClient(ForWorkersApi.class).getStudy(studyId).execute()
                     .body());
@@ -132,8 +190,34 @@ public class BridgeHelper {
         }
     }
 
+    /** Number of times we've signed in (or tried to sign in) to Bridge since the process started. */
+    public long getSessionRefreshCount() {
+        return sessionRefreshCount.get();
+    }
+
+    /** Total time spent signing in to Bridge since the process started, in milliseconds. */
+    public long getSessionRefreshTotalMillis() {
+        return sessionRefreshTotalMillis.get();
+    }
+
     // Helper method, which wraps a Bridge Server call with logic for initializing and refreshing a session.
     private <T> T sessionHelper(BridgeCallable<T> callable) throws IOException {
+        // Read the generation before the call, so if the call gets 401'ed, we know whether someone else already
+        // refreshed the session in the meantime.
+        long generation = sessionGeneration;
+
+        // If the session is about to expire, refresh it before making the call.
+        if (isSessionDueForRefresh()) {
+            try {
+                refreshSession(generation, "proactive");
+            } catch (IOException | RuntimeException ex) {
+                // The old session might still be good. Make the call anyway. If the session is expired, we'll get
+                // 401'ed and try again below.
+                LOG.warn("Error proactively refreshing Bridge session: " + ex.getMessage(), ex);
+            }
+            generation = sessionGeneration;
+        }
+
         // First attempt. This should be enough for most cases.
         try {
             return callable.call();
@@ -144,11 +228,51 @@ public class BridgeHelper {
 
         // Refresh session and try again. This time, if the call fails, just let the exception bubble up.
         LOG.info("Bridge server session expired. Refreshing session...");
-        bridgeClientManager.getClient(AuthenticationApi.class).signIn(bridgeCredentials).execute();
+        refreshSession(generation, "expired");
 
         return callable.call();
     }
 
+    // Returns true if proactive refresh is enabled and the session is older than the refresh interval. The first time
+    // this is called, this starts the session clock, since the client manager signs in on its own the first time.
+    private boolean isSessionDueForRefresh() {
+        if (sessionRefreshIntervalMillis <= 0) {
+            return false;
+        }
+
+        long now = DateTimeUtils.currentTimeMillis();
+        if (sessionStartMillis == 0) {
+            sessionStartMillis = now;
+            return false;
+        }
+        return now - sessionStartMillis >= sessionRefreshIntervalMillis;
+    }
+
+    // Signs in to Bridge, unless someone else has already signed in since the caller read the given generation. Other
+    // callers block on the session lock until the sign in completes.
+    private void refreshSession(long observedGeneration, String reason) throws IOException {
+        synchronized (sessionLock) {
+            if (sessionGeneration != observedGeneration) {
+                // Someone else already refreshed the session.
+                return;
+            }
+
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                bridgeClientManager.getClient(AuthenticationApi.class).signIn(bridgeCredentials).execute();
+                sessionGeneration = observedGeneration + 1;
+            } finally {
+                // Restart the session clock even if the sign in failed, so a failing proactive refresh doesn't retry
+                // on every call.
+                sessionStartMillis = DateTimeUtils.currentTimeMillis();
+                sessionRefreshCount.incrementAndGet();
+                sessionRefreshTotalMillis.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            }
+            LOG.info("Refreshed Bridge session (" + reason + ") in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) +
+                    " ms, " + sessionRefreshCount.get() + " refreshes so far");
+        }
+    }
+
     // Functional interface used to make lambdas for the session helper.
     @FunctionalInterface
     interface BridgeCallable<T> {
@@ -0,0 +1,383 @@
+package org.sagebionetworks.bridge.exporter.helper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Resource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.ThrottlingStatsProvider;
+import org.sagebionetworks.bridge.exporter.retry.RetryBudget;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.rest.model.SynapseExporterStatus;
+
+/**
+ * <p>
+ * Updates record exporter statuses in Bridge in the background, so export tasks don't wait on Bridge after their TSVs
+ * are uploaded to Synapse. Callers {@link #enqueue} record IDs, which returns right away. Pending record IDs from all
+ * tables and tasks are coalesced into batches of up to exporter.status.batch.size, and sent to Bridge by up to
+ * exporter.status.thread.count threads on the exporter status executor, rate limited to
+ * exporter.status.rate.limit.per.second. Failed batches are retried with exponential backoff and jitter, up to
+ * exporter.status.max.attempts times, as long as the Bridge {@link RetryBudget} allows it. If a batch still fails
+ * with a retryable error (generally because Bridge is down), its record IDs are enqueued again after
+ * exporter.status.requeue.delay.millis, and this keeps going until they're sent.
+ * </p>
+ * <p>
+ * Enqueued record IDs are first written to a spool file in exporter.status.spool.dir, which should be on persistent
+ * storage. The spool file is deleted once all of its record IDs have been sent. If the process dies first, the spool
+ * file is left behind, and its record IDs are enqueued again the next time the exporter starts. See
+ * {@link #recoverSpool}. Spool files for batches that Bridge rejects with a non-retryable error are also left behind,
+ * so they can be recovered after the problem is fixed.
+ * </p>
+ */
+@Component
+public class ExporterStatusUpdater implements ThrottlingStatsProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(ExporterStatusUpdater.class);
+
+    // Config keys. Package-scoped to allow unit tests to mock.
+    static final String CONFIG_KEY_BATCH_SIZE = "exporter.status.batch.size";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "exporter.status.max.attempts";
+    static final String CONFIG_KEY_RATE_LIMIT_PER_SECOND = "exporter.status.rate.limit.per.second";
+    static final String CONFIG_KEY_REQUEUE_DELAY_MILLIS = "exporter.status.requeue.delay.millis";
+    static final String CONFIG_KEY_RETRY_DELAY_MILLIS = "exporter.status.retry.delay.millis";
+    static final String CONFIG_KEY_SPOOL_DIR = "exporter.status.spool.dir";
+    static final String CONFIG_KEY_THREAD_COUNT = "exporter.status.thread.count";
+
+    private static final String SPOOL_FILE_SUFFIX = ".spool";
+    private static final String SPOOL_TEMP_FILE_SUFFIX = ".tmp";
+
+    // Max backoff between retries.
+    private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+    // config attributes
+    private int batchSize;
+    private long requeueDelayMillis;
+    private Path spoolDir;
+    private int threadCount;
+
+    // Rate limiter for calls to Bridge. The rate is set in setConfig().
+    private final RateLimiter rateLimiter = RateLimiter.create(10.0);
+
+    // Retry policy for calls to Bridge. Attempts and delay are set in setConfig().
+    private final RetryPolicy retryPolicy = new RetryPolicy("bridgeExporterStatus", 5, 1000,
+            MAX_RETRY_DELAY_MILLIS);
+
+    // Spring helpers
+    private BridgeHelper bridgeHelper;
+    private ScheduledExecutorService executor;
+
+    // Pending record IDs by status. Each status gets its own queue, since a batch can only have one status.
+    private final Map<SynapseExporterStatus, BlockingQueue<PendingRecord>> pendingQueuesByStatus =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger numPending = new AtomicInteger();
+    private final AtomicInteger numActiveDrainers = new AtomicInteger();
+
+    /** Config, used to get batch size, concurrency, rate limit, retry and requeue settings, and spool dir. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.batchSize = Math.max(1, config.getInt(CONFIG_KEY_BATCH_SIZE));
+        this.requeueDelayMillis = config.getInt(CONFIG_KEY_REQUEUE_DELAY_MILLIS);
+        this.spoolDir = Paths.get(config.get(CONFIG_KEY_SPOOL_DIR));
+        this.threadCount = Math.max(1, config.getInt(CONFIG_KEY_THREAD_COUNT));
+        rateLimiter.setRate(config.getInt(CONFIG_KEY_RATE_LIMIT_PER_SECOND));
+        retryPolicy.configure(config.getInt(CONFIG_KEY_MAX_ATTEMPTS), config.getInt(CONFIG_KEY_RETRY_DELAY_MILLIS),
+                MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /** Bridge helper, used to send exporter statuses to Bridge. */
+    @Autowired
+    public final void setBridgeHelper(BridgeHelper bridgeHelper) {
+        this.bridgeHelper = bridgeHelper;
+    }
+
+    /** Retry budget for Bridge calls, so Bridge retries stay within a fraction of Bridge calls. */
+    @Resource(name = "bridgeRetryBudget")
+    public final void setRetryBudget(RetryBudget retryBudget) {
+        retryPolicy.setRetryBudget(retryBudget);
+    }
+
+    /** Executor that sends exporter status batches, and schedules failed batches to be enqueued again. */
+    @Resource(name = "exporterStatusExecutorService")
+    public final void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Spools the given record IDs and queues them to be updated to the given status in the background. This returns
+     * without waiting for Bridge.
+     *
+     * @param recordIds
+     *         records to update
+     * @param status
+     *         exporter status to update the records to
+     */
+    public void enqueue(List<String> recordIds, SynapseExporterStatus status) {
+        if (recordIds.isEmpty()) {
+            return;
+        }
+
+        SpoolFile spoolFile = writeSpoolFile(recordIds, status);
+        addPending(recordIds, status, spoolFile);
+    }
+
+    /**
+     * Enqueues record IDs from spool files left behind by previous runs, generally because the process died before
+     * they were sent. This should be called once, when the exporter starts.
+     */
+    public void recoverSpool() {
+        if (!Files.isDirectory(spoolDir)) {
+            return;
+        }
+
+        int numFiles = 0;
+        int numRecords = 0;
+        try (DirectoryStream<Path> spoolFileStream = Files.newDirectoryStream(spoolDir, "*" + SPOOL_FILE_SUFFIX)) {
+            for (Path onePath : spoolFileStream) {
+                try {
+                    List<String> lineList = Files.readAllLines(onePath, StandardCharsets.UTF_8);
+                    if (lineList.isEmpty()) {
+                        Files.delete(onePath);
+                        continue;
+                    }
+
+                    // First line is the status. The rest are record IDs.
+                    SynapseExporterStatus status = SynapseExporterStatus.valueOf(lineList.get(0));
+                    List<String> recordIdList = lineList.subList(1, lineList.size());
+                    addPending(recordIdList, status, new SpoolFile(onePath, recordIdList.size()));
+
+                    numFiles++;
+                    numRecords += recordIdList.size();
+                } catch (IOException | RuntimeException ex) {
+                    LOG.error("Unable to recover exporter status spool file " + onePath + ": " + ex.getMessage(), ex);
+                }
+            }
+        } catch (IOException ex) {
+            LOG.error("Unable to list exporter status spool dir " + spoolDir + ": " + ex.getMessage(), ex);
+        }
+        LOG.info("Recovered " + numRecords + " exporter status updates from " + numFiles + " spool files");
+    }
+
+    /** Number of record IDs that have been enqueued but not yet sent to Bridge. */
+    public int getNumPending() {
+        return numPending.get();
+    }
+
+    /** Exporter status retry policy, for stats reporting. */
+    @Override
+    public List<RetryPolicy> getRetryPolicies() {
+        return ImmutableList.of(retryPolicy);
+    }
+
+    // Helper method which writes the record IDs to a new spool file. The file is written under a temp name and then
+    // renamed, so recovery never sees a partial file. Returns null if the spool file can't be written, in which case
+    // the update still happens, but isn't durable.
+    private SpoolFile writeSpoolFile(List<String> recordIds, SynapseExporterStatus status) {
+        try {
+            Files.createDirectories(spoolDir);
+
+            String fileName = UUID.randomUUID().toString();
+            Path tempPath = spoolDir.resolve(fileName + SPOOL_TEMP_FILE_SUFFIX);
+            Path spoolPath = spoolDir.resolve(fileName + SPOOL_FILE_SUFFIX);
+
+            List<String> lineList = new ArrayList<>(recordIds.size() + 1);
+            lineList.add(status.name());
+            lineList.addAll(recordIds);
+            Files.write(tempPath, lineList, StandardCharsets.UTF_8);
+            Files.move(tempPath, spoolPath, StandardCopyOption.ATOMIC_MOVE);
+
+            return new SpoolFile(spoolPath, recordIds.size());
+        } catch (IOException ex) {
+            LOG.warn("Unable to spool exporter status updates for " + recordIds.size() + " records: " +
+                    ex.getMessage(), ex);
+            return null;
+        }
+    }
+
+    // Helper method which adds the record IDs to the pending queue and makes sure there are drainers to send them.
+    private void addPending(List<String> recordIds, SynapseExporterStatus status, SpoolFile spoolFile) {
+        BlockingQueue<PendingRecord> pendingQueue = pendingQueuesByStatus.computeIfAbsent(status,
+                key -> new LinkedBlockingQueue<>());
+        for (String oneRecordId : recordIds) {
+            pendingQueue.add(new PendingRecord(oneRecordId, spoolFile));
+        }
+        numPending.addAndGet(recordIds.size());
+
+        startDrainers();
+    }
+
+    // Helper method which starts drainers until there's one per batch of pending records, up to the thread count.
+    private void startDrainers() {
+        while (true) {
+            int numDrainers = numActiveDrainers.get();
+            int numBatches = (numPending.get() + batchSize - 1) / batchSize;
+            if (numDrainers >= Math.min(threadCount, numBatches)) {
+                return;
+            }
+            if (numActiveDrainers.compareAndSet(numDrainers, numDrainers + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    // The drainer never ran, so it won't decrement the count. Pending records stay queued (and
+                    // spooled) until the next enqueue starts a drainer.
+                    numActiveDrainers.decrementAndGet();
+                    LOG.error("Unable to start exporter status drainer: " + ex.getMessage(), ex);
+                    return;
+                }
+            }
+        }
+    }
+
+    // Sends pending batches until there are none left.
+    private void drain() {
+        try {
+            boolean sentBatch;
+            do {
+                sentBatch = false;
+                for (Map.Entry<SynapseExporterStatus, BlockingQueue<PendingRecord>> oneEntry
+                        : pendingQueuesByStatus.entrySet()) {
+                    List<PendingRecord> batch = new ArrayList<>(batchSize);
+                    oneEntry.getValue().drainTo(batch, batchSize);
+                    if (!batch.isEmpty()) {
+                        sendBatch(batch, oneEntry.getKey());
+                        sentBatch = true;
+                    }
+                }
+            } while (sentBatch);
+        } finally {
+            numActiveDrainers.decrementAndGet();
+        }
+
+        // Records might have been enqueued after we found the queues empty, but before we stopped counting as an
+        // active drainer. Make sure someone picks those up.
+        startDrainers();
+    }
+
+    // Sends a single batch to Bridge, retrying with exponential backoff. See RetryPolicy. If the batch runs out of
+    // retries, or the retry budget denies a retry, it's enqueued again after the requeue delay.
+    private void sendBatch(List<PendingRecord> batch, SynapseExporterStatus status) {
+        List<String> recordIdList = new ArrayList<>(batch.size());
+        for (PendingRecord onePendingRecord : batch) {
+            recordIdList.add(onePendingRecord.recordId);
+        }
+
+        boolean success = false;
+        boolean requeued = false;
+        try {
+            retryPolicy.call(() -> {
+                rateLimiter.acquire();
+                bridgeHelper.updateRecordExporterStatus(recordIdList, status);
+                return null;
+            });
+            success = true;
+        } catch (RuntimeException ex) {
+            LOG.error("Failed to update exporter status to " + status + " for records " +
+                    BridgeExporterUtil.COMMA_SPACE_JOINER.join(recordIdList) + ": " + ex.getMessage(), ex);
+            if (RetryPolicy.isRetryable(ex)) {
+                requeued = scheduleRequeue(batch, status);
+            }
+        } finally {
+            numPending.addAndGet(-batch.size());
+            if (!requeued) {
+                markDone(batch, success);
+            }
+        }
+    }
+
+    // Helper method which schedules the batch to be enqueued again after the requeue delay. The records keep their
+    // spool files, so they're still recovered if the process dies first. Returns false if the requeue can't be
+    // scheduled, in which case the records are left for spool recovery.
+    private boolean scheduleRequeue(List<PendingRecord> batch, SynapseExporterStatus status) {
+        try {
+            executor.schedule(() -> requeue(batch, status), requeueDelayMillis, TimeUnit.MILLISECONDS);
+            LOG.info("Enqueuing exporter status updates for " + batch.size() + " records again in " +
+                    requeueDelayMillis + "ms");
+            return true;
+        } catch (RejectedExecutionException ex) {
+            LOG.error("Unable to schedule exporter status requeue: " + ex.getMessage(), ex);
+            return false;
+        }
+    }
+
+    // Helper method which adds a failed batch back to the pending queue, without writing new spool files.
+    private void requeue(List<PendingRecord> batch, SynapseExporterStatus status) {
+        pendingQueuesByStatus.computeIfAbsent(status, key -> new LinkedBlockingQueue<>()).addAll(batch);
+        numPending.addAndGet(batch.size());
+        startDrainers();
+    }
+
+    // Helper method which marks the records in the batch as done in their spool files. Spool files are deleted once
+    // all of their records are sent. If any of their records failed for good, they're kept, so we can recover them
+    // later.
+    private static void markDone(List<PendingRecord> batch, boolean success) {
+        Set<SpoolFile> spoolFileSet = new LinkedHashSet<>();
+        for (PendingRecord onePendingRecord : batch) {
+            SpoolFile spoolFile = onePendingRecord.spoolFile;
+            if (spoolFile != null) {
+                if (!success) {
+                    spoolFile.failed = true;
+                }
+                spoolFile.numRemaining.decrementAndGet();
+                spoolFileSet.add(spoolFile);
+            }
+        }
+
+        for (SpoolFile oneSpoolFile : spoolFileSet) {
+            if (oneSpoolFile.numRemaining.get() == 0 && !oneSpoolFile.failed) {
+                try {
+                    Files.deleteIfExists(oneSpoolFile.path);
+                } catch (IOException ex) {
+                    LOG.warn("Unable to delete exporter status spool file " + oneSpoolFile.path + ": " +
+                            ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    // A record ID waiting to be sent, along with the spool file it came from (null if not spooled).
+    private static class PendingRecord {
+        private final String recordId;
+        private final SpoolFile spoolFile;
+
+        PendingRecord(String recordId, SpoolFile spoolFile) {
+            this.recordId = recordId;
+            this.spoolFile = spoolFile;
+        }
+    }
+
+    // A spool file, along with the number of its records that haven't been sent yet, and whether any of them failed.
+    private static class SpoolFile {
+        private final Path path;
+        private final AtomicInteger numRemaining;
+        private volatile boolean failed = false;
+
+        SpoolFile(Path path, int numRecords) {
+            this.path = path;
+            this.numRemaining = new AtomicInteger(numRecords);
+        }
+    }
+}
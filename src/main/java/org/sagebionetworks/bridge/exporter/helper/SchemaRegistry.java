@@ -0,0 +1,185 @@
+package org.sagebionetworks.bridge.exporter.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.rest.model.UploadSchema;
+import org.sagebionetworks.bridge.schema.UploadSchemaKey;
+
+/**
+ * <p>
+ * Schemas for a single export task. Before the record loop starts, the record processor calls {@link #preload} with
+ * the schemas for the studies in the request, which loads them in parallel on the schema registry executor. The
+ * executor's thread count bounds the number of concurrent calls to Bridge.
+ * </p>
+ * <p>
+ * Schemas are served from an immutable snapshot, so per-record lookups are a single map read with no locking.
+ * Schemas that weren't preloaded are loaded through {@link BridgeHelper#getSchema} on first use and added to the
+ * snapshot. For long-running tasks, {@link #startBackgroundRefresh} periodically reloads all schemas in the snapshot
+ * and swaps in a new snapshot, so schema changes are picked up without blocking the export workers. Call
+ * {@link #close} at the end of the task to stop the background refresh.
+ * </p>
+ * <p>
+ * Preload latency is recorded in the schemaPreload latency histogram. Snapshot misses are counted in the task metrics
+ * as schemaRegistryMiss.
+ * </p>
+ */
+public class SchemaRegistry implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaRegistry.class);
+
+    private final BridgeHelper bridgeHelper;
+    private final ScheduledExecutorService executorService;
+    private final Metrics metrics;
+
+    // Current snapshot. Replaced, never modified. Writers synchronize on this registry, readers don't synchronize.
+    private volatile ImmutableMap<UploadSchemaKey, UploadSchema> schemaSnapshot = ImmutableMap.of();
+
+    private ScheduledFuture<?> refreshFuture;
+
+    /**
+     * Creates a schema registry for an export task.
+     *
+     * @param bridgeHelper
+     *         Bridge helper, used to load schemas
+     * @param executorService
+     *         executor used to load schemas in parallel and to run the background refresh
+     * @param metrics
+     *         task metrics, used to record preload latency, snapshot misses, and schemas not found
+     */
+    public SchemaRegistry(BridgeHelper bridgeHelper, ScheduledExecutorService executorService, Metrics metrics) {
+        this.bridgeHelper = bridgeHelper;
+        this.executorService = executorService;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Loads the given schemas in parallel and adds them to the snapshot. Schemas that fail to load are logged and
+     * skipped, and will be loaded on first use instead. This blocks until all schemas are loaded.
+     *
+     * @param schemaKeys
+     *         keys of the schemas to load
+     */
+    public void preload(Collection<UploadSchemaKey> schemaKeys) {
+        if (schemaKeys.isEmpty()) {
+            return;
+        }
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        Map<UploadSchemaKey, UploadSchema> loadedSchemas = loadAllInParallel(schemaKeys);
+        mergeIntoSnapshot(loadedSchemas);
+        metrics.addLatencyMillis("schemaPreload", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        LOG.info("Preloaded " + loadedSchemas.size() + " of " + schemaKeys.size() + " schemas in " +
+                stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+    }
+
+    /**
+     * Returns the schema for the given key, from the snapshot if present, otherwise from Bridge.
+     *
+     * @param schemaKey
+     *         key for the schema to get
+     * @return the schema
+     * @throws SchemaNotFoundException
+     *         if the schema doesn't exist
+     */
+    public UploadSchema getSchema(UploadSchemaKey schemaKey) throws SchemaNotFoundException {
+        UploadSchema schema = schemaSnapshot.get(schemaKey);
+        if (schema != null) {
+            return schema;
+        }
+
+        metrics.incrementCounter("schemaRegistryMiss");
+        schema = bridgeHelper.getSchema(metrics, schemaKey);
+        mergeIntoSnapshot(ImmutableMap.of(schemaKey, schema));
+        return schema;
+    }
+
+    /**
+     * Starts reloading all schemas in the snapshot at the given interval. Does nothing if the interval is zero or
+     * less.
+     *
+     * @param intervalSeconds
+     *         refresh interval, in seconds
+     */
+    public synchronized void startBackgroundRefresh(long intervalSeconds) {
+        if (intervalSeconds > 0 && refreshFuture == null) {
+            refreshFuture = executorService.scheduleWithFixedDelay(this::refresh, intervalSeconds, intervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reloads all schemas in the snapshot and swaps in the new snapshot. Schemas that fail to reload keep their old
+     * value. This runs in the background, so schemas are reloaded one at a time, which also keeps the refresh from
+     * waiting on its own executor. Package-scoped so unit tests can call this directly.
+     */
+    void refresh() {
+        Map<UploadSchemaKey, UploadSchema> reloadedSchemas = new HashMap<>();
+        for (UploadSchemaKey oneSchemaKey : schemaSnapshot.keySet()) {
+            try {
+                reloadedSchemas.put(oneSchemaKey, bridgeHelper.getSchema(metrics, oneSchemaKey));
+            } catch (SchemaNotFoundException | RuntimeException ex) {
+                // Don't let exceptions escape, or the executor will cancel the refresh.
+                LOG.warn("Error refreshing schema " + oneSchemaKey + ": " + ex.getMessage(), ex);
+            }
+        }
+        mergeIntoSnapshot(reloadedSchemas);
+    }
+
+    /** Stops the background refresh. */
+    @Override
+    public synchronized void close() {
+        if (refreshFuture != null) {
+            refreshFuture.cancel(false);
+            refreshFuture = null;
+        }
+    }
+
+    // Helper method which swaps in a new snapshot with the given schemas added or replaced.
+    private synchronized void mergeIntoSnapshot(Map<UploadSchemaKey, UploadSchema> schemasByKey) {
+        if (schemasByKey.isEmpty()) {
+            return;
+        }
+        Map<UploadSchemaKey, UploadSchema> newSnapshot = new HashMap<>(schemaSnapshot);
+        newSnapshot.putAll(schemasByKey);
+        schemaSnapshot = ImmutableMap.copyOf(newSnapshot);
+    }
+
+    // Helper method which loads the given schemas in parallel. Schemas that fail to load are left out of the result.
+    private Map<UploadSchemaKey, UploadSchema> loadAllInParallel(Collection<UploadSchemaKey> schemaKeys) {
+        List<UploadSchemaKey> schemaKeyList = new ArrayList<>(schemaKeys);
+        List<Future<UploadSchema>> futureList = new ArrayList<>(schemaKeyList.size());
+        for (UploadSchemaKey oneSchemaKey : schemaKeyList) {
+            futureList.add(executorService.submit(() -> bridgeHelper.getSchema(metrics, oneSchemaKey)));
+        }
+
+        Map<UploadSchemaKey, UploadSchema> loadedSchemas = new HashMap<>();
+        for (int i = 0; i < schemaKeyList.size(); i++) {
+            UploadSchemaKey schemaKey = schemaKeyList.get(i);
+            try {
+                loadedSchemas.put(schemaKey, futureList.get(i).get());
+            } catch (ExecutionException ex) {
+                LOG.warn("Error loading schema " + schemaKey + ": " + ex.getCause().getMessage(), ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while loading schemas");
+                break;
+            }
+        }
+        return loadedSchemas;
+    }
+}
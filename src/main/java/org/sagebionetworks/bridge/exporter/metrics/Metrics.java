@@ -1,14 +1,22 @@
 package org.sagebionetworks.bridge.exporter.metrics;
 
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableSortedMultiset;
 import com.google.common.collect.SortedMultiset;
 import com.google.common.collect.SortedSetMultimap;
 import com.google.common.collect.TreeMultimap;
-import com.google.common.collect.TreeMultiset;
 
-/** Helper object to collect metrics for a given Bridge-EX run. */
+/**
+ * Helper object to collect metrics for a given Bridge-EX run. Metrics are updated concurrently from the record
+ * pipeline stages and the export workers. Counters are incremented for every record and every row, so they're backed
+ * by a lock-free concurrent multiset. Key-value pairs and set-counters are updated much less often, so they're
+ * guarded by locks on their maps.
+ */
 public class Metrics {
-    private final SortedMultiset<String> counterMap = TreeMultiset.create();
+    // Upper bounds (inclusive) of the latency histogram buckets, in milliseconds. Package-scoped for unit tests.
+    static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = { 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    private final ConcurrentHashMultiset<String> counterMap = ConcurrentHashMultiset.create();
     private final SortedSetMultimap<String, String> keyValuesMap = TreeMultimap.create();
     private final SortedSetMultimap<String, String> setCounterMap = TreeMultimap.create();
 
@@ -18,7 +26,7 @@ public class Metrics {
      * ease of display.
      */
     public SortedMultiset<String> getCounterMap() {
-        return ImmutableSortedMultiset.copyOfSorted(counterMap);
+        return ImmutableSortedMultiset.copyOf(counterMap);
     }
 
     /**
@@ -29,8 +37,8 @@ public class Metrics {
      * @return value of the counter, after increment
      */
     public int incrementCounter(String name) {
-        counterMap.add(name);
-        return counterMap.count(name);
+        // add() returns the count before the increment.
+        return counterMap.add(name, 1) + 1;
     }
 
     /**
@@ -39,7 +47,9 @@ public class Metrics {
      * will be mutable. The returned copy will be a copy, and modifications to this copy will not affect the original.
      */
     public SortedSetMultimap<String, String> getKeyValuesMap() {
-        return TreeMultimap.create(keyValuesMap);
+        synchronized (keyValuesMap) {
+            return TreeMultimap.create(keyValuesMap);
+        }
     }
 
     /**
@@ -59,8 +69,37 @@ public class Metrics {
      * @return number of unique keys associated with the name, after adding the new value
      */
     public int addKeyValuePair(String name, String value) {
-        keyValuesMap.put(name, value);
-        return keyValuesMap.get(name).size();
+        synchronized (keyValuesMap) {
+            keyValuesMap.put(name, value);
+            return keyValuesMap.get(name).size();
+        }
+    }
+
+    /**
+     * Adds a latency measurement to the given latency histogram. Histograms are stored as counters, one per bucket,
+     * named like "name[<=000250ms]", with a final "name[>060000ms]" bucket for anything larger. Bucket bounds are
+     * zero-padded so the buckets display in order.
+     *
+     * @param name
+     *         name of the latency histogram
+     * @param latencyMillis
+     *         latency to add, in milliseconds
+     * @return value of the bucket's counter, after increment
+     */
+    public int addLatencyMillis(String name, long latencyMillis) {
+        String bucketName = null;
+        for (long oneBound : LATENCY_BUCKET_BOUNDS_MILLIS) {
+            if (latencyMillis <= oneBound) {
+                bucketName = String.format("%s[<=%06dms]", name, oneBound);
+                break;
+            }
+        }
+        if (bucketName == null) {
+            bucketName = String.format("%s[>%06dms]", name,
+                    LATENCY_BUCKET_BOUNDS_MILLIS[LATENCY_BUCKET_BOUNDS_MILLIS.length - 1]);
+        }
+
+        return counterMap.add(bucketName, 1) + 1;
     }
 
     // It's worth noting that key-value pairs and set-counter map have the same implementation. However, they have
@@ -72,7 +111,9 @@ public class Metrics {
      * Returns a copy of the set-counter map. Similar to {@link #getKeyValuesMap}, this is backed by a TreeMultimap.
      */
     public SortedSetMultimap<String, String> getSetCounterMap() {
-        return TreeMultimap.create(setCounterMap);
+        synchronized (setCounterMap) {
+            return TreeMultimap.create(setCounterMap);
+        }
     }
 
     /**
@@ -86,7 +127,9 @@ public class Metrics {
      * @return number of unique values in the set-counter, after incrementing with the new value
      */
     public int incrementSetCounter(String name, String value) {
-        setCounterMap.put(name, value);
-        return setCounterMap.get(name).size();
+        synchronized (setCounterMap) {
+            setCounterMap.put(name, value);
+            return setCounterMap.get(name).size();
+        }
     }
 }
@@ -1,21 +1,61 @@
 package org.sagebionetworks.bridge.exporter.metrics;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multiset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseAsyncJobPoller;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+import org.sagebionetworks.bridge.exporter.util.LookupCache;
+import org.sagebionetworks.bridge.exporter.util.LookupCacheManager;
+
 /** Helper class which handles basic metrics operations. */
 @Component
 public class MetricsHelper {
     private static final Logger LOG = LoggerFactory.getLogger(MetricsHelper.class);
     private static final Joiner VALUES_TO_LOG_JOINER = Joiner.on(", ").useForNull("null");
 
+    private BridgeHelper bridgeHelper;
+    private LookupCacheManager lookupCacheManager;
+    private SynapseAsyncJobPoller synapseAsyncJobPoller;
+    private List<ThrottlingStatsProvider> throttlingStatsProviderList = ImmutableList.of();
+
+    /** Bridge helper, used to log Bridge session refresh stats. */
+    @Autowired
+    public final void setBridgeHelper(BridgeHelper bridgeHelper) {
+        this.bridgeHelper = bridgeHelper;
+    }
+
+    /** Lookup cache manager, used to log cache stats. */
+    @Autowired
+    public final void setLookupCacheManager(LookupCacheManager lookupCacheManager) {
+        this.lookupCacheManager = lookupCacheManager;
+    }
+
+    /** Synapse async job poller, used to log async job stats. */
+    @Autowired
+    public final void setSynapseAsyncJobPoller(SynapseAsyncJobPoller synapseAsyncJobPoller) {
+        this.synapseAsyncJobPoller = synapseAsyncJobPoller;
+    }
+
+    /** Components that own rate limiters and retry policies, used to log rate limiter and retry stats. */
+    @Autowired(required = false)
+    public final void setThrottlingStatsProviderList(List<ThrottlingStatsProvider> throttlingStatsProviderList) {
+        this.throttlingStatsProviderList = ImmutableList.copyOf(throttlingStatsProviderList);
+    }
+
     /**
      * Record common per-record metrics.
      *
@@ -49,5 +89,69 @@ public class MetricsHelper {
         for (Map.Entry<String, Collection<String>> oneKeyValueEntry : metrics.getKeyValuesMap().asMap().entrySet()) {
             LOG.info(oneKeyValueEntry.getKey() + ": " + VALUES_TO_LOG_JOINER.join(oneKeyValueEntry.getValue()));
         }
+
+        // Lookup caches are shared across requests, so these stats are cumulative since the process started.
+        for (LookupCache<?, ?> oneCache : lookupCacheManager.getCaches()) {
+            LOG.info(formatCacheStats(oneCache.getName(), oneCache.getStats()));
+        }
+
+        // Similarly, async job stats are cumulative since the process started.
+        LOG.info(formatAsyncJobStats(synapseAsyncJobPoller));
+
+        // Bridge sessions are shared too, so session refresh stats are cumulative.
+        LOG.info(formatSessionRefreshStats(bridgeHelper));
+
+        // Rate limiters are also shared. Log the current rates.
+        for (ThrottlingStatsProvider oneProvider : throttlingStatsProviderList) {
+            for (AdaptiveRateLimiter oneLimiter : oneProvider.getRateLimiters()) {
+                LOG.info(formatRateLimiterStats(oneLimiter));
+            }
+        }
+
+        // Retry policies are also shared, so retry stats are cumulative.
+        for (ThrottlingStatsProvider oneProvider : throttlingStatsProviderList) {
+            for (RetryPolicy oneRetryPolicy : oneProvider.getRetryPolicies()) {
+                LOG.info(formatRetryPolicyStats(oneRetryPolicy));
+            }
+        }
+    }
+
+    // Helper method to format cache stats for logging. Package-scoped to allow unit tests.
+    static String formatCacheStats(String cacheName, CacheStats stats) {
+        return String.format("cache[%s]: hits=%d, misses=%d, hitRate=%.3f, loads=%d, loadFailures=%d, " +
+                        "avgLoadMillis=%.1f, evictions=%d", cacheName, stats.hitCount(), stats.missCount(),
+                stats.hitRate(), stats.loadCount(), stats.loadExceptionCount(),
+                stats.averageLoadPenalty() / 1000000.0, stats.evictionCount());
+    }
+
+    // Helper method to format rate limiter stats for logging. Package-scoped to allow unit tests.
+    static String formatRateLimiterStats(AdaptiveRateLimiter limiter) {
+        return String.format("rateLimiter[%s]: ratePerSecond=%.2f, throttles=%d", limiter.getName(),
+                limiter.getRate(), limiter.getNumThrottles());
+    }
+
+    // Helper method to format retry policy stats for logging. Package-scoped to allow unit tests.
+    static String formatRetryPolicyStats(RetryPolicy retryPolicy) {
+        return String.format("retryPolicy[%s]: calls=%d, retries=%d, retriesDenied=%d, failures=%d",
+                retryPolicy.getName(), retryPolicy.getNumCalls(), retryPolicy.getNumRetries(),
+                retryPolicy.getNumRetriesDenied(), retryPolicy.getNumFailures());
+    }
+
+    // Helper method to format Bridge session refresh stats for logging. Package-scoped to allow unit tests.
+    static String formatSessionRefreshStats(BridgeHelper bridgeHelper) {
+        long numRefreshes = bridgeHelper.getSessionRefreshCount();
+        long totalMillis = bridgeHelper.getSessionRefreshTotalMillis();
+        double avgMillis = numRefreshes > 0 ? (double) totalMillis / numRefreshes : 0.0;
+        return String.format("bridgeSessionRefreshes: count=%d, totalMillis=%d, avgMillis=%.1f", numRefreshes,
+                totalMillis, avgMillis);
+    }
+
+    // Helper method to format Synapse async job stats for logging. Package-scoped to allow unit tests.
+    static String formatAsyncJobStats(SynapseAsyncJobPoller poller) {
+        long numJobsDone = poller.getNumJobsCompleted() + poller.getNumJobsFailed() + poller.getNumJobsTimedOut();
+        double avgLatencyMillis = numJobsDone > 0 ? (double) poller.getTotalJobLatencyMillis() / numJobsDone : 0.0;
+        return String.format("synapseAsyncJobs: inFlight=%d, completed=%d, failed=%d, timedOut=%d, checks=%d, " +
+                        "avgLatencyMillis=%.1f", poller.getNumJobsInFlight(), poller.getNumJobsCompleted(),
+                poller.getNumJobsFailed(), poller.getNumJobsTimedOut(), poller.getNumChecks(), avgLatencyMillis);
     }
 }
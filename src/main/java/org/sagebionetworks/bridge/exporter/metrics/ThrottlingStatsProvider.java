@@ -0,0 +1,24 @@
+package org.sagebionetworks.bridge.exporter.metrics;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+
+/**
+ * Implemented by Spring components that own rate limiters or retry policies. MetricsHelper gets every component that
+ * implements this from Spring, and logs the stats for their limiters and policies with the metrics for each request.
+ */
+public interface ThrottlingStatsProvider {
+    /** Rate limiters owned by this component. */
+    default List<AdaptiveRateLimiter> getRateLimiters() {
+        return ImmutableList.of();
+    }
+
+    /** Retry policies owned by this component. */
+    default List<RetryPolicy> getRetryPolicies() {
+        return ImmutableList.of();
+    }
+}
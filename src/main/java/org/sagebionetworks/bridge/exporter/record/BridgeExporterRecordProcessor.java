@@ -3,13 +3,20 @@ package org.sagebionetworks.bridge.exporter.record;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.Table;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
@@ -25,6 +32,8 @@ import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.exceptions.SynapseUnavailableException;
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
+import org.sagebionetworks.bridge.exporter.helper.SchemaRegistry;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
@@ -33,50 +42,81 @@ import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 import org.sagebionetworks.bridge.sqs.PollSqsWorkerBadRequestException;
 
 /**
  * This is the main entry point into Bridge EX. This record processor class is called for each request, and loops over
  * all health data records in that request. For each health data record, this does basic processing and filtering, and
- * identifies the correct schema for the record before handing it off to the {@link ExportWorkerManager}.
+ * identifies the correct schema for the record before handing it off to the {@link ExportWorkerManager}. Records are
+ * processed in a multi-threaded pipeline with bounded queues between stages. See {@link RecordPipeline}.
  */
 @Component
 public class BridgeExporterRecordProcessor {
     private static final Logger LOG = LoggerFactory.getLogger(BridgeExporterRecordProcessor.class);
 
     // package-scoped to be available to unit tests
-    static final String CONFIG_KEY_RECORD_LOOP_DELAY_MILLIS = "record.loop.delay.millis";
+    static final String CONFIG_KEY_RECORD_LOOP_BATCH_SIZE = "record.loop.batch.size";
     static final String CONFIG_KEY_RECORD_LOOP_PROGRESS_REPORT_PERIOD = "record.loop.progress.report.period";
+    static final String CONFIG_KEY_PIPELINE_DISPATCH_QUEUE_SIZE = "record.pipeline.dispatch.queue.size";
+    static final String CONFIG_KEY_PIPELINE_DISPATCH_THREAD_COUNT = "record.pipeline.dispatch.thread.count";
+    static final String CONFIG_KEY_PIPELINE_FILTER_QUEUE_SIZE = "record.pipeline.filter.queue.size";
+    static final String CONFIG_KEY_PIPELINE_FILTER_THREAD_COUNT = "record.pipeline.filter.thread.count";
+    static final String CONFIG_KEY_PIPELINE_HYDRATION_QUEUE_SIZE = "record.pipeline.hydration.queue.size";
+    static final String CONFIG_KEY_PIPELINE_HYDRATION_THREAD_COUNT = "record.pipeline.hydration.thread.count";
+    static final String CONFIG_KEY_SCHEMA_REGISTRY_REFRESH_INTERVAL_SECONDS =
+            "schema.registry.refresh.interval.seconds";
+
+    // While waiting for the record pipeline to drain, log pipeline status at this interval.
+    private static final long PIPELINE_STATUS_INTERVAL_SECONDS = 60;
 
     // config attributes
-    private int delayMillis;
+    private int batchSize;
+    private int dispatchQueueSize;
+    private int dispatchThreadCount;
+    private int filterQueueSize;
+    private int filterThreadCount;
+    private int hydrationQueueSize;
+    private int hydrationThreadCount;
     private int progressReportPeriod;
+    private long schemaRefreshIntervalSeconds;
     private DateTimeZone timeZone;
 
     // Spring helpers
-    private Table ddbRecordTable;
+    private BridgeHelper bridgeHelper;
     private FileHelper fileHelper;
     private MetricsHelper metricsHelper;
+    private RecordBatchFetcher recordBatchFetcher;
     private RecordFilterHelper recordFilterHelper;
     private RecordIdSourceFactory recordIdSourceFactory;
     private SynapseHelper synapseHelper;
     private ExportWorkerManager workerManager;
     private DynamoHelper dynamoHelper;
+    private ScheduledExecutorService schemaRegistryExecutorService;
 
     /** Config, used to get attributes for loop control and time zone. */
     @Autowired
     public final void setConfig(Config config) {
-        this.delayMillis = config.getInt(CONFIG_KEY_RECORD_LOOP_DELAY_MILLIS);
+        int configBatchSize = config.getInt(CONFIG_KEY_RECORD_LOOP_BATCH_SIZE);
+        this.batchSize = configBatchSize > 0 ? configBatchSize : RecordBatchFetcher.MAX_BATCH_SIZE;
         this.progressReportPeriod = config.getInt(CONFIG_KEY_RECORD_LOOP_PROGRESS_REPORT_PERIOD);
+        this.schemaRefreshIntervalSeconds = config.getInt(CONFIG_KEY_SCHEMA_REGISTRY_REFRESH_INTERVAL_SECONDS);
         this.timeZone = DateTimeZone.forID(config.get(BridgeExporterUtil.CONFIG_KEY_TIME_ZONE_NAME));
-    }
 
-    /** DDB Health Data Record table, used for querying full records for the list of record IDs. */
-    @Resource(name = "ddbRecordTable")
-    public final void setDdbRecordTable(Table ddbRecordTable) {
-        this.ddbRecordTable = ddbRecordTable;
+        // Pipeline stages. Each stage needs at least 1 thread and a queue size of at least 1.
+        this.dispatchQueueSize = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_DISPATCH_QUEUE_SIZE));
+        this.dispatchThreadCount = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_DISPATCH_THREAD_COUNT));
+        this.filterQueueSize = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_FILTER_QUEUE_SIZE));
+        this.filterThreadCount = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_FILTER_THREAD_COUNT));
+        this.hydrationQueueSize = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_HYDRATION_QUEUE_SIZE));
+        this.hydrationThreadCount = Math.max(1, config.getInt(CONFIG_KEY_PIPELINE_HYDRATION_THREAD_COUNT));
     }
 
+    /** Bridge helper, used to look up the schemas to preload for each request. */
+    @Autowired
+    public final void setBridgeHelper(BridgeHelper bridgeHelper) {
+        this.bridgeHelper = bridgeHelper;
+    }
 
     /** File helper, used for creating and cleaning up the temp dir used to store the request's temporary files. */
     @Autowired
@@ -90,6 +130,12 @@ public class BridgeExporterRecordProcessor {
         this.metricsHelper = metricsHelper;
     }
 
+    /** Record batch fetcher, used for querying full records for the list of record IDs, in batches. */
+    @Autowired
+    public final void setRecordBatchFetcher(RecordBatchFetcher recordBatchFetcher) {
+        this.recordBatchFetcher = recordBatchFetcher;
+    }
+
     /**
      * Record filter helper, used to determine which records to filter out, due to request filters or sharing filters.
      */
@@ -124,6 +170,12 @@ public class BridgeExporterRecordProcessor {
         this.dynamoHelper = dynamoHelper;
     }
 
+    /** Executor used by each request's schema registry to preload and refresh schemas. */
+    @Resource(name = "schemaRegistryExecutorService")
+    public final void setSchemaRegistryExecutorService(ScheduledExecutorService schemaRegistryExecutorService) {
+        this.schemaRegistryExecutorService = schemaRegistryExecutorService;
+    }
+
     /**
      * Main entry point into Bridge-EX. This process all records for the given request.
      *
@@ -156,6 +208,9 @@ public class BridgeExporterRecordProcessor {
         ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.now(timeZone)).withMetrics(metrics)
                 .withRequest(request).withTmpDir(tmpDir).build();
 
+        SchemaRegistry schemaRegistry = new SchemaRegistry(bridgeHelper, schemaRegistryExecutorService, metrics);
+        task.setSchemaRegistry(schemaRegistry);
+
         Stopwatch stopwatch = Stopwatch.createStarted();
         try {
             // determine study ids and their corresponding start date time
@@ -163,8 +218,118 @@ public class BridgeExporterRecordProcessor {
             LOG.info("Exporting the following studies: " + BridgeExporterUtil.COMMA_SPACE_JOINER.join(studyIdsToQuery
                     .keySet()));
 
+            // Preload schemas for these studies before the record loop starts, so workers don't wait on Bridge.
+            Set<UploadSchemaKey> knownSchemaKeySet = bridgeHelper.getKnownSchemaKeysForStudies(
+                    studyIdsToQuery.keySet());
+            schemaRegistry.preload(knownSchemaKeySet);
+            schemaRegistry.startBackgroundRefresh(schemaRefreshIntervalSeconds);
+
+            // Similarly, create or update the Synapse tables for recently exported schemas, so workers don't wait on
+            // Synapse.
+            workerManager.prewarmTables(task, knownSchemaKeySet);
+
             Iterable<String> recordIdIterable = recordIdSourceFactory.getRecordSourceForRequest(request,
                     studyIdsToQuery);
+            new RecordPipeline(task, stopwatch).run(recordIdIterable);
+
+            workerManager.endOfStream(task, studyIdsToQuery);
+
+            // We made it to the end. Set the success flag on the task.
+            setTaskSuccess(task);
+
+            // finally modify export time table in ddb
+            if (request.getUseLastExportTime()) {
+                dynamoHelper.updateExportTimeTable(new ArrayList<>(studyIdsToQuery.keySet()),
+                        request.getEndDateTime());
+            }
+        } finally {
+            schemaRegistry.close();
+
+            long elapsedTime = stopwatch.elapsed(TimeUnit.SECONDS);
+            if (task.isSuccess()) {
+                LOG.info("Finished processing request in " + elapsedTime + " seconds, " + request.toString());
+            } else {
+                LOG.error("Error processing request; elapsed time " + elapsedTime + " seconds, " + request.toString());
+            }
+            metricsHelper.publishMetrics(metrics);
+        }
+
+        // cleanup
+        fileHelper.deleteDir(tmpDir);
+    }
+
+    /**
+     * The record pipeline for a single request. Record IDs flow through the following stages:
+     * <ol>
+     *     <li>enumeration - iterates the record ID source and groups record IDs into batches</li>
+     *     <li>hydration - fetches the records for each batch from DDB</li>
+     *     <li>filter - applies request and sharing filters. Participant options for each batch are prefetched from DDB
+     *     in bulk, see {@link SharingScopeResolver}</li>
+     *     <li>dispatch - parses the record and dispatches subtasks to the worker manager</li>
+     * </ol>
+     * Each stage has its own thread pool and bounded queue, see {@link RecordPipelineStage}. Records move between
+     * stages in batches. Within a batch, records stay in the same order as the record IDs.
+     */
+    private class RecordPipeline {
+        private final ExportTask task;
+        private final Stopwatch stopwatch;
+        private final SharingScopeResolver sharingScopeResolver;
+
+        private final RecordPipelineStage enumerationStage;
+        private final RecordPipelineStage hydrationStage;
+        private final RecordPipelineStage filterStage;
+        private final RecordPipelineStage dispatchStage;
+        private final List<RecordPipelineStage> stageList;
+
+        RecordPipeline(ExportTask task, Stopwatch stopwatch) {
+            this.task = task;
+            this.stopwatch = stopwatch;
+            this.sharingScopeResolver = new SharingScopeResolver(dynamoHelper, task.getMetrics());
+
+            // Enumeration iterates a single record ID source, so it only ever needs a single thread.
+            enumerationStage = new RecordPipelineStage("enumeration", 1, 1);
+            hydrationStage = new RecordPipelineStage("hydration", hydrationThreadCount, hydrationQueueSize);
+            filterStage = new RecordPipelineStage("filter", filterThreadCount, filterQueueSize);
+            dispatchStage = new RecordPipelineStage("dispatch", dispatchThreadCount, dispatchQueueSize);
+            stageList = ImmutableList.of(enumerationStage, hydrationStage, filterStage, dispatchStage);
+        }
+
+        // Runs the pipeline over all the record IDs and blocks until all stages are complete.
+        void run(Iterable<String> recordIdIterable) {
+            try {
+                Future<?> enumerationFuture = enumerationStage.submit(() -> enumerateRecordIds(recordIdIterable),
+                        0);
+
+                // Wait for each stage to complete, in pipeline order. Stages only submit work to the next stage, so
+                // once a stage is complete, no more work will be submitted to the next stage.
+                for (RecordPipelineStage oneStage : stageList) {
+                    while (!oneStage.awaitCompletion(PIPELINE_STATUS_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+                        logStatus();
+                    }
+                }
+
+                // Propagate errors from iterating the record ID source.
+                enumerationFuture.get();
+            } catch (ExecutionException ex) {
+                throw Throwables.propagate(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for record pipeline", ex);
+            } finally {
+                stageList.forEach(RecordPipelineStage::shutdownNow);
+                logStatus();
+            }
+        }
+
+        private void logStatus() {
+            for (RecordPipelineStage oneStage : stageList) {
+                LOG.info("Record pipeline stage " + oneStage.getStatus());
+            }
+        }
+
+        private void enumerateRecordIds(Iterable<String> recordIdIterable) {
+            Metrics metrics = task.getMetrics();
+            List<String> recordIdBatch = new ArrayList<>(batchSize);
             for (String oneRecordId : recordIdIterable) {
                 // Count total number of records. Also, log at regular intervals, so people tailing the logs can follow
                 // progress.
@@ -172,62 +337,101 @@ public class BridgeExporterRecordProcessor {
                 if (numTotal % progressReportPeriod == 0) {
                     LOG.info("Num records so far: " + numTotal + " in " + stopwatch.elapsed(TimeUnit.SECONDS) +
                             " seconds");
+                    logStatus();
                 }
 
-                // sleep to rate limit our requests to DDB
-                if (delayMillis > 0) {
-                    try {
-                        Thread.sleep(delayMillis);
-                    } catch (InterruptedException ex) {
-                        LOG.error("Record processor interrupted while sleeping: " + ex.getMessage(), ex);
-                    }
+                recordIdBatch.add(oneRecordId);
+                if (recordIdBatch.size() >= batchSize) {
+                    submitRecordIdBatch(recordIdBatch);
+                    recordIdBatch = new ArrayList<>(batchSize);
                 }
+            }
+            if (!recordIdBatch.isEmpty()) {
+                submitRecordIdBatch(recordIdBatch);
+            }
+        }
 
-                try {
-                    // get record
-                    Item record = ddbRecordTable.getItem("id", oneRecordId);
-                    if (record == null) {
-                        LOG.error("Missing health data record for ID " + oneRecordId);
-                        continue;
-                    }
+        private void submitRecordIdBatch(List<String> recordIdBatch) {
+            hydrationStage.submit(() -> hydrateRecords(recordIdBatch), recordIdBatch.size());
+            enumerationStage.addRecordsCompleted(recordIdBatch.size());
+        }
+
+        private void hydrateRecords(List<String> recordIdBatch) {
+            // Records we couldn't fetch are redriven, so they aren't silently dropped from the export.
+            List<Item> recordList;
+            Set<String> failedRecordIdSet = new HashSet<>();
+            try {
+                recordList = recordBatchFetcher.getRecords(recordIdBatch, failedRecordIdSet);
+            } catch (RuntimeException ex) {
+                LOG.error("Exception fetching records " + BridgeExporterUtil.COMMA_SPACE_JOINER.join(recordIdBatch) +
+                        ": " + ex.getMessage(), ex);
+                recordIdBatch.forEach(task::addRedriveRecordId);
+                return;
+            }
 
-                    // filter
-                    boolean shouldExcludeRecord = recordFilterHelper.shouldExcludeRecord(metrics, request, record);
+            List<Item> hydratedRecordList = new ArrayList<>(recordList.size());
+            for (int i = 0; i < recordIdBatch.size(); i++) {
+                Item record = recordList.get(i);
+                String recordId = recordIdBatch.get(i);
+                if (failedRecordIdSet.contains(recordId)) {
+                    LOG.error("Couldn't fetch health data record for ID " + recordId + ", redriving");
+                    task.addRedriveRecordId(recordId);
+                } else if (record == null) {
+                    LOG.error("Missing health data record for ID " + recordId);
+                } else {
+                    hydratedRecordList.add(record);
+                }
+            }
+
+            if (!hydratedRecordList.isEmpty()) {
+                filterStage.submit(() -> filterRecords(hydratedRecordList), hydratedRecordList.size());
+            }
+        }
+
+        private void filterRecords(List<Item> recordList) {
+            Metrics metrics = task.getMetrics();
+            BridgeExporterRequest request = task.getRequest();
+
+            // Resolve sharing scopes for the whole batch up front, so we don't call DDB once per record.
+            try {
+                sharingScopeResolver.prefetch(recordList);
+            } catch (RuntimeException ex) {
+                LOG.error("Exception prefetching sharing scopes: " + ex.getMessage(), ex);
+            }
+
+            List<Item> acceptedRecordList = new ArrayList<>(recordList.size());
+            for (Item oneRecord : recordList) {
+                try {
+                    boolean shouldExcludeRecord = recordFilterHelper.shouldExcludeRecord(metrics, request,
+                            sharingScopeResolver, oneRecord);
                     if (shouldExcludeRecord) {
                         continue;
                     }
 
                     // only after the filter do we log health code metrics
-                    metricsHelper.captureMetricsForRecord(metrics, record);
+                    metricsHelper.captureMetricsForRecord(metrics, oneRecord);
 
-                    workerManager.addSubtaskForRecord(task, record);
-                } catch (IOException | RuntimeException | SchemaNotFoundException ex) {
-                    LOG.error("Exception processing record " + oneRecordId + ": " + ex.getMessage(), ex);
+                    acceptedRecordList.add(oneRecord);
+                } catch (RuntimeException ex) {
+                    LOG.error("Exception filtering record " + oneRecord.getString("id") + ": " + ex.getMessage(), ex);
                 }
             }
 
-            workerManager.endOfStream(task, studyIdsToQuery);
-
-            // We made it to the end. Set the success flag on the task.
-            setTaskSuccess(task);
-
-            // finally modify export time table in ddb
-            if (request.getUseLastExportTime()) {
-                dynamoHelper.updateExportTimeTable(new ArrayList<>(studyIdsToQuery.keySet()),
-                        request.getEndDateTime());
+            if (!acceptedRecordList.isEmpty()) {
+                dispatchStage.submit(() -> dispatchRecords(acceptedRecordList), acceptedRecordList.size());
             }
-        } finally {
-            long elapsedTime = stopwatch.elapsed(TimeUnit.SECONDS);
-            if (task.isSuccess()) {
-                LOG.info("Finished processing request in " + elapsedTime + " seconds, " + request.toString());
-            } else {
-                LOG.error("Error processing request; elapsed time " + elapsedTime + " seconds, " + request.toString());
-            }
-            metricsHelper.publishMetrics(metrics);
         }
 
-        // cleanup
-        fileHelper.deleteDir(tmpDir);
+        private void dispatchRecords(List<Item> recordList) {
+            for (Item oneRecord : recordList) {
+                try {
+                    workerManager.addSubtaskForRecord(task, oneRecord);
+                } catch (IOException | RuntimeException | SchemaNotFoundException ex) {
+                    LOG.error("Exception processing record " + oneRecord.getString("id") + ": " + ex.getMessage(),
+                            ex);
+                }
+            }
+        }
     }
 
     // Helper method that we can spy and verify that we're setting the task success properly.
@@ -0,0 +1,240 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Resource;
+
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+
+/**
+ * Fetches health data records from DDB in batches, using BatchGetItem. This retries unprocessed keys with backoff and
+ * rate limits itself based on the read capacity DDB reports as consumed, so that it can be tuned to stay within the
+ * table's provisioned read capacity. If a batch still fails, the records that were already fetched are kept, and the
+ * rest are fetched one at a time. If the fetcher is interrupted, it stops, and the records it hasn't fetched yet are
+ * marked as failed.
+ */
+@Component
+public class RecordBatchFetcher {
+    private static final Logger LOG = LoggerFactory.getLogger(RecordBatchFetcher.class);
+
+    // package-scoped to be available to unit tests
+    static final String CONFIG_KEY_READ_CAPACITY_PER_SECOND = "record.fetch.read.capacity.per.second";
+    static final String CONFIG_KEY_MAX_ATTEMPTS = "record.fetch.max.attempts";
+    static final String CONFIG_KEY_RETRY_DELAY_MILLIS = "record.fetch.retry.delay.millis";
+
+    // DDB limits BatchGetItem calls to 100 keys.
+    static final int MAX_BATCH_SIZE = 100;
+
+    private static final String KEY_RECORD_ID = "id";
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    // config attributes
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private int retryDelayMillis;
+
+    // Spring helpers
+    private DynamoDB ddbClient;
+    private Table recordTable;
+    private String recordTableName;
+
+    // Rate limiter, measured in read capacity units per second. Each BatchGetItem call acquires as many permits as
+    // the read capacity it consumed, which throttles subsequent calls.
+    private final RateLimiter rateLimiter = RateLimiter.create(100.0);
+
+    /** Config, used to get read capacity rate limit and retry parameters. */
+    @Autowired
+    final void setConfig(Config config) {
+        int readCapacityPerSecond = config.getInt(CONFIG_KEY_READ_CAPACITY_PER_SECOND);
+        if (readCapacityPerSecond > 0) {
+            rateLimiter.setRate(readCapacityPerSecond);
+        }
+
+        int configMaxAttempts = config.getInt(CONFIG_KEY_MAX_ATTEMPTS);
+        if (configMaxAttempts > 0) {
+            this.maxAttempts = configMaxAttempts;
+        }
+
+        this.retryDelayMillis = config.getInt(CONFIG_KEY_RETRY_DELAY_MILLIS);
+    }
+
+    /** DDB client, used to make BatchGetItem calls. */
+    @Autowired
+    final void setDdbClient(DynamoDB ddbClient) {
+        this.ddbClient = ddbClient;
+    }
+
+    /**
+     * DDB Health Data Record table. Used to get the table name for BatchGetItem calls, and to fetch records one at a
+     * time if a batch fails.
+     */
+    @Resource(name = "ddbRecordTable")
+    final void setDdbRecordTable(Table ddbRecordTable) {
+        this.recordTable = ddbRecordTable;
+        this.recordTableName = ddbRecordTable.getTableName();
+    }
+
+    /**
+     * Gets the health data records for the given record IDs. The returned list is in the same order as the given
+     * record IDs. If a record doesn't exist, or couldn't be fetched, the corresponding entry in the returned list is
+     * null. Records that couldn't be fetched are also added to failedRecordIdSet, so the caller can tell them apart
+     * from records that don't exist. If the thread is interrupted, this stops fetching, adds all remaining records to
+     * failedRecordIdSet, and returns with the interrupt flag set.
+     *
+     * @param recordIdList
+     *         list of record IDs to fetch
+     * @param failedRecordIdSet
+     *         set that the IDs of records that couldn't be fetched are added to
+     * @return list of records, in the same order as the record IDs
+     */
+    public List<Item> getRecords(List<String> recordIdList, Set<String> failedRecordIdSet) {
+        // BatchGetItem rejects requests with duplicate keys, so de-dupe before sending.
+        Set<String> uniqueRecordIdSet = new LinkedHashSet<>(recordIdList);
+        Map<String, Item> recordsById = new HashMap<>();
+        try {
+            for (List<String> oneRecordIdBatch : Lists.partition(new ArrayList<>(uniqueRecordIdSet),
+                    MAX_BATCH_SIZE)) {
+                fetchBatch(oneRecordIdBatch, recordsById, failedRecordIdSet);
+            }
+        } catch (InterruptedException ex) {
+            // Don't retry or fall back to single gets. Restore the interrupt, so the caller can see it, and mark
+            // everything we haven't fetched yet as failed.
+            Thread.currentThread().interrupt();
+            LOG.error("Record fetcher interrupted, aborting batch");
+            for (String oneRecordId : uniqueRecordIdSet) {
+                if (!recordsById.containsKey(oneRecordId)) {
+                    failedRecordIdSet.add(oneRecordId);
+                }
+            }
+        }
+
+        // Put records back in the original order.
+        List<Item> recordList = new ArrayList<>(recordIdList.size());
+        for (String oneRecordId : recordIdList) {
+            recordList.add(recordsById.get(oneRecordId));
+        }
+        return recordList;
+    }
+
+    // Fetches a single batch (up to 100 records) and adds the results to the given map. If BatchGetItem fails, this
+    // keeps the records that were already fetched and fetches the rest one at a time. Records that can't be fetched
+    // either way are added to the failed set. Interrupts are propagated to the caller.
+    private void fetchBatch(List<String> recordIdBatch, Map<String, Item> recordsById, Set<String> failedRecordIdSet)
+            throws InterruptedException {
+        try {
+            batchGetWithRetry(recordIdBatch, recordsById);
+            return;
+        } catch (RuntimeException ex) {
+            LOG.error("BatchGetItem failed, fetching remaining records one at a time: " + ex.getMessage(), ex);
+        }
+
+        // We can't tell records that don't exist from records that weren't processed, so this fetches both. Records
+        // that don't exist are rare, so this is cheap.
+        for (String oneRecordId : recordIdBatch) {
+            if (recordsById.containsKey(oneRecordId)) {
+                continue;
+            }
+
+            try {
+                rateLimiter.acquire();
+                Item record = recordTable.getItem(KEY_RECORD_ID, oneRecordId);
+                if (record != null) {
+                    recordsById.put(oneRecordId, record);
+                }
+            } catch (RuntimeException ex) {
+                LOG.error("Error fetching record " + oneRecordId + ": " + ex.getMessage(), ex);
+                failedRecordIdSet.add(oneRecordId);
+            }
+        }
+    }
+
+    // Fetches a single batch using BatchGetItem, retrying unprocessed keys, and adds the results to the given map.
+    // Records fetched before a failure are kept in the map.
+    private void batchGetWithRetry(List<String> recordIdBatch, Map<String, Item> recordsById)
+            throws InterruptedException {
+        TableKeysAndAttributes keysAndAttributes = new TableKeysAndAttributes(recordTableName);
+        for (String oneRecordId : recordIdBatch) {
+            keysAndAttributes.addHashOnlyPrimaryKey(KEY_RECORD_ID, oneRecordId);
+        }
+        BatchGetItemSpec spec = new BatchGetItemSpec().withTableKeyAndAttributes(keysAndAttributes)
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+        for (int numAttempts = 1; ; numAttempts++) {
+            BatchGetItemOutcome outcome = ddbClient.batchGetItem(spec);
+            acquireConsumedCapacity(outcome.getBatchGetItemResult());
+
+            List<Item> itemList = outcome.getTableItems().get(recordTableName);
+            if (itemList != null) {
+                for (Item oneItem : itemList) {
+                    recordsById.put(oneItem.getString(KEY_RECORD_ID), oneItem);
+                }
+            }
+
+            Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+            if (unprocessedKeys == null || unprocessedKeys.isEmpty()) {
+                return;
+            }
+            if (numAttempts >= maxAttempts) {
+                throw new IllegalStateException("Unprocessed keys remain after " + numAttempts +
+                        " BatchGetItem attempts");
+            }
+
+            // Unprocessed keys generally mean we're being throttled. Back off exponentially, with jitter, before
+            // retrying.
+            LOG.info("BatchGetItem returned unprocessed keys, attempt " + numAttempts + ", retrying");
+            sleepBeforeRetry(numAttempts);
+            spec = new BatchGetItemSpec().withUnprocessedKeys(unprocessedKeys)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+    }
+
+    // Acquires permits from the rate limiter equal to the read capacity consumed by the call. Acquiring after the
+    // call means the cost of this call delays the next one.
+    private void acquireConsumedCapacity(BatchGetItemResult result) {
+        double consumedCapacity = 0.0;
+        if (result != null && result.getConsumedCapacity() != null) {
+            for (ConsumedCapacity oneConsumedCapacity : result.getConsumedCapacity()) {
+                if (oneConsumedCapacity.getCapacityUnits() != null) {
+                    consumedCapacity += oneConsumedCapacity.getCapacityUnits();
+                }
+            }
+        }
+        rateLimiter.acquire(Math.max(1, (int) Math.ceil(consumedCapacity)));
+    }
+
+    // Sleeps with exponential backoff and full jitter, so fetchers throttled at the same time don't all retry at the
+    // same time. This checks for interrupts even if there's no delay, so an interrupted fetcher never retries.
+    private void sleepBeforeRetry(int numAttempts) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Record fetcher interrupted before retry");
+        }
+
+        long delay = RetryPolicy.computeFullJitterDelayMillis(numAttempts, retryDelayMillis,
+                (long) retryDelayMillis << MAX_BACKOFF_SHIFT);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+}
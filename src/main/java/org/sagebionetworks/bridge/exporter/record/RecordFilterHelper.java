@@ -6,10 +6,8 @@ import com.amazonaws.services.dynamodbv2.document.Item;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterSharingMode;
@@ -25,14 +23,6 @@ import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 public class RecordFilterHelper {
     private static final Logger LOG = LoggerFactory.getLogger(RecordFilterHelper.class);
 
-    private DynamoHelper dynamoHelper;
-
-    /** Dynamo Helper, used to get a user's sharing preferences. */
-    @Autowired
-    public final void setDynamoHelper(DynamoHelper dynamoHelper) {
-        this.dynamoHelper = dynamoHelper;
-    }
-
     /**
      * Returns true if a record should be excluded from the export.
      *
@@ -40,11 +30,14 @@ public class RecordFilterHelper {
      *         metrics object, to record filter metrics
      * @param request
      *         export request, used for determining filter settings
+     * @param sharingScopeResolver
+     *         task-scoped sharing scope resolver, used to get the user's sharing preferences
      * @param record
      *         record to determine if we should include or exclude
      * @return true if the record should be excluded
      */
-    public boolean shouldExcludeRecord(Metrics metrics, BridgeExporterRequest request, Item record) {
+    public boolean shouldExcludeRecord(Metrics metrics, BridgeExporterRequest request,
+            SharingScopeResolver sharingScopeResolver, Item record) {
         // If record doesn't have a study ID, something is seriously wrong.
         String studyId = record.getString("studyId");
         if (StringUtils.isBlank(studyId)) {
@@ -52,7 +45,8 @@ public class RecordFilterHelper {
         }
 
         // request always has a sharing mode
-        boolean excludeBySharingScope = shouldExcludeRecordBySharingScope(metrics, request.getSharingMode(), record);
+        boolean excludeBySharingScope = shouldExcludeRecordBySharingScope(metrics, request.getSharingMode(),
+                sharingScopeResolver, record);
 
         // filter by study - This is used for filtering out test studies and for limiting study-specific exports.
         boolean excludeByStudy = false;
@@ -76,7 +70,7 @@ public class RecordFilterHelper {
 
     // Helper method that handles the sharing filter.
     private boolean shouldExcludeRecordBySharingScope(Metrics metrics, BridgeExporterSharingMode sharingMode,
-            Item record) {
+            SharingScopeResolver sharingScopeResolver, Item record) {
         // Get the record's sharing scope. Defaults to no_sharing if it's not present or unable to be parsed.
         SharingScope recordSharingScope;
         String recordSharingScopeStr = record.getString("userSharingScope");
@@ -93,7 +87,7 @@ public class RecordFilterHelper {
 
         // Get sharing scope from user's participant options. Dynamo Helper takes care of defaulting to NO_SHARING.
         String healthCode = record.getString("healthCode");
-        SharingScope userSharingScope = dynamoHelper.getSharingScopeForUser(healthCode);
+        SharingScope userSharingScope = sharingScopeResolver.getSharingScopeForUser(healthCode);
 
         // reconcile both sharing scopes to find the most restrictive sharing scope
         SharingScope sharingScope;
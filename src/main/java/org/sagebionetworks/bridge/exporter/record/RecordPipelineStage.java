@@ -0,0 +1,151 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One stage of the record processing pipeline. Each stage has its own fixed-size thread pool and a bounded work
+ * queue. When the queue is full, submitting work blocks the submitter. This pushes back on upstream stages, so the
+ * record loop can't outrun downstream processing.
+ *
+ * Each stage also tracks queue depth, throughput, and utilization (the fraction of thread time spent doing work), so
+ * we can tell which stage limits a run.
+ */
+public class RecordPipelineStage {
+    private static final Logger LOG = LoggerFactory.getLogger(RecordPipelineStage.class);
+
+    private final String name;
+    private final int numThreads;
+    private final ThreadPoolExecutor executor;
+
+    // stats
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong numRecordsCompleted = new AtomicLong();
+    private final Stopwatch stopwatch = Stopwatch.createStarted();
+
+    /**
+     * Creates a pipeline stage.
+     *
+     * @param name
+     *         stage name, used for thread names and logging
+     * @param numThreads
+     *         number of threads in this stage's thread pool
+     * @param queueSize
+     *         max number of work items waiting in this stage's queue
+     */
+    public RecordPipelineStage(String name, int numThreads, int queueSize) {
+        this.name = name;
+        this.numThreads = numThreads;
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("record-" + name + "-%d").build(),
+                RecordPipelineStage::blockUntilQueued);
+    }
+
+    // Rejected execution handler. Instead of rejecting the work when the queue is full, block until there's space in
+    // the queue. This is what gives us backpressure.
+    private static void blockUntilQueued(Runnable runnable, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline stage is shut down");
+        }
+
+        try {
+            executor.getQueue().put(runnable);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for pipeline stage queue", ex);
+        }
+    }
+
+    /** Stage name, used for logging. */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Submits work to this stage. If the stage's queue is full, this blocks until there is space in the queue.
+     *
+     * @param work
+     *         work to be done by this stage
+     * @param numRecords
+     *         number of records represented by this work, used for throughput stats
+     * @return future for the submitted work
+     */
+    public Future<?> submit(Runnable work, int numRecords) {
+        Future<?> future = executor.submit(() -> {
+            long startNanos = System.nanoTime();
+            try {
+                work.run();
+            } catch (RuntimeException ex) {
+                LOG.error("Unexpected exception in record pipeline stage " + name + ": " + ex.getMessage(), ex);
+                throw ex;
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - startNanos);
+                numRecordsCompleted.addAndGet(numRecords);
+            }
+        });
+        maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+        return future;
+    }
+
+    /**
+     * Signals that no more work will be submitted to this stage and waits for all queued work to complete.
+     *
+     * @param timeout
+     *         max time to wait
+     * @param unit
+     *         unit of the timeout
+     * @return true if all work is complete, false if the timeout elapsed first
+     * @throws InterruptedException
+     *         if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /** Stops this stage immediately, abandoning any queued work. Used for cleanup. */
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Adds to the count of records this stage has finished processing. This is for long-running work that hands off
+     * records incrementally, like enumerating record IDs.
+     */
+    public void addRecordsCompleted(int numRecords) {
+        numRecordsCompleted.addAndGet(numRecords);
+    }
+
+    /** Number of work items currently waiting in this stage's queue. */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /** Number of records this stage has finished processing. */
+    public long getNumRecordsCompleted() {
+        return numRecordsCompleted.get();
+    }
+
+    /** Human-readable summary of this stage's stats, for logging. */
+    public String getStatus() {
+        long elapsedNanos = stopwatch.elapsed(TimeUnit.NANOSECONDS);
+        double elapsedSeconds = elapsedNanos / 1e9;
+        double throughput = elapsedSeconds > 0 ? getNumRecordsCompleted() / elapsedSeconds : 0.0;
+        double utilization = elapsedNanos > 0 ? 100.0 * busyNanos.get() / (elapsedNanos * numThreads) : 0.0;
+        return String.format("%s: queueDepth=%d, maxQueueDepth=%d, recordsCompleted=%d, " +
+                "recordsPerSecond=%.1f, utilization=%.0f%%", name, getQueueDepth(), maxQueueDepth.get(),
+                getNumRecordsCompleted(), throughput, utilization);
+    }
+}
@@ -0,0 +1,102 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+
+import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
+import org.sagebionetworks.bridge.exporter.dynamo.SharingScope;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+/**
+ * <p>
+ * Resolves user sharing scopes for a single export task. Before the filter stage filters a batch of records, it calls
+ * {@link #prefetch} with that batch, which resolves all health codes we haven't seen yet in this task with
+ * BatchGetItem, in groups of up to 100. Results are cached for the lifetime of the task, so each user's participant
+ * options are read at most once per export.
+ * </p>
+ * <p>
+ * Health codes that weren't prefetched (for example, because DDB didn't process them) fall back to
+ * {@link DynamoHelper#getSharingScopeForUser}. Cache hits and misses are counted in the task metrics as
+ * sharingScopeCacheHit and sharingScopeCacheMiss, and BatchGetItem latency is recorded in the sharingScopeBatchGet
+ * latency histogram.
+ * </p>
+ * <p>
+ * This class is thread-safe, since the filter stage can run on multiple threads.
+ * </p>
+ */
+public class SharingScopeResolver {
+    private final DynamoHelper dynamoHelper;
+    private final Metrics metrics;
+    private final Map<String, SharingScope> sharingScopesByHealthCode = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a sharing scope resolver for an export task.
+     *
+     * @param dynamoHelper
+     *         DDB helper, used to get participant options
+     * @param metrics
+     *         task metrics, used to record hit rate and batch latency
+     */
+    public SharingScopeResolver(DynamoHelper dynamoHelper, Metrics metrics) {
+        this.dynamoHelper = dynamoHelper;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Resolves the sharing scopes for all users in the given records that aren't already cached.
+     *
+     * @param recordList
+     *         health data records whose users we want to resolve
+     */
+    public void prefetch(List<Item> recordList) {
+        Set<String> unseenHealthCodeSet = new LinkedHashSet<>();
+        for (Item oneRecord : recordList) {
+            String healthCode = oneRecord.getString("healthCode");
+            if (healthCode != null && !sharingScopesByHealthCode.containsKey(healthCode)) {
+                unseenHealthCodeSet.add(healthCode);
+            }
+        }
+
+        for (List<String> oneBatch : Lists.partition(new ArrayList<>(unseenHealthCodeSet),
+                DynamoHelper.MAX_BATCH_GET_SIZE)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, SharingScope> batchSharingScopes = dynamoHelper.getSharingScopesForUsers(oneBatch);
+            metrics.addLatencyMillis("sharingScopeBatchGet", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            sharingScopesByHealthCode.putAll(batchSharingScopes);
+        }
+    }
+
+    /**
+     * Gets the sharing scope for the given user, from the task cache if present, otherwise from DDB.
+     *
+     * @param healthCode
+     *         health code of user to get sharing scope for
+     * @return the user's sharing scope
+     */
+    public SharingScope getSharingScopeForUser(String healthCode) {
+        if (healthCode == null) {
+            // Don't cache. Let DynamoHelper handle this the way it always has.
+            return dynamoHelper.getSharingScopeForUser(null);
+        }
+
+        SharingScope sharingScope = sharingScopesByHealthCode.get(healthCode);
+        if (sharingScope != null) {
+            metrics.incrementCounter("sharingScopeCacheHit");
+            return sharingScope;
+        }
+
+        metrics.incrementCounter("sharingScopeCacheMiss");
+        sharingScope = dynamoHelper.getSharingScopeForUser(healthCode);
+        sharingScopesByHealthCode.put(healthCode, sharingScope);
+        return sharingScope;
+    }
+}
@@ -0,0 +1,85 @@
+package org.sagebionetworks.bridge.exporter.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/**
+ * <p>
+ * Token bucket that limits retries to a fraction of total traffic. Every call deposits retry.budget.percent / 100
+ * tokens, and every retry withdraws one token. If there aren't enough tokens, the call fails instead of retrying. The
+ * bucket holds at most retry.budget.max.tokens tokens, which allows short bursts of retries, and starts full.
+ * </p>
+ * <p>
+ * This is shared by all {@link RetryPolicy RetryPolicies} that call the same dependency. When a downstream service
+ * degrades, every call fails at once, and without a budget, retries multiply the load on a service that's already
+ * struggling. With a budget, retries stay within a fixed fraction of the load we'd send anyway. Each dependency gets
+ * its own budget (see SpringConfig), so an outage in one doesn't deny retries to the others.
+ * </p>
+ */
+public class RetryBudget {
+    // Config keys. Package-scoped to allow unit tests to mock.
+    static final String CONFIG_KEY_MAX_TOKENS = "retry.budget.max.tokens";
+    static final String CONFIG_KEY_PERCENT = "retry.budget.percent";
+
+    // Defaults, used until setConfig() is called.
+    private static final double DEFAULT_MAX_TOKENS = 20.0;
+    private static final double DEFAULT_TOKENS_PER_CALL = 0.1;
+
+    // Token bucket state. Guarded by this.
+    private double maxTokens = DEFAULT_MAX_TOKENS;
+    private double tokensPerCall = DEFAULT_TOKENS_PER_CALL;
+    private double tokens = DEFAULT_MAX_TOKENS;
+
+    // Stats
+    private final AtomicLong numRetriesDenied = new AtomicLong();
+
+    /** Config, used to get the retry percentage and bucket size. Resets the bucket to full. */
+    public final void setConfig(Config config) {
+        configure(config.getInt(CONFIG_KEY_PERCENT) / 100.0, config.getInt(CONFIG_KEY_MAX_TOKENS));
+    }
+
+    /**
+     * Sets the budget parameters and resets the bucket to full.
+     *
+     * @param tokensPerCall
+     *         tokens deposited for every call, which is the max fraction of calls that can be retried
+     * @param maxTokens
+     *         max number of tokens the bucket can hold, which is the max burst of retries
+     */
+    public synchronized void configure(double tokensPerCall, double maxTokens) {
+        this.tokensPerCall = tokensPerCall;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    /** Signals that a call is starting. Deposits tokens, up to the max. */
+    public synchronized void onCall() {
+        tokens = Math.min(maxTokens, tokens + tokensPerCall);
+    }
+
+    /**
+     * Withdraws a token for a retry, if there is one.
+     *
+     * @return true if the retry is allowed, false if the budget is exhausted
+     */
+    public synchronized boolean tryAcquireRetry() {
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        } else {
+            numRetriesDenied.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Number of tokens currently in the bucket. */
+    public synchronized double getTokens() {
+        return tokens;
+    }
+
+    /** Number of retries denied because the budget was exhausted, since the process started. */
+    public long getNumRetriesDenied() {
+        return numRetriesDenied.get();
+    }
+}
@@ -0,0 +1,315 @@
+package org.sagebionetworks.bridge.exporter.retry;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonServiceException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.MalformedJsonException;
+import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
+import org.sagebionetworks.schema.adapter.JSONObjectAdapterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
+
+/**
+ * <p>
+ * Retry policy for one class of downstream operation, like Synapse table calls or Bridge exporter status updates.
+ * Failed calls are retried up to maxAttempts times, as long as the exception is retryable (see
+ * {@link #isRetryable}) and the {@link RetryBudget} for the dependency allows it.
+ * </p>
+ * <p>
+ * Retries use exponential backoff with full jitter. Before retry N, we sleep a random amount of time between zero and
+ * baseDelayMillis * 2^(N-1), capped at maxDelayMillis. When a service degrades, every worker thread fails at about
+ * the same time. Jitter spreads their retries out, so they don't all hit the service again at the same moment.
+ * </p>
+ * <p>
+ * Components that own policies report them through ThrottlingStatsProvider, and their call counts, retries, budget
+ * denials, and failures are logged with the metrics for each request. See MetricsHelper.
+ * </p>
+ */
+public class RetryPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+    // AWS error codes that mean we're being throttled. These come back as 400s, but should be retried.
+    private static final Set<String> AWS_THROTTLING_ERROR_CODES = ImmutableSet.of(
+            "ProvisionedThroughputExceededException", "RequestLimitExceeded", "SlowDown", "Throttling",
+            "ThrottlingException");
+
+    // Backoff stops doubling after this many retries, to avoid overflow.
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    private final String name;
+
+    // Policy parameters. Can be changed by configure(), so these are volatile.
+    private volatile int maxAttempts;
+    private volatile long baseDelayMillis;
+    private volatile long maxDelayMillis;
+    private volatile RetryBudget retryBudget;
+
+    // Stats
+    private final AtomicLong numCalls = new AtomicLong();
+    private final AtomicLong numRetries = new AtomicLong();
+    private final AtomicLong numRetriesDenied = new AtomicLong();
+    private final AtomicLong numFailures = new AtomicLong();
+
+    /** Call made through a retry policy. See {@link #call}. */
+    @FunctionalInterface
+    public interface RetryableCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * Creates a retry policy. Retries aren't limited by a budget until {@link #setRetryBudget} is called.
+     *
+     * @param name
+     *         operation name, used for logging and stats reporting
+     * @param maxAttempts
+     *         max number of attempts, including the first
+     * @param baseDelayMillis
+     *         backoff before the first retry, doubled for each subsequent retry
+     * @param maxDelayMillis
+     *         backoff never goes above this
+     */
+    public RetryPolicy(String name, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.name = name;
+        configure(maxAttempts, baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Sets the policy parameters. See {@link #RetryPolicy}.
+     *
+     * @param maxAttempts
+     *         max number of attempts, including the first
+     * @param baseDelayMillis
+     *         backoff before the first retry, doubled for each subsequent retry
+     * @param maxDelayMillis
+     *         backoff never goes above this
+     */
+    public void configure(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /** Retry budget shared with other policies. If this is null, retries are only limited by maxAttempts. */
+    public void setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    /**
+     * Makes the given call, retrying on failure according to this policy.
+     *
+     * @param call
+     *         call to make
+     * @param <T>
+     *         call result type
+     * @param <E>
+     *         checked exception the call throws
+     * @return call result
+     * @throws E
+     *         if the call fails and can't be retried
+     */
+    public <T, E extends Exception> T call(RetryableCall<T, E> call) throws E {
+        Retrier retrier = newRetrier();
+        while (true) {
+            try {
+                return call.call();
+            } catch (Exception ex) {
+                if (!retrier.shouldRetry(ex)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts tracking retries for a single call. Callers that need to throw more than one type of checked exception
+     * can use this directly instead of {@link #call}. Call {@link Retrier#shouldRetry} when the call fails, and
+     * rethrow if it returns false.
+     *
+     * @return retrier for a single call
+     */
+    public Retrier newRetrier() {
+        return new Retrier();
+    }
+
+    /** Tracks attempts for a single call. Not thread-safe. Each call should get its own retrier. */
+    public final class Retrier {
+        private int numAttempts = 1;
+
+        private Retrier() {
+            numCalls.incrementAndGet();
+            RetryBudget budget = retryBudget;
+            if (budget != null) {
+                budget.onCall();
+            }
+        }
+
+        /**
+         * Decides whether to retry after the given failure. If the call should be retried, this sleeps for the
+         * backoff delay before returning.
+         *
+         * @param ex
+         *         exception from the failed attempt
+         * @return true if the caller should try again, false if the caller should give up and rethrow
+         */
+        public boolean shouldRetry(Exception ex) {
+            if (!isRetryable(ex)) {
+                numFailures.incrementAndGet();
+                return false;
+            }
+
+            if (numAttempts >= maxAttempts) {
+                LOG.warn(name + " failed after " + numAttempts + " attempts: " + ex.getMessage());
+                numFailures.incrementAndGet();
+                return false;
+            }
+
+            RetryBudget budget = retryBudget;
+            if (budget != null && !budget.tryAcquireRetry()) {
+                LOG.warn("Retry budget exhausted, not retrying " + name + ": " + ex.getMessage());
+                numRetriesDenied.incrementAndGet();
+                numFailures.incrementAndGet();
+                return false;
+            }
+
+            long delayMillis = computeFullJitterDelayMillis(numAttempts, baseDelayMillis, maxDelayMillis);
+            LOG.warn("Retrying " + name + " in " + delayMillis + "ms after attempt " + numAttempts + ": " +
+                    ex.getMessage());
+            numAttempts++;
+            numRetries.incrementAndGet();
+
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException intEx) {
+                    Thread.currentThread().interrupt();
+                    LOG.error("Interrupted while waiting to retry " + name);
+                    numFailures.incrementAndGet();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Computes the backoff before retrying, using exponential backoff with full jitter. The result is a random delay
+     * between zero and the backoff cap. See {@link #getBackoffCapMillis}.
+     *
+     * @param numAttempts
+     *         number of attempts so far
+     * @param baseDelayMillis
+     *         backoff cap for the first retry
+     * @param maxDelayMillis
+     *         backoff cap never goes above this
+     * @return delay in milliseconds
+     */
+    public static long computeFullJitterDelayMillis(int numAttempts, long baseDelayMillis, long maxDelayMillis) {
+        long capMillis = getBackoffCapMillis(numAttempts, baseDelayMillis, maxDelayMillis);
+        return capMillis > 0 ? ThreadLocalRandom.current().nextLong(capMillis + 1) : 0;
+    }
+
+    // Backoff cap is baseDelayMillis * 2^(numAttempts-1), but never above maxDelayMillis. Package-scoped for unit
+    // tests.
+    static long getBackoffCapMillis(int numAttempts, long baseDelayMillis, long maxDelayMillis) {
+        int shift = Math.max(0, Math.min(numAttempts - 1, MAX_BACKOFF_SHIFT));
+        long capMillis = baseDelayMillis << shift;
+        if (capMillis < 0 || (capMillis >> shift) != baseDelayMillis) {
+            // Overflow.
+            return maxDelayMillis;
+        }
+        return Math.min(capMillis, maxDelayMillis);
+    }
+
+    /**
+     * <p>
+     * Returns true if the given exception is worth retrying. This follows the same rules as ExportWorkerManager uses
+     * for redrives, plus a few specific to individual calls:
+     * </p>
+     * <ul>
+     * <li>Synapse 503s mean Synapse is down. ExportWorkerManager aborts the request and restarts, so there's no point
+     * in retrying.</li>
+     * <li>Other 4XX errors from Synapse, Bridge, and AWS are client errors and won't succeed on retry, except for 429s
+     * and AWS throttling errors.</li>
+     * <li>JSON errors, BridgeExporterNonRetryableExceptions, and SynapseResultNotReadyExceptions (which callers poll
+     * on) aren't retried.</li>
+     * <li>Interrupts aren't retried.</li>
+     * </ul>
+     * <p>
+     * Everything else is retried.
+     * </p>
+     *
+     * @param t
+     *         exception to classify
+     * @return true if the call that threw it should be retried
+     */
+    public static boolean isRetryable(Throwable t) {
+        if (t == null || t instanceof InterruptedException) {
+            return false;
+        } else if (t instanceof SynapseResultNotReadyException) {
+            // Callers poll on these. Retrying would just be polling faster.
+            return false;
+        } else if (t instanceof SynapseServerException) {
+            int statusCode = ((SynapseServerException) t).getStatusCode();
+            if (statusCode == 503) {
+                // Synapse is down.
+                return false;
+            }
+            return !isClientError(statusCode);
+        } else if (t instanceof AmazonServiceException) {
+            AmazonServiceException awsEx = (AmazonServiceException) t;
+            if (AWS_THROTTLING_ERROR_CODES.contains(awsEx.getErrorCode())) {
+                return true;
+            }
+            return !isClientError(awsEx.getStatusCode());
+        } else if (t instanceof BridgeSDKException) {
+            return !isClientError(((BridgeSDKException) t).getStatusCode());
+        } else if (t instanceof JsonProcessingException || t instanceof JsonParseException ||
+                t instanceof MalformedJsonException || t instanceof JSONObjectAdapterException) {
+            return false;
+        } else if (t instanceof BridgeExporterNonRetryableException) {
+            return false;
+        }
+
+        return true;
+    }
+
+    // A 4XX status code is a client error, except for 429 (Too Many Requests), which means we should back off and try
+    // again.
+    private static boolean isClientError(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 429;
+    }
+
+    /** Operation name. */
+    public String getName() {
+        return name;
+    }
+
+    /** Number of calls made through this policy, not counting retries. */
+    public long getNumCalls() {
+        return numCalls.get();
+    }
+
+    /** Number of retries. */
+    public long getNumRetries() {
+        return numRetries.get();
+    }
+
+    /** Number of retries that were denied because the retry budget was exhausted. */
+    public long getNumRetriesDenied() {
+        return numRetriesDenied.get();
+    }
+
+    /** Number of calls that failed, after all retries. */
+    public long getNumFailures() {
+        return numFailures.get();
+    }
+}
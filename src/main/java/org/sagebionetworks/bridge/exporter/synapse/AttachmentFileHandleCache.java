@@ -0,0 +1,134 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import javax.annotation.Resource;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/**
+ * <p>
+ * Remembers which Synapse file handle each health data attachment was uploaded to, keyed by attachment ID (the S3 key)
+ * and Synapse project ID. When records are redriven, their attachments are already in Synapse, so this lets us reuse
+ * the old file handles instead of downloading the attachments from S3 and uploading them to Synapse again.
+ * </p>
+ * <p>
+ * The mapping is persisted in the AttachmentFileHandles DDB table under the exporter DDB prefix, and fronted by an
+ * in-process LRU cache. DDB errors are logged and otherwise ignored. A failed lookup just means we upload the
+ * attachment again, and a failed write just means a later redrive will.
+ * </p>
+ */
+@Component
+public class AttachmentFileHandleCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AttachmentFileHandleCache.class);
+
+    // Config keys. Package-scoped to allow unit tests to mock.
+    static final String CONFIG_KEY_MAX_SIZE = "attachment.file.handle.cache.max.size";
+
+    // Shared constants.
+    public static final String DDB_TABLE_ATTACHMENT_FILE_HANDLES = "AttachmentFileHandles";
+    public static final String DDB_KEY_ATTACHMENT_ID = "attachmentId";
+    public static final String DDB_KEY_FILE_HANDLE_ID = "fileHandleId";
+    public static final String DDB_KEY_PROJECT_ID = "projectId";
+
+    // In-process LRU, keyed by projectId:attachmentId.
+    private Cache<String, String> fileHandleIdCache;
+
+    // Spring helpers
+    private Table ddbAttachmentFileHandleTable;
+
+    /** Config, used to get the LRU size. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.fileHandleIdCache = CacheBuilder.newBuilder().maximumSize(config.getInt(CONFIG_KEY_MAX_SIZE)).build();
+    }
+
+    /** DDB table that persists the attachment to file handle mapping. */
+    @Resource(name = "ddbAttachmentFileHandleTable")
+    public final void setDdbAttachmentFileHandleTable(Table ddbAttachmentFileHandleTable) {
+        this.ddbAttachmentFileHandleTable = ddbAttachmentFileHandleTable;
+    }
+
+    /**
+     * Gets the file handle ID for the given attachment from the in-process LRU, without calling DDB. This is cheap
+     * enough to call from the export worker thread.
+     *
+     * @param projectId
+     *         Synapse project ID the attachment was uploaded to
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @return cached file handle ID, or null if it's not in the LRU
+     */
+    public String getCachedFileHandleId(String projectId, String attachmentId) {
+        return fileHandleIdCache.getIfPresent(makeCacheKey(projectId, attachmentId));
+    }
+
+    /**
+     * Gets the file handle ID for the given attachment, from the in-process LRU if present, otherwise from DDB.
+     *
+     * @param projectId
+     *         Synapse project ID the attachment was uploaded to
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @return file handle ID, or null if the attachment hasn't been uploaded to this project before
+     */
+    public String getFileHandleId(String projectId, String attachmentId) {
+        String cacheKey = makeCacheKey(projectId, attachmentId);
+        String fileHandleId = fileHandleIdCache.getIfPresent(cacheKey);
+        if (fileHandleId != null) {
+            return fileHandleId;
+        }
+
+        try {
+            Item item = ddbAttachmentFileHandleTable.getItem(DDB_KEY_ATTACHMENT_ID, attachmentId, DDB_KEY_PROJECT_ID,
+                    projectId);
+            if (item != null) {
+                fileHandleId = item.getString(DDB_KEY_FILE_HANDLE_ID);
+            }
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error getting file handle for attachment " + attachmentId + ", project " + projectId + ": " +
+                    ex.getMessage(), ex);
+            return null;
+        }
+
+        if (fileHandleId != null) {
+            fileHandleIdCache.put(cacheKey, fileHandleId);
+        }
+        return fileHandleId;
+    }
+
+    /**
+     * Saves the file handle ID for the given attachment, to both the in-process LRU and DDB.
+     *
+     * @param projectId
+     *         Synapse project ID the attachment was uploaded to
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @param fileHandleId
+     *         file handle ID the attachment was uploaded to
+     */
+    public void putFileHandleId(String projectId, String attachmentId, String fileHandleId) {
+        fileHandleIdCache.put(makeCacheKey(projectId, attachmentId), fileHandleId);
+
+        try {
+            Item item = new Item().withPrimaryKey(DDB_KEY_ATTACHMENT_ID, attachmentId, DDB_KEY_PROJECT_ID, projectId)
+                    .withString(DDB_KEY_FILE_HANDLE_ID, fileHandleId);
+            ddbAttachmentFileHandleTable.putItem(item);
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error saving file handle " + fileHandleId + " for attachment " + attachmentId + ", project " +
+                    projectId + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private static String makeCacheKey(String projectId, String attachmentId) {
+        return projectId + ':' + attachmentId;
+    }
+}
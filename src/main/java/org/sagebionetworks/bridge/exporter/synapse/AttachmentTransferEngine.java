@@ -0,0 +1,219 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.Resource;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.file.FileHandle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.metrics.ThrottlingStatsProvider;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
+
+/**
+ * <p>
+ * Transfers health data attachments from S3 to Synapse file handles on a dedicated I/O thread pool, so export workers
+ * don't wait on the network. Each transfer returns a future for the Synapse file handle ID. Export handlers set these
+ * futures as pending values in the TSV row, and the row is written once all of its attachments have resolved.
+ * </p>
+ * <p>
+ * The attachment size comes from the S3 object metadata. Attachments up to attachment.transfer.stream.max.mb are
+ * streamed from S3 straight into the Synapse upload, without touching local disk. Bigger attachments are downloaded
+ * to a temp file first, so the upload has a rewindable source and a failed upload doesn't mean streaming the whole
+ * attachment from S3 again.
+ * </p>
+ * <p>
+ * Before transferring, the engine checks the {@link AttachmentFileHandleCache}. If the attachment was already uploaded
+ * to the same project (for example, because the record is being redriven), the old file handle is reused, and nothing
+ * is transferred. The in-process LRU is checked on the calling thread. DDB is checked on the transfer thread.
+ * </p>
+ * <p>
+ * Transfers are bounded in three ways, all configured separately from the export worker pool:
+ * </p>
+ * <ul>
+ * <li>The number of in-flight transfers (queued or running). Callers block when this is full, which keeps export
+ * workers from queueing up an unbounded number of attachments.</li>
+ * <li>The number of bytes being transferred at once. Attachments bigger than the whole budget are transferred by
+ * themselves.</li>
+ * <li>The rate of Synapse file handle uploads, using a rate limiter separate from the Synapse helper's rate limiters.
+ * This starts at attachment.transfer.rate.limit.per.second and backs off when Synapse throttles, but never goes above
+ * the configured rate.</li>
+ * </ul>
+ */
+@Component
+public class AttachmentTransferEngine implements ThrottlingStatsProvider {
+    // Config keys. Package-scoped to allow unit tests to mock.
+    static final String CONFIG_KEY_MAX_IN_FLIGHT = "attachment.transfer.max.in.flight";
+    static final String CONFIG_KEY_MAX_IN_FLIGHT_MB = "attachment.transfer.max.in.flight.mb";
+    static final String CONFIG_KEY_RATE_LIMIT_PER_SECOND = "attachment.transfer.rate.limit.per.second";
+    static final String CONFIG_KEY_STREAM_MAX_MB = "attachment.transfer.stream.max.mb";
+
+    // In-flight bytes are tracked in KB, so the semaphore permits don't overflow.
+    private static final int BYTES_PER_PERMIT = 1024;
+    private static final int PERMITS_PER_MB = 1024;
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    // Config
+    private Semaphore inFlightTransferSemaphore;
+    private Semaphore inFlightKbSemaphore;
+    private int maxInFlightKb;
+    private long streamMaxBytes;
+
+    // Spring helpers
+    private AttachmentFileHandleCache attachmentFileHandleCache;
+    private ExecutorService executor;
+    private FileHelper fileHelper;
+    private SynapseHelper synapseHelper;
+
+    // Rate limiter for attachment uploads to Synapse.
+    private final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter("attachmentTransfer", 10.0);
+
+    /** Config, used to get transfer concurrency, in-flight bytes, and rate limits. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.inFlightTransferSemaphore = new Semaphore(config.getInt(CONFIG_KEY_MAX_IN_FLIGHT));
+        this.maxInFlightKb = config.getInt(CONFIG_KEY_MAX_IN_FLIGHT_MB) * PERMITS_PER_MB;
+        this.inFlightKbSemaphore = new Semaphore(maxInFlightKb);
+        int rateLimitPerSecond = config.getInt(CONFIG_KEY_RATE_LIMIT_PER_SECOND);
+        rateLimiter.configure(rateLimitPerSecond,
+                config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_MIN_PER_SECOND), rateLimitPerSecond,
+                config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_INCREASE_PER_SECOND),
+                config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_DECREASE_PERCENT) / 100.0);
+        this.streamMaxBytes = config.getInt(CONFIG_KEY_STREAM_MAX_MB) * BYTES_PER_MB;
+    }
+
+    /** Cache of previously uploaded attachments, so we don't upload the same attachment twice. */
+    @Autowired
+    public final void setAttachmentFileHandleCache(AttachmentFileHandleCache attachmentFileHandleCache) {
+        this.attachmentFileHandleCache = attachmentFileHandleCache;
+    }
+
+    /** Executor that runs attachment transfers. */
+    @Resource(name = "attachmentTransferExecutorService")
+    public final void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /** File helper, used to clean up temp files. */
+    @Autowired
+    public final void setFileHelper(FileHelper fileHelper) {
+        this.fileHelper = fileHelper;
+    }
+
+    /** Synapse helper, used to download attachments from S3 and upload them to Synapse. */
+    @Autowired
+    public final void setSynapseHelper(SynapseHelper synapseHelper) {
+        this.synapseHelper = synapseHelper;
+    }
+
+    /** Attachment upload rate limiter, for stats reporting. */
+    @Override
+    public List<AdaptiveRateLimiter> getRateLimiters() {
+        return ImmutableList.of(rateLimiter);
+    }
+
+    /**
+     * Asynchronously downloads the specified health data attachment from S3 and uploads it to Synapse as a file
+     * handle. If too many transfers are already in flight, this blocks until one finishes. If the attachment is in the
+     * in-process cache, this returns an already completed future without blocking.
+     *
+     * @param tmpDir
+     *         temporary directory to use as scratch space for downloading from S3 and uploading to Synapse
+     * @param projectId
+     *         synapse project ID to upload
+     * @param fieldDef
+     *         field definition, used to determine file name, extension, and MIME type
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @return future for the uploaded Synapse file handle ID, which resolves to null if no file handle was created
+     */
+    public CompletableFuture<String> uploadFromS3ToSynapseFileHandleAsync(File tmpDir, String projectId,
+            UploadFieldDefinition fieldDef, String attachmentId) {
+        String cachedFileHandleId = attachmentFileHandleCache.getCachedFileHandleId(projectId, attachmentId);
+        if (cachedFileHandleId != null) {
+            return CompletableFuture.completedFuture(cachedFileHandleId);
+        }
+
+        inFlightTransferSemaphore.acquireUninterruptibly();
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(transfer(tmpDir, projectId, fieldDef, attachmentId));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    inFlightTransferSemaphore.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Executor rejected the transfer.
+            inFlightTransferSemaphore.release();
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    // Does the actual transfer. This runs on the attachment transfer executor.
+    private String transfer(File tmpDir, String projectId, UploadFieldDefinition fieldDef, String attachmentId)
+            throws InterruptedException, IOException, SynapseException {
+        // If this attachment was already uploaded to this project, reuse the file handle.
+        String cachedFileHandleId = attachmentFileHandleCache.getFileHandleId(projectId, attachmentId);
+        if (cachedFileHandleId != null) {
+            return cachedFileHandleId;
+        }
+
+        // don't upload empty files
+        long fileSize = synapseHelper.getAttachmentSize(attachmentId);
+        if (fileSize == 0) {
+            return null;
+        }
+
+        // Reserve the file's size against the in-flight bytes budget. Files bigger than the whole budget take the
+        // whole budget.
+        int permits = (int) Math.min(maxInFlightKb, Math.max(1, (fileSize + BYTES_PER_PERMIT - 1) /
+                BYTES_PER_PERMIT));
+        inFlightKbSemaphore.acquire(permits);
+        try {
+            String mimeType = SynapseHelper.getMimeTypeForFieldDef(fieldDef);
+            FileHandle synapseFileHandle;
+            if (fileSize <= streamMaxBytes) {
+                synapseFileHandle = synapseHelper.relayAttachmentToSynapseFileHandleWithRetry(attachmentId,
+                        fileSize, SynapseHelper.generateFilename(fieldDef, attachmentId), mimeType, projectId,
+                        rateLimiter);
+            } else {
+                synapseFileHandle = transferWithTempFile(tmpDir, projectId, fieldDef, attachmentId, mimeType);
+            }
+            String fileHandleId = synapseFileHandle.getId();
+            attachmentFileHandleCache.putFileHandleId(projectId, attachmentId, fileHandleId);
+            return fileHandleId;
+        } finally {
+            inFlightKbSemaphore.release(permits);
+        }
+    }
+
+    // Downloads the attachment to a temp file, then uploads the temp file. Used for attachments that are too big to
+    // stream.
+    private FileHandle transferWithTempFile(File tmpDir, String projectId, UploadFieldDefinition fieldDef,
+            String attachmentId, String mimeType) throws IOException, SynapseException {
+        File tempFile = synapseHelper.downloadAttachment(tmpDir, fieldDef, attachmentId);
+        try {
+            return synapseHelper.createAttachmentFileHandleWithRetry(tempFile, mimeType, projectId, rateLimiter);
+        } finally {
+            // delete temp file
+            fileHelper.deleteFile(tempFile);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Resource;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
+
+/**
+ * <p>
+ * Remembers the Synapse column ID for each column model we've created, keyed by column name, type, and max length.
+ * Column models in Synapse are immutable and content-addressed, so creating the same column model twice always returns
+ * the same ID. Every table shares the common columns from ColumnDefinition.json, and most schema revisions share most
+ * of their fields, so this lets us skip sending columns Synapse has already seen.
+ * </p>
+ * <p>
+ * The mapping is persisted in the ColumnModelIds DDB table under the exporter DDB prefix. The whole table is loaded
+ * into memory the first time it's needed, since it only grows by one item per distinct column. DDB errors are logged
+ * and otherwise ignored. A failed load or lookup just means we send the column to Synapse again.
+ * </p>
+ * <p>
+ * Only name, type, and max length are part of the key. Column models with a default value or enum values aren't
+ * cached, since those are also part of the column's identity in Synapse. BridgeEX never sets them.
+ * </p>
+ */
+@Component
+public class ColumnModelIdCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnModelIdCache.class);
+
+    // Shared constants.
+    public static final String DDB_TABLE_COLUMN_MODEL_IDS = "ColumnModelIds";
+    public static final String DDB_KEY_COLUMN_ID = "columnId";
+    public static final String DDB_KEY_COLUMN_KEY = "columnKey";
+
+    // In-process cache, keyed by column key. See makeColumnKey().
+    private final Map<String, String> columnIdsByKey = new ConcurrentHashMap<>();
+    private volatile boolean loaded = false;
+
+    // Spring helpers
+    private Table ddbColumnModelIdTable;
+    private DynamoScanHelper ddbScanHelper;
+
+    /** DDB table that persists the column key to column ID mapping. */
+    @Resource(name = "ddbColumnModelIdTable")
+    public final void setDdbColumnModelIdTable(Table ddbColumnModelIdTable) {
+        this.ddbColumnModelIdTable = ddbColumnModelIdTable;
+    }
+
+    /** DDB scan helper, used to load the whole table on first use. */
+    @Autowired
+    public final void setDdbScanHelper(DynamoScanHelper ddbScanHelper) {
+        this.ddbScanHelper = ddbScanHelper;
+    }
+
+    /**
+     * Gets the Synapse column ID for the given column model.
+     *
+     * @param columnModel
+     *         column model to look up, generally without an ID
+     * @return column ID, or null if this column model hasn't been created before or can't be cached
+     */
+    public String getColumnId(ColumnModel columnModel) {
+        String columnKey = makeColumnKey(columnModel);
+        if (columnKey == null) {
+            return null;
+        }
+
+        loadIfNeeded();
+        return columnIdsByKey.get(columnKey);
+    }
+
+    /**
+     * Saves the Synapse column ID for the given column model, to both the in-process cache and DDB. Does nothing if the
+     * column model can't be cached.
+     *
+     * @param columnModel
+     *         column model that was created
+     * @param columnId
+     *         column ID Synapse returned for the column model
+     */
+    public void putColumnId(ColumnModel columnModel, String columnId) {
+        String columnKey = makeColumnKey(columnModel);
+        if (columnKey == null || columnId == null) {
+            return;
+        }
+
+        String oldColumnId = columnIdsByKey.put(columnKey, columnId);
+        if (columnId.equals(oldColumnId)) {
+            // Already persisted.
+            return;
+        }
+
+        try {
+            Item item = new Item().withPrimaryKey(DDB_KEY_COLUMN_KEY, columnKey).withString(DDB_KEY_COLUMN_ID,
+                    columnId);
+            ddbColumnModelIdTable.putItem(item);
+        } catch (AmazonClientException ex) {
+            LOG.warn("Error saving column ID " + columnId + " for column " + columnKey + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    // Loads the whole DDB table into the in-process cache, the first time this is called. If the load fails, we try
+    // again next time.
+    private void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+
+            try {
+                int numItems = 0;
+                for (Item oneItem : ddbScanHelper.scan(ddbColumnModelIdTable)) {
+                    // Don't overwrite columns that were put while we were loading.
+                    columnIdsByKey.putIfAbsent(oneItem.getString(DDB_KEY_COLUMN_KEY),
+                            oneItem.getString(DDB_KEY_COLUMN_ID));
+                    numItems++;
+                }
+                loaded = true;
+                LOG.info("Loaded " + numItems + " column IDs from DDB");
+            } catch (AmazonClientException ex) {
+                LOG.warn("Error loading column IDs from DDB: " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // Makes the cache key for the column model, or returns null if the column model can't be cached.
+    static String makeColumnKey(ColumnModel columnModel) {
+        if (columnModel.getDefaultValue() != null ||
+                (columnModel.getEnumValues() != null && !columnModel.getEnumValues().isEmpty())) {
+            return null;
+        }
+        return columnModel.getName() + '\t' + columnModel.getColumnType() + '\t' + columnModel.getMaximumSize();
+    }
+}
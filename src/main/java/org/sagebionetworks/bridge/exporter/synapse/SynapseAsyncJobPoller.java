@@ -0,0 +1,243 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Resource;
+
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+
+/**
+ * <p>
+ * Polls Synapse async jobs (TSV imports, table transactions, table queries) for all callers on a small shared
+ * scheduler, instead of each caller sleeping in its own loop. Callers start the job, then call {@link #poll} with a
+ * check that returns the job result, or null if the job isn't done. This returns a CompletableFuture, which completes
+ * with the result, completes exceptionally with whatever non-retryable exception the check throws, or completes
+ * exceptionally with a TimeoutException if the job isn't done after synapse.async.timeout.loops checks.
+ * </p>
+ * <p>
+ * Checks run on a small shared scheduler, so they must not block. Each check should make a single call, without
+ * waiting on rate limiters or sleeping between retries. If the check throws a retryable exception (see
+ * {@link RetryPolicy#isRetryable}), the poller checks again after the next backoff delay, the same as if the job
+ * weren't done. This counts towards synapse.async.timeout.loops. Callers that rate limit their checks pass in the
+ * rate limiter. Before each check, the poller tries to acquire a permit without waiting. If there isn't one, it
+ * tries again after one permit interval, without making the check or counting it.
+ * </p>
+ * <p>
+ * Backoff is adaptive. The first check happens after synapse.async.poll.initial.delay.millis, so small jobs finish
+ * quickly. After that, the delay doubles after each check, up to synapse.async.interval.millis.
+ * </p>
+ * <p>
+ * Job counts, check counts, and job latency are cumulative since the process started, and are logged with the
+ * metrics for each request. See MetricsHelper.
+ * </p>
+ */
+@Component
+public class SynapseAsyncJobPoller {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseAsyncJobPoller.class);
+
+    // Config keys. Package-scoped to allow unit tests to mock.
+    static final String CONFIG_KEY_INITIAL_DELAY_MILLIS = "synapse.async.poll.initial.delay.millis";
+    static final String CONFIG_KEY_MAX_DELAY_MILLIS = "synapse.async.interval.millis";
+    static final String CONFIG_KEY_MAX_CHECKS = "synapse.async.timeout.loops";
+
+    /**
+     * Checks whether an async job is done.
+     *
+     * @param <T>
+     *         job result type
+     */
+    @FunctionalInterface
+    public interface AsyncJobCheck<T> {
+        /** Returns the job result, or null if the job isn't done yet. */
+        T check() throws Exception;
+    }
+
+    // config
+    private long initialDelayMillis;
+    private long maxDelayMillis;
+    private int maxChecks;
+
+    // Spring helpers
+    private ScheduledExecutorService executor;
+
+    // stats
+    private final AtomicInteger numJobsInFlight = new AtomicInteger();
+    private final AtomicLong numJobsCompleted = new AtomicLong();
+    private final AtomicLong numJobsFailed = new AtomicLong();
+    private final AtomicLong numJobsTimedOut = new AtomicLong();
+    private final AtomicLong numChecks = new AtomicLong();
+    private final AtomicLong totalJobLatencyMillis = new AtomicLong();
+
+    /** Config, used to get the backoff and timeout settings. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.initialDelayMillis = config.getInt(CONFIG_KEY_INITIAL_DELAY_MILLIS);
+        this.maxDelayMillis = config.getInt(CONFIG_KEY_MAX_DELAY_MILLIS);
+        this.maxChecks = config.getInt(CONFIG_KEY_MAX_CHECKS);
+    }
+
+    /** Scheduler that runs the checks for all outstanding jobs. */
+    @Resource(name = "synapseAsyncPollerExecutorService")
+    public final void setExecutor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Polls an async job until it's done. This returns right away. The check is called on the poller's scheduler.
+     *
+     * @param jobDescription
+     *         description of the job, for logging
+     * @param check
+     *         returns the job result, or null if the job isn't done yet
+     * @param <T>
+     *         job result type
+     * @return future that completes with the job result
+     */
+    public <T> CompletableFuture<T> poll(String jobDescription, AsyncJobCheck<T> check) {
+        return poll(jobDescription, null, check);
+    }
+
+    /**
+     * Polls an async job until it's done, acquiring a permit from the given rate limiter before each check. This
+     * returns right away. The check is called on the poller's scheduler.
+     *
+     * @param jobDescription
+     *         description of the job, for logging
+     * @param rateLimiter
+     *         rate limiter for the checks, or null if the checks aren't rate limited
+     * @param check
+     *         returns the job result, or null if the job isn't done yet
+     * @param <T>
+     *         job result type
+     * @return future that completes with the job result
+     */
+    public <T> CompletableFuture<T> poll(String jobDescription, AdaptiveRateLimiter rateLimiter,
+            AsyncJobCheck<T> check) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        numJobsInFlight.incrementAndGet();
+        long startMillis = DateTimeUtils.currentTimeMillis();
+        future.whenComplete((result, ex) -> {
+            numJobsInFlight.decrementAndGet();
+            long latencyMillis = DateTimeUtils.currentTimeMillis() - startMillis;
+            totalJobLatencyMillis.addAndGet(latencyMillis);
+            if (ex == null) {
+                numJobsCompleted.incrementAndGet();
+            } else if (ex instanceof TimeoutException) {
+                numJobsTimedOut.incrementAndGet();
+            } else {
+                numJobsFailed.incrementAndGet();
+            }
+            LOG.debug("Synapse async job " + jobDescription + " finished in " + latencyMillis + " ms");
+        });
+
+        scheduleCheck(jobDescription, rateLimiter, check, future, 1, initialDelayMillis);
+        return future;
+    }
+
+    // Helper method which schedules the next check for a job.
+    private <T> void scheduleCheck(String jobDescription, AdaptiveRateLimiter rateLimiter, AsyncJobCheck<T> check,
+            CompletableFuture<T> future, int checkNum, long delayMillis) {
+        scheduleCheck(jobDescription, rateLimiter, check, future, checkNum, delayMillis, delayMillis);
+    }
+
+    // Same as above, except the check runs after scheduleDelayMillis instead of the backoff delay. This is used when
+    // the check is waiting for a rate limiter permit, so the backoff doesn't grow while it waits.
+    private <T> void scheduleCheck(String jobDescription, AdaptiveRateLimiter rateLimiter, AsyncJobCheck<T> check,
+            CompletableFuture<T> future, int checkNum, long delayMillis, long scheduleDelayMillis) {
+        try {
+            executor.schedule(() -> runCheck(jobDescription, rateLimiter, check, future, checkNum, delayMillis),
+                    scheduleDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // Scheduler is shutting down.
+            future.completeExceptionally(ex);
+        }
+    }
+
+    // Runs a single check. Completes the future if the job is done or failed. Otherwise, or if the check failed with a
+    // retryable error, schedules the next check with a longer delay.
+    private <T> void runCheck(String jobDescription, AdaptiveRateLimiter rateLimiter, AsyncJobCheck<T> check,
+            CompletableFuture<T> future, int checkNum, long delayMillis) {
+        if (future.isDone()) {
+            // Caller cancelled the job.
+            return;
+        }
+
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            // Don't block the scheduler waiting for a permit. Try again once the next permit should be available.
+            long permitIntervalMillis = (long) Math.ceil(1000.0 / rateLimiter.getRate());
+            scheduleCheck(jobDescription, rateLimiter, check, future, checkNum, delayMillis, permitIntervalMillis);
+            return;
+        }
+
+        numChecks.incrementAndGet();
+        T result;
+        try {
+            result = check.check();
+        } catch (Exception ex) {
+            if (!RetryPolicy.isRetryable(ex) || checkNum >= maxChecks) {
+                future.completeExceptionally(ex);
+                return;
+            }
+            LOG.warn("Retrying check for Synapse async job " + jobDescription + " after check " + checkNum + ": " +
+                    ex.getMessage());
+            result = null;
+        } catch (Error err) {
+            // Don't let errors escape, or the future never completes.
+            future.completeExceptionally(err);
+            return;
+        }
+
+        if (result != null) {
+            future.complete(result);
+        } else if (checkNum >= maxChecks) {
+            future.completeExceptionally(new TimeoutException("Timed out waiting for Synapse async job " +
+                    jobDescription + " after " + checkNum + " checks"));
+        } else {
+            long nextDelayMillis = Math.min(Math.max(delayMillis * 2, 1), maxDelayMillis);
+            scheduleCheck(jobDescription, rateLimiter, check, future, checkNum + 1, nextDelayMillis);
+        }
+    }
+
+    /** Number of jobs currently being polled. */
+    public int getNumJobsInFlight() {
+        return numJobsInFlight.get();
+    }
+
+    /** Number of jobs that completed successfully. */
+    public long getNumJobsCompleted() {
+        return numJobsCompleted.get();
+    }
+
+    /** Number of jobs that failed. */
+    public long getNumJobsFailed() {
+        return numJobsFailed.get();
+    }
+
+    /** Number of jobs that timed out. */
+    public long getNumJobsTimedOut() {
+        return numJobsTimedOut.get();
+    }
+
+    /** Total number of checks across all jobs. */
+    public long getNumChecks() {
+        return numChecks.get();
+    }
+
+    /** Total time from starting to poll to job completion, across all finished jobs. */
+    public long getTotalJobLatencyMillis() {
+        return totalJobLatencyMillis.get();
+    }
+}
@@ -2,26 +2,34 @@ package org.sagebionetworks.bridge.exporter.synapse;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Resource;
 
-import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.SetMultimap;
-import com.google.common.util.concurrent.RateLimiter;
-import com.jcabi.aspects.RetryOnFailure;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.sagebionetworks.client.SynapseClient;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
 import org.sagebionetworks.repo.model.ACCESS_TYPE;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.ResourceAccess;
@@ -48,30 +56,46 @@ import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.metrics.ThrottlingStatsProvider;
+import org.sagebionetworks.bridge.exporter.retry.RetryBudget;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.PooledBufferedInputStream;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadFieldType;
 import org.sagebionetworks.bridge.s3.S3Helper;
-import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 
 /** Helper class for Synapse calls, including complex logic around asynchronous calls and retry helper. */
 @Component
-public class SynapseHelper {
+public class SynapseHelper implements ThrottlingStatsProvider {
     private static final Logger LOG = LoggerFactory.getLogger(SynapseHelper.class);
 
     private static final long APPEND_TIMEOUT_MILLISECONDS = 30 * 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 5000;
 
     // Config keys. Package-scoped to allow unit tests to mock.
-    static final String CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS = "synapse.async.interval.millis";
-    static final String CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS = "synapse.async.timeout.loops";
+    static final String CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND =
+            "synapse.async.poll.rate.limit.per.second";
     static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND = "synapse.rate.limit.per.second";
+    static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_DECREASE_PERCENT = "synapse.rate.limit.decrease.percent";
+    static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_INCREASE_PER_SECOND = "synapse.rate.limit.increase.per.second";
+    static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_MAX_PER_SECOND = "synapse.rate.limit.max.per.second";
+    static final String CONFIG_KEY_SYNAPSE_RATE_LIMIT_MIN_PER_SECOND = "synapse.rate.limit.min.per.second";
     static final String CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE =
             "synapse.get.column.models.rate.limit.per.minute";
 
+    // HTTP status code Synapse uses when throttling. 503 means Synapse is down, which aborts and restarts the export
+    // (see ExportWorkerManager.isSynapseDown), so it doesn't count as throttling.
+    private static final int THROTTLE_STATUS_CODE = 429;
+
     // Shared constants.
     public static final Set<ACCESS_TYPE> ACCESS_TYPE_ALL = ImmutableSet.copyOf(ACCESS_TYPE.values());
     public static final Set<ACCESS_TYPE> ACCESS_TYPE_READ = ImmutableSet.of(ACCESS_TYPE.READ, ACCESS_TYPE.DOWNLOAD);
     public static final String DDB_TABLE_SYNAPSE_META_TABLES = "SynapseMetaTables";
+    public static final String DDB_TABLE_SYNAPSE_TABLES = "SynapseTables";
+    public static final String DDB_KEY_SCHEMA_KEY = "schemaKey";
     public static final String DDB_KEY_TABLE_NAME = "tableName";
 
     // Map of allowed column type changes. Key is the old type. Value is the new type.
@@ -175,35 +199,205 @@ public class SynapseHelper {
                     .build();
 
     // config
-    private int asyncIntervalMillis;
-    private int asyncTimeoutLoops;
     private String attachmentBucket;
 
     // Spring helpers
+    private SynapseAsyncJobPoller asyncJobPoller;
+    private AttachmentFileHandleCache attachmentFileHandleCache;
+    private ColumnModelIdCache columnModelIdCache;
     private FileHelper fileHelper;
+    private AmazonS3Client s3Client;
     private S3Helper s3Helper;
     private SynapseClient synapseClient;
 
-    // Rate limiter, used to limit the amount of traffic to Synapse. Synapse throttles at 10 requests per second.
-    private final RateLimiter rateLimiter = RateLimiter.create(10.0);
+    // Rate limiters, used to limit the amount of traffic to Synapse, one for each class of Synapse operation. Synapse
+    // throttles at about 10 requests per second across all calls, but this varies with load. The synapse.rate.limit.*
+    // settings are the budget for all of these limiters combined, enforced by synapseRateLimiter. Each class of
+    // operation can use the whole budget when the others are idle, and each adapts to throttling of its own calls.
+    // See AdaptiveRateLimiter.
+    private final AdaptiveRateLimiter synapseRateLimiter = new AdaptiveRateLimiter("synapse", 10.0);
+    private final AdaptiveRateLimiter aclRateLimiter = new AdaptiveRateLimiter("synapseAcl", 10.0,
+            synapseRateLimiter);
+    private final AdaptiveRateLimiter columnModelRateLimiter = new AdaptiveRateLimiter("synapseColumnModel", 10.0,
+            synapseRateLimiter);
+    private final AdaptiveRateLimiter fileHandleRateLimiter = new AdaptiveRateLimiter("synapseFileHandle", 10.0,
+            synapseRateLimiter);
+    private final AdaptiveRateLimiter tableRateLimiter = new AdaptiveRateLimiter("synapseTable", 10.0,
+            synapseRateLimiter);
+    private final List<AdaptiveRateLimiter> sharedRateLimiterList = ImmutableList.of(synapseRateLimiter,
+            aclRateLimiter, columnModelRateLimiter, fileHandleRateLimiter, tableRateLimiter);
+
+    // Rate limiter for async job status checks. The poller acquires these permits without blocking, so these checks
+    // have their own allowance, separate from the shared budget. Otherwise, upload threads blocked waiting on the
+    // shared budget would take every permit, and running jobs would time out without being checked.
+    private final AdaptiveRateLimiter asyncPollRateLimiter = new AdaptiveRateLimiter("synapseAsyncPoll", 5.0);
 
     // Rate limiter for getColumnModelsForEntity(). This is rate limited to 6 per minute per host, for each of 8 hosts,
-    // for a total of 48 calls per minute. Add a safety factor and rate limit to 24 per minute.
-    private final RateLimiter getColumnModelsRateLimiter = RateLimiter.create(24.0 / 60.0);
+    // for a total of 48 calls per minute. Add a safety factor and rate limit to 24 per minute. This never goes above
+    // the configured rate, but still backs off if Synapse throttles.
+    private final AdaptiveRateLimiter getColumnModelsRateLimiter = new AdaptiveRateLimiter("synapseGetColumnModels",
+            24.0 / 60.0);
+
+    // Retry policies, one for each Synapse operation, so retry stats are reported per operation. These all share the
+    // retry budget. See RetryPolicy.
+    private final List<RetryPolicy> retryPolicyList = new ArrayList<>();
+    private final RetryPolicy appendRowsRetryPolicy = newRetryPolicy("synapseAppendRows", 2, 100);
+    private final RetryPolicy createAclRetryPolicy = newRetryPolicy("synapseCreateAcl", 2, 100);
+    private final RetryPolicy createAttachmentFileHandleRetryPolicy = newRetryPolicy(
+            "synapseCreateAttachmentFileHandle", 2, 1000);
+    private final RetryPolicy createColumnModelsRetryPolicy = newRetryPolicy("synapseCreateColumnModels", 2, 100);
+    private final RetryPolicy createFileHandleRetryPolicy = newRetryPolicy("synapseCreateFileHandle", 2, 1000);
+    private final RetryPolicy createTableRetryPolicy = newRetryPolicy("synapseCreateTable", 2, 100);
+    private final RetryPolicy downloadFileHandleRetryPolicy = newRetryPolicy("synapseDownloadFileHandle", 2, 100);
+    private final RetryPolicy getColumnModelsRetryPolicy = newRetryPolicy("synapseGetColumnModels", 2, 100);
+    private final RetryPolicy getStackStatusRetryPolicy = newRetryPolicy("synapseGetStackStatus", 5, 100);
+    private final RetryPolicy getTableRetryPolicy = newRetryPolicy("synapseGetTable", 2, 100);
+    private final RetryPolicy relayAttachmentRetryPolicy = newRetryPolicy("synapseRelayAttachment", 2, 1000);
+    private final RetryPolicy startTableTransactionRetryPolicy = newRetryPolicy("synapseStartTableTransaction", 2,
+            100);
+    private final RetryPolicy tableQueryRetryPolicy = newRetryPolicy("synapseTableQuery", 5, 100);
+    private final RetryPolicy updateTableRetryPolicy = newRetryPolicy("synapseUpdateTable", 2, 100);
+    private final RetryPolicy uploadTsvStartRetryPolicy = newRetryPolicy("synapseUploadTsvStart", 2, 100);
+
+    /** Synapse call, used to apply the rate limiters. See {@link #callWithLimiter}. */
+    @FunctionalInterface
+    private interface SynapseCall<T, E extends Exception> {
+        T call() throws E, SynapseException;
+    }
 
     /** Config, used to get the attachment S3 bucket to get Bridge attachments. */
     @Autowired
     public final void setConfig(Config config) {
-        this.asyncIntervalMillis = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS);
-        this.asyncTimeoutLoops = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS);
         this.attachmentBucket = config.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET);
 
-        int rateLimitPerSecond = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND);
-        rateLimiter.setRate(rateLimitPerSecond);
+        // The shared limiter and each class limiter all get the whole budget. The shared limiter keeps the combined
+        // rate within the budget.
+        double rateLimitPerSecond = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND);
+        double minRatePerSecond = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_MIN_PER_SECOND);
+        double maxRatePerSecond = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_MAX_PER_SECOND);
+        double increasePerSecond = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_INCREASE_PER_SECOND);
+        double decreaseFactor = config.getInt(CONFIG_KEY_SYNAPSE_RATE_LIMIT_DECREASE_PERCENT) / 100.0;
+        for (AdaptiveRateLimiter oneLimiter : sharedRateLimiterList) {
+            oneLimiter.configure(rateLimitPerSecond, minRatePerSecond, maxRatePerSecond, increasePerSecond,
+                    decreaseFactor);
+        }
+
+        // Back off to at most a quarter of the documented limit.
+        double getColumnModelsRatePerSecond = config.getInt(
+                CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE) / 60.0;
+        getColumnModelsRateLimiter.configure(getColumnModelsRatePerSecond, getColumnModelsRatePerSecond / 4,
+                getColumnModelsRatePerSecond, increasePerSecond, decreaseFactor);
+
+        // Async job checks also never go above the configured rate.
+        double asyncPollRatePerSecond = config.getInt(CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND);
+        asyncPollRateLimiter.configure(asyncPollRatePerSecond, asyncPollRatePerSecond / 4, asyncPollRatePerSecond,
+                increasePerSecond, decreaseFactor);
+    }
+
+    /**
+     * Returns true if the given exception means Synapse is throttling us. Package-scoped so the attachment transfer
+     * engine and unit tests can use it.
+     */
+    static boolean isThrottled(Throwable t) {
+        return t instanceof SynapseServerException &&
+                ((SynapseServerException) t).getStatusCode() == THROTTLE_STATUS_CODE;
+    }
+
+    /**
+     * Rate limiters configured from the synapse.rate.limit.* budget, starting with the shared limiter. Package-scoped
+     * for unit tests.
+     */
+    List<AdaptiveRateLimiter> getSharedRateLimiterList() {
+        return sharedRateLimiterList;
+    }
+
+    /** Rate limiter for async job status checks. Package-scoped for unit tests. */
+    AdaptiveRateLimiter getAsyncPollRateLimiter() {
+        return asyncPollRateLimiter;
+    }
+
+    /** Synapse rate limiters, for stats reporting. */
+    @Override
+    public List<AdaptiveRateLimiter> getRateLimiters() {
+        return ImmutableList.<AdaptiveRateLimiter>builder().addAll(sharedRateLimiterList).add(asyncPollRateLimiter)
+                .add(getColumnModelsRateLimiter).build();
+    }
 
-        int getColumnModelsRateLimitPerMinute = config.getInt(
-                CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE);
-        getColumnModelsRateLimiter.setRate(getColumnModelsRateLimitPerMinute / 60.0);
+    /** Synapse retry policies, for stats reporting. */
+    @Override
+    public List<RetryPolicy> getRetryPolicies() {
+        return ImmutableList.copyOf(retryPolicyList);
+    }
+
+    // Helper method which acquires a permit from the given limiter, makes the call, and tells the limiter whether the
+    // call succeeded or was throttled. Other errors don't affect the rate.
+    private static <T, E extends Exception> T callWithLimiter(AdaptiveRateLimiter limiter, SynapseCall<T, E> call)
+            throws E, SynapseException {
+        limiter.acquire();
+        return callWithAcquiredPermit(limiter, call);
+    }
+
+    // Helper method like callWithLimiter(), for callers that already have a permit. Used for async job checks, where
+    // the poller acquires the permit without blocking its scheduler.
+    private static <T, E extends Exception> T callWithAcquiredPermit(AdaptiveRateLimiter limiter,
+            SynapseCall<T, E> call) throws E, SynapseException {
+        T result;
+        try {
+            result = call.call();
+        } catch (SynapseException ex) {
+            onSynapseException(limiter, ex);
+            throw ex;
+        }
+        limiter.onSuccess();
+        return result;
+    }
+
+    // Helper method which tells the limiter if the exception was due to throttling.
+    private static void onSynapseException(AdaptiveRateLimiter limiter, SynapseException ex) {
+        if (isThrottled(ex)) {
+            limiter.onThrottle();
+        }
+    }
+
+    // Helper method which makes the call through the given rate limiter, retrying according to the given retry
+    // policy. Each retry acquires a new permit, so retries are rate limited too.
+    private static <T, E extends Exception> T callWithRetry(RetryPolicy retryPolicy, AdaptiveRateLimiter limiter,
+            SynapseCall<T, E> call) throws E, SynapseException {
+        RetryPolicy.Retrier retrier = retryPolicy.newRetrier();
+        while (true) {
+            try {
+                return callWithLimiter(limiter, call);
+            } catch (Exception ex) {
+                if (!retrier.shouldRetry(ex)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    // Helper method to create a retry policy and add it to the list, so it gets the retry budget.
+    private RetryPolicy newRetryPolicy(String name, int maxAttempts, long baseDelayMillis) {
+        RetryPolicy retryPolicy = new RetryPolicy(name, maxAttempts, baseDelayMillis, MAX_RETRY_DELAY_MILLIS);
+        retryPolicyList.add(retryPolicy);
+        return retryPolicy;
+    }
+
+    /** Polls Synapse async jobs, like TSV imports and table transactions, without holding a thread per job. */
+    @Autowired
+    public final void setAsyncJobPoller(SynapseAsyncJobPoller asyncJobPoller) {
+        this.asyncJobPoller = asyncJobPoller;
+    }
+
+    /** Cache of previously uploaded attachments, so we don't upload the same attachment twice. */
+    @Autowired
+    public final void setAttachmentFileHandleCache(AttachmentFileHandleCache attachmentFileHandleCache) {
+        this.attachmentFileHandleCache = attachmentFileHandleCache;
+    }
+
+    /** Cache of previously created column models, so we only send new columns to Synapse. */
+    @Autowired
+    public final void setColumnModelIdCache(ColumnModelIdCache columnModelIdCache) {
+        this.columnModelIdCache = columnModelIdCache;
     }
 
     /** File helper, used when we need to create a temporary file for downloads and uploads. */
@@ -212,6 +406,23 @@ public class SynapseHelper {
         this.fileHelper = fileHelper;
     }
 
+    /** Retry budget for Synapse calls, so Synapse retries stay within a fraction of Synapse calls. */
+    @Resource(name = "synapseRetryBudget")
+    public final void setRetryBudget(RetryBudget retryBudget) {
+        for (RetryPolicy oneRetryPolicy : retryPolicyList) {
+            oneRetryPolicy.setRetryBudget(retryBudget);
+        }
+    }
+
+    /**
+     * S3 client, used to get attachment metadata and to stream attachments from S3 to Synapse. See
+     * {@link #relayAttachmentToSynapseFileHandleWithRetry}.
+     */
+    @Autowired
+    public final void setS3Client(AmazonS3Client s3Client) {
+        this.s3Client = s3Client;
+    }
+
     /** S3 Helper, used to download Bridge attachments before uploading them to Synapse. */
     @Autowired
     public final void setS3Helper(S3Helper s3Helper) {
@@ -224,6 +435,26 @@ public class SynapseHelper {
         this.synapseClient = synapseClient;
     }
 
+    /**
+     * Computes a fingerprint of the given column list. Only the attributes that determine whether a table needs to be
+     * updated (name, type, and max length) are included, along with column order. Column IDs aren't included, since
+     * columns generated from the schema don't have IDs. The same column list always gives the same fingerprint, so
+     * this can be compared to the fingerprint of the columns last applied to a table.
+     *
+     * @param columnList
+     *         column list to fingerprint
+     * @return fingerprint, as a hex string
+     */
+    public static String computeColumnFingerprint(List<ColumnModel> columnList) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (ColumnModel oneColumn : columnList) {
+            hasher.putString(oneColumn.getName(), Charsets.UTF_8).putChar('\t');
+            hasher.putString(String.valueOf(oneColumn.getColumnType()), Charsets.UTF_8).putChar('\t');
+            hasher.putString(String.valueOf(oneColumn.getMaximumSize()), Charsets.UTF_8).putChar('\n');
+        }
+        return hasher.hash().toString();
+    }
+
     /**
      * Returns true if the old column can be converted to the new column in a meaningful way without data loss. Used to
      * determine if the schema changes, whether BridgeEX should try to modify the table.
@@ -415,7 +646,9 @@ public class SynapseHelper {
 
     /**
      * Downloads the specified health data attachment from S3 and uploads it to Synapse as a file handle. This is a
-     * fairly complex component, so it's made public to allow for partial mocking in tests.
+     * fairly complex component, so it's made public to allow for partial mocking in tests. If the attachment was
+     * already uploaded to this project, this returns the file handle from the {@link AttachmentFileHandleCache}
+     * instead.
      *
      * @param tmpDir
      *         temporary directory to use as scratch space for downloading from S3 and uploading to Synapse
@@ -433,6 +666,12 @@ public class SynapseHelper {
      */
     public String uploadFromS3ToSynapseFileHandle(File tmpDir, String projectId, UploadFieldDefinition fieldDef,
             String attachmentId) throws IOException, SynapseException {
+        // If this attachment was already uploaded to this project, reuse the file handle.
+        String cachedFileHandleId = attachmentFileHandleCache.getFileHandleId(projectId, attachmentId);
+        if (cachedFileHandleId != null) {
+            return cachedFileHandleId;
+        }
+
         // Create temp file with unique name based on field name, bridge type, and attachment ID.
         String uniqueFilename = generateFilename(fieldDef, attachmentId);
         File tempFile = fileHelper.newFile(tmpDir, uniqueFilename);
@@ -449,13 +688,131 @@ public class SynapseHelper {
 
             // upload to Synapse
             FileHandle synapseFileHandle = createFileHandleWithRetry(tempFile, mimeType, projectId);
-            return synapseFileHandle.getId();
+            String fileHandleId = synapseFileHandle.getId();
+            attachmentFileHandleCache.putFileHandleId(projectId, attachmentId, fileHandleId);
+            return fileHandleId;
         } finally {
             // delete temp file
             fileHelper.deleteFile(tempFile);
         }
     }
 
+    /**
+     * Downloads the specified health data attachment from S3 into a uniquely named temp file. If the download fails,
+     * the temp file is deleted. Otherwise, the caller is responsible for deleting the temp file. This is used by the
+     * {@link AttachmentTransferEngine}, which uploads the file to Synapse separately.
+     *
+     * @param tmpDir
+     *         temporary directory to download the attachment into
+     * @param fieldDef
+     *         field definition, used to determine file name and extension
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @return downloaded temp file
+     * @throws IOException
+     *         if downloading the attachment from S3 fails
+     */
+    public File downloadAttachment(File tmpDir, UploadFieldDefinition fieldDef, String attachmentId)
+            throws IOException {
+        String uniqueFilename = generateFilename(fieldDef, attachmentId);
+        File tempFile = fileHelper.newFile(tmpDir, uniqueFilename);
+
+        boolean success = false;
+        try {
+            s3Helper.downloadS3File(attachmentBucket, attachmentId, tempFile);
+            success = true;
+            return tempFile;
+        } finally {
+            if (!success) {
+                fileHelper.deleteFile(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Gets the size of the specified health data attachment in bytes, from the S3 object metadata, without
+     * downloading the attachment.
+     *
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @return attachment size in bytes
+     */
+    public long getAttachmentSize(String attachmentId) {
+        return s3Client.getObjectMetadata(attachmentBucket, attachmentId).getContentLength();
+    }
+
+    /**
+     * <p>
+     * Streams the specified health data attachment from S3 directly into a Synapse file handle upload, without
+     * writing it to local disk. The S3 object body is read through a {@link PooledBufferedInputStream}.
+     * </p>
+     * <p>
+     * The stream can't be rewound, so each retry re-opens the S3 object. If the upload fails, the S3 stream is aborted
+     * instead of drained.
+     * </p>
+     *
+     * @param attachmentId
+     *         attachment ID, also used as the S3 key into the attachments bucket
+     * @param fileSize
+     *         attachment size in bytes, from {@link #getAttachmentSize}
+     * @param filename
+     *         file name for the Synapse file handle
+     * @param contentType
+     *         file MIME type
+     * @param projectId
+     *         Synapse project to upload the file handle to
+     * @param attachmentRateLimiter
+     *         rate limiter for attachment uploads
+     * @return file handle object from Synapse
+     * @throws IOException
+     *         if reading from S3 fails
+     * @throws SynapseException
+     *         if the Synapse call fails
+     */
+    @SuppressWarnings("UnusedParameters")
+    public FileHandle relayAttachmentToSynapseFileHandleWithRetry(String attachmentId, long fileSize, String filename,
+            String contentType, String projectId, AdaptiveRateLimiter attachmentRateLimiter) throws IOException,
+            SynapseException {
+        RetryPolicy.Retrier retrier = relayAttachmentRetryPolicy.newRetrier();
+        while (true) {
+            try {
+                return relayAttachmentToSynapseFileHandle(attachmentId, fileSize, filename, contentType,
+                        attachmentRateLimiter);
+            } catch (Exception ex) {
+                if (!retrier.shouldRetry(ex)) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    // Helper method which makes a single attempt to relay an attachment from S3 to Synapse. See
+    // relayAttachmentToSynapseFileHandleWithRetry().
+    private FileHandle relayAttachmentToSynapseFileHandle(String attachmentId, long fileSize, String filename,
+            String contentType, AdaptiveRateLimiter attachmentRateLimiter) throws IOException, SynapseException {
+        attachmentRateLimiter.acquire();
+        S3ObjectInputStream s3Stream = s3Client.getObject(attachmentBucket, attachmentId).getObjectContent();
+        InputStream relayStream = new PooledBufferedInputStream(s3Stream);
+
+        boolean success = false;
+        try {
+            FileHandle synapseFileHandle = synapseClient.multipartUpload(relayStream, fileSize, filename,
+                    contentType, null, null, null);
+            attachmentRateLimiter.onSuccess();
+            success = true;
+            return synapseFileHandle;
+        } catch (SynapseException ex) {
+            onSynapseException(attachmentRateLimiter, ex);
+            throw ex;
+        } finally {
+            if (!success) {
+                // Don't read the rest of the object just to close the connection.
+                s3Stream.abort();
+            }
+            relayStream.close();
+        }
+    }
+
     // Helper method to generate a unique filename for attachments / file handles.
     // Package-scoped to facilitate testing.
     static String generateFilename(UploadFieldDefinition fieldDef, String attachmentId) {
@@ -513,9 +870,9 @@ public class SynapseHelper {
 
     /**
      * Helper method to get the MIME type for the given field definitions, using the field definitions parameters and
-     * its type.
+     * its type. Package-scoped so the attachment transfer engine can use it.
      */
-    private static String getMimeTypeForFieldDef(UploadFieldDefinition fieldDef) {
+    static String getMimeTypeForFieldDef(UploadFieldDefinition fieldDef) {
         // First try MIME type defined in the field def.
         String defMimeType = fieldDef.getMimeType();
         if (defMimeType != null) {
@@ -576,30 +933,9 @@ public class SynapseHelper {
         String jobToken = startTableTransactionWithRetry(changeList, tableId);
 
         // Poll async get until success or timeout.
-        boolean success = false;
-        List<TableUpdateResponse> responseList = null;
-        for (int loops = 0; loops < asyncTimeoutLoops; loops++) {
-            if (asyncIntervalMillis > 0) {
-                try {
-                    Thread.sleep(asyncIntervalMillis);
-                } catch (InterruptedException ex) {
-                    // noop
-                }
-            }
-
-            // poll
-            responseList = getTableTransactionResultWithRetry(jobToken, tableId);
-            if (responseList != null) {
-                success = true;
-                break;
-            }
-
-            // Result not ready. Loop around again.
-        }
-
-        if (!success) {
-            throw new BridgeExporterException("Timed out updating table columns for table " + tableId);
-        }
+        List<TableUpdateResponse> responseList = waitForAsyncJob(asyncJobPoller.poll("updateTableColumns-" + tableId,
+                asyncPollRateLimiter, () -> getTableTransactionResult(jobToken, tableId)),
+                "Timed out updating table columns for table " + tableId);
 
         // The list should have a single response, and it should be a TableSchemaChangeResponse.
         if (responseList.size() != 1) {
@@ -645,31 +981,10 @@ public class SynapseHelper {
         String jobToken = uploadTsvStartWithRetry(tableId, fileHandleId, tableDesc);
 
         // poll asyncGet until success or timeout
-        boolean success = false;
-        Long linesProcessed = null;
-        for (int loops = 0; loops < asyncTimeoutLoops; loops++) {
-            if (asyncIntervalMillis > 0) {
-                try {
-                    Thread.sleep(asyncIntervalMillis);
-                } catch (InterruptedException ex) {
-                    // noop
-                }
-            }
-
-            // poll
-            UploadToTableResult uploadResult = getUploadTsvStatus(jobToken, tableId);
-            if (uploadResult != null) {
-                linesProcessed = uploadResult.getRowsProcessed();
-                success = true;
-                break;
-            }
-
-            // Result not ready. Loop around again.
-        }
-
-        if (!success) {
-            throw new BridgeExporterException("Timed out uploading file handle " + fileHandleId);
-        }
+        UploadToTableResult uploadResult = waitForAsyncJob(asyncJobPoller.poll("uploadTsv-" + tableId,
+                asyncPollRateLimiter, () -> getUploadTsvStatus(jobToken, tableId)),
+                "Timed out uploading file handle " + fileHandleId);
+        Long linesProcessed = uploadResult.getRowsProcessed();
         if (linesProcessed == null) {
             // Not sure if Synapse will ever do this, but code defensively, just in case.
             throw new BridgeExporterException("Null rows processed");
@@ -678,6 +993,30 @@ public class SynapseHelper {
         return linesProcessed;
     }
 
+    // Helper method which waits for an async job polled by the SynapseAsyncJobPoller. Exceptions thrown while checking
+    // the job are rethrown as is, so callers can still tell when Synapse is down.
+    private static <T> T waitForAsyncJob(CompletableFuture<T> jobFuture, String timeoutMessage)
+            throws BridgeExporterException, SynapseException {
+        try {
+            return jobFuture.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            jobFuture.cancel(false);
+            throw new BridgeExporterException("Interrupted while waiting for Synapse: " + timeoutMessage, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new BridgeExporterException(timeoutMessage);
+            } else if (cause instanceof SynapseException) {
+                throw (SynapseException) cause;
+            } else if (cause instanceof BridgeExporterException) {
+                throw (BridgeExporterException) cause;
+            } else {
+                throw Throwables.propagate(cause);
+            }
+        }
+    }
+
     /**
      * Appends the given row set to the given Synapse table. This is a retry wrapper.
      *
@@ -690,12 +1029,12 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS,
-            types = { InterruptedException.class, SynapseException.class }, randomize = false)
     public void appendRowsToTableWithRetry(AppendableRowSet rowSet, String tableId) throws InterruptedException,
             SynapseException {
-        rateLimiter.acquire();
-        synapseClient.appendRowsToTable(rowSet, APPEND_TIMEOUT_MILLISECONDS, tableId);
+        callWithRetry(appendRowsRetryPolicy, tableRateLimiter, () -> {
+            synapseClient.appendRowsToTable(rowSet, APPEND_TIMEOUT_MILLISECONDS, tableId);
+            return null;
+        });
     }
 
     /**
@@ -707,11 +1046,8 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public AccessControlList createAclWithRetry(AccessControlList acl) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createACL(acl);
+        return callWithRetry(createAclRetryPolicy, aclRateLimiter, () -> synapseClient.createACL(acl));
     }
 
     /**
@@ -723,11 +1059,69 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public List<ColumnModel> createColumnModelsWithRetry(List<ColumnModel> columnList) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createColumnModels(columnList);
+        return callWithRetry(createColumnModelsRetryPolicy, columnModelRateLimiter,
+                () -> synapseClient.createColumnModels(columnList));
+    }
+
+    /**
+     * Creates column models in Synapse, skipping columns that have been created before. Column IDs for previously
+     * created columns come from the {@link ColumnModelIdCache}. Only the remaining columns are sent to Synapse, and
+     * their IDs are saved to the cache. If all columns are cached, this doesn't call Synapse at all.
+     *
+     * @param columnList
+     *         list of column models to create
+     * @return created column models, in the same order as the input, with column IDs filled in
+     * @throws BridgeExporterException
+     *         if Synapse returns the wrong number of columns
+     * @throws SynapseException
+     *         if the Synapse call fails
+     */
+    public List<ColumnModel> createColumnModelsWithCache(List<ColumnModel> columnList) throws BridgeExporterException,
+            SynapseException {
+        // Find the columns we haven't created before.
+        List<ColumnModel> resultList = new ArrayList<>();
+        List<Integer> uncachedIndexList = new ArrayList<>();
+        List<ColumnModel> uncachedColumnList = new ArrayList<>();
+        for (ColumnModel oneColumn : columnList) {
+            String columnId = columnModelIdCache.getColumnId(oneColumn);
+            if (columnId != null) {
+                resultList.add(copyColumnWithId(oneColumn, columnId));
+            } else {
+                uncachedIndexList.add(resultList.size());
+                uncachedColumnList.add(oneColumn);
+                resultList.add(null);
+            }
+        }
+
+        if (uncachedColumnList.isEmpty()) {
+            return resultList;
+        }
+
+        // Create the remaining columns and fill them into the results.
+        List<ColumnModel> createdColumnList = createColumnModelsWithRetry(uncachedColumnList);
+        if (createdColumnList.size() != uncachedColumnList.size()) {
+            throw new BridgeExporterException("Tried to create " + uncachedColumnList.size() + " columns. Actual: " +
+                    createdColumnList.size() + " columns.");
+        }
+        for (int i = 0; i < createdColumnList.size(); i++) {
+            ColumnModel createdColumn = createdColumnList.get(i);
+            columnModelIdCache.putColumnId(uncachedColumnList.get(i), createdColumn.getId());
+            resultList.set(uncachedIndexList.get(i), createdColumn);
+        }
+        LOG.info("Created " + uncachedColumnList.size() + " of " + columnList.size() + " columns in Synapse");
+        return resultList;
+    }
+
+    // Helper method to copy a column model definition and fill in the ID. This avoids modifying the caller's column
+    // models, which are often shared between tables.
+    private static ColumnModel copyColumnWithId(ColumnModel columnModel, String columnId) {
+        ColumnModel copy = new ColumnModel();
+        copy.setId(columnId);
+        copy.setName(columnModel.getName());
+        copy.setColumnType(columnModel.getColumnType());
+        copy.setMaximumSize(columnModel.getMaximumSize());
+        return copy;
     }
 
     /**
@@ -745,13 +1139,37 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 1, unit = TimeUnit.SECONDS,
-            types = { AmazonClientException.class, SynapseException.class }, randomize = false)
     @SuppressWarnings("UnusedParameters")
     public FileHandle createFileHandleWithRetry(File file, String contentType, String projectId) throws IOException,
             SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.multipartUpload(file, null, null, null);
+        return callWithRetry(createFileHandleRetryPolicy, fileHandleRateLimiter, () -> synapseClient.multipartUpload(
+                file, null, null, null));
+    }
+
+    /**
+     * Uploads a health data attachment to Synapse as a file handle. This is the same as
+     * {@link #createFileHandleWithRetry}, except that it's throttled by the given rate limiter instead of the Synapse
+     * file handle rate limiter, so attachment uploads can be rate limited separately from table and entity calls.
+     *
+     * @param file
+     *         file to upload
+     * @param contentType
+     *         file MIME type
+     * @param projectId
+     *         Synapse project to upload the file handle to
+     * @param attachmentRateLimiter
+     *         rate limiter for attachment uploads
+     * @return file handle object from Synapse
+     * @throws IOException
+     *         if reading the file from disk fails
+     * @throws SynapseException
+     *         if the Synapse call fails
+     */
+    @SuppressWarnings("UnusedParameters")
+    public FileHandle createAttachmentFileHandleWithRetry(File file, String contentType, String projectId,
+            AdaptiveRateLimiter attachmentRateLimiter) throws IOException, SynapseException {
+        return callWithRetry(createAttachmentFileHandleRetryPolicy, attachmentRateLimiter,
+                () -> synapseClient.multipartUpload(file, null, null, null));
     }
 
     /**
@@ -777,7 +1195,7 @@ public class SynapseHelper {
     public String createTableWithColumnsAndAcls(List<ColumnModel> columnList, long dataAccessTeamId,
             long principalId, String projectId, String tableName) throws BridgeExporterException, SynapseException {
         // Create columns
-        List<ColumnModel> createdColumnList = createColumnModelsWithRetry(columnList);
+        List<ColumnModel> createdColumnList = createColumnModelsWithCache(columnList);
         if (columnList.size() != createdColumnList.size()) {
             throw new BridgeExporterException("Error creating Synapse table " + tableName + ": Tried to create " +
                     columnList.size() + " columns. Actual: " + createdColumnList.size() + " columns.");
@@ -829,11 +1247,8 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public TableEntity createTableWithRetry(TableEntity table) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.createEntity(table);
+        return callWithRetry(createTableRetryPolicy, tableRateLimiter, () -> synapseClient.createEntity(table));
     }
 
     /**
@@ -846,11 +1261,11 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public void downloadFileHandleWithRetry(String fileHandleId, File toFile) throws SynapseException {
-        rateLimiter.acquire();
-        synapseClient.downloadFromFileHandleTemporaryUrl(fileHandleId, toFile);
+        callWithRetry(downloadFileHandleRetryPolicy, fileHandleRateLimiter, () -> {
+            synapseClient.downloadFromFileHandleTemporaryUrl(fileHandleId, toFile);
+            return null;
+        });
     }
 
     /**
@@ -862,11 +1277,9 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public boolean isSynapseWritable() throws JSONObjectAdapterException, SynapseException {
-        rateLimiter.acquire();
-        StackStatus status = synapseClient.getCurrentStackStatus();
+        StackStatus status = callWithRetry(getStackStatusRetryPolicy, tableRateLimiter,
+                synapseClient::getCurrentStackStatus);
         return status.getStatus() == StatusEnum.READ_WRITE;
     }
 
@@ -879,11 +1292,9 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public List<ColumnModel> getColumnModelsForTableWithRetry(String tableId) throws SynapseException {
-        getColumnModelsRateLimiter.acquire();
-        return synapseClient.getColumnModelsForTableEntity(tableId);
+        return callWithRetry(getColumnModelsRetryPolicy, getColumnModelsRateLimiter,
+                () -> synapseClient.getColumnModelsForTableEntity(tableId));
     }
 
     /**
@@ -895,11 +1306,25 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public TableEntity getTableWithRetry(String tableId) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.getEntity(tableId, TableEntity.class);
+        return callWithRetry(getTableRetryPolicy, tableRateLimiter, () -> synapseClient.getEntity(tableId,
+                TableEntity.class));
+    }
+
+    /**
+     * Creates an iterator over the results of the given query. Query calls are retried with the same retry budget as
+     * other Synapse calls.
+     *
+     * @param sql
+     *         SQL query to run, defaults to "SELECT * FROM [synapseTableId]"
+     * @param synapseTableId
+     *         synapse table ID to run the query against
+     * @return table iterator
+     * @throws SynapseException
+     *         if the Synapse call fails
+     */
+    public SynapseTableIterator newTableIterator(String sql, String synapseTableId) throws SynapseException {
+        return new SynapseTableIterator(asyncJobPoller, synapseClient, tableQueryRetryPolicy, sql, synapseTableId);
     }
 
     /**
@@ -913,38 +1338,36 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String startTableTransactionWithRetry(List<TableUpdateRequest> changeList, String tableId)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.startTableTransactionJob(changeList, tableId);
+        return callWithRetry(startTableTransactionRetryPolicy, tableRateLimiter,
+                () -> synapseClient.startTableTransactionJob(changeList, tableId));
     }
 
     /**
      * Polls Synapse to get the job status for a table transaction (such as a schema update request). If the job is not
-     * ready, this will return null instead of throwing a SynapseResultNotReadyException. This is to prevent spurious
-     * retries when a SynapseResultNotReadyException is thrown. This is a retry wrapper.
+     * ready, this will return null, so the async job poller checks again later. This makes a single call and doesn't
+     * acquire a rate limiter permit, since it runs on the poller's shared scheduler and must not block. The poller
+     * acquires the permit before each check and reschedules the check on retryable errors.
      *
      * @param jobToken
      *         job token from startTableTransactionWithRetry()
      * @param tableId
      *         table the job was working on
-     * @return response from the table update
+     * @return response from the table update, or null if the job isn't done
      * @throws SynapseException
      *         if the job fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
-    public List<TableUpdateResponse> getTableTransactionResultWithRetry(String jobToken, String tableId)
+    public List<TableUpdateResponse> getTableTransactionResult(String jobToken, String tableId)
             throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.getTableTransactionJobResults(jobToken, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithAcquiredPermit(asyncPollRateLimiter, () -> {
+            try {
+                return synapseClient.getTableTransactionJobResults(jobToken, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so the poller checks again later
+                return null;
+            }
+        });
     }
 
     /**
@@ -956,11 +1379,8 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public TableEntity updateTableWithRetry(TableEntity table) throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.putEntity(table);
+        return callWithRetry(updateTableRetryPolicy, tableRateLimiter, () -> synapseClient.putEntity(table));
     }
 
     /**
@@ -976,36 +1396,33 @@ public class SynapseHelper {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public String uploadTsvStartWithRetry(String tableId, String fileHandleId, CsvTableDescriptor tableDescriptor)
             throws SynapseException {
-        rateLimiter.acquire();
-        return synapseClient.uploadCsvToTableAsyncStart(tableId, fileHandleId, null, null, tableDescriptor, null);
+        return callWithRetry(uploadTsvStartRetryPolicy, tableRateLimiter,
+                () -> synapseClient.uploadCsvToTableAsyncStart(tableId, fileHandleId, null, null, tableDescriptor,
+                        null));
     }
 
     /**
-     * Polls Synapse to get the job status for the upload TSV to table job. If the job is not ready, this will return
-     * null instead of throwing a SynapseResultNotReadyException. This is to prevent spurious retries when a
-     * SynapseResultNotReadyException is thrown. This is a retry wrapper.
+     * Polls Synapse to get the job status for the upload TSV to table job. Like {@link #getTableTransactionResult},
+     * this returns null if the job is not ready, and leaves rate limiting and retries to the async job poller.
      *
      * @param jobToken
      *         job token from uploadTsvStartWithRetry()
      * @param tableId
      *         table the job was working on
-     * @return upload table result object
+     * @return upload table result object, or null if the job isn't done
      * @throws SynapseException
      *         if the job fails
      */
-    @RetryOnFailure(attempts = 2, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     public UploadToTableResult getUploadTsvStatus(String jobToken, String tableId) throws SynapseException {
-        try {
-            rateLimiter.acquire();
-            return synapseClient.uploadCsvToTableAsyncGet(jobToken, tableId);
-        } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
-            return null;
-        }
+        return callWithAcquiredPermit(asyncPollRateLimiter, () -> {
+            try {
+                return synapseClient.uploadCsvToTableAsyncGet(jobToken, tableId);
+            } catch (SynapseResultNotReadyException ex) {
+                // catch this and return null so the poller checks again later
+                return null;
+            }
+        });
     }
 }
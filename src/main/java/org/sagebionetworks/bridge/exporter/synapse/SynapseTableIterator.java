@@ -2,9 +2,11 @@ package org.sagebionetworks.bridge.exporter.synapse;
 
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
-import com.jcabi.aspects.RetryOnFailure;
+import com.google.common.base.Throwables;
 import org.apache.commons.lang.StringUtils;
 import org.sagebionetworks.client.SynapseClient;
 import org.sagebionetworks.client.exceptions.SynapseClientException;
@@ -16,13 +18,15 @@ import org.sagebionetworks.repo.model.table.QueryResultBundle;
 import org.sagebionetworks.repo.model.table.Row;
 import org.sagebionetworks.repo.model.table.SelectColumn;
 
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+
 /** Helper class to query Synapse tables and iterate over the results, abstracting away pagination. */
 // This doesn't implement Iterator, since Iterator's methods can't throw checked exceptions.
 public class SynapseTableIterator {
-    private static final int ASYNC_QUERY_TIMEOUT_SECONDS = 300;
-
     // Constructor args.
+    private final SynapseAsyncJobPoller asyncJobPoller;
     private final SynapseClient synapseClient;
+    private final RetryPolicy queryRetryPolicy;
     private final String synapseTableId;
 
     // Internal state tracking.
@@ -37,8 +41,13 @@ public class SynapseTableIterator {
     /**
      * Creates the Synapse table iterator with the specified args.
      *
+     * @param asyncJobPoller
+     *         poller used to wait for query results
      * @param synapseClient
      *         synapse client
+     * @param queryRetryPolicy
+     *         retry policy for starting queries, generally shared by all iterators, see
+     *         {@link SynapseHelper#newTableIterator}
      * @param sql
      *         SQL query to run, defaults to "SELECT * FROM [synapseTableId]"
      * @param synapseTableId
@@ -46,13 +55,15 @@ public class SynapseTableIterator {
      * @throws SynapseException
      *         if the synapse call fails
      */
-    public SynapseTableIterator(SynapseClient synapseClient, String sql, String synapseTableId)
-            throws SynapseException {
+    public SynapseTableIterator(SynapseAsyncJobPoller asyncJobPoller, SynapseClient synapseClient,
+            RetryPolicy queryRetryPolicy, String sql, String synapseTableId) throws SynapseException {
         if (StringUtils.isBlank(sql)) {
             sql = "SELECT * FROM " + synapseTableId;
         }
 
+        this.asyncJobPoller = asyncJobPoller;
         this.synapseClient = synapseClient;
+        this.queryRetryPolicy = queryRetryPolicy;
         this.synapseTableId = synapseTableId;
         this.asyncJobToken = queryTableAsyncStartWithRetry(sql);
     }
@@ -169,53 +180,49 @@ public class SynapseTableIterator {
     }
 
     private void fetchNextPage() throws SynapseException {
-        // poll asyncGet until success or timeout
-        boolean success = false;
-        for (int sec = 0; sec < ASYNC_QUERY_TIMEOUT_SECONDS; sec++) {
-            // sleep for 1 sec
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex) {
-                // noop
-            }
+        // Poll asyncGet until success or timeout. The job token changes with each page, so copy it for the check.
+        String jobToken = asyncJobToken;
+        if (firstPage) {
+            // This is the first page, so we call bundle get instead of next page get.
+            QueryResultBundle resultBundle = waitForQuery(asyncJobPoller.poll("queryTable-" + synapseTableId,
+                    () -> queryTableAsyncGet(jobToken)));
+            curResult = resultBundle.getQueryResult();
 
-            // poll
-            if (firstPage) {
-                // This is the first page, so we call bundle get instead of next page get.
-                QueryResultBundle resultBundle = queryTableAsyncGetWithRetry(asyncJobToken);
-                if (resultBundle == null) {
-                    // not ready, loop around again
-                    continue;
-                }
-                curResult = resultBundle.getQueryResult();
+            // fetch etag
+            etag = curResult.getQueryResults().getEtag();
+            headers = curResult.getQueryResults().getHeaders();
 
-                // fetch etag
-                etag = curResult.getQueryResults().getEtag();
-                headers = curResult.getQueryResults().getHeaders();
+            // This is no longer the first page.
+            firstPage = false;
+        } else {
+            // We're getting a next page.
+            curResult = waitForQuery(asyncJobPoller.poll("queryTableNextPage-" + synapseTableId,
+                    () -> queryTableNextPageAsyncGet(jobToken)));
+        }
+    }
 
-                // This is no longer the first page.
-                firstPage = false;
+    // Helper method which waits for a query page. Synapse exceptions are rethrown as is.
+    private <T> T waitForQuery(CompletableFuture<T> queryFuture) throws SynapseException {
+        try {
+            return queryFuture.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            queryFuture.cancel(false);
+            throw new SynapseClientException("Interrupted querying table " + synapseTableId, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new SynapseClientException("Timed out querying table " + synapseTableId);
+            } else if (cause instanceof SynapseException) {
+                throw (SynapseException) cause;
             } else {
-                // We're getting a next page.
-                curResult = queryTableNextPageAsyncGetWithRetry(asyncJobToken);
-                if (curResult == null) {
-                    // not ready, loop around again
-                    continue;
-                }
+                throw Throwables.propagate(cause);
             }
-
-            // If we made it this far, we've successfully fetched the page.
-            success = true;
-            break;
-        }
-
-        if (!success) {
-            throw new SynapseClientException("Timed out querying table " + synapseTableId);
         }
     }
 
     /**
-     * Kicks off an async SQL query against the specified table. This uses jcabi-retry to retry the call on failure.
+     * Kicks off an async SQL query against the specified table. This retries the call on failure.
      *
      * @param sql
      *         SQL to run against table
@@ -223,16 +230,14 @@ public class SynapseTableIterator {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     private String queryTableAsyncStartWithRetry(String sql) throws SynapseException {
-        return synapseClient.queryTableEntityBundleAsyncStart(sql, null, null, true, SynapseClient.QUERY_PARTMASK,
-                synapseTableId);
+        return queryRetryPolicy.call(() -> synapseClient.queryTableEntityBundleAsyncStart(sql, null, null, true,
+                SynapseClient.QUERY_PARTMASK, synapseTableId));
     }
 
     /**
-     * Fetches the result of an async query, or returns null if the result is not ready. This uses jcabi-retry to
-     * retry the call on failure.
+     * Fetches the result of an async query, or returns null if the result is not ready. This makes a single call,
+     * since it runs on the async job poller's scheduler. The poller reschedules the check on retryable errors.
      *
      * @param asyncJobToken
      *         async job token of the result to be fetched
@@ -240,20 +245,17 @@ public class SynapseTableIterator {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
-    private QueryResultBundle queryTableAsyncGetWithRetry(String asyncJobToken) throws SynapseException {
+    private QueryResultBundle queryTableAsyncGet(String asyncJobToken) throws SynapseException {
         try {
             return synapseClient.queryTableEntityBundleAsyncGet(asyncJobToken, synapseTableId);
         } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
+            // catch this and return null so the poller checks again later
             return null;
         }
     }
 
     /**
-     * Asynchronously gets the next page of the query for the specified table. This uses jcabi-retry to retry the call
-     * on failure.
+     * Asynchronously gets the next page of the query for the specified table. This retries the call on failure.
      *
      * @param nextPageToken
      *         token used to fetch the next page
@@ -261,15 +263,14 @@ public class SynapseTableIterator {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
     private String queryTableNextPageAsyncStartWithRetry(String nextPageToken) throws SynapseException {
-        return synapseClient.queryTableEntityNextPageAsyncStart(nextPageToken, synapseTableId);
+        return queryRetryPolicy.call(() -> synapseClient.queryTableEntityNextPageAsyncStart(nextPageToken,
+                synapseTableId));
     }
 
     /**
-     * Fetches the result of an async query next page, or returns null if the result is not ready. This uses
-     * jcabi-retry to retry the call on failure.
+     * Fetches the result of an async query next page, or returns null if the result is not ready. Like
+     * {@link #queryTableAsyncGet}, this makes a single call and leaves retries to the poller.
      *
      * @param asyncJobToken
      *         async job token of the result to be fetched
@@ -277,13 +278,11 @@ public class SynapseTableIterator {
      * @throws SynapseException
      *         if the Synapse call fails
      */
-    @RetryOnFailure(attempts = 5, delay = 100, unit = TimeUnit.MILLISECONDS, types = SynapseException.class,
-            randomize = false)
-    private QueryResult queryTableNextPageAsyncGetWithRetry(String asyncJobToken) throws SynapseException {
+    private QueryResult queryTableNextPageAsyncGet(String asyncJobToken) throws SynapseException {
         try {
             return synapseClient.queryTableEntityNextPageAsyncGet(asyncJobToken, synapseTableId);
         } catch (SynapseResultNotReadyException ex) {
-            // catch this and return null so we don't retry on "not ready"
+            // catch this and return null so the poller checks again later
             return null;
         }
     }
@@ -0,0 +1,195 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Rate limiter that adapts to throttling using AIMD (additive increase, multiplicative decrease). Callers call
+ * {@link #acquire} before each call, then {@link #onSuccess} or {@link #onThrottle} with the result. While calls
+ * succeed, the rate goes up by about increasePerSecond for every second of calls at the current rate. When the
+ * service throttles, the rate is multiplied by decreaseFactor. The rate always stays between minRate and maxRate.
+ * </p>
+ * <p>
+ * A burst of concurrent calls can all be throttled at once. To keep one burst from collapsing the rate to the
+ * minimum, the rate is decreased at most once per second.
+ * </p>
+ * <p>
+ * A limiter can have a shared limiter, which is the budget for a group of limiters. Every permit comes out of both
+ * limiters, and successes and throttles are reported to both. This way, each limiter adapts to throttling of its own
+ * class of calls, and can use the whole budget when the other limiters are idle, while the shared limiter keeps the
+ * group's combined rate within what the service allows.
+ * </p>
+ * <p>
+ * Until {@link #configure} is called, min and max are both the initial rate, so this behaves like a fixed rate
+ * limiter. Components that own limiters report them through ThrottlingStatsProvider, and their rates and throttle
+ * counts are logged with the metrics for each request. See MetricsHelper.
+ * </p>
+ */
+public class AdaptiveRateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    // Minimum time between decreases.
+    private static final long DECREASE_COOLDOWN_MILLIS = 1000;
+
+    private final String name;
+    private final RateLimiter rateLimiter;
+    private final AdaptiveRateLimiter sharedLimiter;
+    private final AtomicLong numThrottles = new AtomicLong();
+
+    // AIMD state. Guarded by this.
+    private double rate;
+    private double minRate;
+    private double maxRate;
+    private double increasePerSecond;
+    private double decreaseFactor;
+    private long lastDecreaseMillis;
+
+    /**
+     * Creates an adaptive rate limiter. The rate is fixed until {@link #configure} is called.
+     *
+     * @param name
+     *         limiter name, used for logging and stats reporting
+     * @param initialRate
+     *         initial rate, in permits per second
+     */
+    public AdaptiveRateLimiter(String name, double initialRate) {
+        this(name, initialRate, null);
+    }
+
+    /**
+     * Creates an adaptive rate limiter whose permits also come out of the given shared limiter. The rate is fixed until
+     * {@link #configure} is called.
+     *
+     * @param name
+     *         limiter name, used for logging and stats reporting
+     * @param initialRate
+     *         initial rate, in permits per second
+     * @param sharedLimiter
+     *         limiter for the budget shared with other limiters, or null if there isn't one
+     */
+    public AdaptiveRateLimiter(String name, double initialRate, AdaptiveRateLimiter sharedLimiter) {
+        this.name = name;
+        this.sharedLimiter = sharedLimiter;
+        this.rateLimiter = RateLimiter.create(initialRate);
+        configure(initialRate, initialRate, initialRate, 0.0, 1.0);
+    }
+
+    /**
+     * Sets the rate bounds and AIMD parameters, and resets the rate to the initial rate. The bounds are widened to
+     * include the initial rate, and a min rate of zero or less means the rate never goes below the initial rate. This
+     * way, unconfigured bounds give a fixed rate limiter.
+     *
+     * @param initialRate
+     *         initial rate, in permits per second
+     * @param minRate
+     *         rate never goes below this
+     * @param maxRate
+     *         rate never goes above this
+     * @param increasePerSecond
+     *         how much the rate goes up for every second of successful calls
+     * @param decreaseFactor
+     *         what the rate is multiplied by when the service throttles, between 0 and 1
+     */
+    public synchronized void configure(double initialRate, double minRate, double maxRate, double increasePerSecond,
+            double decreaseFactor) {
+        this.minRate = minRate > 0 ? Math.min(minRate, initialRate) : initialRate;
+        this.maxRate = Math.max(maxRate, initialRate);
+        this.increasePerSecond = increasePerSecond;
+        this.decreaseFactor = decreaseFactor;
+        setRate(initialRate);
+    }
+
+    /** Acquires a permit, blocking until one is available, from both this limiter and the shared limiter. */
+    public void acquire() {
+        rateLimiter.acquire();
+        if (sharedLimiter != null) {
+            sharedLimiter.acquire();
+        }
+    }
+
+    /**
+     * Acquires a permit if one is available right now, without waiting. Used by callers that run on shared threads
+     * and can't block. If this limiter has a permit but the shared limiter doesn't, this limiter's permit is used up
+     * anyway, so limiters polled this way generally shouldn't have a shared limiter.
+     *
+     * @return true if the permit was acquired, false otherwise
+     */
+    public boolean tryAcquire() {
+        return rateLimiter.tryAcquire() && (sharedLimiter == null || sharedLimiter.tryAcquire());
+    }
+
+    /** Signals that a call succeeded. Raises the rate, up to the max rate. Also signals the shared limiter. */
+    public void onSuccess() {
+        synchronized (this) {
+            if (rate < maxRate) {
+                // Each call is 1/rate seconds of calls, so this adds increasePerSecond per second of successful
+                // calls.
+                setRate(rate + increasePerSecond / rate);
+            }
+        }
+        if (sharedLimiter != null) {
+            sharedLimiter.onSuccess();
+        }
+    }
+
+    /**
+     * Signals that the service throttled a call. Lowers the rate, down to the min rate. Also signals the shared
+     * limiter.
+     */
+    public void onThrottle() {
+        if (sharedLimiter != null) {
+            sharedLimiter.onThrottle();
+        }
+        throttle();
+    }
+
+    // Helper method which lowers this limiter's rate after a throttle, without signaling the shared limiter.
+    private synchronized void throttle() {
+        numThrottles.incrementAndGet();
+
+        long nowMillis = DateTimeUtils.currentTimeMillis();
+        if (nowMillis - lastDecreaseMillis < DECREASE_COOLDOWN_MILLIS) {
+            // Part of a burst we already backed off for.
+            return;
+        }
+        lastDecreaseMillis = nowMillis;
+
+        double oldRate = rate;
+        setRate(rate * decreaseFactor);
+        if (rate < oldRate) {
+            LOG.info("Rate limiter " + name + " throttled, lowering rate from " + String.format("%.2f", oldRate) +
+                    " to " + String.format("%.2f", rate) + " per second");
+        }
+    }
+
+    // Helper method which clamps the rate to the bounds and applies it to the underlying rate limiter.
+    private void setRate(double newRate) {
+        rate = Math.max(minRate, Math.min(maxRate, newRate));
+        rateLimiter.setRate(rate);
+    }
+
+    /** Limiter name. */
+    public String getName() {
+        return name;
+    }
+
+    /** Limiter for the budget shared with other limiters, or null if there isn't one. */
+    public AdaptiveRateLimiter getSharedLimiter() {
+        return sharedLimiter;
+    }
+
+    /** Current rate, in permits per second. */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /** Number of throttled calls since the limiter was created. */
+    public long getNumThrottles() {
+        return numThrottles.get();
+    }
+}
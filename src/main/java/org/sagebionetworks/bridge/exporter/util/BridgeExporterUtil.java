@@ -6,11 +6,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
-import org.apache.commons.lang.StringEscapeUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.safety.Whitelist;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.TransferMethod;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -165,15 +163,9 @@ public class BridgeExporterUtil {
             return null;
         }
 
-        // Strip HTML.
-        in = Jsoup.clean(in, Whitelist.none());
-
-        // Remove tabs and newlines and carriage returns. This is needed to serialize strings into TSVs.
-        // We can't just escape these because Synapse will turn an escaped \n into n, and so forth.
-        in = in.replaceAll("[\n\r\t]+", " ");
-
-        // Finally, escape the string. Unescaped quotes lead to weird stuff happening in Synapse.
-        in = StringEscapeUtils.escapeJava(in);
+        // Strip HTML, replace tabs and newlines and carriage returns with spaces, and escape the string. See
+        // StringSanitizer for details.
+        in = StringSanitizer.sanitize(in);
 
         // Check against max length, truncating and warning as necessary.
         if (maxLength != null && in.length() > maxLength) {
@@ -219,7 +211,11 @@ public class BridgeExporterUtil {
         return columnListBuilder.build();
     }
 
-    public static void getRowValuesFromRecordBasedOnColumnDefinition(Map<String, String> rowMap, final Item record, final List<ColumnDefinition> columnDefinitions, final String recordId) {
+    /**
+     * Helper method to write the values of the given column definitions from the DDB record into the row. Columns
+     * that aren't in the row's layout are ignored.
+     */
+    public static void getRowValuesFromRecordBasedOnColumnDefinition(TsvRow row, final Item record, final List<ColumnDefinition> columnDefinitions, final String recordId) {
 
         for (ColumnDefinition columnDefinition : columnDefinitions) {
             // use name if there is no ddbName
@@ -233,7 +229,7 @@ public class BridgeExporterUtil {
                 valueToAdd = transferMethod.transfer(ddbName, record);
             }
 
-            rowMap.put(columnDefinition.getName(), valueToAdd);
+            row.set(columnDefinition.getName(), valueToAdd);
         }
     }
 }
@@ -0,0 +1,68 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.io.IOException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * <p>
+ * Extracts selected top-level fields from a JSON object with a streaming parser, without materializing the whole
+ * JSON tree. Fields that aren't requested are skipped token by token, so large values (such as long free-text answers
+ * or nested objects that aren't in the schema) are never turned into JsonNodes.
+ * </p>
+ * <p>
+ * Skipped fields are still tokenized, so malformed JSON anywhere in the object still throws, same as
+ * ObjectMapper.readTree(). If the JSON isn't an object (for example, a JSON null or an array), this returns an empty
+ * object node, since none of the requested fields can be present.
+ * </p>
+ */
+public class JsonFieldExtractor {
+    /**
+     * Extracts the requested top-level fields from the given JSON text.
+     *
+     * @param jsonText
+     *         JSON text to extract from, generally a JSON object
+     * @param fieldNameSet
+     *         names of top-level fields to extract
+     * @return object node containing only the requested fields that are present in the JSON
+     * @throws IOException
+     *         if the JSON text can't be parsed
+     */
+    public static ObjectNode extractFields(String jsonText, Set<String> fieldNameSet) throws IOException {
+        ObjectNode extractedNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        try (JsonParser parser = DefaultObjectMapper.INSTANCE.getFactory().createParser(jsonText)) {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                // Not an object. Read the value anyway, so malformed JSON still throws.
+                if (token != null) {
+                    parser.skipChildren();
+                }
+                return extractedNode;
+            }
+
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldNameSet.contains(fieldName)) {
+                    JsonNode valueNode = DefaultObjectMapper.INSTANCE.readTree(parser);
+                    extractedNode.set(fieldName, valueNode);
+                } else {
+                    // No-op for scalars. For objects and arrays, skips to the matching end token.
+                    parser.skipChildren();
+                }
+            }
+
+            if (token != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Unexpected end of JSON object");
+            }
+        }
+        return extractedNode;
+    }
+}
@@ -0,0 +1,142 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/**
+ * <p>
+ * Concurrent read-through cache for hot lookups, like sharing scopes, study info, and schemas. This replaces jcabi
+ * {@literal @}Cacheable, which has no size bound, no way to refresh entries before they expire, and no stats.
+ * </p>
+ * <p>
+ * This is backed by a Guava LoadingCache, which is striped into segments, so reads don't contend with each other, and
+ * concurrent misses for the same key only call the loader once. Each cache is configured with
+ * cache.[name].max.size, cache.[name].ttl.seconds, and cache.[name].refresh.seconds. If the refresh interval is
+ * positive, entries older than the refresh interval are reloaded on the refresh executor on the next read, and readers
+ * get the old value until the reload finishes (refresh-ahead). If the reload fails, the old value is kept. TTL of zero
+ * or less means entries never expire.
+ * </p>
+ * <p>
+ * The loader may return null. Null values are cached like any other value. Exceptions thrown by the loader are not
+ * cached and are rethrown to the caller.
+ * </p>
+ * <p>
+ * Caches are generally created through {@link LookupCacheManager}, which supplies the refresh executor. Hit, miss,
+ * and load time stats for all caches it creates are logged with the metrics for each request. See MetricsHelper.
+ * </p>
+ *
+ * @param <K>
+ *         key type, must have value-based equals and hashCode
+ * @param <V>
+ *         value type
+ */
+public class LookupCache<K, V> {
+    // Number of segments. This should be at least as large as the number of threads reading the cache.
+    private static final int CONCURRENCY_LEVEL = 32;
+
+    private final String name;
+    private final LoadingCache<K, Optional<V>> cache;
+
+    /**
+     * Creates a lookup cache.
+     *
+     * @param name
+     *         cache name, used for stats reporting
+     * @param maxSize
+     *         max number of entries
+     * @param ttlSeconds
+     *         how long entries live after they're loaded, in seconds, or zero or less if entries never expire
+     * @param refreshSeconds
+     *         how long after an entry is loaded it's reloaded in the background on the next read, in seconds, or zero
+     *         or less to disable refresh-ahead
+     * @param refreshExecutor
+     *         executor that refresh-ahead reloads run on
+     * @param loader
+     *         loads the value for a key when it's not in the cache
+     */
+    public LookupCache(String name, long maxSize, long ttlSeconds, long refreshSeconds, Executor refreshExecutor,
+            Function<K, V> loader) {
+        this.name = name;
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().concurrencyLevel(CONCURRENCY_LEVEL)
+                .maximumSize(maxSize).recordStats();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        }
+        if (refreshSeconds > 0) {
+            builder.refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS);
+        }
+
+        CacheLoader<K, Optional<V>> cacheLoader = CacheLoader.asyncReloading(new CacheLoader<K, Optional<V>>() {
+            @Override
+            public Optional<V> load(K key) {
+                return Optional.ofNullable(loader.apply(key));
+            }
+        }, refreshExecutor);
+        this.cache = builder.build(cacheLoader);
+    }
+
+    /**
+     * Creates a lookup cache configured with cache.[name].max.size, cache.[name].ttl.seconds, and
+     * cache.[name].refresh.seconds.
+     *
+     * @param name
+     *         cache name, used for config keys and stats reporting
+     * @param config
+     *         config to read cache settings from
+     * @param refreshExecutor
+     *         executor that refresh-ahead reloads run on
+     * @param loader
+     *         loads the value for a key when it's not in the cache
+     * @return configured lookup cache
+     */
+    public static <K, V> LookupCache<K, V> fromConfig(String name, Config config, Executor refreshExecutor,
+            Function<K, V> loader) {
+        String configKeyPrefix = "cache." + name + ".";
+        return new LookupCache<>(name, config.getInt(configKeyPrefix + "max.size"),
+                config.getInt(configKeyPrefix + "ttl.seconds"), config.getInt(configKeyPrefix + "refresh.seconds"),
+                refreshExecutor, loader);
+    }
+
+    /**
+     * Gets the value for the given key, loading it if it's not in the cache.
+     *
+     * @param key
+     *         key to look up, must be non-null
+     * @return cached or loaded value, may be null if the loader returned null
+     */
+    public V get(K key) {
+        try {
+            return cache.getUnchecked(key).orElse(null);
+        } catch (UncheckedExecutionException ex) {
+            // Rethrow the loader's exception, so callers see the same exceptions they would without the cache.
+            throw Throwables.propagate(ex.getCause());
+        }
+    }
+
+    /** Removes all entries from the cache. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /** Cache name, used for stats reporting. */
+    public String getName() {
+        return name;
+    }
+
+    /** Hit, miss, load time, and eviction stats since the cache was created. */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,58 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import javax.annotation.Resource;
+
+import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/**
+ * Creates {@link LookupCache LookupCaches} from config, and keeps track of them for stats reporting. All caches share
+ * the refresh executor. See MetricsHelper.
+ */
+@Component
+public class LookupCacheManager {
+    private final List<LookupCache<?, ?>> cacheList = new CopyOnWriteArrayList<>();
+
+    private Config config;
+    private ExecutorService refreshExecutor;
+
+    /** Config, used to get cache settings. See {@link LookupCache#fromConfig}. */
+    @Autowired
+    public final void setConfig(Config config) {
+        this.config = config;
+    }
+
+    /** Executor that refresh-ahead reloads run on, for all caches. */
+    @Resource(name = "lookupCacheRefreshExecutorService")
+    public final void setRefreshExecutor(ExecutorService refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Creates a lookup cache configured with cache.[name].max.size, cache.[name].ttl.seconds, and
+     * cache.[name].refresh.seconds.
+     *
+     * @param name
+     *         cache name, used for config keys and stats reporting
+     * @param loader
+     *         loads the value for a key when it's not in the cache
+     * @return configured lookup cache
+     */
+    public <K, V> LookupCache<K, V> newCache(String name, Function<K, V> loader) {
+        LookupCache<K, V> cache = LookupCache.fromConfig(name, config, refreshExecutor, loader);
+        cacheList.add(cache);
+        return cache;
+    }
+
+    /** All caches created by this manager, for stats reporting. */
+    public List<LookupCache<?, ?>> getCaches() {
+        return ImmutableList.copyOf(cacheList);
+    }
+}
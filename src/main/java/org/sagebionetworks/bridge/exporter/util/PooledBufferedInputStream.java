@@ -0,0 +1,138 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Buffered input stream that borrows its buffer from a shared pool and returns it when the stream is closed. This is
+ * used to relay attachments from S3 to Synapse, where every attachment needs a buffer, but only for as long as the
+ * transfer is running, so allocating a new buffer for each attachment just creates garbage.
+ * </p>
+ * <p>
+ * The pool holds at most {@link #MAX_POOLED_BUFFERS} idle buffers. If the pool is empty, a new buffer is allocated,
+ * and if the pool is full when the stream is closed, the buffer is dropped. Like BufferedInputStream, this is not
+ * thread-safe. Unlike BufferedInputStream, this doesn't support mark and reset.
+ * </p>
+ */
+public class PooledBufferedInputStream extends InputStream {
+    // Package-scoped for unit tests.
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final Queue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger NUM_POOLED_BUFFERS = new AtomicInteger();
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int count;
+
+    /** Creates a pooled buffered stream that wraps the given stream. */
+    public PooledBufferedInputStream(InputStream in) {
+        this.in = in;
+        this.buffer = borrowBuffer();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= count && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position >= count) {
+            if (len >= BUFFER_SIZE) {
+                // Large reads bypass the buffer, same as BufferedInputStream.
+                checkOpen();
+                return in.read(b, off, len);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+
+        int numBytes = Math.min(len, count - position);
+        System.arraycopy(buffer, position, b, off, numBytes);
+        position += numBytes;
+        return numBytes;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkOpen();
+        return (count - position) + in.available();
+    }
+
+    /** Closes the underlying stream and returns the buffer to the pool. */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+
+        byte[] oldBuffer = buffer;
+        buffer = null;
+        position = count = 0;
+        try {
+            in.close();
+        } finally {
+            returnBuffer(oldBuffer);
+        }
+    }
+
+    // Fills the buffer from the underlying stream. Returns false if the underlying stream is at end of stream.
+    private boolean fill() throws IOException {
+        checkOpen();
+        position = count = 0;
+        int numBytes;
+        do {
+            numBytes = in.read(buffer, 0, buffer.length);
+        } while (numBytes == 0);
+        if (numBytes < 0) {
+            return false;
+        }
+        count = numBytes;
+        return true;
+    }
+
+    private void checkOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Borrows a buffer from the pool, or allocates a new one if the pool is empty.
+    private static byte[] borrowBuffer() {
+        byte[] pooledBuffer = BUFFER_POOL.poll();
+        if (pooledBuffer != null) {
+            NUM_POOLED_BUFFERS.decrementAndGet();
+            return pooledBuffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    // Returns a buffer to the pool, unless the pool is full.
+    private static void returnBuffer(byte[] buffer) {
+        if (NUM_POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.add(buffer);
+        } else {
+            NUM_POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+
+    /** Number of idle buffers in the pool. Package-scoped for unit tests. */
+    static int getNumPooledBuffers() {
+        return NUM_POOLED_BUFFERS.get();
+    }
+}
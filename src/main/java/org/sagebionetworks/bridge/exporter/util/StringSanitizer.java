@@ -0,0 +1,208 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.Locale;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
+
+/**
+ * <p>
+ * Strips HTML, collapses whitespace, and Java-escapes strings so they can be written to TSVs and uploaded to Synapse.
+ * The output is the same as running Jsoup.clean() with an empty whitelist, replacing newlines, carriage returns, and
+ * tabs with spaces, then running StringEscapeUtils.escapeJava(), which is what sanitizeString() used to do for every
+ * value.
+ * </p>
+ * <p>
+ * Most values are plain text, so this first scans the string, and if there's nothing to strip, collapse, or escape,
+ * returns the string as is without allocating. Otherwise, this strips simple tags, collapses whitespace, and escapes
+ * in a single pass into one StringBuilder.
+ * </p>
+ * <p>
+ * The single pass only understands input where Jsoup's behavior is simple: plain start and end tags for a handful of
+ * inline elements, and no entities or unusual characters. For everything else (entities, comments, attributes, block
+ * and table elements, script and style, control characters), this falls back to Jsoup, so the output is always the
+ * same as the old implementation.
+ * </p>
+ */
+public class StringSanitizer {
+    // Inline elements with no effect on the text when cleaned. Jsoup drops these tags and keeps the text in order.
+    // Block elements, tables, and elements with special parsing rules (script, style, textarea, title) go through
+    // Jsoup.
+    private static final Set<String> SIMPLE_TAG_SET = ImmutableSet.of("b", "br", "em", "i", "span", "strong", "u");
+
+    // Some older versions of commons-lang escape forward slashes in escapeJava(). Check at runtime, so we match
+    // whatever version is on the classpath.
+    private static final boolean ESCAPE_FORWARD_SLASH = "\\/".equals(StringEscapeUtils.escapeJava("/"));
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Sanitizes the given string. See class docs for details.
+     *
+     * @param in
+     *         string to sanitize, may be null
+     * @return sanitized string, or null if the input was null
+     */
+    public static String sanitize(String in) {
+        if (in == null) {
+            return null;
+        }
+        if (!needsSanitizing(in)) {
+            return in;
+        }
+
+        int length = in.length();
+        StringBuilder out = new StringBuilder(length + 16);
+
+        // Jsoup collapses whitespace separately for each text node, and tags split text into separate text nodes. So
+        // we reset this flag at every tag.
+        boolean lastWasWhitespace = false;
+        int i = 0;
+        while (i < length) {
+            char c = in.charAt(i);
+            if (c == '<') {
+                int tagEnd = findSimpleTagEnd(in, i);
+                if (tagEnd >= 0) {
+                    // Drop the tag. This starts a new text node.
+                    lastWasWhitespace = false;
+                    i = tagEnd + 1;
+                    continue;
+                } else if (isLiteralLessThan(in, i)) {
+                    // Jsoup treats a < that doesn't start a tag as text.
+                    out.append("&lt;");
+                } else {
+                    return sanitizeWithJsoup(in);
+                }
+            } else if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                if (!lastWasWhitespace) {
+                    out.append(' ');
+                }
+                lastWasWhitespace = true;
+                i++;
+                continue;
+            } else if (c == '>') {
+                out.append("&gt;");
+            } else if (c == '"') {
+                out.append("\\\"");
+            } else if (c == '\\') {
+                out.append("\\\\");
+            } else if (c == '/' && ESCAPE_FORWARD_SLASH) {
+                out.append("\\/");
+            } else if (c >= 0x20 && c < 0x7f && c != '&') {
+                out.append(c);
+            } else if (c > 0x7f && !needsJsoup(c)) {
+                // escapeJava() escapes all non-ASCII chars.
+                out.append("\\u").append(HEX_DIGITS[(c >> 12) & 0xf]).append(HEX_DIGITS[(c >> 8) & 0xf])
+                        .append(HEX_DIGITS[(c >> 4) & 0xf]).append(HEX_DIGITS[c & 0xf]);
+            } else {
+                // Entities, control chars, and other chars that Jsoup treats specially.
+                return sanitizeWithJsoup(in);
+            }
+            lastWasWhitespace = false;
+            i++;
+        }
+
+        // Jsoup trims the result. The only chars that trim() would remove at this point are the collapsed spaces.
+        int start = 0;
+        int end = out.length();
+        while (start < end && out.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && out.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return out.substring(start, end);
+    }
+
+    // Returns true if the string has anything that would be stripped, collapsed, trimmed, or escaped. This is the
+    // fast path, so it only looks at each char once and doesn't allocate.
+    private static boolean needsSanitizing(String in) {
+        int length = in.length();
+        if (length == 0) {
+            return false;
+        }
+        if (in.charAt(0) == ' ' || in.charAt(length - 1) == ' ') {
+            return true;
+        }
+
+        boolean lastWasSpace = false;
+        for (int i = 0; i < length; i++) {
+            char c = in.charAt(i);
+            if (c == ' ') {
+                if (lastWasSpace) {
+                    return true;
+                }
+                lastWasSpace = true;
+                continue;
+            }
+            lastWasSpace = false;
+            if (c < 0x20 || c >= 0x7f || c == '<' || c == '>' || c == '&' || c == '"' || c == '\\' ||
+                    (c == '/' && ESCAPE_FORWARD_SLASH)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Non-ASCII chars that Jsoup escapes, drops, or otherwise treats specially: non-breaking spaces (written as
+    // &nbsp;), surrogates (which might not be valid pairs), byte order marks, and non-characters (U+FFFF is Jsoup's
+    // internal EOF marker). DEL and C1 control chars also go through Jsoup, to be safe.
+    private static boolean needsJsoup(char c) {
+        return c <= 0x9f || c == 0xa0 || Character.isSurrogate(c) || c == 0xfeff || c == 0xfffe || c == 0xffff;
+    }
+
+    // If there's a simple tag starting at the given index, returns the index of the tag's closing >. Otherwise,
+    // returns -1. Simple tags are <name> and </name>, where the name is in SIMPLE_TAG_SET (case insensitive), with no
+    // attributes, whitespace, or self-closing slash.
+    private static int findSimpleTagEnd(String in, int tagStart) {
+        int length = in.length();
+        int nameStart = tagStart + 1;
+        if (nameStart < length && in.charAt(nameStart) == '/') {
+            nameStart++;
+        }
+
+        int nameEnd = nameStart;
+        while (nameEnd < length && isAsciiLetter(in.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == nameStart || nameEnd >= length || in.charAt(nameEnd) != '>') {
+            return -1;
+        }
+
+        String tagName = in.substring(nameStart, nameEnd).toLowerCase(Locale.ENGLISH);
+        return SIMPLE_TAG_SET.contains(tagName) ? nameEnd : -1;
+    }
+
+    // Jsoup treats < as text if it's at the end of the string, or if it's followed by anything other than a letter,
+    // !, /, or ?. To be safe, we only handle the case where the next char is ASCII.
+    private static boolean isLiteralLessThan(String in, int index) {
+        if (index + 1 >= in.length()) {
+            return true;
+        }
+        char next = in.charAt(index + 1);
+        return next < 0x7f && !isAsciiLetter(next) && next != '!' && next != '/' && next != '?';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * The original implementation, which parses the string with Jsoup. This is used as a fallback for input the
+     * single-pass sanitizer doesn't handle. Package-scoped so unit tests and benchmarks can compare against it.
+     */
+    static String sanitizeWithJsoup(String in) {
+        // Strip HTML.
+        in = Jsoup.clean(in, Whitelist.none());
+
+        // Remove tabs and newlines and carriage returns. This is needed to serialize strings into TSVs.
+        // We can't just escape these because Synapse will turn an escaped \n into n, and so forth.
+        in = in.replaceAll("[\n\r\t]+", " ");
+
+        // Finally, escape the string. Unescaped quotes lead to weird stuff happening in Synapse.
+        return StringEscapeUtils.escapeJava(in);
+    }
+}
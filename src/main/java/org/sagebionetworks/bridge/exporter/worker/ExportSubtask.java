@@ -1,13 +1,27 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
+import java.io.IOException;
+import java.util.Set;
+
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 
+import org.sagebionetworks.bridge.exporter.handler.PhoneAppVersionInfo;
+import org.sagebionetworks.bridge.exporter.util.JsonFieldExtractor;
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 
 /**
  * Represents a single subtask for a single handler. This generally corresponds one-to-one with a single health data
  * record. Subtasks are immutable, so it's safe to re-use the same subtask for multiple handlers.
+ * <p>
+ * Record data can be given either as a JSON node or as raw JSON text. Raw JSON text is parsed lazily, in the export
+ * worker, and handlers that only need some fields can extract them with {@link #getRecordDataFields} without
+ * materializing the whole JSON tree. Record metadata (app version and phone info) is parsed at most once per subtask
+ * and shared between handlers.
+ * </p>
  */
 public class ExportSubtask {
     /* package-scoped for unit tests */
@@ -16,14 +30,19 @@ public class ExportSubtask {
     private final Item originalRecord;
     private final ExportTask parentTask;
     private final JsonNode recordData;
+    private final String recordDataText;
     private final UploadSchemaKey schemaKey;
+    private final Supplier<PhoneAppVersionInfo> phoneAppVersionInfoSupplier;
 
     // Private constructor. To build, use Builder.
-    private ExportSubtask(Item originalRecord, ExportTask parentTask, JsonNode recordData, UploadSchemaKey schemaKey) {
+    private ExportSubtask(Item originalRecord, ExportTask parentTask, JsonNode recordData, String recordDataText,
+            UploadSchemaKey schemaKey) {
         this.originalRecord = originalRecord;
         this.parentTask = parentTask;
         this.recordData = recordData;
+        this.recordDataText = recordDataText;
         this.schemaKey = schemaKey;
+        this.phoneAppVersionInfoSupplier = Suppliers.memoize(() -> PhoneAppVersionInfo.fromRecord(originalRecord));
     }
 
     /** DDB health data record. */
@@ -40,9 +59,45 @@ public class ExportSubtask {
      * JSON node representing the data normally found in the DDB health data record. This exists because legacy iOS
      * surveys wrote their answers to an attachment instead of directly to the health data record. All handlers should
      * consume health data from getRecordData() instead of from getOriginalRecord().
+     * <p>
+     * If the subtask was built from raw JSON text, this parses the whole JSON tree on each call. Handlers that only
+     * need specific fields should call {@link #getRecordDataFields} instead.
+     * </p>
+     *
+     * @throws IOException
+     *         if the record data can't be parsed
+     */
+    public JsonNode getRecordData() throws IOException {
+        if (recordData != null) {
+            return recordData;
+        }
+        return DefaultObjectMapper.INSTANCE.readTree(recordDataText);
+    }
+
+    /**
+     * Gets the given top-level fields from the record data. If the subtask was built from raw JSON text, this streams
+     * through the text and only materializes the requested fields. Otherwise, this returns the record data node as
+     * is. Either way, callers should only read the requested fields from the returned node.
+     *
+     * @param fieldNameSet
+     *         names of top-level fields needed by the caller
+     * @return JSON node containing at least the requested fields that are present in the record data
+     * @throws IOException
+     *         if the record data can't be parsed
      */
-    public JsonNode getRecordData() {
-        return recordData;
+    public JsonNode getRecordDataFields(Set<String> fieldNameSet) throws IOException {
+        if (recordData != null) {
+            return recordData;
+        }
+        return JsonFieldExtractor.extractFields(recordDataText, fieldNameSet);
+    }
+
+    /**
+     * App version and phone info from the original record's metadata. The metadata is parsed the first time this is
+     * called, and the result is shared by all handlers that use this subtask.
+     */
+    public PhoneAppVersionInfo getPhoneAppVersionInfo() {
+        return phoneAppVersionInfoSupplier.get();
     }
 
     /** Shortcut method for getting the record ID, which is obtained from the original Dynamo DB record. */
@@ -63,6 +118,7 @@ public class ExportSubtask {
         private Item originalRecord;
         private ExportTask parentTask;
         private JsonNode recordData;
+        private String recordDataText;
         private UploadSchemaKey schemaKey;
 
         /** @see ExportSubtask#getOriginalRecord */
@@ -83,13 +139,27 @@ public class ExportSubtask {
             return this;
         }
 
+        /**
+         * Raw JSON text of the record data, parsed lazily by handlers. Ignored if record data is also specified with
+         * {@link #withRecordData}.
+         *
+         * @see ExportSubtask#getRecordDataFields
+         */
+        public Builder withRecordDataText(String recordDataText) {
+            this.recordDataText = recordDataText;
+            return this;
+        }
+
         /** @see ExportSubtask#getSchemaKey */
         public Builder withSchemaKey(UploadSchemaKey schemaKey) {
             this.schemaKey = schemaKey;
             return this;
         }
 
-        /** Builds an ExportSubtask object and validates that all fields are valid (that is, non-null). */
+        /**
+         * Builds an ExportSubtask object and validates that all fields are valid (that is, non-null). Record data must
+         * be specified either as a JSON node or as JSON text.
+         */
         public ExportSubtask build() {
             // validate - all fields must be non-null
             if (originalRecord == null) {
@@ -100,7 +170,7 @@ public class ExportSubtask {
                 throw new IllegalStateException("parentTask must be non-null");
             }
 
-            if (recordData == null) {
+            if (recordData == null && recordDataText == null) {
                 throw new IllegalStateException("recordData must be non-null");
             }
 
@@ -108,7 +178,10 @@ public class ExportSubtask {
                 throw new IllegalStateException("schemaKey must be non-null");
             }
 
-            return new ExportSubtask(originalRecord, parentTask, recordData, schemaKey);
+            // If we have the JSON node, we don't need the text.
+            String builtRecordDataText = recordData == null ? recordDataText : null;
+
+            return new ExportSubtask(originalRecord, parentTask, recordData, builtRecordDataText, schemaKey);
         }
     }
 }
@@ -1,15 +1,20 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
+import com.google.common.collect.ImmutableMap;
 import org.joda.time.LocalDate;
 
+import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
+import org.sagebionetworks.bridge.exporter.helper.SchemaRegistry;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
@@ -115,11 +120,18 @@ public class ExportTask {
     }
 
     // TASK STATE MANAGEMENT
-
-    private final Map<String, TsvInfo> appVersionTsvInfoByStudy = new HashMap<>();
-    private final Map<UploadSchemaKey, TsvInfo> healthDataTsvInfoBySchema = new HashMap<>();
-    private final Set<String> studyIdSet = new HashSet<>();
-    private final Queue<ExportSubtaskFuture> subtaskFutureQueue = new LinkedList<>();
+    // Task state is updated concurrently by the record pipeline and by the export workers, so we use concurrent
+    // collections.
+
+    private final Map<String, TsvInfo> appVersionTsvInfoByStudy = new ConcurrentHashMap<>();
+    private final Map<UploadSchemaKey, TsvInfo> healthDataTsvInfoBySchema = new ConcurrentHashMap<>();
+    private final Map<String, Map<TsvInfo, Future<?>>> tsvSegmentUploadFuturesByTable = new ConcurrentHashMap<>();
+    private final Set<String> studyIdSet = ConcurrentHashMap.newKeySet();
+    private final Set<ExportWorkerFuture> outstandingSubtaskSet = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<ExportWorkerFuture> completedSubtaskQueue = new LinkedBlockingQueue<>();
+    private final Set<String> redriveRecordIdSet = ConcurrentHashMap.newKeySet();
+    private volatile RestartBridgeExporterException restartException;
+    private volatile SchemaRegistry schemaRegistry;
     private boolean success = false;
 
     /** Gets the appVersion table TSV info for the specified study. */
@@ -142,14 +154,88 @@ public class ExportTask {
         healthDataTsvInfoBySchema.put(schemaKey, tsvInfo);
     }
 
-    /** Gets the queue for outstanding subtask executions. */
-    public Queue<ExportSubtaskFuture> getSubtaskFutureQueue() {
-        return subtaskFutureQueue;
+    /**
+     * Adds a background upload of a full TSV segment for the given table. The table key is the handler's DDB table
+     * key value, which uniquely identifies the Synapse table.
+     */
+    public void addTsvSegmentUploadFuture(String tableKey, TsvInfo segment, Future<?> uploadFuture) {
+        tsvSegmentUploadFuturesByTable.computeIfAbsent(tableKey, key -> Collections.synchronizedMap(
+                new LinkedHashMap<>())).put(segment, uploadFuture);
+    }
+
+    /**
+     * Gets the background uploads of full TSV segments for the given table, keyed by segment, in the order they were
+     * started. Empty if the table's TSV was never split into segments.
+     */
+    public Map<TsvInfo, Future<?>> getTsvSegmentUploadFutures(String tableKey) {
+        Map<TsvInfo, Future<?>> uploadFutureMap = tsvSegmentUploadFuturesByTable.get(tableKey);
+        if (uploadFutureMap == null) {
+            return ImmutableMap.of();
+        }
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (uploadFutureMap) {
+            return ImmutableMap.copyOf(uploadFutureMap);
+        }
+    }
+
+    /** Gets the set of subtask executions that have been submitted and not yet harvested. */
+    public Set<ExportWorkerFuture> getOutstandingSubtaskSet() {
+        return outstandingSubtaskSet;
+    }
+
+    /** Adds a subtask execution to the outstanding subtask set. This must be called before the subtask is run. */
+    public void addSubtaskFuture(ExportWorkerFuture subtaskFuture) {
+        outstandingSubtaskSet.add(subtaskFuture);
+    }
+
+    /** Removes a subtask execution from the outstanding subtask set, generally because it's been harvested. */
+    public void removeSubtaskFuture(ExportWorkerFuture subtaskFuture) {
+        outstandingSubtaskSet.remove(subtaskFuture);
+    }
+
+    /**
+     * Gets the queue of subtask executions that have completed, in the order they completed. Subtask futures add
+     * themselves to this queue when they're done.
+     */
+    public BlockingQueue<ExportWorkerFuture> getCompletedSubtaskQueue() {
+        return completedSubtaskQueue;
+    }
+
+    /** Adds a record ID to the set of records that failed with a retryable error and need to be redriven. */
+    public void addRedriveRecordId(String recordId) {
+        redriveRecordIdSet.add(recordId);
+    }
+
+    /** Gets the set of record IDs that need to be redriven. */
+    public Set<String> getRedriveRecordIdSet() {
+        return redriveRecordIdSet;
+    }
+
+    /**
+     * If a subtask found that Synapse is down while subtasks were being harvested, this is the exception that tells
+     * us to restart Bridge EX. Null if no such subtask was found.
+     */
+    public RestartBridgeExporterException getRestartException() {
+        return restartException;
+    }
+
+    /** @see #getRestartException */
+    public void setRestartException(RestartBridgeExporterException restartException) {
+        this.restartException = restartException;
+    }
+
+    /**
+     * Schema registry for this task, preloaded with the schemas for the studies in the request. Null if the task was
+     * created without one, in which case schemas are fetched through the BridgeHelper.
+     */
+    public SchemaRegistry getSchemaRegistry() {
+        return schemaRegistry;
     }
 
-    /** Adds a subtask execution to the outstanding subtask queue. */
-    public void addSubtaskFuture(ExportSubtaskFuture subtaskFuture) {
-        subtaskFutureQueue.add(subtaskFuture);
+    /** @see #getSchemaRegistry */
+    public void setSchemaRegistry(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
     }
 
     /** Adds the study ID to the set of seen study IDs. */
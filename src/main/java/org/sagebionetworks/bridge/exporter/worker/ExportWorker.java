@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.IOException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import org.sagebionetworks.client.exceptions.SynapseException;
 
@@ -24,6 +25,7 @@ import org.sagebionetworks.bridge.exporter.handler.ExportHandler;
 public class ExportWorker implements Callable<Void> {
     private final ExportHandler handler;
     private final ExportSubtask subtask;
+    private volatile CompletableFuture<Void> pendingCompletion;
 
     /**
      * Creates an ExportWorker for the given handler and subtask.
@@ -48,13 +50,22 @@ public class ExportWorker implements Callable<Void> {
         return subtask;
     }
 
+    /**
+     * Future for the part of the subtask that's still running after {@link #call} returns, such as attachment uploads.
+     * Null if call() hasn't returned yet, or if the handler didn't return a future.
+     */
+    public CompletableFuture<Void> getPendingCompletion() {
+        return pendingCompletion;
+    }
+
     /**
      * Calls through to the given export handler with the given export subtask. This is called indirectly through the
-     * ExecutorService.
+     * ExecutorService. If the handler is still waiting on I/O when this returns, the subtask isn't done until
+     * {@link #getPendingCompletion} completes. ExportWorkerFuture takes care of this.
      */
     @Override
     public Void call() throws BridgeExporterException, IOException, SchemaNotFoundException, SynapseException {
-        handler.handle(subtask);
+        pendingCompletion = handler.handleAsync(subtask);
 
         // Callables have to have a return value. We don't have a return value, so return null.
         return null;
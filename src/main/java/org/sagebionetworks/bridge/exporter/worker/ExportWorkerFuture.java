@@ -0,0 +1,103 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Future for the asynchronous execution of an ExportWorker. When the worker finishes (successfully or not), this adds
+ * itself to the given completion queue. This lets the worker manager handle subtasks in the order they complete,
+ * rather than the order they were submitted, so one slow subtask doesn't hold up all the subtasks behind it.
+ * </p>
+ * <p>
+ * This is the same mechanism ExecutorCompletionService uses. We don't use ExecutorCompletionService directly, because
+ * it only gives us the Future after the work has been submitted. That leaves a window where another thread could
+ * harvest the completed Future before we've recorded which subtask it belongs to. With this class, the subtask is
+ * tracked before it's submitted to the executor.
+ * </p>
+ * <p>
+ * If the worker is still waiting on I/O when it returns (for example, attachments that are still uploading), this
+ * future doesn't complete until the worker's pending completion does, so the subtask is only harvested once its row
+ * has been written.
+ * </p>
+ */
+public class ExportWorkerFuture extends FutureTask<Void> {
+    private final Queue<ExportWorkerFuture> completionQueue;
+    private final ExportWorker worker;
+    private final long createdNanos = System.nanoTime();
+    private volatile long doneNanos;
+
+    /**
+     * Creates a future for the given worker.
+     *
+     * @param worker
+     *         export worker to run
+     * @param completionQueue
+     *         queue this future adds itself to when it's done
+     */
+    public ExportWorkerFuture(ExportWorker worker, Queue<ExportWorkerFuture> completionQueue) {
+        super(worker);
+        this.completionQueue = completionQueue;
+        this.worker = worker;
+    }
+
+    /** Export worker this future runs. */
+    public ExportWorker getWorker() {
+        return worker;
+    }
+
+    /** Export subtask this future runs, generally representing one health data record. */
+    public ExportSubtask getSubtask() {
+        return worker.getSubtask();
+    }
+
+    /** Value of System.nanoTime() when this future was created. Used to find the oldest outstanding subtasks. */
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * Time from when the subtask was created to when it completed (including time waiting in the executor's queue),
+     * in milliseconds. If the subtask isn't done yet, this is how long the subtask has been outstanding.
+     */
+    public long getElapsedMillis() {
+        long endNanos = doneNanos;
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(endNanos - createdNanos);
+    }
+
+    /**
+     * Called when the worker returns. If the worker has a pending completion, this defers setting the result until the
+     * pending completion is done.
+     */
+    @Override
+    protected void set(Void result) {
+        CompletableFuture<Void> pendingCompletion = worker.getPendingCompletion();
+        if (pendingCompletion == null) {
+            super.set(result);
+            return;
+        }
+
+        pendingCompletion.whenComplete((pendingResult, ex) -> {
+            if (ex == null) {
+                super.set(result);
+            } else if (ex instanceof CompletionException && ex.getCause() != null) {
+                setException(ex.getCause());
+            } else {
+                setException(ex);
+            }
+        });
+    }
+
+    /** Records the completion time and adds this future to the completion queue. */
+    @Override
+    protected void done() {
+        doneNanos = System.nanoTime();
+        completionQueue.add(this);
+    }
+}
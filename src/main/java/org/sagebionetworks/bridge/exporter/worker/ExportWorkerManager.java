@@ -1,13 +1,19 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -15,17 +21,26 @@ import java.util.concurrent.TimeUnit;
 import javax.annotation.Resource;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.MalformedJsonException;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.client.exceptions.SynapseServerException;
@@ -39,6 +54,7 @@ import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.StudyInfo;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterTsvException;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
@@ -46,17 +62,23 @@ import org.sagebionetworks.bridge.exporter.handler.AppVersionExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.ExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.HealthDataExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.IosSurveyExportHandler;
+import org.sagebionetworks.bridge.exporter.handler.SynapseExportHandler;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.ExportHelper;
+import org.sagebionetworks.bridge.exporter.helper.ExporterStatusUpdater;
+import org.sagebionetworks.bridge.exporter.helper.SchemaRegistry;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.metrics.ThrottlingStatsProvider;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.synapse.AttachmentTransferEngine;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseStatusTableHelper;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.file.FileHelper;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
+import org.sagebionetworks.bridge.rest.model.UploadSchema;
 import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
 import org.sagebionetworks.bridge.sqs.SqsHelper;
@@ -66,21 +88,42 @@ import org.sagebionetworks.bridge.sqs.SqsHelper;
  * handlers need, routing requests to the right handler, and handling "end of stream" events.
  */
 @Component
-public class ExportWorkerManager {
+public class ExportWorkerManager implements ThrottlingStatsProvider {
     private static final Logger LOG = LoggerFactory.getLogger(ExportWorkerManager.class);
 
     // Public, so they can be accessed in handler unit tests.
     public static final String CONFIG_KEY_EXPORTER_DDB_PREFIX = "exporter.ddb.prefix";
     public static final String CONFIG_KEY_REDRIVE_MAX_COUNT = "redrive.max.count";
     public static final String CONFIG_KEY_SYNAPSE_PRINCIPAL_ID = "synapse.principal.id";
+    public static final String CONFIG_KEY_SYNAPSE_TABLE_PREWARM_ENABLED = "synapse.table.prewarm.enabled";
+    public static final String CONFIG_KEY_SYNAPSE_TABLE_PREWARM_MAX_AGE_HOURS = "synapse.table.prewarm.max.age.hours";
+    public static final String CONFIG_KEY_TSV_SEGMENT_MAX_BYTES = "tsv.segment.max.bytes";
+    public static final String CONFIG_KEY_TSV_SEGMENT_MAX_ROWS = "tsv.segment.max.rows";
     public static final String CONFIG_KEY_WORKER_MANAGER_PROGRESS_REPORT_PERIOD =
             "worker.manager.progress.report.period";
 
     // package-scoped, to be available in tests
+    static final String DDB_KEY_COLUMN_FINGERPRINT = "columnFingerprint";
+    static final String DDB_KEY_LAST_EXPORTED_ON = "lastExportedOn";
     static final String DDB_KEY_TABLE_ID = "tableId";
     static final String REDRIVE_TAG_PREFIX = "redrive export; original: ";
+    static final String METRICS_SUBTASK_LATENCY = "subtaskLatency";
     static final String SCHEMA_IOS_SURVEY = "ios-survey";
 
+    // DDB limits BatchGetItem calls to 100 keys. Reading the Synapse table map for pre-warming is best effort, so we
+    // only retry unprocessed keys a few times.
+    private static final int DDB_BATCH_GET_MAX_ATTEMPTS = 3;
+    private static final int DDB_BATCH_GET_MAX_KEYS = 100;
+
+    // Column fingerprints are cached in memory for this long. After that, they're read from DDB again, in case another
+    // Exporter instance cleared or changed them.
+    static final long COLUMN_FINGERPRINT_CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // When waiting for subtasks at the end of the stream, if no subtasks complete within this interval, we log the
+    // slowest outstanding subtasks. We also log them with each progress report.
+    static final int PROGRESS_REPORT_INTERVAL_SECONDS = 60;
+    static final int SLOWEST_SUBTASK_REPORT_COUNT = 5;
+
     // We need to delay our redrives. Otherwise, if we have a deterministic error, this may cause the Exporter to spin
     // as fast as possible retrying the request.
     // NOTE: This maxes out at 900 seconds (15 min) before SQS throws an error.
@@ -94,6 +137,10 @@ public class ExportWorkerManager {
     private int redriveMaxCount;
     private long synapsePrincipalId;
     private String sqsQueueUrl;
+    private boolean tablePrewarmEnabled;
+    private long tablePrewarmMaxAgeMillis;
+    private int tsvSegmentMaxBytes;
+    private int tsvSegmentMaxRows;
 
     /** Bridge config. */
     @Autowired
@@ -103,6 +150,11 @@ public class ExportWorkerManager {
         this.redriveMaxCount = config.getInt(CONFIG_KEY_REDRIVE_MAX_COUNT);
         this.synapsePrincipalId = config.getInt(CONFIG_KEY_SYNAPSE_PRINCIPAL_ID);
         this.sqsQueueUrl = config.get(BridgeExporterUtil.CONFIG_KEY_SQS_QUEUE_URL);
+        this.tablePrewarmEnabled = Boolean.parseBoolean(config.get(CONFIG_KEY_SYNAPSE_TABLE_PREWARM_ENABLED));
+        this.tablePrewarmMaxAgeMillis = TimeUnit.HOURS.toMillis(config.getInt(
+                CONFIG_KEY_SYNAPSE_TABLE_PREWARM_MAX_AGE_HOURS));
+        this.tsvSegmentMaxBytes = config.getInt(CONFIG_KEY_TSV_SEGMENT_MAX_BYTES);
+        this.tsvSegmentMaxRows = config.getInt(CONFIG_KEY_TSV_SEGMENT_MAX_ROWS);
 
         this.progressReportPeriod = config.getInt(CONFIG_KEY_WORKER_MANAGER_PROGRESS_REPORT_PERIOD);
         if (progressReportPeriod == 0) {
@@ -133,8 +185,55 @@ public class ExportWorkerManager {
         return synapsePrincipalId;
     }
 
+    /**
+     * Once a table's TSV reaches this size (estimated from the number of characters written), the TSV is closed and
+     * uploaded in the background, and a new TSV segment is started. 0 means no limit.
+     */
+    public int getTsvSegmentMaxBytes() {
+        return tsvSegmentMaxBytes;
+    }
+
+    /**
+     * Once a table's TSV reaches this many rows, the TSV is closed and uploaded in the background, and a new TSV
+     * segment is started. 0 means no limit.
+     */
+    public int getTsvSegmentMaxRows() {
+        return tsvSegmentMaxRows;
+    }
+
+    // Retry policy for post-processing a TSV after it's imported into Synapse (updating the records' exporter status).
+    // The rows are already in Synapse, so only the post-processing is retried. Redriving the records would import them
+    // a second time. This doesn't call Synapse or Bridge directly, so it doesn't use a retry budget.
+    private final RetryPolicy postProcessTsvRetryPolicy = new RetryPolicy("postProcessTsv", 3, 100, 1000);
+
+    /** Retry policy for post-processing a TSV after it's imported into Synapse. See SynapseExportHandler. */
+    public RetryPolicy getPostProcessTsvRetryPolicy() {
+        return postProcessTsvRetryPolicy;
+    }
+
+    /** TSV post-processing retry policy, for stats reporting. */
+    @Override
+    public List<RetryPolicy> getRetryPolicies() {
+        return ImmutableList.of(postProcessTsvRetryPolicy);
+    }
+
     // DYNAMO DB HELPERS AND OVERRIDES
 
+    // Column fingerprints by Synapse table ID. Synapse table IDs are globally unique, so this is safe to share across
+    // tasks, even tasks with different DDB prefixes.
+    private final Map<String, CachedColumnFingerprint> columnFingerprintsByTableId = new ConcurrentHashMap<>();
+
+    // Column fingerprint cached in memory, with the time it was cached, so it can expire.
+    private static class CachedColumnFingerprint {
+        private final String fingerprint;
+        private final long cachedMillis;
+
+        CachedColumnFingerprint(String fingerprint) {
+            this.fingerprint = fingerprint;
+            this.cachedMillis = DateTimeUtils.currentTimeMillis();
+        }
+    }
+
     /**
      * Gets the Synapse table ID, using the DDB Synapse table map. Returns null if the Synapse table doesn't exist (no
      * entry in the DDB table).
@@ -162,7 +261,7 @@ public class ExportWorkerManager {
 
     /**
      * Writes the Synapse table ID back to the DDB Synapse table map. This is called at the end of Synapse table
-     * creation.
+     * creation. This replaces the whole mapping, so it also clears the column fingerprint and the last export time.
      *
      * @param task
      *         the export task, which contains context needed to get the Synapse table map
@@ -184,6 +283,109 @@ public class ExportWorkerManager {
         synapseTableMap.putItem(synapseTableNewItem);
     }
 
+    /**
+     * Gets the fingerprint of the columns last applied to the given Synapse table, or null if there isn't one. See
+     * {@link org.sagebionetworks.bridge.exporter.synapse.SynapseHelper#computeColumnFingerprint}. Fingerprints are
+     * stored in the DDB Synapse table map, next to the table ID, and are cached in memory by Synapse table ID for up
+     * to an hour.
+     *
+     * @param task
+     *         the export task, which contains context needed to get the Synapse table map
+     * @param ddbTableName
+     *         Dynamo DB table that contains the Synapse table map
+     * @param ddbKeyName
+     *         hash key name of the Dynamo DB table
+     * @param ddbKeyValue
+     *         value of the hash key of the Dynamo DB table (generally the Synapse table name)
+     * @param synapseTableId
+     *         Synapse table ID the fingerprint is for
+     * @return column fingerprint, or null if there isn't one
+     */
+    public String getColumnFingerprint(ExportTask task, String ddbTableName, String ddbKeyName, String ddbKeyValue,
+            String synapseTableId) {
+        CachedColumnFingerprint cachedFingerprint = columnFingerprintsByTableId.get(synapseTableId);
+        if (cachedFingerprint != null) {
+            if (DateTimeUtils.currentTimeMillis() - cachedFingerprint.cachedMillis <
+                    COLUMN_FINGERPRINT_CACHE_TTL_MILLIS) {
+                return cachedFingerprint.fingerprint;
+            }
+            columnFingerprintsByTableId.remove(synapseTableId, cachedFingerprint);
+        }
+
+        Item tableMapItem = getSynapseDdbTable(task, ddbTableName).getItem(ddbKeyName, ddbKeyValue);
+        if (tableMapItem == null || !synapseTableId.equals(tableMapItem.getString(DDB_KEY_TABLE_ID))) {
+            // The mapping is missing or points to a different table, so the fingerprint (if any) isn't for this table.
+            return null;
+        }
+
+        String fingerprint = tableMapItem.getString(DDB_KEY_COLUMN_FINGERPRINT);
+        if (fingerprint != null) {
+            columnFingerprintsByTableId.put(synapseTableId, new CachedColumnFingerprint(fingerprint));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Writes the fingerprint of the columns that were just applied to the given Synapse table. This is written to the
+     * DDB Synapse table map along with the table ID, and cached in memory.
+     *
+     * @param task
+     *         the export task, which contains context needed to get the Synapse table map
+     * @param ddbTableName
+     *         Dynamo DB table that contains the Synapse table map
+     * @param ddbKeyName
+     *         hash key name of the Dynamo DB table
+     * @param ddbKeyValue
+     *         value of the hash key of the Dynamo DB table (generally the Synapse table name)
+     * @param synapseTableId
+     *         Synapse table ID the fingerprint is for
+     * @param fingerprint
+     *         column fingerprint to write
+     */
+    public void setColumnFingerprint(ExportTask task, String ddbTableName, String ddbKeyName, String ddbKeyValue,
+            String synapseTableId, String fingerprint) {
+        Table synapseTableMap = getSynapseDdbTable(task, ddbTableName);
+        Item synapseTableNewItem = new Item();
+        synapseTableNewItem.withString(ddbKeyName, ddbKeyValue);
+        synapseTableNewItem.withString(DDB_KEY_TABLE_ID, synapseTableId);
+        synapseTableNewItem.withString(DDB_KEY_COLUMN_FINGERPRINT, fingerprint);
+        synapseTableMap.putItem(synapseTableNewItem);
+
+        columnFingerprintsByTableId.put(synapseTableId, new CachedColumnFingerprint(fingerprint));
+    }
+
+    /**
+     * Clears the column fingerprint for the given Synapse table, both in memory and in DDB. This is called when
+     * updating the table's columns fails, or when Synapse rejects a TSV import, since we no longer know what columns
+     * the table has. Parameters are the same as {@link #setColumnFingerprint}.
+     */
+    public void invalidateColumnFingerprint(ExportTask task, String ddbTableName, String ddbKeyName,
+            String ddbKeyValue, String synapseTableId) {
+        columnFingerprintsByTableId.remove(synapseTableId);
+        setSynapseTableIdToDdb(task, ddbTableName, ddbKeyName, ddbKeyValue, synapseTableId);
+    }
+
+    /**
+     * Writes the time a TSV was last imported into the given Synapse table to the DDB Synapse table map. This only
+     * updates the last export time, leaving the rest of the mapping as is. Used to decide which tables to pre-warm,
+     * see {@link #prewarmTables}.
+     *
+     * @param task
+     *         the export task, which contains context needed to get the Synapse table map
+     * @param ddbTableName
+     *         Dynamo DB table that contains the Synapse table map
+     * @param ddbKeyName
+     *         hash key name of the Dynamo DB table
+     * @param ddbKeyValue
+     *         value of the hash key of the Dynamo DB table (generally the Synapse table name)
+     */
+    public void setTableLastExportedOn(ExportTask task, String ddbTableName, String ddbKeyName, String ddbKeyValue) {
+        UpdateItemSpec updateItemSpec = new UpdateItemSpec().withPrimaryKey(ddbKeyName, ddbKeyValue)
+                .withUpdateExpression("set " + DDB_KEY_LAST_EXPORTED_ON + " = :lastExportedOn")
+                .withValueMap(new ValueMap().withLong(":lastExportedOn", DateTimeUtils.currentTimeMillis()));
+        getSynapseDdbTable(task, ddbTableName).updateItem(updateItemSpec);
+    }
+
     // Helper method to get the DDB Synapse table map, called both to read and write the Synapse table ID to and from
     // DDB.
     private Table getSynapseDdbTable(ExportTask task, String ddbTableName) {
@@ -193,10 +395,12 @@ public class ExportWorkerManager {
 
     // HELPER OBJECTS (CONFIGURED BY SPRING)
 
+    private AttachmentTransferEngine attachmentTransferEngine;
     private BridgeHelper bridgeHelper;
     private DynamoDB ddbClient;
     private DynamoHelper dynamoHelper;
     private ExportHelper exportHelper;
+    private ExporterStatusUpdater exporterStatusUpdater;
     private FileHelper fileHelper;
     private S3Helper s3Helper;
     private SqsHelper sqsHelper;
@@ -206,11 +410,43 @@ public class ExportWorkerManager {
     // column definition list from conf file
     private List<ColumnDefinition> columnDefinitions;
 
+    /** Attachment transfer engine, used to upload attachments to Synapse without holding up export workers. */
+    public final AttachmentTransferEngine getAttachmentTransferEngine() {
+        return attachmentTransferEngine;
+    }
+
+    /** @see #getAttachmentTransferEngine */
+    @Autowired
+    public final void setAttachmentTransferEngine(AttachmentTransferEngine attachmentTransferEngine) {
+        this.attachmentTransferEngine = attachmentTransferEngine;
+    }
+
     /** BridgeHelper, calls Bridge to get schemas and other data the exporter needs. */
     public final BridgeHelper getBridgeHelper() {
         return bridgeHelper;
     }
 
+    /**
+     * Gets the schema for the given key, from the task's schema registry if it has one, otherwise from the
+     * BridgeHelper.
+     *
+     * @param task
+     *         export task the schema is needed for
+     * @param schemaKey
+     *         key for the schema to get
+     * @return the schema
+     * @throws SchemaNotFoundException
+     *         if the schema doesn't exist
+     */
+    public UploadSchema getSchema(ExportTask task, UploadSchemaKey schemaKey) throws SchemaNotFoundException {
+        SchemaRegistry schemaRegistry = task.getSchemaRegistry();
+        if (schemaRegistry != null) {
+            return schemaRegistry.getSchema(schemaKey);
+        } else {
+            return bridgeHelper.getSchema(task.getMetrics(), schemaKey);
+        }
+    }
+
     @Resource(name = "synapseColumnDefinitions")
     public final void setSynapseColumnDefinitions(List<ColumnDefinition> columnDefinitions) {
         this.columnDefinitions = columnDefinitions;
@@ -249,6 +485,17 @@ public class ExportWorkerManager {
         this.exportHelper = exportHelper;
     }
 
+    /** Exporter status updater, used to update record exporter statuses in Bridge in the background. */
+    public final ExporterStatusUpdater getExporterStatusUpdater() {
+        return exporterStatusUpdater;
+    }
+
+    /** @see #getExporterStatusUpdater */
+    @Autowired
+    public final void setExporterStatusUpdater(ExporterStatusUpdater exporterStatusUpdater) {
+        this.exporterStatusUpdater = exporterStatusUpdater;
+    }
+
     /** File helper, used to create and write to TSVs in the file system. */
     public final FileHelper getFileHelper() {
         return fileHelper;
@@ -335,11 +582,14 @@ public class ExportWorkerManager {
     }
 
     // TASK AND HANDLER MANAGEMENT
+    // Subtasks are added concurrently by the record pipeline, so the handler maps need to be concurrent.
 
-    private final Map<String, AppVersionExportHandler> appVersionHandlersByStudy = new HashMap<>();
+    private final Map<String, AppVersionExportHandler> appVersionHandlersByStudy = new ConcurrentHashMap<>();
     private ExecutorService executor;
-    private final Map<UploadSchemaKey, HealthDataExportHandler> healthDataHandlersBySchema = new HashMap<>();
-    private final Map<String, IosSurveyExportHandler> surveyHandlersByStudy = new HashMap<>();
+    private final Map<UploadSchemaKey, HealthDataExportHandler> healthDataHandlersBySchema =
+            new ConcurrentHashMap<>();
+    private final Map<String, IosSurveyExportHandler> surveyHandlersByStudy = new ConcurrentHashMap<>();
+    private ExecutorService synapseUploadExecutor;
 
     /** Executor that runs our export workers. */
     @Resource(name = "workerExecutorService")
@@ -347,6 +597,20 @@ public class ExportWorkerManager {
         this.executor = executor;
     }
 
+    /**
+     * Executor that uploads TSVs and writes status tables to Synapse. Full TSV segments are uploaded during the record
+     * stream. The rest are uploaded at the end of the stream.
+     */
+    public final ExecutorService getSynapseUploadExecutor() {
+        return synapseUploadExecutor;
+    }
+
+    /** @see #getSynapseUploadExecutor */
+    @Resource(name = "synapseUploadExecutorService")
+    public final void setSynapseUploadExecutor(ExecutorService synapseUploadExecutor) {
+        this.synapseUploadExecutor = synapseUploadExecutor;
+    }
+
     /**
      * Given the export task and one of the health data records in that task, this creates the export sub-tasks and
      * routes them to the appropriate export handlers. This returns immediately and queues up asynchronous workers to
@@ -368,10 +632,11 @@ public class ExportWorkerManager {
         // Book-keeping: We need to know what study IDs this task has seen.
         task.addStudyId(studyId);
 
-        // Make subtask. Subtasks are immutable, so we can safely use the same one for each of the handlers.
-        JsonNode recordDataNode = DefaultObjectMapper.INSTANCE.readTree(record.getString("data"));
+        // Make subtask. Subtasks are immutable, so we can safely use the same one for each of the handlers. Record data
+        // is passed as raw text and parsed by the handlers in the worker threads, so that handlers only parse the
+        // fields they need.
         ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(record).withParentTask(task)
-                .withRecordData(recordDataNode).withSchemaKey(schemaKey).build();
+                .withRecordDataText(record.getString("data")).withSchemaKey(schemaKey).build();
 
         // Multiplex on schema.
         if (SCHEMA_IOS_SURVEY.equals(schemaKey.getSchemaId())) {
@@ -423,8 +688,112 @@ public class ExportWorkerManager {
      */
     private void queueWorker(ExportHandler handler, ExportTask parentTask, ExportSubtask subtask) {
         ExportWorker worker = new ExportWorker(handler, subtask);
-        Future<Void> future = executor.submit(worker);
-        parentTask.addSubtaskFuture(new ExportSubtaskFuture.Builder().withSubtask(subtask).withFuture(future).build());
+        ExportWorkerFuture subtaskFuture = new ExportWorkerFuture(worker, parentTask.getCompletedSubtaskQueue());
+
+        // Track the subtask before submitting it, so that it can't complete before we know about it.
+        parentTask.addSubtaskFuture(subtaskFuture);
+        try {
+            executor.execute(subtaskFuture);
+        } catch (RuntimeException ex) {
+            // The executor rejected the subtask, so it will never complete. Stop tracking it.
+            parentTask.removeSubtaskFuture(subtaskFuture);
+            throw ex;
+        }
+
+        harvestCompletedSubtasks(parentTask);
+    }
+
+    /**
+     * Handles all subtasks that have completed so far, in the order they completed, so we don't hold on to their
+     * records and parsed data until the end of the stream. This doesn't wait for subtasks that are still running.
+     * Package-scoped for unit tests.
+     *
+     * @param task
+     *         export task to harvest subtasks for
+     */
+    void harvestCompletedSubtasks(ExportTask task) {
+        ExportWorkerFuture subtaskFuture;
+        while ((subtaskFuture = task.getCompletedSubtaskQueue().poll()) != null) {
+            try {
+                harvestSubtask(task, subtaskFuture);
+            } catch (RestartBridgeExporterException ex) {
+                // We can't restart from here. Save the exception, so endOfStream() can throw it.
+                task.setRestartException(ex);
+                return;
+            }
+        }
+    }
+
+    // Stops tracking a completed subtask, records its latency, and handles its result.
+    private void harvestSubtask(ExportTask task, ExportWorkerFuture subtaskFuture)
+            throws RestartBridgeExporterException {
+        task.removeSubtaskFuture(subtaskFuture);
+        task.getMetrics().addLatencyMillis(METRICS_SUBTASK_LATENCY, subtaskFuture.getElapsedMillis());
+        handleCompletedSubtask(task, subtaskFuture);
+    }
+
+    // Stops waiting on the task's outstanding subtasks. Subtasks that haven't started yet are cancelled and their
+    // records are redriven. Subtasks that are already running are left to finish, but aren't harvested.
+    private void abandonOutstandingSubtasks(ExportTask task) {
+        for (ExportWorkerFuture oneSubtaskFuture : ImmutableList.copyOf(task.getOutstandingSubtaskSet())) {
+            task.removeSubtaskFuture(oneSubtaskFuture);
+            if (oneSubtaskFuture.cancel(false)) {
+                task.addRedriveRecordId(oneSubtaskFuture.getSubtask().getRecordId());
+            }
+        }
+    }
+
+    // Logs the subtasks that have been outstanding the longest, so we can tell what we're waiting on.
+    private void logSlowestOutstandingSubtasks(ExportTask task) {
+        List<ExportWorkerFuture> slowestSubtaskList = Ordering.<Long>natural()
+                .onResultOf(ExportWorkerFuture::getCreatedNanos)
+                .leastOf(task.getOutstandingSubtaskSet(), SLOWEST_SUBTASK_REPORT_COUNT);
+        for (ExportWorkerFuture oneSubtaskFuture : slowestSubtaskList) {
+            LOG.info("Outstanding subtask for recordId=" + oneSubtaskFuture.getSubtask().getRecordId() +
+                    ", handler=" + oneSubtaskFuture.getWorker().getHandler().getClass().getSimpleName() +
+                    ", elapsed=" + oneSubtaskFuture.getElapsedMillis() + "ms");
+        }
+    }
+
+    /**
+     * Waits for the given subtask to complete (if it hasn't already) and handles its result. Failures are logged.
+     * Retryable failures are added to the task's set of record IDs to redrive.
+     *
+     * @param task
+     *         export task the subtask belongs to
+     * @param subtaskFuture
+     *         subtask to handle
+     * @throws RestartBridgeExporterException
+     *         if the subtask failed because Synapse is down
+     */
+    private void handleCompletedSubtask(ExportTask task, ExportWorkerFuture subtaskFuture)
+            throws RestartBridgeExporterException {
+        // ExportWorkers have no return value. If Future.get() returns normally, then the task is done.
+        try {
+            subtaskFuture.get();
+        } catch (ExecutionException | InterruptedException ex) {
+            // The real exception is in the inner exception (if it's an ExecutionException).
+            Throwable originalEx = ex.getCause();
+
+            String recordId = subtaskFuture.getSubtask().getRecordId();
+            if (isSynapseDown(originalEx)) {
+                // If Synapse is down, we should restart the BridgeEX request. Note that since BridgeEX is
+                // multi-threaded, there may be other subtasks scheduled that will run to completion. Nothing will
+                // get written to the Synapse tables, however, since (a) we never call upload to Synapse and
+                // (b) Synapse is down anyway.
+                throw new RestartBridgeExporterException("Restarting Bridge Exporter; last recordId=" + recordId +
+                        ": " + originalEx.getMessage(), originalEx);
+            } else {
+                LOG.error("Error completing subtask for recordId=" + recordId + ": " + ex.getMessage(), ex);
+                // We exclude TSV exceptions here. Since TSVs cause the whole table to fail, redrive the table
+                // instead of individual records.
+                if (!(originalEx instanceof BridgeExporterTsvException) && isRetryable(originalEx)) {
+                    // This failure is recoverable. Track which record IDs need to be redriven, so we can redrive it
+                    // later.
+                    task.addRedriveRecordId(recordId);
+                }
+            }
+        }
     }
 
     /**
@@ -438,7 +807,11 @@ public class ExportWorkerManager {
         AppVersionExportHandler handler = appVersionHandlersByStudy.get(studyId);
         if (handler == null) {
             handler = createAppVersionHandler(studyId);
-            appVersionHandlersByStudy.put(studyId, handler);
+            AppVersionExportHandler existingHandler = appVersionHandlersByStudy.putIfAbsent(studyId, handler);
+            if (existingHandler != null) {
+                // Another thread created the handler first. Use that one.
+                handler = existingHandler;
+            }
         }
         return handler;
     }
@@ -469,7 +842,11 @@ public class ExportWorkerManager {
         HealthDataExportHandler handler = healthDataHandlersBySchema.get(schemaKey);
         if (handler == null) {
             handler = createHealthDataHandler(metrics, schemaKey);
-            healthDataHandlersBySchema.put(schemaKey, handler);
+            HealthDataExportHandler existingHandler = healthDataHandlersBySchema.putIfAbsent(schemaKey, handler);
+            if (existingHandler != null) {
+                // Another thread created the handler first. Use that one.
+                handler = existingHandler;
+            }
         }
         return handler;
     }
@@ -502,14 +879,165 @@ public class ExportWorkerManager {
             handler = new IosSurveyExportHandler();
             handler.setManager(this);
             handler.setStudyId(studyId);
-            surveyHandlersByStudy.put(studyId, handler);
+
+            IosSurveyExportHandler existingHandler = surveyHandlersByStudy.putIfAbsent(studyId, handler);
+            if (existingHandler != null) {
+                // Another thread created the handler first. Use that one.
+                handler = existingHandler;
+            }
         }
         return handler;
     }
 
+    /**
+     * <p>
+     * Pre-warms the Synapse tables the task is likely to write to, before the record loop starts. This initializes the
+     * TSV for each of the given schemas and for the app version table of each of their studies, which creates or
+     * updates the Synapse tables as needed. Otherwise, this happens on the first record for each table, while export
+     * workers wait for it.
+     * </p>
+     * <p>
+     * Tables are pre-warmed in parallel on the Synapse upload executor, which bounds the number of concurrent table
+     * updates, and SynapseHelper rate limits the calls to Synapse. This waits for all tables to finish. Failures are
+     * logged and otherwise ignored, since the table will be initialized again on the first record.
+     * </p>
+     * <p>
+     * Only schemas whose tables had a TSV imported in the last synapse.table.prewarm.max.age.hours are pre-warmed.
+     * Most known schemas are old revisions or inactive studies, and pre-warming them costs Synapse calls without saving
+     * anything. The last export time is read from the DDB Synapse table map, so this works the same after a restart or
+     * on a different Exporter instance. This does nothing for redrives, record ID overrides, and table whitelists,
+     * since those only touch a few tables, and does nothing unless synapse.table.prewarm.enabled is true.
+     * </p>
+     *
+     * @param task
+     *         export task to pre-warm tables for
+     * @param schemaKeys
+     *         schemas the task is likely to see, generally the known schemas for the task's studies
+     */
+    public void prewarmTables(ExportTask task, Collection<UploadSchemaKey> schemaKeys) {
+        if (!tablePrewarmEnabled) {
+            return;
+        }
+
+        BridgeExporterRequest request = task.getRequest();
+        if (StringUtils.isNotBlank(request.getRecordIdS3Override()) || request.getRedriveCount() > 0 ||
+                (request.getTableWhitelist() != null && !request.getTableWhitelist().isEmpty())) {
+            return;
+        }
+
+        // iOS surveys are routed to the survey's real schema, so they don't have their own table. BatchGetItem rejects
+        // duplicate keys, so de-dupe.
+        Set<UploadSchemaKey> candidateSchemaKeySet = new LinkedHashSet<>();
+        for (UploadSchemaKey oneSchemaKey : schemaKeys) {
+            if (!SCHEMA_IOS_SURVEY.equals(oneSchemaKey.getSchemaId())) {
+                candidateSchemaKeySet.add(oneSchemaKey);
+            }
+        }
+        List<UploadSchemaKey> candidateSchemaKeyList = new ArrayList<>(candidateSchemaKeySet);
+
+        // Only recently exported schemas.
+        Map<String, Long> lastExportedMillisBySchemaKey;
+        try {
+            lastExportedMillisBySchemaKey = getLastExportedMillisBySchemaKey(task, candidateSchemaKeyList);
+        } catch (RuntimeException ex) {
+            LOG.error("Error reading Synapse table map, skipping pre-warm: " + ex.getMessage(), ex);
+            return;
+        }
+        long minLastExportedMillis = DateTimeUtils.currentTimeMillis() - tablePrewarmMaxAgeMillis;
+        Map<String, SynapseExportHandler> handlersByTableKey = new TreeMap<>();
+        Set<String> studyIdSet = new TreeSet<>();
+        for (UploadSchemaKey oneSchemaKey : candidateSchemaKeyList) {
+            Long lastExportedMillis = lastExportedMillisBySchemaKey.get(oneSchemaKey.toString());
+            if (lastExportedMillis == null || lastExportedMillis < minLastExportedMillis) {
+                continue;
+            }
+
+            try {
+                handlersByTableKey.put(oneSchemaKey.toString(), getHealthDataHandlerForSchema(task.getMetrics(),
+                        oneSchemaKey));
+            } catch (IOException | SchemaNotFoundException ex) {
+                LOG.warn("Skipping pre-warm for schema " + oneSchemaKey + ": " + ex.getMessage());
+                continue;
+            }
+            studyIdSet.add(oneSchemaKey.getStudyId());
+        }
+        for (String oneStudyId : studyIdSet) {
+            handlersByTableKey.put(oneStudyId + "-appVersion", getAppVersionHandlerForStudy(oneStudyId));
+        }
+
+        Stopwatch prewarmStopwatch = Stopwatch.createStarted();
+        Map<String, Future<Boolean>> prewarmFuturesByTableKey = new LinkedHashMap<>();
+        for (Map.Entry<String, SynapseExportHandler> handlerEntry : handlersByTableKey.entrySet()) {
+            SynapseExportHandler handler = handlerEntry.getValue();
+            prewarmFuturesByTableKey.put(handlerEntry.getKey(), synapseUploadExecutor.submit(
+                    () -> handler.prewarmForTask(task)));
+        }
+
+        int numPrewarmed = 0;
+        for (Map.Entry<String, Future<Boolean>> prewarmFutureEntry : prewarmFuturesByTableKey.entrySet()) {
+            try {
+                if (prewarmFutureEntry.getValue().get()) {
+                    task.getMetrics().incrementCounter("numTablesPrewarmed");
+                    numPrewarmed++;
+                }
+            } catch (ExecutionException ex) {
+                LOG.error("Error pre-warming table " + prewarmFutureEntry.getKey() + ": " + ex.getCause().getMessage(),
+                        ex.getCause());
+            } catch (InterruptedException ex) {
+                // Don't start pre-warms that haven't started yet. Tables will be initialized on the first record.
+                Thread.currentThread().interrupt();
+                prewarmFuturesByTableKey.values().forEach(future -> future.cancel(false));
+                break;
+            }
+        }
+        LOG.info("Pre-warmed " + numPrewarmed + " of " + prewarmFuturesByTableKey.size() + " Synapse tables in " +
+                prewarmStopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
+    }
+
+    // Helper method which reads the last export time of each of the given schemas' tables from the DDB Synapse table
+    // map, in batches of up to 100 keys. Schemas without a mapping or without a last export time are left out. Keys
+    // that DDB still hasn't processed after a few attempts are also left out, since pre-warming is best effort.
+    private Map<String, Long> getLastExportedMillisBySchemaKey(ExportTask task, List<UploadSchemaKey> schemaKeyList) {
+        String ddbTableName = getExporterDdbPrefixForTask(task) + SynapseHelper.DDB_TABLE_SYNAPSE_TABLES;
+        Map<String, Long> lastExportedMillisBySchemaKey = new HashMap<>();
+        for (List<UploadSchemaKey> oneSchemaKeyBatch : Lists.partition(schemaKeyList, DDB_BATCH_GET_MAX_KEYS)) {
+            TableKeysAndAttributes keysAndAttributes = new TableKeysAndAttributes(ddbTableName);
+            for (UploadSchemaKey oneSchemaKey : oneSchemaKeyBatch) {
+                keysAndAttributes.addHashOnlyPrimaryKey(SynapseHelper.DDB_KEY_SCHEMA_KEY, oneSchemaKey.toString());
+            }
+            BatchGetItemSpec spec = new BatchGetItemSpec().withTableKeyAndAttributes(keysAndAttributes);
+
+            for (int numAttempts = 1; ; numAttempts++) {
+                BatchGetItemOutcome outcome = ddbClient.batchGetItem(spec);
+                List<Item> itemList = outcome.getTableItems().get(ddbTableName);
+                if (itemList != null) {
+                    for (Item oneItem : itemList) {
+                        if (oneItem.isPresent(DDB_KEY_LAST_EXPORTED_ON)) {
+                            lastExportedMillisBySchemaKey.put(oneItem.getString(SynapseHelper.DDB_KEY_SCHEMA_KEY),
+                                    oneItem.getLong(DDB_KEY_LAST_EXPORTED_ON));
+                        }
+                    }
+                }
+
+                Map<String, KeysAndAttributes> unprocessedKeys = outcome.getUnprocessedKeys();
+                if (unprocessedKeys == null || unprocessedKeys.isEmpty()) {
+                    break;
+                }
+                if (numAttempts >= DDB_BATCH_GET_MAX_ATTEMPTS) {
+                    LOG.warn("Unprocessed keys remain after " + numAttempts + " BatchGetItem attempts, not " +
+                            "pre-warming those tables");
+                    break;
+                }
+                spec = new BatchGetItemSpec().withUnprocessedKeys(unprocessedKeys);
+            }
+        }
+        return lastExportedMillisBySchemaKey;
+    }
+
     /**
      * Signals the end of the record stream for the given export task. This waits for all of the outstanding tasks to
-     * complete and signals the handlers to upload their TSVs to Synapse.
+     * complete and signals the handlers to upload their TSVs to Synapse. Uploads run in parallel on the Synapse upload
+     * executor.
      *
      * @param task
      *         export task to be finished
@@ -521,45 +1049,125 @@ public class ExportWorkerManager {
         String tag = request.getTag();
         LOG.info("End of stream signaled for request " + request.toString());
 
-        // Wait for all outstanding tasks to complete
+        // If we already found that Synapse is down while harvesting subtasks, restart right away.
+        RestartBridgeExporterException restartException = task.getRestartException();
+        if (restartException != null) {
+            throw restartException;
+        }
+
+        // Wait for all outstanding tasks to complete. Most subtasks have already been harvested by
+        // harvestCompletedSubtasks(). These are just the ones that were still running. Harvest them in the order they
+        // complete, so a slow subtask doesn't hold up the ones behind it.
         Stopwatch stopwatch = Stopwatch.createStarted();
-        Queue<ExportSubtaskFuture> subtaskFutureQueue = task.getSubtaskFutureQueue();
-        Set<String> redriveRecordIdSet = new HashSet<>();
-        while (!subtaskFutureQueue.isEmpty()) {
-            int numOutstanding = subtaskFutureQueue.size();
-            if (numOutstanding % progressReportPeriod == 0) {
-                LOG.info("Num outstanding tasks: " + numOutstanding + " after " + stopwatch.elapsed(TimeUnit.SECONDS) +
-                        " seconds");
+        Set<ExportWorkerFuture> outstandingSubtaskSet = task.getOutstandingSubtaskSet();
+        BlockingQueue<ExportWorkerFuture> completedSubtaskQueue = task.getCompletedSubtaskQueue();
+        int numHarvested = 0;
+        while (!outstandingSubtaskSet.isEmpty()) {
+            ExportWorkerFuture subtaskFuture;
+            try {
+                subtaskFuture = completedSubtaskQueue.poll(PROGRESS_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                LOG.error("Interrupted while waiting for subtasks: " + ex.getMessage(), ex);
+                Thread.currentThread().interrupt();
+                abandonOutstandingSubtasks(task);
+                break;
             }
 
-            // ExportWorkers have no return value. If Future.get() returns normally, then the task is done.
-            ExportSubtaskFuture subtaskFuture = subtaskFutureQueue.remove();
-            try {
-                subtaskFuture.getFuture().get();
-            } catch (ExecutionException | InterruptedException ex) {
-                // The real exception is in the inner exception (if it's an ExecutionException).
-                Throwable originalEx = ex.getCause();
+            if (subtaskFuture == null) {
+                // Nothing has completed in a while. Report what we're waiting on.
+                LOG.info("No subtasks completed in the last " + PROGRESS_REPORT_INTERVAL_SECONDS + " seconds. Num " +
+                        "outstanding tasks: " + outstandingSubtaskSet.size() + " after " +
+                        stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
+                logSlowestOutstandingSubtasks(task);
+                continue;
+            }
+
+            harvestSubtask(task, subtaskFuture);
+            numHarvested++;
+            if (numHarvested % progressReportPeriod == 0) {
+                LOG.info("Num outstanding tasks: " + outstandingSubtaskSet.size() + " after " +
+                        stopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
+                logSlowestOutstandingSubtasks(task);
+            }
+        }
+
+        LOG.info("All subtasks done for request " + request.toString());
+
+        // Tell each health data handler to upload their TSVs to Synapse. Most of the time spent uploading is waiting
+        // for Synapse, so uploads run in parallel on the Synapse upload executor. The executor's thread count bounds
+        // the number of concurrent uploads, and SynapseHelper rate limits the calls to Synapse.
+        Stopwatch uploadStopwatch = Stopwatch.createStarted();
+        Map<UploadSchemaKey, Future<?>> healthDataUploadFuturesBySchema = new LinkedHashMap<>();
+        for (Map.Entry<UploadSchemaKey, HealthDataExportHandler> healthDataHandlerEntry
+                : healthDataHandlersBySchema.entrySet()) {
+            HealthDataExportHandler handler = healthDataHandlerEntry.getValue();
+            healthDataUploadFuturesBySchema.put(healthDataHandlerEntry.getKey(), synapseUploadExecutor.submit(() -> {
+                handler.uploadToSynapseForTask(task);
+                return null;
+            }));
+        }
+
+        // Use a TreeMap so we can iterate our redrives in a predictable order.
+        Map<String, Set<UploadSchemaKey>> redriveTablesByStudy = new TreeMap<>();
+        try {
+            for (Map.Entry<UploadSchemaKey, Future<?>> uploadFutureEntry
+                    : healthDataUploadFuturesBySchema.entrySet()) {
+                UploadSchemaKey schemaKey = uploadFutureEntry.getKey();
+                Throwable originalEx = waitForUpload(uploadFutureEntry.getValue());
+                if (originalEx == null) {
+                    // Upload succeeded.
+                    continue;
+                }
+
+                // If some TSV segments were already imported, redriving the table would import them again. Redrive
+                // just the records that weren't imported instead.
+                List<String> failedRecordIdList = null;
+                if (originalEx instanceof BridgeExporterPartialUploadException) {
+                    failedRecordIdList = ((BridgeExporterPartialUploadException) originalEx).getFailedRecordIdList();
+                    originalEx = originalEx.getCause();
+                }
+
+                if (originalEx instanceof BridgeExporterTsvException) {
+                    // TSV exception is just a wrapper. Go down one level to get the real exception.
+                    originalEx = originalEx.getCause();
+                }
 
-                String recordId = subtaskFuture.getSubtask().getRecordId();
                 if (isSynapseDown(originalEx)) {
-                    // If Synapse is down, we should restart the BridgeEX request. Note that since BridgeEX is
-                    // multi-threaded, there may be other subtasks scheduled that will run to completion. Nothing will
-                    // get written to the Synapse tables, however, since (a) we never call upload to Synapse and
-                    // (b) Synapse is down anyway.
-                    throw new RestartBridgeExporterException("Restarting Bridge Exporter; last recordId=" + recordId +
+                    // Similarly, if Synapse is down, restart BridgeEX.
+                    throw new RestartBridgeExporterException("Restarting Bridge Exporter; last schema=" + schemaKey +
                             ": " + originalEx.getMessage(), originalEx);
                 } else {
-                    LOG.error("Error completing subtask for recordId=" + recordId + ": " + ex.getMessage(), ex);
-                    // We exclude TSV exceptions here. Since TSVs cause the whole table to fail, redrive the table
-                    // instead of individual records.
-                    if (!(originalEx instanceof BridgeExporterTsvException) && isRetryable(originalEx)) {
-                        // This failure is recoverable. Track which record IDs need to be redriven, so we can redrive it
-                        // later.
-                        redriveRecordIdSet.add(recordId);
+                    LOG.error("Error uploading health data to Synapse for schema=" + schemaKey + ": " +
+                            originalEx.getMessage(), originalEx);
+                    if (isRetryable(originalEx)) {
+                        if (failedRecordIdList != null) {
+                            failedRecordIdList.forEach(task::addRedriveRecordId);
+                        } else {
+                            // Similarly, track which tables (schemas) to redrive.
+                            String studyId = schemaKey.getStudyId();
+                            Set<UploadSchemaKey> redriveTableSet = redriveTablesByStudy.get(studyId);
+                            if (redriveTableSet == null) {
+                                redriveTableSet = new HashSet<>();
+                                redriveTablesByStudy.put(studyId, redriveTableSet);
+                            }
+                            redriveTableSet.add(schemaKey);
+                        }
                     }
                 }
             }
+        } finally {
+            // If we're restarting, don't start any uploads that haven't started yet. Uploads that are already running
+            // are left to finish, so we don't leave a table half-written. This does nothing if all uploads are done.
+            for (Future<?> oneUploadFuture : healthDataUploadFuturesBySchema.values()) {
+                oneUploadFuture.cancel(false);
+            }
         }
+        LOG.info("Uploaded " + healthDataUploadFuturesBySchema.size() + " health data tables to Synapse in " +
+                uploadStopwatch.elapsed(TimeUnit.SECONDS) + " seconds");
+
+        // Redrive records after the health data uploads, since uploads that only partly succeed redrive their failed
+        // records individually.
+        Set<String> redriveRecordIdSet = task.getRedriveRecordIdSet();
         if (!redriveRecordIdSet.isEmpty() && redriveCount < redriveMaxCount) {
             // Upload the list of record IDs that need to be redriven to S3. The filename *should* be unique, since we
             // use the timestamp for the filename, and we currently only run one Export job at a time.
@@ -592,44 +1200,6 @@ public class ExportWorkerManager {
             }
         }
 
-        LOG.info("All subtasks done for request " + request.toString());
-
-        // Tell each health data handler to upload their TSVs to Synapse.
-        // Use a TreeMap so we can iterate our redrives in a predictable order.
-        Map<String, Set<UploadSchemaKey>> redriveTablesByStudy = new TreeMap<>();
-        for (Map.Entry<UploadSchemaKey, HealthDataExportHandler> healthDataHandlerEntry
-                : healthDataHandlersBySchema.entrySet()) {
-            UploadSchemaKey schemaKey = healthDataHandlerEntry.getKey();
-            HealthDataExportHandler handler = healthDataHandlerEntry.getValue();
-            try {
-                handler.uploadToSynapseForTask(task);
-            } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
-                Throwable originalEx = ex;
-                if (originalEx instanceof BridgeExporterTsvException) {
-                    // TSV exception is just a wrapper. Go down one level to get the real exception.
-                    originalEx = originalEx.getCause();
-                }
-
-                if (isSynapseDown(originalEx)) {
-                    // Similarly, if Synapse is down, restart BridgeEX.
-                    throw new RestartBridgeExporterException("Restarting Bridge Exporter; last schema=" + schemaKey +
-                            ": " + originalEx.getMessage(), originalEx);
-                } else {
-                    LOG.error("Error uploading health data to Synapse for schema=" + schemaKey + ": " +
-                            originalEx.getMessage(), originalEx);
-                    if (isRetryable(originalEx)) {
-                        // Similarly, track which tables (schemas) to redrive.
-                        String studyId = schemaKey.getStudyId();
-                        Set<UploadSchemaKey> redriveTableSet = redriveTablesByStudy.get(studyId);
-                        if (redriveTableSet == null) {
-                            redriveTableSet = new HashSet<>();
-                            redriveTablesByStudy.put(studyId, redriveTableSet);
-                        }
-                        redriveTableSet.add(schemaKey);
-                    }
-                }
-            }
-        }
         if (!redriveTablesByStudy.isEmpty() && redriveCount < redriveMaxCount) {
             for (Map.Entry<String, Set<UploadSchemaKey>> oneRedriveTableEntry : redriveTablesByStudy.entrySet()) {
                 String oneStudyId = oneRedriveTableEntry.getKey();
@@ -671,14 +1241,30 @@ public class ExportWorkerManager {
             }
         }
 
-        // Also, the app version handlers.
+        // Also, the app version handlers and the status tables. Status tables are individual for each study. These
+        // are independent of each other, so they also run in parallel.
+        Map<String, Future<?>> appVersionUploadFuturesByStudy = new TreeMap<>();
         for (Map.Entry<String, AppVersionExportHandler> appVersionHandlerEntry
                 : appVersionHandlersByStudy.entrySet()) {
-            String studyId = appVersionHandlerEntry.getKey();
             AppVersionExportHandler handler = appVersionHandlerEntry.getValue();
-            try {
+            appVersionUploadFuturesByStudy.put(appVersionHandlerEntry.getKey(), synapseUploadExecutor.submit(() -> {
                 handler.uploadToSynapseForTask(task);
-            } catch (BridgeExporterException | IOException | RuntimeException | SynapseException ex) {
+                return null;
+            }));
+        }
+
+        Map<String, Future<?>> statusTableFuturesByStudy = new TreeMap<>();
+        for (String oneStudyId : task.getStudyIdSet()) {
+            statusTableFuturesByStudy.put(oneStudyId, synapseUploadExecutor.submit(() -> {
+                synapseStatusTableHelper.initTableAndWriteStatus(task, oneStudyId);
+                return null;
+            }));
+        }
+
+        for (Map.Entry<String, Future<?>> appVersionUploadFutureEntry : appVersionUploadFuturesByStudy.entrySet()) {
+            String studyId = appVersionUploadFutureEntry.getKey();
+            Throwable ex = waitForUpload(appVersionUploadFutureEntry.getValue());
+            if (ex != null) {
                 // TODO: Improved error handling
                 // If uploading Bridge data succeeds and somehow the appVersion (index) table fails (including
                 // retries), we don't really have a mechanism for redriving this specific table update. Fortunately,
@@ -689,20 +1275,33 @@ public class ExportWorkerManager {
             }
         }
 
-        // Write status table. Status tables are individual for each study.
-        for (String oneStudyId : task.getStudyIdSet()) {
-            try {
-                synapseStatusTableHelper.initTableAndWriteStatus(task, oneStudyId);
-            } catch (BridgeExporterException | InterruptedException | RuntimeException | SynapseException ex) {
+        for (Map.Entry<String, Future<?>> statusTableFutureEntry : statusTableFuturesByStudy.entrySet()) {
+            String studyId = statusTableFutureEntry.getKey();
+            Throwable ex = waitForUpload(statusTableFutureEntry.getValue());
+            if (ex != null) {
                 // TODO: Improved error handling
                 // Similarly, status table is also not critical, but we should think about how to improve this.
-                LOG.error("Error writing to status table for study=" + oneStudyId + ": " + ex.getMessage(), ex);
+                LOG.error("Error writing to status table for study=" + studyId + ": " + ex.getMessage(), ex);
             }
         }
 
         LOG.info("Done uploading to Synapse for request " + request.toString());
     }
 
+    // Helper method which waits for an upload submitted to the Synapse upload executor. Returns the exception the
+    // upload threw, or null if it succeeded.
+    private static Throwable waitForUpload(Future<?> uploadFuture) {
+        try {
+            uploadFuture.get();
+            return null;
+        } catch (ExecutionException ex) {
+            // The real exception is in the inner exception.
+            return ex.getCause();
+        } catch (InterruptedException ex) {
+            return ex;
+        }
+    }
+
     // Advice from Synapse team is that 503 means Synapse is down (either for maintenance or otherwise). In this case,
     // instead of continuing, we should abort the request and restart BridgeEX immediately.
     //
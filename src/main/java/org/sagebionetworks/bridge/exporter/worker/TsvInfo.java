@@ -2,9 +2,15 @@ package org.sagebionetworks.bridge.exporter.worker;
 
 import java.io.File;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.base.Joiner;
 
@@ -13,19 +19,35 @@ import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterTsvException;
 
 /**
+ * <p>
  * Helper class that keeps track of a TSV file, the writer that writes to the file, and a method for tracking and
- * incrementing TSV line counts.
+ * incrementing TSV line counts. Rows are written concurrently by export workers through a {@link TsvRowAppender}, so
+ * writers don't block each other. Column slots are resolved once, when the TSV is initialized, through a
+ * {@link TsvRowLayout}, and each worker thread reuses its own {@link TsvRow}, which is shared by all segments of the
+ * TSV.
+ * </p>
+ * <p>
+ * A table's TSV may be split into segments, so that full segments can be uploaded while the rest of the table is
+ * still being written. Each segment is its own TsvInfo, sharing the row layout of the first segment. Writers take a
+ * shared lock, and closing the TSV takes the exclusive lock, so a segment is never closed in the middle of a row.
+ * </p>
  */
 public class TsvInfo {
     private static final Joiner JOINER_COLUMN_JOINER = Joiner.on('\t').useForNull("");
 
-    private final List<String> columnNameList;
+    private final TsvRowLayout rowLayout;
     private final File file;
     private final PrintWriter writer;
+    private final TsvRowAppender rowAppender;
     private final Throwable initError;
-    private final List<String> recordIds = new ArrayList<>();
+    private final Queue<String> recordIds = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger lineCount = new AtomicInteger();
+    private final AtomicLong charCount = new AtomicLong();
+    private final int segmentNum;
 
-    private int lineCount = 0;
+    // Writers hold the read lock, so they can write concurrently. Closing the TSV takes the write lock.
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed = false;
 
     /**
      * TSV info constructor.
@@ -38,12 +60,34 @@ public class TsvInfo {
      *         writer for the TSV file
      */
     public TsvInfo(List<String> columnNameList, File file, PrintWriter writer) {
-        this.columnNameList = columnNameList;
+        this(new TsvRowLayout(columnNameList), file, writer, 0);
+    }
+
+    /**
+     * Constructs the next segment of a TSV. The new segment has the same columns as the previous segment, so rows
+     * created for the previous segment can be written to the new segment.
+     *
+     * @param previousSegment
+     *         previous segment of the TSV
+     * @param file
+     *         TSV file for the new segment
+     * @param writer
+     *         writer for the new segment's file
+     */
+    public TsvInfo(TsvInfo previousSegment, File file, PrintWriter writer) {
+        this(previousSegment.rowLayout, file, writer, previousSegment.segmentNum + 1);
+    }
+
+    // Helper constructor, which writes the header row.
+    private TsvInfo(TsvRowLayout rowLayout, File file, PrintWriter writer, int segmentNum) {
+        this.rowLayout = rowLayout;
         this.file = file;
         this.writer = writer;
+        this.rowAppender = new TsvRowAppender(writer);
         this.initError = null;
+        this.segmentNum = segmentNum;
 
-        writer.println(JOINER_COLUMN_JOINER.join(columnNameList));
+        writer.println(JOINER_COLUMN_JOINER.join(rowLayout.getColumnNameList()));
     }
 
     /**
@@ -52,10 +96,12 @@ public class TsvInfo {
      * exception, so that calls further down the chain can handle the error accordingly.
      */
     public TsvInfo(Throwable t) {
-        this.columnNameList = null;
+        this.rowLayout = null;
         this.file = null;
         this.writer = null;
+        this.rowAppender = null;
         this.initError = t;
+        this.segmentNum = 0;
     }
 
     /** Checks if the TSV is properly initialized. Throws a BridgeExporterException if it isn't. */
@@ -66,15 +112,27 @@ public class TsvInfo {
         }
     }
 
-    /** Flushes and closes the writer. This also checks the writer for errors and will throw if there are errors. */
+    /**
+     * Flushes and closes the writer. This also checks the writer for errors and will throw if there are errors. This
+     * waits for rows that are being written to finish. Rows written with {@link #writeRowIfOpen} after the TSV is
+     * closed are rejected.
+     */
     public void flushAndCloseWriter() throws BridgeExporterException {
         checkInitAndThrow();
 
-        writer.flush();
-        if (writer.checkError()) {
-            throw new BridgeExporterException("TSV writer has unknown error");
+        Lock lock = closeLock.writeLock();
+        lock.lock();
+        try {
+            closed = true;
+            rowAppender.close();
+            writer.flush();
+            if (writer.checkError()) {
+                throw new BridgeExporterException("TSV writer has unknown error");
+            }
+            writer.close();
+        } finally {
+            lock.unlock();
         }
-        writer.close();
     }
 
     /** TSV file. */
@@ -84,7 +142,20 @@ public class TsvInfo {
 
     /** Number of lines written to TSV file. */
     public int getLineCount() {
-        return lineCount;
+        return lineCount.get();
+    }
+
+    /**
+     * Number of characters written to the TSV file, not counting the header row. This is an estimate of the file size
+     * in bytes.
+     */
+    public long getCharCount() {
+        return charCount.get();
+    }
+
+    /** Index of this segment within the table's TSV, starting from 0. */
+    public int getSegmentNum() {
+        return segmentNum;
     }
 
     /**
@@ -98,6 +169,95 @@ public class TsvInfo {
         return ImmutableList.copyOf(this.recordIds);
     }
 
+    /** Column layout of this TSV. Null if the TSV failed to initialize. */
+    public TsvRowLayout getRowLayout() {
+        return rowLayout;
+    }
+
+    /** Creates a new empty row for this TSV. */
+    public TsvRow createRow() {
+        return new TsvRow(rowLayout);
+    }
+
+    /**
+     * Gets the calling thread's reusable row for this TSV, cleared of any previous values. The row must be written
+     * with {@link #writeRow(TsvRow)} (or copied, if it has pending values) before the thread gets the reusable row
+     * again, from this or any other segment of the TSV.
+     *
+     * @throws BridgeExporterException
+     *         if the TSV info was not properly initialized
+     */
+    public TsvRow getReusableRow() throws BridgeExporterException {
+        checkInitAndThrow();
+
+        TsvRow row = rowLayout.getReusableRow();
+        row.clear();
+        return row;
+    }
+
+    /**
+     * Writes the row to the TSV writer and increments the line count. Automatically appends a newline. Columns that
+     * weren't set are written as empty values. The row can be reused once this method returns.
+     *
+     * @param row
+     *         row to write, which must have been created for this TSV
+     * @throws BridgeExporterException
+     *         if the TSV info was not properly initialized
+     */
+    public void writeRow(TsvRow row) throws BridgeExporterException {
+        checkInitAndThrow();
+        if (row.getLayout() != rowLayout) {
+            throw new IllegalArgumentException("Row was not created for this TSV");
+        }
+
+        Lock lock = closeLock.readLock();
+        lock.lock();
+        try {
+            appendRowLocked(row);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the row and adds its record ID, unless the TSV has already been closed. The line count and record IDs
+     * are updated together with the row, so that they always match the contents of the file.
+     *
+     * @param row
+     *         row to write, which must have been created for this TSV or another segment of this TSV
+     * @param recordId
+     *         record ID of the row
+     * @return true if the row was written, false if the TSV was already closed
+     * @throws BridgeExporterException
+     *         if the TSV info was not properly initialized
+     */
+    public boolean writeRowIfOpen(TsvRow row, String recordId) throws BridgeExporterException {
+        checkInitAndThrow();
+        if (row.getLayout() != rowLayout) {
+            throw new IllegalArgumentException("Row was not created for this TSV");
+        }
+
+        Lock lock = closeLock.readLock();
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            appendRowLocked(row);
+            recordIds.add(recordId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Helper method to append the row and update counts. Caller must hold the read lock.
+    private void appendRowLocked(TsvRow row) {
+        int numChars = rowAppender.appendRow(row.getValues());
+        lineCount.incrementAndGet();
+        charCount.addAndGet(numChars);
+    }
+
     /**
      * Writes the row to the TSV writer and increments the line count. Automatically appends a newline. If there are
      * missing or extra values, this method silently ignores them, for backwards compatibility with older formats.
@@ -107,17 +267,11 @@ public class TsvInfo {
      * @throws BridgeExporterException
      *         if the TSV info was not properly initialized
      */
-    public synchronized void writeRow(Map<String, String> rowValueMap) throws BridgeExporterException {
-        checkInitAndThrow();
-
-        // Using the columnNameList, go through the row values in order and flatten them into a list.
-        List<String> rowValueList = new ArrayList<>();
-        //noinspection Convert2streamapi
-        for (String oneColumnName : columnNameList) {
-            rowValueList.add(rowValueMap.get(oneColumnName));
+    public void writeRow(Map<String, String> rowValueMap) throws BridgeExporterException {
+        TsvRow row = getReusableRow();
+        for (Map.Entry<String, String> oneEntry : rowValueMap.entrySet()) {
+            row.set(oneEntry.getKey(), oneEntry.getValue());
         }
-
-        writer.println(JOINER_COLUMN_JOINER.join(rowValueList));
-        lineCount++;
+        writeRow(row);
     }
 }
@@ -0,0 +1,122 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * A single TSV row, backed by an array of values in column order, as defined by a {@link TsvRowLayout}. Rows are
+ * reusable; see {@link TsvInfo#getReusableRow}. Rows are not thread-safe.
+ * </p>
+ * <p>
+ * Values that aren't available yet (for example, file handle IDs for attachments that are still uploading) can be set
+ * as pending values. A row with pending values must be copied with {@link #copy} before the reusable row is reused,
+ * and the copy is written once {@link #resolvePendingValues} completes.
+ * </p>
+ */
+public class TsvRow {
+    private final TsvRowLayout layout;
+    private final String[] values;
+    private final Map<Integer, CompletableFuture<String>> pendingValueMap = new HashMap<>();
+
+    /** Creates an empty row for the given layout. */
+    public TsvRow(TsvRowLayout layout) {
+        this.layout = layout;
+        this.values = new String[layout.getNumColumns()];
+    }
+
+    // Copy constructor. See copy().
+    private TsvRow(TsvRow other) {
+        this.layout = other.layout;
+        this.values = other.values.clone();
+        this.pendingValueMap.putAll(other.pendingValueMap);
+    }
+
+    /** Layout of this row. */
+    public TsvRowLayout getLayout() {
+        return layout;
+    }
+
+    /** Clears all values in this row, so it can be reused. */
+    public void clear() {
+        Arrays.fill(values, null);
+        pendingValueMap.clear();
+    }
+
+    /** Creates a copy of this row, including pending values. */
+    public TsvRow copy() {
+        return new TsvRow(this);
+    }
+
+    /** Gets the value at the given column index. */
+    public String get(int columnIndex) {
+        return values[columnIndex];
+    }
+
+    /** Gets the value for the given column, or null if the column isn't in this row's layout. */
+    public String get(String columnName) {
+        int columnIndex = layout.getColumnIndex(columnName);
+        return columnIndex >= 0 ? values[columnIndex] : null;
+    }
+
+    /** Sets the value at the given column index. */
+    public void set(int columnIndex, String value) {
+        values[columnIndex] = value;
+        pendingValueMap.remove(columnIndex);
+    }
+
+    /**
+     * Sets a pending value at the given column index. The value is filled in by {@link #resolvePendingValues}. If the
+     * future has already completed successfully, this sets the value right away.
+     */
+    public void setPending(int columnIndex, CompletableFuture<String> futureValue) {
+        if (futureValue.isDone() && !futureValue.isCompletedExceptionally()) {
+            set(columnIndex, futureValue.join());
+        } else {
+            values[columnIndex] = null;
+            pendingValueMap.put(columnIndex, futureValue);
+        }
+    }
+
+    /** True if this row has values that haven't been resolved yet. */
+    public boolean hasPendingValues() {
+        return !pendingValueMap.isEmpty();
+    }
+
+    /**
+     * Returns a future that completes once all pending values have resolved and been filled into this row. If any
+     * pending value fails, the returned future fails with that value's exception.
+     */
+    public CompletableFuture<Void> resolvePendingValues() {
+        if (pendingValueMap.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<?>[] futureArray = pendingValueMap.values().toArray(
+                new CompletableFuture<?>[pendingValueMap.size()]);
+        return CompletableFuture.allOf(futureArray).thenRun(() -> {
+            for (Map.Entry<Integer, CompletableFuture<String>> onePendingEntry : pendingValueMap.entrySet()) {
+                values[onePendingEntry.getKey()] = onePendingEntry.getValue().join();
+            }
+            pendingValueMap.clear();
+        });
+    }
+
+    /**
+     * Sets the value for the given column. If the column isn't in this row's layout, this method silently ignores it,
+     * for backwards compatibility with older formats.
+     */
+    public void set(String columnName, String value) {
+        int columnIndex = layout.getColumnIndex(columnName);
+        if (columnIndex >= 0) {
+            set(columnIndex, value);
+        }
+    }
+
+    /** Row values, in column order. Package-scoped so TsvRowAppender can write them without copying. */
+    String[] getValues() {
+        return values;
+    }
+}
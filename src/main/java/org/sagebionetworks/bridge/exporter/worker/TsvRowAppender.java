@@ -0,0 +1,145 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.io.PrintWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Appends TSV rows to a writer from many threads without locking. Each thread serializes its rows into its own
+ * thread-local buffer. When a buffer fills up, the thread hands it off as a chunk to a lock-free queue. Whichever
+ * thread wins a compare-and-set becomes the single writer and drains the queue to the underlying writer. Other
+ * threads never wait for it; their chunks get picked up by the current writer.
+ * </p>
+ * <p>
+ * Rows are written exactly as PrintWriter.println() would write them, so the file contents are the same as writing
+ * each row directly. Rows from the same thread stay in order. Rows from different threads may be interleaved in any
+ * order, which was already the case when rows were written under a lock.
+ * </p>
+ * <p>
+ * Rows can sit in thread-local buffers until {@link #flush} is called. flush() must only be called after all threads
+ * are done appending rows. TsvInfo guarantees this by closing the TSV under a lock that excludes writers, since TSV
+ * segments can be closed and uploaded while other segments are still being written. Once the TSV is done,
+ * {@link #close} releases the thread-local buffers, so finished TSVs don't keep a chunk-sized buffer alive for every
+ * worker thread that wrote to them.
+ * </p>
+ */
+public class TsvRowAppender {
+    // Package-scoped for unit tests.
+    static final int DEFAULT_CHUNK_SIZE_CHARS = 16 * 1024;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final PrintWriter writer;
+    private final int chunkSizeChars;
+
+    // Full chunks waiting to be written, and a flag for whether a thread is currently writing them.
+    private final Queue<String> chunkQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isWriting = new AtomicBoolean();
+
+    // Every thread-local buffer, so flush() can find rows that haven't been handed off yet.
+    private final Queue<StringBuilder> bufferRegistry = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<StringBuilder> threadBuffer = ThreadLocal.withInitial(this::createBuffer);
+
+    /** Creates an appender for the given writer, with the default chunk size. */
+    public TsvRowAppender(PrintWriter writer) {
+        this(writer, DEFAULT_CHUNK_SIZE_CHARS);
+    }
+
+    /** Creates an appender for the given writer and chunk size. Package-scoped for unit tests. */
+    TsvRowAppender(PrintWriter writer, int chunkSizeChars) {
+        this.writer = writer;
+        this.chunkSizeChars = chunkSizeChars;
+    }
+
+    // Creates a thread-local buffer and registers it.
+    private StringBuilder createBuffer() {
+        StringBuilder buffer = new StringBuilder(chunkSizeChars + 1024);
+        bufferRegistry.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Appends a row. Values are tab-separated, in column order. Null values are written as empty strings.
+     *
+     * @param rowValues
+     *         row values, in column order
+     * @return number of characters appended, including the line separator
+     */
+    public int appendRow(String[] rowValues) {
+        StringBuilder buffer = threadBuffer.get();
+        int startLength = buffer.length();
+        for (int i = 0; i < rowValues.length; i++) {
+            if (i > 0) {
+                buffer.append('\t');
+            }
+            String value = rowValues[i];
+            if (value != null) {
+                buffer.append(value);
+            }
+        }
+        buffer.append(LINE_SEPARATOR);
+        int numChars = buffer.length() - startLength;
+
+        if (buffer.length() >= chunkSizeChars) {
+            chunkQueue.add(buffer.toString());
+            buffer.setLength(0);
+            drainChunks();
+        }
+        return numChars;
+    }
+
+    /**
+     * Hands off rows in all thread-local buffers and writes everything to the writer. This must only be called after
+     * all threads are done appending rows. This does not flush or close the underlying writer.
+     */
+    public void flush() {
+        for (StringBuilder oneBuffer : bufferRegistry) {
+            if (oneBuffer.length() > 0) {
+                chunkQueue.add(oneBuffer.toString());
+                oneBuffer.setLength(0);
+            }
+        }
+        drainChunks();
+    }
+
+    /**
+     * Flushes all rows, then releases the thread-local buffers. Like flush(), this must only be called after all
+     * threads are done appending rows, and no rows may be appended afterwards. This does not flush or close the
+     * underlying writer.
+     */
+    public void close() {
+        flush();
+
+        // Other threads' thread-local entries can't be removed from this thread, and they stay around until the
+        // appender is garbage collected. Trim the (now empty) buffers, so those entries don't hold on to the chunk
+        // arrays in the meantime.
+        for (StringBuilder oneBuffer : bufferRegistry) {
+            oneBuffer.trimToSize();
+        }
+        bufferRegistry.clear();
+        threadBuffer.remove();
+    }
+
+    // Number of thread-local buffers that haven't been released. Package-scoped for unit tests.
+    int getNumBuffers() {
+        return bufferRegistry.size();
+    }
+
+    // If no other thread is writing, become the writer and write out all queued chunks. After giving up the writer
+    // role, check the queue again, since another thread may have queued a chunk after we finished draining, but
+    // before we gave up the role.
+    private void drainChunks() {
+        while (!chunkQueue.isEmpty() && isWriting.compareAndSet(false, true)) {
+            try {
+                String chunk;
+                while ((chunk = chunkQueue.poll()) != null) {
+                    writer.write(chunk);
+                }
+            } finally {
+                isWriting.set(false);
+            }
+        }
+    }
+}
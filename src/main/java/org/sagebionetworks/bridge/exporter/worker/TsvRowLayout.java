@@ -0,0 +1,63 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Precompiled column layout for a TSV. This maps each column name to its index (slot) in the row once, when the TSV
+ * is initialized, so that writing a row is just filling in an array. This avoids creating and merging a map of column
+ * names to values for every row, which is expensive for wide tables (such as surveys with hundreds of multi-choice
+ * columns).
+ */
+public class TsvRowLayout {
+    private final List<String> columnNameList;
+    private final Map<String, Integer> columnIndexByName;
+    private final ThreadLocal<TsvRow> reusableRow = ThreadLocal.withInitial(() -> new TsvRow(this));
+
+    /**
+     * Creates a layout for the given columns.
+     *
+     * @param columnNameList
+     *         list of column names in the TSV, in order
+     */
+    public TsvRowLayout(List<String> columnNameList) {
+        this.columnNameList = ImmutableList.copyOf(columnNameList);
+
+        // Synapse tables can't have duplicate column names. But just in case, the first column with a given name wins.
+        // (ImmutableMap.Builder throws on duplicate keys.)
+        Map<String, Integer> indexMap = new HashMap<>();
+        for (int i = 0; i < this.columnNameList.size(); i++) {
+            indexMap.putIfAbsent(this.columnNameList.get(i), i);
+        }
+        this.columnIndexByName = ImmutableMap.copyOf(indexMap);
+    }
+
+    /** List of column names in the TSV, in order. */
+    public List<String> getColumnNameList() {
+        return columnNameList;
+    }
+
+    /** Number of columns in the TSV. */
+    public int getNumColumns() {
+        return columnNameList.size();
+    }
+
+    /** Index of the given column in the row, or -1 if the column isn't in this layout. */
+    public int getColumnIndex(String columnName) {
+        Integer index = columnIndexByName.get(columnName);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * The calling thread's reusable row for this layout. All segments of a TSV share the same layout, so each thread
+     * has one reusable row per table, no matter how many segments the table is split into. Callers should clear the
+     * row before using it.
+     */
+    public TsvRow getReusableRow() {
+        return reusableRow.get();
+    }
+}
@@ -22,10 +22,18 @@ import java.util.List;
 import java.util.Map;
 
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
@@ -34,9 +42,12 @@ import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.exporter.util.TestUtil;
 
 @SuppressWarnings("unchecked")
 public class DynamoHelperTest {
+    private static final String PARTICIPANT_OPTIONS_TABLE_NAME = "test-ParticipantOptions";
+
     private static final String START_DATE_TIME_STRING = "2016-05-08T11:21:19.004-0700";
     private static final DateTime START_DATE_TIME = DateTime.parse(START_DATE_TIME_STRING);
 
@@ -62,7 +73,7 @@ public class DynamoHelperTest {
         when(mockPartOptsTable.getItem("healthDataCode", "normal-health-code")).thenReturn(partOptsItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbParticipantOptionsTable(mockPartOptsTable);
 
         // execute and validate
@@ -78,7 +89,7 @@ public class DynamoHelperTest {
                 .thenThrow(AmazonClientException.class);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbParticipantOptionsTable(mockPartOptsTable);
 
         // execute and validate - defaults to no_sharing
@@ -93,7 +104,7 @@ public class DynamoHelperTest {
         when(mockPartOptsTable.getItem("healthDataCode", "missing-health-code")).thenReturn(null);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbParticipantOptionsTable(mockPartOptsTable);
 
         // execute and validate - defaults to no_sharing
@@ -110,7 +121,7 @@ public class DynamoHelperTest {
         when(mockPartOptsTable.getItem("healthDataCode", "missing-sharing-health-code")).thenReturn(partOptsItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbParticipantOptionsTable(mockPartOptsTable);
 
         // execute and validate - defaults to no_sharing
@@ -128,7 +139,7 @@ public class DynamoHelperTest {
         when(mockPartOptsTable.getItem("healthDataCode", "malformed-data-health-code")).thenReturn(partOptsItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbParticipantOptionsTable(mockPartOptsTable);
 
         // execute and validate - defaults to no_sharing
@@ -136,6 +147,86 @@ public class DynamoHelperTest {
         assertEquals(sharingScope, SharingScope.NO_SHARING);
     }
 
+    @Test
+    public void getSharingScopesForUsers() {
+        // mock DDB - one user with sharing scope, one with malformed sharing scope, one without participant options,
+        // and one that DDB didn't process
+        Table mockPartOptsTable = mock(Table.class);
+        when(mockPartOptsTable.getTableName()).thenReturn(PARTICIPANT_OPTIONS_TABLE_NAME);
+
+        Item sharingItem = new Item().withString("healthDataCode", "sharing-health-code").withString("data",
+                "{\"SHARING_SCOPE\":\"ALL_QUALIFIED_RESEARCHERS\"}");
+        Item malformedItem = new Item().withString("healthDataCode", "malformed-health-code").withString("data",
+                "{\"SHARING_SCOPE\":\"foobarbaz\"}");
+        Map<String, KeysAndAttributes> unprocessedKeys = ImmutableMap.of(PARTICIPANT_OPTIONS_TABLE_NAME,
+                new KeysAndAttributes().withKeys(ImmutableMap.of("healthDataCode",
+                        new AttributeValue("unprocessed-health-code"))));
+
+        BatchGetItemOutcome mockOutcome = mock(BatchGetItemOutcome.class);
+        when(mockOutcome.getTableItems()).thenReturn(ImmutableMap.of(PARTICIPANT_OPTIONS_TABLE_NAME,
+                ImmutableList.of(sharingItem, malformedItem)));
+        when(mockOutcome.getUnprocessedKeys()).thenReturn(unprocessedKeys);
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        ArgumentCaptor<BatchGetItemSpec> specCaptor = ArgumentCaptor.forClass(BatchGetItemSpec.class);
+        when(mockDdbClient.batchGetItem(specCaptor.capture())).thenReturn(mockOutcome);
+
+        // set up Dynamo Helper
+        DynamoHelper helper = newDynamoHelper();
+        helper.setDdbClient(mockDdbClient);
+        helper.setDdbParticipantOptionsTable(mockPartOptsTable);
+
+        // execute and validate
+        Map<String, SharingScope> sharingScopeMap = helper.getSharingScopesForUsers(ImmutableList.of(
+                "sharing-health-code", "malformed-health-code", "missing-health-code", "unprocessed-health-code"));
+        assertEquals(sharingScopeMap, ImmutableMap.of("sharing-health-code", SharingScope.ALL_QUALIFIED_RESEARCHERS,
+                "malformed-health-code", SharingScope.NO_SHARING, "missing-health-code", SharingScope.NO_SHARING));
+
+        // validate request
+        TableKeysAndAttributes keysAndAttributes = Iterables.getOnlyElement(
+                specCaptor.getValue().getTableKeysAndAttributes());
+        assertEquals(keysAndAttributes.getTableName(), PARTICIPANT_OPTIONS_TABLE_NAME);
+        assertEquals(keysAndAttributes.getPrimaryKeys().size(), 4);
+    }
+
+    @Test
+    public void ddbErrorGettingSharingScopesForUsers() {
+        Table mockPartOptsTable = mock(Table.class);
+        when(mockPartOptsTable.getTableName()).thenReturn(PARTICIPANT_OPTIONS_TABLE_NAME);
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenThrow(AmazonClientException.class);
+
+        DynamoHelper helper = newDynamoHelper();
+        helper.setDdbClient(mockDdbClient);
+        helper.setDdbParticipantOptionsTable(mockPartOptsTable);
+
+        // execute and validate - nothing resolved, so the caller falls back
+        Map<String, SharingScope> sharingScopeMap = helper.getSharingScopesForUsers(ImmutableList.of(
+                "health-code"));
+        assertTrue(sharingScopeMap.isEmpty());
+    }
+
+    @Test
+    public void getSharingScopesForNoUsers() {
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+
+        DynamoHelper helper = newDynamoHelper();
+        helper.setDdbClient(mockDdbClient);
+
+        assertTrue(helper.getSharingScopesForUsers(ImmutableList.of()).isEmpty());
+        verify(mockDdbClient, never()).batchGetItem(any(BatchGetItemSpec.class));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void getSharingScopesForTooManyUsers() {
+        List<String> healthCodeList = new ArrayList<>();
+        for (int i = 0; i <= DynamoHelper.MAX_BATCH_GET_SIZE; i++) {
+            healthCodeList.add("health-code-" + i);
+        }
+        newDynamoHelper().getSharingScopesForUsers(healthCodeList);
+    }
+
     @Test
     public void getStudyInfo() {
         // mock DDB Study table - only include relevant attributes
@@ -146,7 +237,7 @@ public class DynamoHelperTest {
         when(mockStudyTable.getItem("identifier", "test-study")).thenReturn(studyItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbStudyTable(mockStudyTable);
 
         // execute and validate
@@ -167,7 +258,7 @@ public class DynamoHelperTest {
         when(mockStudyTable.getItem("identifier", "test-study")).thenReturn(null);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbStudyTable(mockStudyTable);
 
         // execute and validate - should return null instead of crashing
@@ -184,7 +275,7 @@ public class DynamoHelperTest {
         when(mockStudyTable.getItem("identifier", "test-study")).thenReturn(studyItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbStudyTable(mockStudyTable);
 
         // execute and validate - studyInfo is null because the StudyInfo builder returns null if either attributes are
@@ -202,7 +293,7 @@ public class DynamoHelperTest {
         when(mockStudyTable.getItem("identifier", "test-study")).thenReturn(studyItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbStudyTable(mockStudyTable);
 
         // execute and validate - Similarly, studyInfo is also null here
@@ -221,7 +312,7 @@ public class DynamoHelperTest {
         when(mockStudyTable.getItem("identifier", "test-study")).thenReturn(studyItem);
 
         // set up Dynamo Helper
-        DynamoHelper helper = new DynamoHelper();
+        DynamoHelper helper = newDynamoHelper();
         helper.setDdbStudyTable(mockStudyTable);
 
         // execute and validate
@@ -235,7 +326,7 @@ public class DynamoHelperTest {
 
     @Test
     public void bootstrapStudyIdsToQueryTestS3Override() throws Exception {
-        DynamoHelper dynamoHelper = new DynamoHelper();
+        DynamoHelper dynamoHelper = newDynamoHelper();
         BridgeExporterRequest request = new BridgeExporterRequest.Builder().withRecordIdS3Override("test-override")
                 .withUseLastExportTime(false).build();
         Map<String, DateTime> retStudyIds = dynamoHelper.bootstrapStudyIdsToQuery(request);
@@ -255,7 +346,7 @@ public class DynamoHelperTest {
         when(mockExportTimeTable.getItem(STUDY_ID, "ddb-bar")).thenReturn(barItem);
 
         // Spy DynamoHelper, so we can mock getStudyInfo() and not entwine the implementation of that with this test.
-        DynamoHelper dynamoHelper = spy(new DynamoHelper());
+        DynamoHelper dynamoHelper = spy(newDynamoHelper());
         dynamoHelper.setDdbExportTimeTable(mockExportTimeTable);
         dynamoHelper.setConfig(mockConfig());
         mockDdbScanHelperWithStudies(dynamoHelper, "ddb-foo", "ddb-bar", "unconfigured-study", "disabled-study",
@@ -301,7 +392,7 @@ public class DynamoHelperTest {
         when(mockExportTimeTable.getItem(STUDY_ID, "custom-export-study-bar")).thenReturn(barItem);
 
         // Spy DynamoHelper, so we can mock getStudyInfo() and not entwine the implementation of that with this test.
-        DynamoHelper dynamoHelper = spy(new DynamoHelper());
+        DynamoHelper dynamoHelper = spy(newDynamoHelper());
         dynamoHelper.setDdbScanHelper(mockDdbScanHelper);
         dynamoHelper.setDdbExportTimeTable(mockExportTimeTable);
         dynamoHelper.setConfig(mockConfig());
@@ -334,7 +425,7 @@ public class DynamoHelperTest {
         Table mockExportTimeTable = mock(Table.class);
 
         // Spy DynamoHelper, so we can mock getStudyInfo() and not entwine the implementation of that with this test.
-        DynamoHelper dynamoHelper = spy(new DynamoHelper());
+        DynamoHelper dynamoHelper = spy(newDynamoHelper());
         dynamoHelper.setDdbExportTimeTable(mockExportTimeTable);
         dynamoHelper.setConfig(mockConfig());
         mockDdbScanHelperWithStudies(dynamoHelper, "ddb-foo", "ddb-bar");
@@ -366,7 +457,7 @@ public class DynamoHelperTest {
         Table mockExportTimeTable = mock(Table.class);
 
         // Spy DynamoHelper, so we can mock getStudyInfo() and not entwine the implementation of that with this test.
-        DynamoHelper dynamoHelper = spy(new DynamoHelper());
+        DynamoHelper dynamoHelper = spy(newDynamoHelper());
         dynamoHelper.setDdbExportTimeTable(mockExportTimeTable);
         dynamoHelper.setConfig(mockConfig());
         mockDdbScanHelperWithStudies(dynamoHelper, "ddb-foo", "ddb-bar");
@@ -401,7 +492,7 @@ public class DynamoHelperTest {
         when(mockExportTimeTable.getItem(STUDY_ID, "ddb-bar")).thenReturn(barItem);
 
         // Spy DynamoHelper, so we can mock getStudyInfo() and not entwine the implementation of that with this test.
-        DynamoHelper dynamoHelper = spy(new DynamoHelper());
+        DynamoHelper dynamoHelper = spy(newDynamoHelper());
         dynamoHelper.setDdbExportTimeTable(mockExportTimeTable);
         dynamoHelper.setConfig(mockConfig());
         mockDdbScanHelperWithStudies(dynamoHelper, "ddb-foo", "ddb-bar");
@@ -443,7 +534,7 @@ public class DynamoHelperTest {
 
     @Test
     public void testModifyExportTimeTable() throws Exception {
-        DynamoHelper dynamoHelper = new DynamoHelper();
+        DynamoHelper dynamoHelper = newDynamoHelper();
         Table mockDdbExportTimeTable = mock(Table.class);
         dynamoHelper.setDdbExportTimeTable(mockDdbExportTimeTable);
 
@@ -469,7 +560,7 @@ public class DynamoHelperTest {
 
     @Test
     public void testNotModifyExportTimeTableEmptyStudyIds() throws Exception {
-        DynamoHelper dynamoHelper = new DynamoHelper();
+        DynamoHelper dynamoHelper = newDynamoHelper();
         Table mockDdbExportTimeTable = mock(Table.class);
         dynamoHelper.setDdbExportTimeTable(mockDdbExportTimeTable);
 
@@ -482,7 +573,7 @@ public class DynamoHelperTest {
 
     @Test
     public void testNotModifyExportTimeTableNullEndDateTime() throws Exception {
-        DynamoHelper dynamoHelper = new DynamoHelper();
+        DynamoHelper dynamoHelper = newDynamoHelper();
         Table mockDdbExportTimeTable = mock(Table.class);
         dynamoHelper.setDdbExportTimeTable(mockDdbExportTimeTable);
 
@@ -504,4 +595,10 @@ public class DynamoHelperTest {
         when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_TIME_ZONE_NAME)).thenReturn("America/Los_Angeles");
         return mockConfig;
     }
+
+    private static DynamoHelper newDynamoHelper() {
+        DynamoHelper helper = new DynamoHelper();
+        helper.setLookupCacheManager(TestUtil.newLookupCacheManager());
+        return helper;
+    }
 }
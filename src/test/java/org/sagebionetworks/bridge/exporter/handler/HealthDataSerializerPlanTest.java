@@ -0,0 +1,425 @@
+package org.sagebionetworks.bridge.exporter.handler;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.joda.time.DateTime;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.synapse.AttachmentTransferEngine;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
+import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
+import org.sagebionetworks.bridge.exporter.worker.TsvRowLayout;
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
+import org.sagebionetworks.bridge.rest.model.UploadFieldType;
+
+public class HealthDataSerializerPlanTest {
+    private static final String FIELD_NAME = "foo-field";
+    private static final String FIELD_NAME_TIMEZONE = FIELD_NAME + ".timezone";
+    private static final String TEST_PROJECT_ID = "test-project";
+    private static final String TEST_RECORD_ID = "test-record";
+
+    private static final UploadFieldDefinition TIMESTAMP_FIELD_DEF = new UploadFieldDefinition().name(FIELD_NAME)
+            .type(UploadFieldType.TIMESTAMP);
+    private static final UploadFieldDefinition MULTI_CHOICE_FIELD_DEF = new UploadFieldDefinition().name(FIELD_NAME)
+            .type(UploadFieldType.MULTI_CHOICE).multiChoiceAnswerList(ImmutableList.of("foo", "bar", "baz", "true",
+                    "42"));
+    private static final UploadFieldDefinition OTHER_CHOICE_FIELD_DEF = new UploadFieldDefinition()
+            .allowOtherChoices(true).name(FIELD_NAME).type(UploadFieldType.MULTI_CHOICE)
+            .multiChoiceAnswerList(ImmutableList.of("one", "two"));
+
+    // Row layout with all columns used by the timestamp and multi-choice tests.
+    private static final TsvRowLayout TEST_ROW_LAYOUT = new TsvRowLayout(ImmutableList.of(FIELD_NAME,
+            FIELD_NAME_TIMEZONE, "foo-field.foo", "foo-field.bar", "foo-field.baz", "foo-field.true", "foo-field.42",
+            "foo-field.one", "foo-field.two", "foo-field.other"));
+
+    @Test
+    public void scalarTypes() throws Exception {
+        List<UploadFieldDefinition> fieldDefList = ImmutableList.of(
+                new UploadFieldDefinition().name("bool").type(UploadFieldType.BOOLEAN),
+                new UploadFieldDefinition().name("float").type(UploadFieldType.FLOAT),
+                new UploadFieldDefinition().name("int").type(UploadFieldType.INT),
+                new UploadFieldDefinition().name("short-string").type(UploadFieldType.STRING).maxLength(5),
+                new UploadFieldDefinition().name("unbounded-string").type(UploadFieldType.STRING).maxLength(5)
+                        .unboundedText(true),
+                new UploadFieldDefinition().name("json").type(UploadFieldType.INLINE_JSON_BLOB),
+                new UploadFieldDefinition().name("invalid-int").type(UploadFieldType.INT),
+                new UploadFieldDefinition().name("missing").type(UploadFieldType.STRING));
+        TsvRowLayout layout = new TsvRowLayout(ImmutableList.of("bool", "float", "int", "short-string",
+                "unbounded-string", "json", "invalid-int", "missing"));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY, layout,
+                null, fieldDefList);
+
+        ObjectNode dataNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        dataNode.put("bool", true);
+        dataNode.put("float", 3.14);
+        dataNode.put("int", 42);
+        dataNode.put("short-string", "truncate me");
+        dataNode.put("unbounded-string", "do not truncate me");
+        dataNode.set("json", DefaultObjectMapper.INSTANCE.createArrayNode().add(1).add(2));
+        dataNode.put("invalid-int", "not an int");
+
+        // execute and validate
+        TsvRow row = new TsvRow(layout);
+        plan.serializeSchemaFields(makeContext(null), dataNode, row);
+        assertEquals(row.get("bool"), "true");
+        assertEquals(row.get("float"), "3.14");
+        assertEquals(row.get("int"), "42");
+        assertEquals(row.get("short-string"), "trunc");
+        assertEquals(row.get("unbounded-string"), "do not truncate me");
+        assertEquals(row.get("json"), "[1,2]");
+        assertNull(row.get("invalid-int"));
+        assertNull(row.get("missing"));
+    }
+
+    @Test
+    public void attachments() throws Exception {
+        UploadFieldDefinition attachmentFieldDef = new UploadFieldDefinition().name("attachment")
+                .type(UploadFieldType.ATTACHMENT_V2);
+        UploadFieldDefinition largeTextFieldDef = new UploadFieldDefinition().name("large-text")
+                .type(UploadFieldType.LARGE_TEXT_ATTACHMENT);
+        TsvRowLayout layout = new TsvRowLayout(ImmutableList.of("attachment", "large-text"));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY, layout,
+                null, ImmutableList.of(attachmentFieldDef, largeTextFieldDef));
+
+        // mock attachment transfer engine and Synapse helper
+        File mockTmpDir = mock(File.class);
+        CompletableFuture<String> fileHandleIdFuture = new CompletableFuture<>();
+        AttachmentTransferEngine mockAttachmentTransferEngine = mock(AttachmentTransferEngine.class);
+        when(mockAttachmentTransferEngine.uploadFromS3ToSynapseFileHandleAsync(mockTmpDir, TEST_PROJECT_ID,
+                attachmentFieldDef, "attachment-id")).thenReturn(fileHandleIdFuture);
+
+        SynapseHelper mockSynapseHelper = mock(SynapseHelper.class);
+        when(mockSynapseHelper.downloadLargeTextAttachment("large-text-id")).thenReturn("<b>large</b> text");
+
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setAttachmentTransferEngine(mockAttachmentTransferEngine);
+        manager.setSynapseHelper(mockSynapseHelper);
+
+        ObjectNode dataNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        dataNode.put("attachment", "attachment-id");
+        dataNode.put("large-text", "large-text-id");
+
+        // execute and validate
+        Metrics metrics = new Metrics();
+        TsvRow row = new TsvRow(layout);
+        plan.serializeSchemaFields(new HealthDataSerializerPlan.RecordContext(manager, metrics, mockTmpDir,
+                TEST_PROJECT_ID, TEST_RECORD_ID), dataNode, row);
+        assertEquals(row.get("large-text"), "large text");
+        assertEquals(metrics.getCounterMap().count("numAttachments"), 1);
+
+        // The attachment is pending until the transfer finishes.
+        assertTrue(row.hasPendingValues());
+        assertNull(row.get("attachment"));
+
+        fileHandleIdFuture.complete("file-handle-id");
+        row.resolvePendingValues().join();
+        assertEquals(row.get("attachment"), "file-handle-id");
+    }
+
+    @Test
+    public void columnsNotInLayoutAreSkipped() throws Exception {
+        // The layout doesn't have the attachment column, so we shouldn't bother uploading the attachment.
+        UploadFieldDefinition attachmentFieldDef = new UploadFieldDefinition().name("attachment")
+                .type(UploadFieldType.ATTACHMENT_V2);
+        TsvRowLayout layout = new TsvRowLayout(ImmutableList.of("foo"));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY, layout,
+                null, ImmutableList.of(attachmentFieldDef, new UploadFieldDefinition().name("foo")
+                        .type(UploadFieldType.INT)));
+
+        AttachmentTransferEngine mockAttachmentTransferEngine = mock(AttachmentTransferEngine.class);
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setAttachmentTransferEngine(mockAttachmentTransferEngine);
+
+        ObjectNode dataNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        dataNode.put("attachment", "attachment-id");
+        dataNode.put("foo", 7);
+
+        TsvRow row = new TsvRow(layout);
+        plan.serializeSchemaFields(makeContext(manager), dataNode, row);
+        assertEquals(row.get("foo"), "7");
+        assertFalse(row.hasPendingValues());
+        verify(mockAttachmentTransferEngine, never()).uploadFromS3ToSynapseFileHandleAsync(any(), any(), any(),
+                any());
+    }
+
+    @Test
+    public void metadataPrefixAndPrecedence() throws Exception {
+        // Metadata field "bar" conflicts with schema field "metadata.bar". Schema fields win, even if they're missing.
+        List<UploadFieldDefinition> metadataFieldDefList = ImmutableList.of(
+                new UploadFieldDefinition().name("foo").type(UploadFieldType.INT),
+                new UploadFieldDefinition().name("bar").type(UploadFieldType.INT));
+        List<UploadFieldDefinition> schemaFieldDefList = ImmutableList.of(
+                new UploadFieldDefinition().name("metadata.bar").type(UploadFieldType.STRING));
+        TsvRowLayout layout = new TsvRowLayout(ImmutableList.of("metadata.foo", "metadata.bar"));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY, layout,
+                metadataFieldDefList, schemaFieldDefList);
+
+        ObjectNode metadataNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        metadataNode.put("foo", 1);
+        metadataNode.put("bar", 2);
+
+        TsvRow row = new TsvRow(layout);
+        HealthDataSerializerPlan.RecordContext context = makeContext(null);
+        plan.serializeMetadata(context, metadataNode, row);
+        assertEquals(row.get("metadata.foo"), "1");
+        assertEquals(row.get("metadata.bar"), "2");
+
+        plan.serializeSchemaFields(context, DefaultObjectMapper.INSTANCE.createObjectNode(), row);
+        assertEquals(row.get("metadata.foo"), "1");
+        assertNull(row.get("metadata.bar"));
+    }
+
+    @Test
+    public void isCompiledFrom() throws Exception {
+        List<UploadFieldDefinition> fieldDefList = ImmutableList.of(new UploadFieldDefinition().name(FIELD_NAME)
+                .type(UploadFieldType.INT));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY,
+                TEST_ROW_LAYOUT, null, fieldDefList);
+
+        assertTrue(plan.isCompiledFrom(TEST_ROW_LAYOUT, null, fieldDefList));
+
+        // Equal but not identical field def lists also match.
+        assertTrue(plan.isCompiledFrom(TEST_ROW_LAYOUT, null, ImmutableList.of(new UploadFieldDefinition()
+                .name(FIELD_NAME).type(UploadFieldType.INT))));
+
+        // Different layout (new TSV) or different field defs don't match.
+        assertFalse(plan.isCompiledFrom(new TsvRowLayout(TEST_ROW_LAYOUT.getColumnNameList()), null,
+                fieldDefList));
+        assertFalse(plan.isCompiledFrom(TEST_ROW_LAYOUT, null, ImmutableList.of(new UploadFieldDefinition()
+                .name(FIELD_NAME).type(UploadFieldType.STRING))));
+        assertFalse(plan.isCompiledFrom(TEST_ROW_LAYOUT, ImmutableList.of(), fieldDefList));
+    }
+
+    @Test
+    public void fieldNameSets() {
+        List<UploadFieldDefinition> metadataFieldDefList = ImmutableList.of(new UploadFieldDefinition()
+                .name("meta-field").type(UploadFieldType.STRING));
+        List<UploadFieldDefinition> schemaFieldDefList = ImmutableList.of(
+                new UploadFieldDefinition().name(FIELD_NAME).type(UploadFieldType.INT),
+                new UploadFieldDefinition().name("not-in-layout").type(UploadFieldType.STRING));
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY,
+                TEST_ROW_LAYOUT, metadataFieldDefList, schemaFieldDefList);
+
+        // Field names are the JSON field names, without the metadata prefix.
+        assertEquals(plan.getMetadataFieldNameSet(), ImmutableSet.of("meta-field"));
+        assertEquals(plan.getSchemaFieldNameSet(), ImmutableSet.of(FIELD_NAME, "not-in-layout"));
+
+        // Null metadata field defs means no metadata fields.
+        HealthDataSerializerPlan noMetadataPlan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY,
+                TEST_ROW_LAYOUT, null, schemaFieldDefList);
+        assertTrue(noMetadataPlan.getMetadataFieldNameSet().isEmpty());
+    }
+
+    // branch coverage
+    @Test
+    public void nullTimestamp() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, null, row);
+        assertEquals(countValues(row), 0);
+    }
+
+    // branch coverage
+    @Test
+    public void jsonNullTimestamp() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, NullNode.instance, row);
+        assertEquals(countValues(row), 0);
+    }
+
+    @Test
+    public void invalidTypeTimestamp() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, BooleanNode.TRUE, row);
+        assertEquals(countValues(row), 0);
+    }
+
+    @Test
+    public void malformedTimestampString() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, new TextNode("Thursday June 9th 2016 @ 4:10pm"), row);
+        assertEquals(countValues(row), 0);
+    }
+
+    @DataProvider(name = "timestampStringDataProvider")
+    public Object[][] timestampStringDataProvider() {
+        // { timestampString, expectedTimezoneString }
+        return new Object[][] {
+                { "2016-06-09T12:34:56.789Z", "+0000" },
+                { "2016-06-09T01:02:03.004+0900", "+0900" },
+                { "2016-06-09T02:03:05.007-0700", "-0700" },
+                { "2016-06-09T10:09:08.765+0530", "+0530" },
+        };
+    }
+
+    @Test(dataProvider = "timestampStringDataProvider")
+    public void timestampString(String timestampString, String expectedTimezoneString)
+            throws Exception {
+        long expectedMillis = DateTime.parse(timestampString).getMillis();
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, new TextNode(timestampString), row);
+
+        assertEquals(countValues(row), 2);
+        assertEquals(row.get(FIELD_NAME), String.valueOf(expectedMillis));
+        assertEquals(row.get(FIELD_NAME_TIMEZONE), expectedTimezoneString);
+    }
+
+    @Test
+    public void epochMillis() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(TIMESTAMP_FIELD_DEF, new IntNode(12345), row);
+
+        assertEquals(countValues(row), 2);
+        assertEquals(row.get(FIELD_NAME), "12345");
+        assertEquals(row.get(FIELD_NAME_TIMEZONE), "+0000");
+    }
+
+    // branch coverage
+    @Test
+    public void nullMultiChoice() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(MULTI_CHOICE_FIELD_DEF, null, row);
+        assertEquals(countValues(row), 0);
+    }
+
+    // branch coverage
+    @Test
+    public void jsonNullMultiChoice() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(MULTI_CHOICE_FIELD_DEF, NullNode.instance, row);
+        assertEquals(countValues(row), 0);
+    }
+
+    @Test
+    public void invalidTypeMultiChoice() throws Exception {
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(MULTI_CHOICE_FIELD_DEF, new TextNode("baz"), row);
+        assertEquals(countValues(row), 0);
+    }
+
+    @Test
+    public void validMultiChoice() throws Exception {
+        // Some of the fields aren't strings, to test robustness and string conversion.
+        String answerText = "[\"bar\", true, 42]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(MULTI_CHOICE_FIELD_DEF, answerNode, row);
+        assertEquals(countValues(row), 5);
+        assertEquals(row.get("foo-field.foo"), "false");
+        assertEquals(row.get("foo-field.bar"), "true");
+        assertEquals(row.get("foo-field.baz"), "false");
+        assertEquals(row.get("foo-field.true"), "true");
+        assertEquals(row.get("foo-field.42"), "true");
+    }
+
+    // branch coverage: If we're expecting an "other choice", but don't get one, that's fine.
+    @Test
+    public void noOtherChoice() throws Exception {
+        String answerText = "[\"one\"]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(OTHER_CHOICE_FIELD_DEF, answerNode, row);
+        assertEquals(countValues(row), 2);
+        assertEquals(row.get("foo-field.one"), "true");
+        assertEquals(row.get("foo-field.two"), "false");
+    }
+
+    @Test
+    public void oneOtherChoice() throws Exception {
+        String answerText = "[\"one\", \"foo\"]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(OTHER_CHOICE_FIELD_DEF, answerNode, row);
+        assertEquals(countValues(row), 3);
+        assertEquals(row.get("foo-field.one"), "true");
+        assertEquals(row.get("foo-field.two"), "false");
+        assertEquals(row.get("foo-field.other"), "foo");
+    }
+
+    // branch coverage: Test we do something reasonable if there are multiple "other" answers.
+    @Test
+    public void multipleOtherChoice() throws Exception {
+        String answerText = "[\"one\", \"foo\", \"bar\", \"baz\"]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(OTHER_CHOICE_FIELD_DEF, answerNode, row);
+        assertEquals(countValues(row), 3);
+        assertEquals(row.get("foo-field.one"), "true");
+        assertEquals(row.get("foo-field.two"), "false");
+        assertEquals(row.get("foo-field.other"), "bar, baz, foo");
+    }
+
+    // branch coverage: The other choice is silently dropped and logged. Here, we just exercise the code and make sure
+    // nothing crashes.
+    @Test
+    public void otherChoiceNotAllowed() throws Exception {
+        String answerText = "[\"foo\", \"bar\", \"one\", \"two\"]";
+        JsonNode answerNode = DefaultObjectMapper.INSTANCE.readTree(answerText);
+
+        TsvRow row = new TsvRow(TEST_ROW_LAYOUT);
+        serialize(MULTI_CHOICE_FIELD_DEF, answerNode, row);
+        assertEquals(countValues(row), 5);
+        assertEquals(row.get("foo-field.foo"), "true");
+        assertEquals(row.get("foo-field.bar"), "true");
+        assertEquals(row.get("foo-field.baz"), "false");
+        assertEquals(row.get("foo-field.true"), "false");
+        assertEquals(row.get("foo-field.42"), "false");
+    }
+
+    // Helper method to count the number of values that were written into the row.
+    private static int countValues(TsvRow row) {
+        int count = 0;
+        for (int i = 0; i < row.getLayout().getNumColumns(); i++) {
+            if (row.get(i) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Helper method to compile a plan with the single field def and serialize the given value into the row.
+    private static void serialize(UploadFieldDefinition fieldDef, JsonNode valueNode, TsvRow row) throws Exception {
+        HealthDataSerializerPlan plan = HealthDataSerializerPlan.compile(BridgeHelperTest.TEST_SCHEMA_KEY,
+                row.getLayout(), null, ImmutableList.of(fieldDef));
+
+        ObjectNode dataNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        if (valueNode != null) {
+            dataNode.set(FIELD_NAME, valueNode);
+        }
+        plan.serializeSchemaFields(makeContext(null), dataNode, row);
+    }
+
+    private static HealthDataSerializerPlan.RecordContext makeContext(ExportWorkerManager manager) {
+        return new HealthDataSerializerPlan.RecordContext(manager, new Metrics(), null, TEST_PROJECT_ID,
+                TEST_RECORD_ID);
+    }
+}
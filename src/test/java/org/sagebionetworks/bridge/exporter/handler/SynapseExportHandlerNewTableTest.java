@@ -26,6 +26,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
+import org.sagebionetworks.bridge.exporter.helper.ExporterStatusUpdater;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
@@ -100,6 +101,7 @@ public class SynapseExportHandlerNewTableTest {
         // setup manager - This is only used to get helper objects.
         manager = spy(new ExportWorkerManager());
         manager.setBridgeHelper(mockBridgeHelper);
+        manager.setExporterStatusUpdater(mock(ExporterStatusUpdater.class));
         manager.setConfig(mockConfig);
         manager.setFileHelper(mockFileHelper);
         manager.setSynapseHelper(mockSynapseHelper);
@@ -5,15 +5,19 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -22,6 +26,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -29,19 +36,26 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
 import org.sagebionetworks.bridge.exporter.helper.ExportHelper;
+import org.sagebionetworks.bridge.exporter.helper.ExporterStatusUpdater;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.synapse.AttachmentTransferEngine;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.exporter.synapse.TransferMethod;
@@ -54,6 +68,7 @@ import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.model.Study;
+import org.sagebionetworks.bridge.rest.model.SynapseExporterStatus;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadFieldType;
 import org.sagebionetworks.bridge.rest.model.UploadSchema;
@@ -157,6 +172,7 @@ public class SynapseExportHandlerTest {
         // setup manager - This is mostly used to get helper objects.
         manager = spy(new ExportWorkerManager());
         manager.setBridgeHelper(mockBridgeHelper);
+        manager.setExporterStatusUpdater(mock(ExporterStatusUpdater.class));
         manager.setConfig(mockConfig);
         manager.setFileHelper(mockFileHelper);
         manager.setSynapseHelper(mockSynapseHelper);
@@ -184,6 +200,11 @@ public class SynapseExportHandlerTest {
         // Similarly, spy get/setSynapseTableIdFromDDB.
         doReturn(TEST_SYNAPSE_TABLE_ID).when(manager).getSynapseTableIdFromDdb(task, handler.getDdbTableName(),
                 handler.getDdbTableKeyName(), handler.getDdbTableKeyValue());
+
+        // No column fingerprint, so the handler always checks the table's columns in Synapse.
+        doReturn(null).when(manager).getColumnFingerprint(any(), any(), any(), any(), any());
+        doNothing().when(manager).setColumnFingerprint(any(), any(), any(), any(), any(), any());
+        doNothing().when(manager).setTableLastExportedOn(any(), any(), any(), any());
     }
 
     @Test
@@ -302,6 +323,284 @@ public class SynapseExportHandlerTest {
         postValidation();
     }
 
+    @Test
+    public void rollingSegments() throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+
+        // Segments hold 2 rows. Direct executor uploads full segments right away.
+        doReturn(2).when(manager).getTsvSegmentMaxRows();
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
+
+        List<List<String>> uploadedTsvList = new ArrayList<>();
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenAnswer(invocation -> {
+            File tsvFile = invocation.getArgumentAt(2, File.class);
+            List<String> tsvLineList = TestUtil.bytesToLines(mockFileHelper.getBytes(tsvFile));
+            uploadedTsvList.add(tsvLineList);
+
+            // Minus 1 for the header row.
+            return (long) (tsvLineList.size() - 1);
+        });
+
+        // Write 5 rows. The first 2 segments are uploaded while we're still writing rows.
+        for (int i = 0; i < 5; i++) {
+            handler.handle(makeSubtask(task, "foo", "record " + i));
+            if (i == 1) {
+                assertEquals(uploadedTsvList.size(), 1);
+            }
+        }
+        assertEquals(uploadedTsvList.size(), 2);
+
+        // The last segment is uploaded at the end of the stream.
+        handler.uploadToSynapseForTask(task);
+        assertEquals(uploadedTsvList.size(), 3);
+
+        // validate tsv files - Each segment has its own header.
+        int recordNum = 0;
+        for (List<String> oneTsvLineList : uploadedTsvList) {
+            validateTsvHeaders(oneTsvLineList.get(0), "foo");
+            for (String oneRowLine : oneTsvLineList.subList(1, oneTsvLineList.size())) {
+                validateTsvRow(oneRowLine, "record " + recordNum);
+                recordNum++;
+            }
+        }
+        assertEquals(recordNum, 5);
+
+        // validate metrics
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".lineCount"), 5);
+
+        // validate tsvInfo - Only the last segment is left in the task.
+        TsvInfo tsvInfo = handler.getTsvInfoForTask(task);
+        assertEquals(tsvInfo.getSegmentNum(), 2);
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(task.getTsvSegmentUploadFutures(handler.getDdbTableKeyValue()).size(), 2);
+
+        postValidation();
+    }
+
+    @Test
+    public void failedSegmentFailsTable() throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doReturn(1).when(manager).getTsvSegmentMaxRows();
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
+
+        // The first segment fails to import.
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenThrow(new BridgeExporterException("test exception"));
+
+        // Failure doesn't affect writing rows.
+        handler.handle(makeSubtask(task, "foo", "record 0"));
+        handler.handle(makeSubtask(task, "foo", "record 1"));
+
+        // The failure is thrown at the end of the stream, so the table is handled like any other failed upload. Both
+        // full segments were uploaded in the background, and the last segment is empty.
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (BridgeExporterException ex) {
+            assertFalse(ex instanceof BridgeExporterPartialUploadException);
+            assertEquals(ex.getMessage(), "test exception");
+        }
+        verify(mockSynapseHelper, times(2)).uploadTsvFileToTable(any(), any(), any());
+    }
+
+    @Test
+    public void failedSegmentAfterImportedSegment() throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doReturn(2).when(manager).getTsvSegmentMaxRows();
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
+
+        // The first segment is imported. The second segment fails to import.
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenReturn(2L).thenThrow(new BridgeExporterException("test exception"));
+
+        // Write 5 rows: 2 full segments and 1 row in the last segment.
+        for (int i = 0; i < 5; i++) {
+            ExportSubtask subtask = new ExportSubtask.Builder()
+                    .withOriginalRecord(makeDdbRecord().withString("id", "record-" + i)).withParentTask(task)
+                    .withRecordData(DefaultObjectMapper.INSTANCE.readTree("{\"foo\":\"value " + i + "\"}"))
+                    .withSchemaKey(DUMMY_SCHEMA_KEY).build();
+            handler.handle(subtask);
+        }
+
+        // Only the records that weren't imported are reported. The last segment isn't uploaded.
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (BridgeExporterPartialUploadException ex) {
+            assertEquals(ex.getFailedRecordIdList(), ImmutableList.of("record-2", "record-3", "record-4"));
+            assertEquals(ex.getCause().getMessage(), "test exception");
+        }
+        verify(mockSynapseHelper, times(2)).uploadTsvFileToTable(any(), any(), any());
+    }
+
+    @Test
+    public void wrongLineCountDoesNotFailTable() throws Exception {
+        AtomicInteger numPostProcessCalls = new AtomicInteger();
+        SynapseExportHandler handler = new TestSynapseHandler() {
+            @Override
+            protected void postProcessTsv(TsvInfo tsvInfo) {
+                numPostProcessCalls.incrementAndGet();
+            }
+        };
+        setup(handler);
+
+        // Synapse reports the wrong line count. The import already committed, so redriving the records would import
+        // them again.
+        mockSynapseHelperUploadTsv(0);
+
+        handler.handle(makeSubtask(task, "foo", "record 0"));
+        handler.uploadToSynapseForTask(task);
+
+        // The mismatch is counted, and the TSV is still recorded as exported and post-processed.
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".lineCountMismatch"), 1);
+        verify(manager).setTableLastExportedOn(task, handler.getDdbTableName(), handler.getDdbTableKeyName(),
+                handler.getDdbTableKeyValue());
+        assertEquals(numPostProcessCalls.get(), 1);
+
+        postValidation();
+    }
+
+    @Test
+    public void postProcessErrorRetriesOnlyPostProcess() throws Exception {
+        // The first post-process attempt fails.
+        AtomicInteger numPostProcessCalls = new AtomicInteger();
+        SynapseExportHandler handler = new TestSynapseHandler() {
+            @Override
+            protected void postProcessTsv(TsvInfo tsvInfo) throws BridgeExporterException {
+                if (numPostProcessCalls.incrementAndGet() == 1) {
+                    throw new BridgeExporterException("test exception");
+                }
+            }
+        };
+        setup(handler);
+        mockSynapseHelperUploadTsv(1);
+
+        handler.handle(makeSubtask(task, "foo", "record 0"));
+        handler.uploadToSynapseForTask(task);
+
+        // The TSV is imported once, and only the post-processing is retried.
+        verify(mockSynapseHelper, times(1)).uploadTsvFileToTable(any(), any(), any());
+        assertEquals(numPostProcessCalls.get(), 2);
+
+        postValidation();
+    }
+
+    @Test
+    public void postProcessErrorDoesNotFailTable() throws Exception {
+        // Post-processing always fails.
+        AtomicInteger numPostProcessCalls = new AtomicInteger();
+        SynapseExportHandler handler = new TestSynapseHandler() {
+            @Override
+            protected void postProcessTsv(TsvInfo tsvInfo) throws BridgeExporterException {
+                numPostProcessCalls.incrementAndGet();
+                throw new BridgeExporterException("test exception");
+            }
+        };
+        setup(handler);
+        mockSynapseHelperUploadTsv(1);
+
+        // The import committed, so the table doesn't fail, and the records aren't redriven.
+        handler.handle(makeSubtask(task, "foo", "record 0"));
+        handler.uploadToSynapseForTask(task);
+        verify(mockSynapseHelper, times(1)).uploadTsvFileToTable(any(), any(), any());
+        assertEquals(numPostProcessCalls.get(), 3);
+
+        postValidation();
+    }
+
+    @DataProvider(name = "uploadErrorProvider")
+    public Object[][] uploadErrorProvider() {
+        // { status code, expected fingerprint cleared }
+        return new Object[][] {
+                { 400, true },
+                { 404, true },
+                { 429, false },
+                { 500, false },
+                { 503, false },
+        };
+    }
+
+    @Test(dataProvider = "uploadErrorProvider")
+    public void uploadErrorClearsColumnFingerprint(int statusCode, boolean expectedCleared) throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        doNothing().when(manager).invalidateColumnFingerprint(any(), any(), any(), any(), any());
+
+        SynapseServerException uploadEx = new SynapseServerException(statusCode, "test exception");
+        when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
+                notNull(File.class))).thenThrow(uploadEx);
+
+        handler.handle(makeSubtask(task, "foo", "record 0"));
+        try {
+            handler.uploadToSynapseForTask(task);
+            fail("expected exception");
+        } catch (SynapseServerException ex) {
+            assertSame(ex, uploadEx);
+        }
+
+        // Client errors mean the TSV doesn't match the table, so the fingerprint is probably stale.
+        verify(manager, times(expectedCleared ? 1 : 0)).invalidateColumnFingerprint(same(task),
+                eq(handler.getDdbTableName()), eq(handler.getDdbTableKeyName()), eq(handler.getDdbTableKeyValue()),
+                eq(TEST_SYNAPSE_TABLE_ID));
+    }
+
+    @Test
+    public void prewarm() throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        mockSynapseHelperUploadTsv(1);
+
+        // Pre-warm saves the TSV. Pre-warming again is a no-op.
+        assertTrue(handler.prewarmForTask(task));
+        TsvInfo tsvInfo = handler.getTsvInfoForTask(task);
+        assertNotNull(tsvInfo);
+        assertTrue(handler.prewarmForTask(task));
+        assertSame(handler.getTsvInfoForTask(task), tsvInfo);
+        verify(mockSynapseHelper, times(1)).getColumnModelsForTableWithRetry(TEST_SYNAPSE_TABLE_ID);
+
+        // Records write to the pre-warmed TSV.
+        handler.handle(makeSubtask(task, "foo", "normal record"));
+        handler.uploadToSynapseForTask(task);
+
+        List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
+        assertEquals(tsvLineList.size(), 2);
+        validateTsvHeaders(tsvLineList.get(0), "foo");
+        validateTsvRow(tsvLineList.get(1), "normal record");
+        verify(mockSynapseHelper, times(1)).getColumnModelsForTableWithRetry(TEST_SYNAPSE_TABLE_ID);
+
+        postValidation();
+    }
+
+    @Test
+    public void prewarmFailureIsRetried() throws Exception {
+        SynapseExportHandler handler = new TestSynapseHandler();
+        setup(handler);
+        mockSynapseHelperUploadTsv(1);
+
+        // Synapse fails the first time. The failure isn't saved, so the first record initializes the TSV again.
+        List<ColumnModel> columnModelList = mockSynapseHelper.getColumnModelsForTableWithRetry(TEST_SYNAPSE_TABLE_ID);
+        when(mockSynapseHelper.getColumnModelsForTableWithRetry(TEST_SYNAPSE_TABLE_ID)).thenThrow(
+                new SynapseServerException(500, "test exception")).thenReturn(columnModelList);
+
+        assertFalse(handler.prewarmForTask(task));
+        assertNull(handler.getTsvInfoForTask(task));
+
+        handler.handle(makeSubtask(task, "foo", "normal record"));
+        handler.uploadToSynapseForTask(task);
+
+        List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
+        assertEquals(tsvLineList.size(), 2);
+        validateTsvRow(tsvLineList.get(1), "normal record");
+
+        postValidation();
+    }
+
     @Test
     public void appVersionExportHandlerTest() throws Exception {
         SynapseExportHandler handler = new AppVersionExportHandler();
@@ -396,15 +695,17 @@ public class SynapseExportHandlerTest {
                 .thenReturn(DUMMY_ATTACHMENT_ID);
         handler.getManager().setExportHelper(mockExportHelper);
 
-        // mock serializeToSynapseType() - We actually call through to the real method, but we mock out the underlying
-        // uploadFromS3ToSynapseFileHandle() to avoid hitting real back-ends.
+        // mock serializeToSynapseType() - We actually call through to the real method, but we mock out the attachment
+        // transfer engine to avoid hitting real back-ends.
         when(mockSynapseHelper.serializeToSynapseType(any(), any(), any(), any(), any(), any())).thenCallRealMethod();
 
         UploadFieldDefinition freeformAttachmentFieldDef = new UploadFieldDefinition().name(FREEFORM_FIELD_NAME)
                 .type(UploadFieldType.ATTACHMENT_V2);
-        when(mockSynapseHelper.uploadFromS3ToSynapseFileHandle(task.getTmpDir(), TEST_SYNAPSE_PROJECT_ID,
-                freeformAttachmentFieldDef, DUMMY_ATTACHMENT_ID)).thenReturn(
-                DUMMY_FILEHANDLE_ID);
+        AttachmentTransferEngine mockAttachmentTransferEngine = mock(AttachmentTransferEngine.class);
+        when(mockAttachmentTransferEngine.uploadFromS3ToSynapseFileHandleAsync(task.getTmpDir(),
+                TEST_SYNAPSE_PROJECT_ID, freeformAttachmentFieldDef, DUMMY_ATTACHMENT_ID)).thenReturn(
+                CompletableFuture.completedFuture(DUMMY_FILEHANDLE_ID));
+        handler.getManager().setAttachmentTransferEngine(mockAttachmentTransferEngine);
 
         // Similarly for downloadLargeTextAttachment()
         when(mockSynapseHelper.downloadLargeTextAttachment("my-large-text-attachment-id")).thenReturn(
@@ -455,11 +756,97 @@ public class SynapseExportHandlerTest {
             assertEquals(recordId, DUMMY_RECORD_ID);
         }
 
-        verify(handler.getManager().getBridgeHelper()).updateRecordExporterStatus(any(), any());
+        verify(handler.getManager().getExporterStatusUpdater()).enqueue(recordIds, SynapseExporterStatus.SUCCEEDED);
 
         postValidation();
     }
 
+    @Test
+    public void pendingAttachment() throws Exception {
+        UploadFieldDefinition attachmentFieldDef = new UploadFieldDefinition().name("my-attachment")
+                .type(UploadFieldType.ATTACHMENT_V2);
+        UploadSchema testSchema = BridgeHelperTest.simpleSchemaBuilder().studyId(TEST_STUDY_ID)
+                .schemaId(TEST_SCHEMA_ID).revision((long) TEST_SCHEMA_REV).fieldDefinitions(ImmutableList.of(
+                        attachmentFieldDef));
+        UploadSchemaKey testSchemaKey = BridgeExporterUtil.getSchemaKeyFromSchema(testSchema);
+
+        HealthDataExportHandler handler = new HealthDataExportHandler();
+        handler.setSchemaKey(testSchemaKey);
+        setupWithSchema(handler, testSchemaKey, testSchema);
+        mockSynapseHelperUploadTsv(1);
+
+        // mock attachment transfer engine
+        CompletableFuture<String> fileHandleIdFuture = new CompletableFuture<>();
+        AttachmentTransferEngine mockAttachmentTransferEngine = mock(AttachmentTransferEngine.class);
+        when(mockAttachmentTransferEngine.uploadFromS3ToSynapseFileHandleAsync(task.getTmpDir(),
+                TEST_SYNAPSE_PROJECT_ID, attachmentFieldDef, DUMMY_ATTACHMENT_ID)).thenReturn(fileHandleIdFuture);
+        handler.getManager().setAttachmentTransferEngine(mockAttachmentTransferEngine);
+
+        // execute - The row isn't written until the attachment finishes uploading.
+        CompletableFuture<Void> rowFuture = handler.handleAsync(makeSubtask(task, "my-attachment",
+                DUMMY_ATTACHMENT_ID));
+        assertFalse(rowFuture.isDone());
+        assertEquals(handler.getTsvInfoForTask(task).getLineCount(), 0);
+
+        fileHandleIdFuture.complete(DUMMY_FILEHANDLE_ID);
+        assertTrue(rowFuture.isDone());
+        rowFuture.join();
+        handler.uploadToSynapseForTask(task);
+
+        // validate tsv file
+        List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
+        assertEquals(tsvLineList.size(), 2);
+        validateTsvHeaders(tsvLineList.get(0), "my-attachment");
+        validateTsvRow(tsvLineList.get(1), DUMMY_FILEHANDLE_ID);
+
+        // validate metrics
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".lineCount"), 1);
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".errorCount"), 0);
+        assertEquals(handler.getTsvInfoForTask(task).getRecordIds(), ImmutableList.of(DUMMY_RECORD_ID));
+
+        postValidation();
+    }
+
+    @Test
+    public void pendingAttachmentFails() throws Exception {
+        UploadFieldDefinition attachmentFieldDef = new UploadFieldDefinition().name("my-attachment")
+                .type(UploadFieldType.ATTACHMENT_V2);
+        UploadSchema testSchema = BridgeHelperTest.simpleSchemaBuilder().studyId(TEST_STUDY_ID)
+                .schemaId(TEST_SCHEMA_ID).revision((long) TEST_SCHEMA_REV).fieldDefinitions(ImmutableList.of(
+                        attachmentFieldDef));
+        UploadSchemaKey testSchemaKey = BridgeExporterUtil.getSchemaKeyFromSchema(testSchema);
+
+        HealthDataExportHandler handler = new HealthDataExportHandler();
+        handler.setSchemaKey(testSchemaKey);
+        setupWithSchema(handler, testSchemaKey, testSchema);
+
+        // mock attachment transfer engine
+        CompletableFuture<String> fileHandleIdFuture = new CompletableFuture<>();
+        AttachmentTransferEngine mockAttachmentTransferEngine = mock(AttachmentTransferEngine.class);
+        when(mockAttachmentTransferEngine.uploadFromS3ToSynapseFileHandleAsync(task.getTmpDir(),
+                TEST_SYNAPSE_PROJECT_ID, attachmentFieldDef, DUMMY_ATTACHMENT_ID)).thenReturn(fileHandleIdFuture);
+        handler.getManager().setAttachmentTransferEngine(mockAttachmentTransferEngine);
+
+        // execute
+        CompletableFuture<Void> rowFuture = handler.handleAsync(makeSubtask(task, "my-attachment",
+                DUMMY_ATTACHMENT_ID));
+        IOException originalEx = new IOException("test exception");
+        fileHandleIdFuture.completeExceptionally(originalEx);
+        try {
+            rowFuture.join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertSame(ex.getCause(), originalEx);
+        }
+
+        // validate metrics and tsvInfo
+        Multiset<String> counterMap = task.getMetrics().getCounterMap();
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".lineCount"), 0);
+        assertEquals(counterMap.count(handler.getDdbTableKeyValue() + ".errorCount"), 1);
+        assertEquals(handler.getTsvInfoForTask(task).getLineCount(), 0);
+    }
+
     private void mockSynapseHelperUploadTsv(int linesProcessed) throws Exception {
         when(mockSynapseHelper.uploadTsvFileToTable(eq(TEST_SYNAPSE_PROJECT_ID), eq(TEST_SYNAPSE_TABLE_ID),
                 notNull(File.class))).thenAnswer(invocation -> {
@@ -5,6 +5,7 @@ import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -20,10 +21,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multiset;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
@@ -46,6 +45,7 @@ import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.ExportWorkerManager;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 
 @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -77,6 +77,7 @@ public class SynapseExportHandlerUpdateTableTest {
 
     private List<ColumnModel> expectedColDefList;
     private List<String> expectedColIdList;
+    private ExportWorkerManager manager;
     private SynapseHelper mockSynapseHelper;
     private ExportTask task;
     private byte[] tsvBytes;
@@ -135,7 +136,7 @@ public class SynapseExportHandlerUpdateTableTest {
             createdColumnList.add(createdColumn);
         }
 
-        when(mockSynapseHelper.createColumnModelsWithRetry(anyListOf(ColumnModel.class))).thenReturn(
+        when(mockSynapseHelper.createColumnModelsWithCache(anyListOf(ColumnModel.class))).thenReturn(
                 createdColumnList);
 
         // mock upload the TSV and capture the upload
@@ -150,7 +151,7 @@ public class SynapseExportHandlerUpdateTableTest {
         });
 
         // setup manager - This is mostly used to get helper objects.
-        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager = spy(new ExportWorkerManager());
         manager.setConfig(mockConfig);
         manager.setFileHelper(mockFileHelper);
         manager.setSynapseHelper(mockSynapseHelper);
@@ -169,6 +170,11 @@ public class SynapseExportHandlerUpdateTableTest {
         doReturn(SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID).when(manager).getSynapseTableIdFromDdb(task,
                 handler.getDdbTableName(), handler.getDdbTableKeyName(), handler.getDdbTableKeyValue());
 
+        // No column fingerprint, so the handler always checks the table's columns in Synapse.
+        doReturn(null).when(manager).getColumnFingerprint(any(), any(), any(), any(), any());
+        doNothing().when(manager).setColumnFingerprint(any(), any(), any(), any(), any(), any());
+        doNothing().when(manager).setTableLastExportedOn(any(), any(), any(), any());
+
         return handler;
     }
 
@@ -184,10 +190,11 @@ public class SynapseExportHandlerUpdateTableTest {
         // For test purposes, this will always match the schema returned by getSynapseTableColumnList. The tests will
         // validate how this interacts with the "existing" table and updates (or lack thereof).
         @Override
-        protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws IOException {
-            return new ImmutableMap.Builder<String, String>().put("modify-this", "modify-this value")
-                    .put("add-this", "add-this value") .put("swap-this-A", "swap-this-A value")
-                    .put("swap-this-B", "swap-this-B value").build();
+        protected void writeTsvRowValues(ExportSubtask subtask, TsvRow row) throws IOException {
+            row.set("modify-this", "modify-this value");
+            row.set("add-this", "add-this value");
+            row.set("swap-this-A", "swap-this-A value");
+            row.set("swap-this-B", "swap-this-B value");
         }
     }
 
@@ -237,8 +244,10 @@ public class SynapseExportHandlerUpdateTableTest {
         existingColumnList.add(makeColumn("swap-this-A", "swap-this-A-id"));
         existingColumnList.add(makeColumn("swap-this-B", "swap-this-B-id"));
 
-        // setup
+        // setup - Table has a fingerprint from before the columns changed.
         SynapseExportHandler handler = setup(existingColumnList);
+        doReturn("old-fingerprint").when(manager).getColumnFingerprint(any(), any(), any(), any(), any());
+        doNothing().when(manager).invalidateColumnFingerprint(any(), any(), any(), any(), any());
 
         // execute - First row triggers the error initializing TSV. Second row short-circuit fails.
         ExportSubtask subtask = SynapseExportHandlerTest.makeSubtask(task);
@@ -259,6 +268,12 @@ public class SynapseExportHandlerUpdateTableTest {
         // verify we did not update the table
         verify(mockSynapseHelper, never()).updateTableColumns(any(), any());
 
+        // verify the fingerprint was cleared
+        verify(manager).invalidateColumnFingerprint(same(task), eq(handler.getDdbTableName()),
+                eq(handler.getDdbTableKeyName()), eq(handler.getDdbTableKeyValue()),
+                eq(SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID));
+        verify(manager, never()).setColumnFingerprint(any(), any(), any(), any(), any(), any());
+
         // verify we don't upload the TSV to Synapse
         verify(mockSynapseHelper, never()).uploadTsvFileToTable(any(), any(), any());
 
@@ -285,6 +300,34 @@ public class SynapseExportHandlerUpdateTableTest {
         }
     }
 
+    @Test
+    public void fingerprintMatchSkipsColumnCheck() throws Exception {
+        // Existing columns would be rejected, but the fingerprint says we already applied these columns, so we never
+        // get the columns from Synapse.
+        List<ColumnModel> existingColumnList = new ArrayList<>();
+        existingColumnList.addAll(MOCK_EXISTING_COLUMN_LIST);
+        existingColumnList.add(makeColumn("delete-this", "delete-this-id"));
+
+        SynapseExportHandler handler = setup(existingColumnList);
+        String fingerprint = SynapseHelper.computeColumnFingerprint(expectedColDefList);
+        doReturn(fingerprint).when(manager).getColumnFingerprint(same(task), eq(handler.getDdbTableName()),
+                eq(handler.getDdbTableKeyName()), eq(handler.getDdbTableKeyValue()),
+                eq(SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID));
+
+        handler.handle(SynapseExportHandlerTest.makeSubtask(task));
+        handler.uploadToSynapseForTask(task);
+
+        // verify we didn't check or update the columns
+        verify(mockSynapseHelper, never()).getColumnModelsForTableWithRetry(any());
+        verify(mockSynapseHelper, never()).updateTableColumns(any(), any());
+        verify(manager, never()).setColumnFingerprint(any(), any(), any(), any(), any(), any());
+        assertEquals(task.getMetrics().getCounterMap().count("columnFingerprintMatched"), 1);
+
+        // validate tsv file
+        List<String> tsvLineList = TestUtil.bytesToLines(tsvBytes);
+        assertEquals(tsvLineList.size(), 2);
+    }
+
     @Test
     public void dontUpdateIfNoAddedColumns() throws Exception {
         // Swap the columns. "Add this" has already been added.
@@ -316,7 +359,7 @@ public class SynapseExportHandlerUpdateTableTest {
         setupAndExecuteSuccessCase(existingColumnList);
 
         // verify create columns call
-        verify(mockSynapseHelper).createColumnModelsWithRetry(expectedColDefList);
+        verify(mockSynapseHelper).createColumnModelsWithCache(expectedColDefList);
 
         // verify table update
         ArgumentCaptor<TableSchemaChangeRequest> requestCaptor = ArgumentCaptor.forClass(
@@ -342,7 +385,7 @@ public class SynapseExportHandlerUpdateTableTest {
         setupAndExecuteSuccessCase(existingColumnList);
 
         // verify create columns call
-        verify(mockSynapseHelper).createColumnModelsWithRetry(expectedColDefList);
+        verify(mockSynapseHelper).createColumnModelsWithCache(expectedColDefList);
 
         // verify table update
         ArgumentCaptor<TableSchemaChangeRequest> requestCaptor = ArgumentCaptor.forClass(
@@ -449,6 +492,12 @@ public class SynapseExportHandlerUpdateTableTest {
                 "swap-this-B");
         SynapseExportHandlerTest.validateTsvRow(tsvLineList.get(1), "modify-this value", "add-this value",
                 "swap-this-A value", "swap-this-B value");
+
+        // The table now has the new columns, so we save the fingerprint.
+        verify(manager).setColumnFingerprint(same(task), eq(handler.getDdbTableName()),
+                eq(handler.getDdbTableKeyName()), eq(handler.getDdbTableKeyValue()),
+                eq(SynapseExportHandlerTest.TEST_SYNAPSE_TABLE_ID),
+                eq(SynapseHelper.computeColumnFingerprint(expectedColDefList)));
     }
 
     private static ColumnModel makeColumn(String name, String id) {
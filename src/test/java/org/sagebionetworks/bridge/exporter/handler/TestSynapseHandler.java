@@ -3,16 +3,15 @@ package org.sagebionetworks.bridge.exporter.handler;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.ImmutableMap;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 
 import org.sagebionetworks.bridge.exporter.worker.ExportSubtask;
 import org.sagebionetworks.bridge.exporter.worker.ExportTask;
 import org.sagebionetworks.bridge.exporter.worker.TsvInfo;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
 
 // Used for testing SynapseExportHandler. See SynapseExportHandlerTest and SynapseExportHandlerNewTableTest
 public class TestSynapseHandler extends SynapseExportHandler {
@@ -70,13 +69,13 @@ public class TestSynapseHandler extends SynapseExportHandler {
     // However, if we see the "error" key, throw an IOException with that error message. This is to test
     // error handling.
     @Override
-    protected Map<String, String> getTsvRowValueMap(ExportSubtask subtask) throws IOException {
+    protected void writeTsvRowValues(ExportSubtask subtask, TsvRow row) throws IOException {
         JsonNode dataNode = subtask.getRecordData();
         if (dataNode.has("error")) {
             throw new IOException(dataNode.get("error").textValue());
         }
 
         String value = dataNode.get("foo").textValue();
-        return ImmutableMap.of("foo", value);
+        row.set("foo", value);
     }
 }
@@ -2,6 +2,8 @@ package org.sagebionetworks.bridge.exporter.helper;
 
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
@@ -9,11 +11,20 @@ import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.SortedSetMultimap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.sagebionetworks.repo.model.table.ColumnModel;
@@ -23,8 +34,10 @@ import org.testng.annotations.Test;
 import retrofit2.Call;
 import retrofit2.Response;
 
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.exporter.util.TestUtil;
 import org.sagebionetworks.bridge.rest.ClientManager;
 import org.sagebionetworks.bridge.rest.api.AuthenticationApi;
 import org.sagebionetworks.bridge.rest.api.ForWorkersApi;
@@ -88,6 +101,7 @@ public class BridgeHelperTest {
         bridgeHelper = new BridgeHelper();
         bridgeHelper.setBridgeClientManager(mockClientManager);
         bridgeHelper.setBridgeCredentials(TEST_SIGN_IN);
+        bridgeHelper.setLookupCacheManager(TestUtil.newLookupCacheManager());
     }
 
     @Test
@@ -126,6 +140,17 @@ public class BridgeHelperTest {
         // execute and validate
         UploadSchema retVal = bridgeHelper.getSchema(new Metrics(), TEST_SCHEMA_KEY);
         assertEquals(retVal, TEST_SCHEMA);
+
+        // Second call is cached.
+        retVal = bridgeHelper.getSchema(new Metrics(), TEST_SCHEMA_KEY);
+        assertEquals(retVal, TEST_SCHEMA);
+        verify(mockWorkersApi, times(1)).getSchemaRevisionInStudy(TEST_STUDY_ID, TEST_SCHEMA_ID,
+                (long) TEST_SCHEMA_REV);
+
+        // Schema key is now known for its study.
+        assertEquals(bridgeHelper.getKnownSchemaKeysForStudies(ImmutableSet.of(TEST_STUDY_ID)),
+                ImmutableSet.of(TEST_SCHEMA_KEY));
+        assertTrue(bridgeHelper.getKnownSchemaKeysForStudies(ImmutableSet.of("other-study")).isEmpty());
     }
 
     @Test
@@ -147,6 +172,9 @@ public class BridgeHelperTest {
         SortedSet<String> schemasNotFoundSet = keyValuesMap.get("schemasNotFound");
         assertEquals(schemasNotFoundSet.size(), 1);
         assertTrue(schemasNotFoundSet.contains(TEST_SCHEMA_KEY.toString()));
+
+        // Schemas that don't exist aren't known schemas.
+        assertTrue(bridgeHelper.getKnownSchemaKeysForStudies(ImmutableSet.of(TEST_STUDY_ID)).isEmpty());
     }
 
     private void setupBridgeHelperWithSchema(UploadSchema schema) throws Exception {
@@ -175,6 +203,88 @@ public class BridgeHelperTest {
         assertSame(retVal, testStudy);
     }
 
+    @Test
+    public void concurrentSessionExpiryOnlySignsInOnce() throws Exception {
+        // Each thread's first call waits until all threads have made their call, then gets 401'ed. Since all threads
+        // see the session expire at the same time, only one of them should sign in.
+        int numThreads = 4;
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        Call<UploadValidationStatus> mockExpiredCall = mock(Call.class);
+        when(mockExpiredCall.execute()).thenThrow(NotAuthenticatedException.class);
+        Call<UploadValidationStatus> mockSuccessCall = mock(Call.class);
+
+        for (int i = 0; i < numThreads; i++) {
+            when(mockWorkersApi.completeUploadSession("upload" + i, null)).thenAnswer(invocation -> {
+                barrier.await();
+                return mockExpiredCall;
+            }).thenReturn(mockSuccessCall);
+        }
+
+        Call<UserSessionInfo> mockSignInCall = mock(Call.class);
+        when(mockAuthApi.signIn(TEST_SIGN_IN)).thenReturn(mockSignInCall);
+
+        // execute
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                String uploadId = "upload" + i;
+                futureList.add(executor.submit(() -> {
+                    bridgeHelper.completeUpload(uploadId);
+                    return null;
+                }));
+            }
+            for (Future<?> oneFuture : futureList) {
+                oneFuture.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // validate
+        verify(mockSignInCall, times(1)).execute();
+        verify(mockSuccessCall, times(numThreads)).execute();
+        assertEquals(bridgeHelper.getSessionRefreshCount(), 1);
+    }
+
+    @Test
+    public void proactiveSessionRefresh() throws Exception {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(BridgeHelper.CONFIG_KEY_SESSION_REFRESH_INTERVAL_MINUTES)).thenReturn(60);
+        bridgeHelper.setConfig(mockConfig);
+
+        Call<UploadValidationStatus> mockUploadCall = mock(Call.class);
+        when(mockWorkersApi.completeUploadSession("upload", null)).thenReturn(mockUploadCall);
+
+        Call<UserSessionInfo> mockSignInCall = mock(Call.class);
+        when(mockAuthApi.signIn(TEST_SIGN_IN)).thenReturn(mockSignInCall);
+
+        long startMillis = DateTime.parse("2017-05-01T12:00:00.000Z").getMillis();
+        try {
+            // First call starts the session clock.
+            DateTimeUtils.setCurrentMillisFixed(startMillis);
+            bridgeHelper.completeUpload("upload");
+
+            // Before the refresh interval, we don't refresh.
+            DateTimeUtils.setCurrentMillisFixed(startMillis + TimeUnit.MINUTES.toMillis(59));
+            bridgeHelper.completeUpload("upload");
+            verify(mockSignInCall, never()).execute();
+
+            // After the refresh interval, we refresh before making the call.
+            DateTimeUtils.setCurrentMillisFixed(startMillis + TimeUnit.MINUTES.toMillis(61));
+            bridgeHelper.completeUpload("upload");
+            verify(mockSignInCall, times(1)).execute();
+            verify(mockUploadCall, times(3)).execute();
+
+            // The session clock restarted, so the next call doesn't refresh.
+            DateTimeUtils.setCurrentMillisFixed(startMillis + TimeUnit.MINUTES.toMillis(62));
+            bridgeHelper.completeUpload("upload");
+            verify(mockSignInCall, times(1)).execute();
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+
     @Test
     public void testSessionHelper() throws Exception {
         // 3 test cases:
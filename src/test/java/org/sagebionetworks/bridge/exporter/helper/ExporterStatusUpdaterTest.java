@@ -0,0 +1,237 @@
+package org.sagebionetworks.bridge.exporter.helper;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
+import org.sagebionetworks.bridge.rest.model.SynapseExporterStatus;
+
+public class ExporterStatusUpdaterTest {
+    private static final SynapseExporterStatus TEST_STATUS = SynapseExporterStatus.SUCCEEDED;
+
+    private static final int TEST_REQUEUE_DELAY_MILLIS = 60000;
+
+    private BridgeHelper mockBridgeHelper;
+    private List<Runnable> scheduledList;
+    private Path spoolDir;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        mockBridgeHelper = mock(BridgeHelper.class);
+        scheduledList = new ArrayList<>();
+        spoolDir = Files.createTempDirectory("ExporterStatusUpdaterTest");
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        File[] spoolFiles = spoolDir.toFile().listFiles();
+        if (spoolFiles != null) {
+            for (File oneSpoolFile : spoolFiles) {
+                assertTrue(oneSpoolFile.delete());
+            }
+        }
+        assertTrue(spoolDir.toFile().delete());
+    }
+
+    @Test
+    public void coalescesBatches() throws Exception {
+        // Capture drainers instead of running them, so we can enqueue several lists before anything is sent.
+        List<Runnable> drainerList = new ArrayList<>();
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> drainerList.add(invocation.getArgumentAt(0, Runnable.class))).when(mockExecutor)
+                .execute(any());
+
+        ExporterStatusUpdater updater = makeUpdater(mockExecutor, 2);
+        updater.enqueue(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+        updater.enqueue(ImmutableList.of("rec-3", "rec-4"), TEST_STATUS);
+        updater.enqueue(ImmutableList.of("rec-5"), TEST_STATUS);
+        assertEquals(updater.getNumPending(), 5);
+        assertEquals(listSpoolFiles().size(), 3);
+
+        // 5 records in batches of 3 is 2 batches, so we start 2 drainers.
+        verifyZeroInteractions(mockBridgeHelper);
+        assertEquals(drainerList.size(), 2);
+
+        // The first drainer sends everything.
+        drainerList.get(0).run();
+        verify(mockBridgeHelper).updateRecordExporterStatus(ImmutableList.of("rec-1", "rec-2", "rec-3"),
+                TEST_STATUS);
+        verify(mockBridgeHelper).updateRecordExporterStatus(ImmutableList.of("rec-4", "rec-5"), TEST_STATUS);
+
+        // The second drainer has nothing to do.
+        drainerList.get(1).run();
+        verify(mockBridgeHelper, times(2)).updateRecordExporterStatus(any(), any());
+
+        assertEquals(updater.getNumPending(), 0);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void emptyList() throws Exception {
+        ExporterStatusUpdater updater = makeUpdater(makeInlineExecutor(), 1);
+        updater.enqueue(ImmutableList.of(), TEST_STATUS);
+        verifyZeroInteractions(mockBridgeHelper);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void retriesFailedBatch() throws Exception {
+        doThrow(new BridgeSDKException("test exception", 503)).doNothing().when(mockBridgeHelper)
+                .updateRecordExporterStatus(any(), any());
+
+        ExporterStatusUpdater updater = makeUpdater(makeInlineExecutor(), 1);
+        updater.enqueue(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+
+        verify(mockBridgeHelper, times(2)).updateRecordExporterStatus(ImmutableList.of("rec-1", "rec-2"),
+                TEST_STATUS);
+        assertEquals(updater.getNumPending(), 0);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws Exception {
+        doThrow(new BridgeSDKException("test exception", 400)).when(mockBridgeHelper)
+                .updateRecordExporterStatus(any(), any());
+
+        ExporterStatusUpdater updater = makeUpdater(makeInlineExecutor(), 1);
+        updater.enqueue(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+
+        verify(mockBridgeHelper, times(1)).updateRecordExporterStatus(any(), any());
+        assertEquals(updater.getNumPending(), 0);
+        assertEquals(listSpoolFiles().size(), 1);
+    }
+
+    @Test
+    public void failedBatchIsRequeued() throws Exception {
+        // Fails both attempts, then succeeds.
+        doThrow(new BridgeSDKException("test exception", 503)).doThrow(new BridgeSDKException("test exception", 503))
+                .doNothing().when(mockBridgeHelper).updateRecordExporterStatus(any(), any());
+
+        ExporterStatusUpdater updater = makeUpdater(makeInlineExecutor(), 1);
+        updater.enqueue(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+        verify(mockBridgeHelper, times(2)).updateRecordExporterStatus(any(), any());
+
+        // The batch is scheduled to be enqueued again. Until then, it's not pending, but the spool file is kept.
+        assertEquals(scheduledList.size(), 1);
+        assertEquals(updater.getNumPending(), 0);
+        assertEquals(listSpoolFiles().size(), 1);
+
+        // Bridge recovers. The requeued batch is sent, and the spool file is deleted.
+        scheduledList.get(0).run();
+        verify(mockBridgeHelper, times(3)).updateRecordExporterStatus(ImmutableList.of("rec-1", "rec-2"),
+                TEST_STATUS);
+        assertEquals(scheduledList.size(), 1);
+        assertEquals(updater.getNumPending(), 0);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void spoolIsRecoveredAfterCrash() throws Exception {
+        // Capture drainers and never run them, like if the process died before the batch was sent.
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        ExporterStatusUpdater updater = makeUpdater(mockExecutor, 1);
+        updater.enqueue(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+        verifyZeroInteractions(mockBridgeHelper);
+        assertEquals(listSpoolFiles().size(), 1);
+
+        // A new updater (like after a restart) sends the spooled records and deletes the spool file.
+        ExporterStatusUpdater newUpdater = makeUpdater(makeInlineExecutor(), 1);
+        newUpdater.recoverSpool();
+        verify(mockBridgeHelper).updateRecordExporterStatus(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void rejectedDrainerIsNotCounted() throws Exception {
+        // Executor rejects the first drainer, then runs drainers inline.
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        doThrow(RejectedExecutionException.class).doAnswer(invocation -> {
+            invocation.getArgumentAt(0, Runnable.class).run();
+            return null;
+        }).when(mockExecutor).execute(any());
+
+        // The first enqueue is spooled, but not sent.
+        ExporterStatusUpdater updater = makeUpdater(mockExecutor, 1);
+        updater.enqueue(ImmutableList.of("rec-1"), TEST_STATUS);
+        verifyZeroInteractions(mockBridgeHelper);
+        assertEquals(updater.getNumPending(), 1);
+
+        // The rejected drainer doesn't count against the thread count, so the next enqueue starts a drainer, which
+        // sends everything.
+        updater.enqueue(ImmutableList.of("rec-2"), TEST_STATUS);
+        verify(mockBridgeHelper).updateRecordExporterStatus(ImmutableList.of("rec-1", "rec-2"), TEST_STATUS);
+        assertEquals(updater.getNumPending(), 0);
+        assertTrue(listSpoolFiles().isEmpty());
+    }
+
+    @Test
+    public void recoverEmptySpool() throws Exception {
+        ExporterStatusUpdater updater = makeUpdater(makeInlineExecutor(), 1);
+        updater.recoverSpool();
+        verifyZeroInteractions(mockBridgeHelper);
+    }
+
+    // Helper method which makes an executor that runs drainers inline and captures scheduled requeues in
+    // scheduledList.
+    private ScheduledExecutorService makeInlineExecutor() {
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> {
+            invocation.getArgumentAt(0, Runnable.class).run();
+            return null;
+        }).when(mockExecutor).execute(any());
+        doAnswer(invocation -> scheduledList.add(invocation.getArgumentAt(0, Runnable.class))).when(mockExecutor)
+                .schedule(any(Runnable.class), eq((long) TEST_REQUEUE_DELAY_MILLIS), eq(TimeUnit.MILLISECONDS));
+        return mockExecutor;
+    }
+
+    private ExporterStatusUpdater makeUpdater(ScheduledExecutorService executor, int threadCount) {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_BATCH_SIZE)).thenReturn(3);
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_MAX_ATTEMPTS)).thenReturn(2);
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_REQUEUE_DELAY_MILLIS)).thenReturn(
+                TEST_REQUEUE_DELAY_MILLIS);
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_RETRY_DELAY_MILLIS)).thenReturn(0);
+        when(mockConfig.get(ExporterStatusUpdater.CONFIG_KEY_SPOOL_DIR)).thenReturn(spoolDir.toString());
+        when(mockConfig.getInt(ExporterStatusUpdater.CONFIG_KEY_THREAD_COUNT)).thenReturn(threadCount);
+
+        ExporterStatusUpdater updater = new ExporterStatusUpdater();
+        updater.setConfig(mockConfig);
+        updater.setBridgeHelper(mockBridgeHelper);
+        updater.setExecutor(executor);
+        return updater;
+    }
+
+    private List<Path> listSpoolFiles() throws Exception {
+        List<Path> spoolFileList = new ArrayList<>();
+        try (DirectoryStream<Path> spoolFileStream = Files.newDirectoryStream(spoolDir)) {
+            spoolFileStream.forEach(spoolFileList::add);
+        }
+        return spoolFileList;
+    }
+}
@@ -0,0 +1,137 @@
+package org.sagebionetworks.bridge.exporter.helper;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+import org.sagebionetworks.bridge.rest.model.UploadSchema;
+import org.sagebionetworks.bridge.schema.UploadSchemaKey;
+
+public class SchemaRegistryTest {
+    private static final UploadSchemaKey FOO_SCHEMA_KEY = new UploadSchemaKey.Builder()
+            .withStudyId(BridgeHelperTest.TEST_STUDY_ID).withSchemaId("foo").withRevision(1).build();
+    private static final UploadSchemaKey BAR_SCHEMA_KEY = new UploadSchemaKey.Builder()
+            .withStudyId(BridgeHelperTest.TEST_STUDY_ID).withSchemaId("bar").withRevision(1).build();
+    private static final UploadSchemaKey MISSING_SCHEMA_KEY = new UploadSchemaKey.Builder()
+            .withStudyId(BridgeHelperTest.TEST_STUDY_ID).withSchemaId("missing").withRevision(1).build();
+
+    private static final UploadSchema FOO_SCHEMA = new UploadSchema().schemaId("foo").revision(1L);
+    private static final UploadSchema BAR_SCHEMA = new UploadSchema().schemaId("bar").revision(1L);
+
+    private ScheduledExecutorService executorService;
+    private BridgeHelper mockBridgeHelper;
+    private Metrics metrics;
+    private SchemaRegistry registry;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        executorService = Executors.newScheduledThreadPool(2);
+        metrics = new Metrics();
+
+        mockBridgeHelper = mock(BridgeHelper.class);
+        when(mockBridgeHelper.getSchema(same(metrics), eq(FOO_SCHEMA_KEY))).thenReturn(FOO_SCHEMA);
+        when(mockBridgeHelper.getSchema(same(metrics), eq(BAR_SCHEMA_KEY))).thenReturn(BAR_SCHEMA);
+        when(mockBridgeHelper.getSchema(same(metrics), eq(MISSING_SCHEMA_KEY))).thenThrow(
+                new SchemaNotFoundException("test exception"));
+
+        registry = new SchemaRegistry(mockBridgeHelper, executorService, metrics);
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void preload() throws Exception {
+        // Missing schema is skipped.
+        registry.preload(ImmutableList.of(FOO_SCHEMA_KEY, MISSING_SCHEMA_KEY));
+
+        // Preloaded schema doesn't call Bridge again.
+        assertSame(registry.getSchema(FOO_SCHEMA_KEY), FOO_SCHEMA);
+        assertSame(registry.getSchema(FOO_SCHEMA_KEY), FOO_SCHEMA);
+        verify(mockBridgeHelper, times(1)).getSchema(metrics, FOO_SCHEMA_KEY);
+        assertEquals(metrics.getCounterMap().count("schemaRegistryMiss"), 0);
+
+        // Schema that wasn't preloaded is loaded on first use, then served from the snapshot.
+        assertSame(registry.getSchema(BAR_SCHEMA_KEY), BAR_SCHEMA);
+        assertSame(registry.getSchema(BAR_SCHEMA_KEY), BAR_SCHEMA);
+        verify(mockBridgeHelper, times(1)).getSchema(metrics, BAR_SCHEMA_KEY);
+        assertEquals(metrics.getCounterMap().count("schemaRegistryMiss"), 1);
+
+        // Missing schema throws.
+        try {
+            registry.getSchema(MISSING_SCHEMA_KEY);
+            fail("expected exception");
+        } catch (SchemaNotFoundException ex) {
+            // expected exception
+        }
+    }
+
+    @Test
+    public void preloadNothing() {
+        registry.preload(ImmutableList.of());
+        verifyZeroInteractions(mockBridgeHelper);
+    }
+
+    @Test
+    public void refresh() throws Exception {
+        registry.preload(ImmutableList.of(FOO_SCHEMA_KEY, BAR_SCHEMA_KEY));
+
+        // Foo changes. Bar now fails, so it keeps its old value.
+        UploadSchema newFooSchema = new UploadSchema().schemaId("foo").revision(1L).name("new foo");
+        when(mockBridgeHelper.getSchema(same(metrics), eq(FOO_SCHEMA_KEY))).thenReturn(newFooSchema);
+        when(mockBridgeHelper.getSchema(same(metrics), eq(BAR_SCHEMA_KEY))).thenThrow(
+                new RuntimeException("test exception"));
+
+        registry.refresh();
+        assertSame(registry.getSchema(FOO_SCHEMA_KEY), newFooSchema);
+        assertSame(registry.getSchema(BAR_SCHEMA_KEY), BAR_SCHEMA);
+    }
+
+    @Test
+    public void backgroundRefresh() {
+        ScheduledFuture<?> mockFuture = mock(ScheduledFuture.class);
+        ScheduledExecutorService mockExecutorService = mock(ScheduledExecutorService.class);
+        doReturnFuture(mockExecutorService, mockFuture);
+        SchemaRegistry registry = new SchemaRegistry(mockBridgeHelper, mockExecutorService, metrics);
+
+        // Zero interval doesn't schedule a refresh.
+        registry.startBackgroundRefresh(0);
+        verifyZeroInteractions(mockExecutorService);
+
+        registry.startBackgroundRefresh(300);
+        verify(mockExecutorService).scheduleWithFixedDelay(any(Runnable.class), eq(300L), eq(300L),
+                eq(TimeUnit.SECONDS));
+
+        registry.close();
+        verify(mockFuture).cancel(false);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void doReturnFuture(ScheduledExecutorService mockExecutorService, ScheduledFuture mockFuture) {
+        when(mockExecutorService.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+                any(TimeUnit.class))).thenReturn(mockFuture);
+    }
+}
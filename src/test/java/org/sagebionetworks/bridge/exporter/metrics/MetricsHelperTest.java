@@ -1,14 +1,26 @@
 package org.sagebionetworks.bridge.exporter.metrics;
 
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
+import java.util.List;
 import java.util.Set;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.SortedSetMultimap;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseAsyncJobPoller;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+import org.sagebionetworks.bridge.exporter.util.LookupCacheManager;
+import org.sagebionetworks.bridge.exporter.util.TestUtil;
+
 public class MetricsHelperTest {
     @Test
     public void captureMetricsForRecord() {
@@ -46,7 +58,80 @@ public class MetricsHelperTest {
         metrics.addKeyValuePair("aaa-key", "aaa value");
         metrics.addKeyValuePair("bbb-key", "bbb value");
 
+        // Stats sources
+        LookupCacheManager lookupCacheManager = TestUtil.newLookupCacheManager();
+        lookupCacheManager.newCache("test-cache", key -> key + "-value").get("foo");
+
+        ThrottlingStatsProvider throttlingStatsProvider = new ThrottlingStatsProvider() {
+            @Override
+            public List<AdaptiveRateLimiter> getRateLimiters() {
+                return ImmutableList.of(new AdaptiveRateLimiter("test-limiter", 10.0));
+            }
+
+            @Override
+            public List<RetryPolicy> getRetryPolicies() {
+                return ImmutableList.of(new RetryPolicy("test-policy", 2, 0, 0));
+            }
+        };
+
         // execute
-        new MetricsHelper().publishMetrics(metrics);
+        MetricsHelper metricsHelper = new MetricsHelper();
+        metricsHelper.setBridgeHelper(new BridgeHelper());
+        metricsHelper.setLookupCacheManager(lookupCacheManager);
+        metricsHelper.setSynapseAsyncJobPoller(new SynapseAsyncJobPoller());
+        metricsHelper.setThrottlingStatsProviderList(ImmutableList.of(throttlingStatsProvider));
+        metricsHelper.publishMetrics(metrics);
+    }
+
+    @Test
+    public void formatCacheStats() {
+        // 3 hits, 1 miss, 1 successful load, 0 failed loads, 2ms total load time, 0 evictions
+        CacheStats stats = new CacheStats(3, 1, 1, 0, 2000000, 0);
+        assertEquals(MetricsHelper.formatCacheStats("test-cache", stats), "cache[test-cache]: hits=3, misses=1, " +
+                "hitRate=0.750, loads=1, loadFailures=0, avgLoadMillis=2.0, evictions=0");
+    }
+
+    @Test
+    public void formatSessionRefreshStats() {
+        BridgeHelper mockBridgeHelper = mock(BridgeHelper.class);
+        when(mockBridgeHelper.getSessionRefreshCount()).thenReturn(4L);
+        when(mockBridgeHelper.getSessionRefreshTotalMillis()).thenReturn(1000L);
+        assertEquals(MetricsHelper.formatSessionRefreshStats(mockBridgeHelper), "bridgeSessionRefreshes: count=4, " +
+                "totalMillis=1000, avgMillis=250.0");
+    }
+
+    @Test
+    public void formatSessionRefreshStatsNoRefreshes() {
+        assertEquals(MetricsHelper.formatSessionRefreshStats(new BridgeHelper()), "bridgeSessionRefreshes: count=0, " +
+                "totalMillis=0, avgMillis=0.0");
+    }
+
+    @Test
+    public void formatAsyncJobStats() {
+        SynapseAsyncJobPoller mockPoller = mock(SynapseAsyncJobPoller.class);
+        when(mockPoller.getNumJobsInFlight()).thenReturn(1);
+        when(mockPoller.getNumJobsCompleted()).thenReturn(3L);
+        when(mockPoller.getNumJobsFailed()).thenReturn(0L);
+        when(mockPoller.getNumJobsTimedOut()).thenReturn(1L);
+        when(mockPoller.getNumChecks()).thenReturn(10L);
+        when(mockPoller.getTotalJobLatencyMillis()).thenReturn(1000L);
+        assertEquals(MetricsHelper.formatAsyncJobStats(mockPoller), "synapseAsyncJobs: inFlight=1, completed=3, " +
+                "failed=0, timedOut=1, checks=10, avgLatencyMillis=250.0");
+    }
+
+    @Test
+    public void formatRateLimiterStats() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test-limiter", 2.5);
+        limiter.onThrottle();
+        assertEquals(MetricsHelper.formatRateLimiterStats(limiter), "rateLimiter[test-limiter]: ratePerSecond=2.50, " +
+                "throttles=1");
+    }
+
+    @Test
+    public void formatRetryPolicyStats() {
+        RetryPolicy retryPolicy = new RetryPolicy("test-policy", 2, 0, 0);
+        retryPolicy.call(() -> "success");
+        assertEquals(MetricsHelper.formatRetryPolicyStats(retryPolicy), "retryPolicy[test-policy]: calls=1, " +
+                "retries=0, retriesDenied=0, failures=0");
     }
 }
@@ -4,8 +4,14 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.SortedMultiset;
 import com.google.common.collect.SortedSetMultimap;
 import org.testng.annotations.Test;
@@ -30,6 +36,29 @@ public class MetricsTest {
         assertEquals(counterMap.count("baz"), 3);
     }
 
+    @Test
+    public void concurrentCounters() throws Exception {
+        Metrics metrics = new Metrics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futureList.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        metrics.incrementCounter("foo");
+                    }
+                }));
+            }
+            for (Future<?> oneFuture : futureList) {
+                oneFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(metrics.getCounterMap().count("foo"), 4000);
+    }
+
     @Test
     public void keyValuePairs() {
         // init with some data
@@ -109,4 +138,24 @@ public class MetricsTest {
         SortedSetMultimap<String, String> originalSetCounterMap = metrics.getSetCounterMap();
         assertFalse(originalSetCounterMap.containsKey("foo"));
     }
+
+    @Test
+    public void latencyHistogram() {
+        Metrics metrics = new Metrics();
+        assertEquals(metrics.addLatencyMillis("latency", 0), 1);
+        assertEquals(metrics.addLatencyMillis("latency", 100), 2);
+        assertEquals(metrics.addLatencyMillis("latency", 101), 1);
+        assertEquals(metrics.addLatencyMillis("latency", 60000), 1);
+        assertEquals(metrics.addLatencyMillis("latency", 60001), 1);
+        assertEquals(metrics.addLatencyMillis("latency", 999999), 2);
+
+        // Buckets are counters. Iterating the counter map gives us the buckets in order.
+        SortedMultiset<String> counterMap = metrics.getCounterMap();
+        assertEquals(ImmutableList.copyOf(counterMap.elementSet()), ImmutableList.of("latency[<=000100ms]",
+                "latency[<=000250ms]", "latency[<=060000ms]", "latency[>060000ms]"));
+        assertEquals(counterMap.count("latency[<=000100ms]"), 2);
+        assertEquals(counterMap.count("latency[<=000250ms]"), 1);
+        assertEquals(counterMap.count("latency[<=060000ms]"), 1);
+        assertEquals(counterMap.count("latency[>060000ms]"), 2);
+    }
 }
@@ -1,6 +1,8 @@
 package org.sagebionetworks.bridge.exporter.record;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doThrow;
@@ -12,18 +14,23 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.Table;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
@@ -32,6 +39,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
+import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.metrics.MetricsHelper;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
@@ -52,10 +60,11 @@ public class BridgeExporterRecordProcessorTest {
     private static final BridgeExporterRequest REQUEST = new BridgeExporterRequest.Builder()
             .withEndDateTime(END_DATE_TIME).withTag("unit-test-tag").withUseLastExportTime(true).build();
 
-    private Table mockDdbRecordTable;
+    private BridgeHelper mockBridgeHelper;
     private InMemoryFileHelper mockFileHelper;
     private ExportWorkerManager mockManager;
     private MetricsHelper mockMetricsHelper;
+    private RecordBatchFetcher mockRecordBatchFetcher;
     private RecordFilterHelper mockRecordFilterHelper;
     private RecordIdSourceFactory mockRecordIdFactory;
     private BridgeExporterRecordProcessor recordProcessor;
@@ -65,7 +74,8 @@ public class BridgeExporterRecordProcessorTest {
     public void before() throws Exception {
         // mock Config - For branch coverage, make progress report period 2
         Config mockConfig = mock(Config.class);
-        when(mockConfig.getInt(BridgeExporterRecordProcessor.CONFIG_KEY_RECORD_LOOP_DELAY_MILLIS)).thenReturn(0);
+        // For branch coverage, make batch size 2 as well, so we get a full batch and a partial batch.
+        when(mockConfig.getInt(BridgeExporterRecordProcessor.CONFIG_KEY_RECORD_LOOP_BATCH_SIZE)).thenReturn(2);
         when(mockConfig.getInt(BridgeExporterRecordProcessor.CONFIG_KEY_RECORD_LOOP_PROGRESS_REPORT_PERIOD))
                 .thenReturn(2);
         when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_TIME_ZONE_NAME))
@@ -76,10 +86,11 @@ public class BridgeExporterRecordProcessorTest {
         when(mockSynapseHelper.isSynapseWritable()).thenReturn(true);
 
         // mocks
-        mockDdbRecordTable = mock(Table.class);
+        mockBridgeHelper = mock(BridgeHelper.class);
         mockFileHelper = new InMemoryFileHelper();
         mockManager = mock(ExportWorkerManager.class);
         mockMetricsHelper = mock(MetricsHelper.class);
+        mockRecordBatchFetcher = mock(RecordBatchFetcher.class);
         mockRecordFilterHelper = mock(RecordFilterHelper.class);
         mockRecordIdFactory = mock(RecordIdSourceFactory.class);
         mockDynamoHelper = mock(DynamoHelper.class);
@@ -87,14 +98,16 @@ public class BridgeExporterRecordProcessorTest {
         // set up record processor
         recordProcessor = spy(new BridgeExporterRecordProcessor());
         recordProcessor.setConfig(mockConfig);
-        recordProcessor.setDdbRecordTable(mockDdbRecordTable);
+        recordProcessor.setBridgeHelper(mockBridgeHelper);
         recordProcessor.setFileHelper(mockFileHelper);
         recordProcessor.setMetricsHelper(mockMetricsHelper);
+        recordProcessor.setRecordBatchFetcher(mockRecordBatchFetcher);
         recordProcessor.setRecordFilterHelper(mockRecordFilterHelper);
         recordProcessor.setRecordIdSourceFactory(mockRecordIdFactory);
         recordProcessor.setSynapseHelper(mockSynapseHelper);
         recordProcessor.setWorkerManager(mockManager);
         recordProcessor.setDynamoHelper(mockDynamoHelper);
+        recordProcessor.setSchemaRegistryExecutorService(mock(ScheduledExecutorService.class));
     }
 
     @Test
@@ -113,16 +126,18 @@ public class BridgeExporterRecordProcessorTest {
         Item dummyErrorRecord = new Item();
         Item dummySuccessRecord2 = new Item();
 
-        when(mockDdbRecordTable.getItem("id", "success-record-1")).thenReturn(dummySuccessRecord1);
-        when(mockDdbRecordTable.getItem("id", "filtered-record")).thenReturn(dummyFilteredRecord);
-        when(mockDdbRecordTable.getItem("id", "error-record")).thenReturn(dummyErrorRecord);
-        when(mockDdbRecordTable.getItem("id", "success-record-2")).thenReturn(dummySuccessRecord2);
+        Map<String, Item> recordsById = new HashMap<>();
+        recordsById.put("success-record-1", dummySuccessRecord1);
+        recordsById.put("filtered-record", dummyFilteredRecord);
+        recordsById.put("error-record", dummyErrorRecord);
+        recordsById.put("success-record-2", dummySuccessRecord2);
+        List<List<String>> fetchedBatchList = mockRecordBatchFetcher(recordsById);
 
         // mock record filter helper - Only mock the filtered record. All the others will return false by default in
         // Mockito.
         ArgumentCaptor<Metrics> recordFilterMetricsCaptor = ArgumentCaptor.forClass(Metrics.class);
         when(mockRecordFilterHelper.shouldExcludeRecord(recordFilterMetricsCaptor.capture(), same(REQUEST),
-                same(dummyFilteredRecord))).thenReturn(true);
+                any(SharingScopeResolver.class), same(dummyFilteredRecord))).thenReturn(true);
 
         // mock record ID factory
         List<String> recordIdList = ImmutableList.of("success-record-1", "filtered-record", "missing-record",
@@ -138,6 +153,12 @@ public class BridgeExporterRecordProcessorTest {
         // execute
         recordProcessor.processRecordsForRequest(REQUEST);
 
+        // validate record batch fetcher - With a batch size of 2, we should have 3 batches.
+        assertEquals(fetchedBatchList.size(), 3);
+        assertEquals(fetchedBatchList.get(0), ImmutableList.of("success-record-1", "filtered-record"));
+        assertEquals(fetchedBatchList.get(1), ImmutableList.of("missing-record", "error-record"));
+        assertEquals(fetchedBatchList.get(2), ImmutableList.of("success-record-2"));
+
         // validate metrics helper - Validate that we're passing the same set of metrics to it for each record, and
         // that we're calling publishMetrics() at the end with the same metrics object.
         ArgumentCaptor<Metrics> metricsHelperArgCaptor = ArgumentCaptor.forClass(Metrics.class);
@@ -154,8 +175,9 @@ public class BridgeExporterRecordProcessorTest {
         assertSame(metricsHelperArgList.get(3), metricsHelperArgList.get(0));
 
         // validate worker manager - Similarly, validate that we're passing the same task for each record, and that
-        // we're calling endOfStream() with that same task at the end.
+        // we're calling prewarmTables() and endOfStream() with that same task.
         ArgumentCaptor<ExportTask> managerTaskArgCaptor = ArgumentCaptor.forClass(ExportTask.class);
+        verify(mockManager).prewarmTables(managerTaskArgCaptor.capture(), any());
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummySuccessRecord1));
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummyErrorRecord));
         verify(mockManager).addSubtaskForRecord(managerTaskArgCaptor.capture(), same(dummySuccessRecord2));
@@ -163,10 +185,15 @@ public class BridgeExporterRecordProcessorTest {
         verifyNoMoreInteractions(mockManager);
 
         List<ExportTask> managerTaskArgList = managerTaskArgCaptor.getAllValues();
-        assertEquals(managerTaskArgList.size(), 4);
+        assertEquals(managerTaskArgList.size(), 5);
         assertSame(managerTaskArgList.get(1), managerTaskArgList.get(0));
         assertSame(managerTaskArgList.get(2), managerTaskArgList.get(0));
         assertSame(managerTaskArgList.get(3), managerTaskArgList.get(0));
+        assertSame(managerTaskArgList.get(4), managerTaskArgList.get(0));
+
+        // validate that the task has a schema registry, preloaded with the known schemas for the exported studies
+        assertNotNull(managerTaskArgList.get(0).getSchemaRegistry());
+        verify(mockBridgeHelper).getKnownSchemaKeysForStudies(fakeStudyIds.keySet());
 
         // verify that we marked the task as success
         verify(recordProcessor).setTaskSuccess(any());
@@ -196,7 +223,7 @@ public class BridgeExporterRecordProcessorTest {
         // make dummy DDB record items with no content.
         Item dummySuccessRecord1 = new Item();
 
-        when(mockDdbRecordTable.getItem("id", "success-record-1")).thenReturn(dummySuccessRecord1);
+        mockRecordBatchFetcher(ImmutableMap.of("success-record-1", dummySuccessRecord1));
 
         // mock record ID factory
         List<String> recordIdList = ImmutableList.of("success-record-1");
@@ -217,7 +244,7 @@ public class BridgeExporterRecordProcessorTest {
         // Only need 1 test record this time.
 
         // mock DDB record table and record ID factory
-        when(mockDdbRecordTable.getItem("id", "dummy-record")).thenReturn(new Item());
+        mockRecordBatchFetcher(ImmutableMap.of("dummy-record", new Item()));
         Map<String, DateTime> fakeStudyIds = ImmutableMap.of("fake-key", START_DATE_TIME);
         when(mockRecordIdFactory.getRecordSourceForRequest(REQUEST, fakeStudyIds)).thenReturn(ImmutableList.of(
                 "dummy-record"));
@@ -237,4 +264,77 @@ public class BridgeExporterRecordProcessorTest {
         // verify that we're NOT marking the task as success
         verify(recordProcessor, never()).setTaskSuccess(any());
     }
+
+    @Test
+    public void fetchRecordsThrows() throws Exception {
+        // mock record ID factory
+        Map<String, DateTime> fakeStudyIds = ImmutableMap.of("fake-key", START_DATE_TIME);
+        when(mockRecordIdFactory.getRecordSourceForRequest(REQUEST, fakeStudyIds)).thenReturn(ImmutableList.of(
+                "error-record-1", "error-record-2"));
+        when(mockDynamoHelper.bootstrapStudyIdsToQuery(REQUEST)).thenReturn(fakeStudyIds);
+
+        // Record batch fetcher throws.
+        when(mockRecordBatchFetcher.getRecords(anyListOf(String.class), anySetOf(String.class))).thenThrow(
+                IllegalStateException.class);
+
+        // execute - Errors are logged and swallowed, and we still call endOfStream().
+        recordProcessor.processRecordsForRequest(REQUEST);
+
+        verify(mockManager, never()).addSubtaskForRecord(any(), any());
+        verify(recordProcessor).setTaskSuccess(any());
+
+        // The records in the batch are redriven.
+        ArgumentCaptor<ExportTask> taskCaptor = ArgumentCaptor.forClass(ExportTask.class);
+        verify(mockManager).endOfStream(taskCaptor.capture(), eq(fakeStudyIds));
+        assertEquals(taskCaptor.getValue().getRedriveRecordIdSet(), ImmutableSet.of("error-record-1",
+                "error-record-2"));
+    }
+
+    @Test
+    public void fetchRecordsPartialFailure() throws Exception {
+        // mock record ID factory
+        Map<String, DateTime> fakeStudyIds = ImmutableMap.of("fake-key", START_DATE_TIME);
+        when(mockRecordIdFactory.getRecordSourceForRequest(REQUEST, fakeStudyIds)).thenReturn(ImmutableList.of(
+                "failed-record", "missing-record"));
+        when(mockDynamoHelper.bootstrapStudyIdsToQuery(REQUEST)).thenReturn(fakeStudyIds);
+
+        // One record couldn't be fetched. The other doesn't exist.
+        when(mockRecordBatchFetcher.getRecords(anyListOf(String.class), anySetOf(String.class))).thenAnswer(
+                invocation -> {
+                    Set<String> failedRecordIdSet = invocation.getArgumentAt(1, Set.class);
+                    failedRecordIdSet.add("failed-record");
+
+                    List<Item> recordList = new ArrayList<>();
+                    recordList.add(null);
+                    recordList.add(null);
+                    return recordList;
+                });
+
+        // execute
+        recordProcessor.processRecordsForRequest(REQUEST);
+
+        // Only the record that couldn't be fetched is redriven.
+        verify(mockManager, never()).addSubtaskForRecord(any(), any());
+        ArgumentCaptor<ExportTask> taskCaptor = ArgumentCaptor.forClass(ExportTask.class);
+        verify(mockManager).endOfStream(taskCaptor.capture(), eq(fakeStudyIds));
+        assertEquals(taskCaptor.getValue().getRedriveRecordIdSet(), ImmutableSet.of("failed-record"));
+    }
+
+    // Mocks the record batch fetcher to return records from the given map, in the order of the requested record IDs.
+    // Returns a list that's populated with copies of each batch of record IDs requested.
+    private List<List<String>> mockRecordBatchFetcher(Map<String, Item> recordsById) {
+        List<List<String>> fetchedBatchList = new ArrayList<>();
+        when(mockRecordBatchFetcher.getRecords(anyListOf(String.class), anySetOf(String.class))).thenAnswer(
+                invocation -> {
+                    List<String> recordIdList = invocation.getArgumentAt(0, List.class);
+                    fetchedBatchList.add(ImmutableList.copyOf(recordIdList));
+
+                    List<Item> recordList = new ArrayList<>();
+                    for (String oneRecordId : recordIdList) {
+                        recordList.add(recordsById.get(oneRecordId));
+                    }
+                    return recordList;
+                });
+        return fetchedBatchList;
+    }
 }
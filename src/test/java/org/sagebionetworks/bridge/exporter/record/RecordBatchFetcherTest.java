@@ -0,0 +1,234 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+
+public class RecordBatchFetcherTest {
+    private static final String TABLE_NAME = "test-HealthDataRecord3";
+
+    private DynamoDB mockDdbClient;
+    private Table mockRecordTable;
+    private RecordBatchFetcher fetcher;
+    private Set<String> failedRecordIdSet;
+
+    @BeforeMethod
+    public void before() {
+        // mock config - max 2 attempts, no retry delay
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(RecordBatchFetcher.CONFIG_KEY_MAX_ATTEMPTS)).thenReturn(2);
+        when(mockConfig.getInt(RecordBatchFetcher.CONFIG_KEY_READ_CAPACITY_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(RecordBatchFetcher.CONFIG_KEY_RETRY_DELAY_MILLIS)).thenReturn(0);
+
+        mockRecordTable = mock(Table.class);
+        when(mockRecordTable.getTableName()).thenReturn(TABLE_NAME);
+
+        mockDdbClient = mock(DynamoDB.class);
+
+        fetcher = new RecordBatchFetcher();
+        fetcher.setConfig(mockConfig);
+        fetcher.setDdbClient(mockDdbClient);
+        fetcher.setDdbRecordTable(mockRecordTable);
+
+        failedRecordIdSet = new HashSet<>();
+    }
+
+    @Test
+    public void preservesOrderWithDuplicatesAndMissingRecords() {
+        // DDB returns records in a different order, and omits the missing record.
+        Item fooRecord = makeRecord("foo");
+        Item barRecord = makeRecord("bar");
+        Item bazRecord = makeRecord("baz");
+        BatchGetItemOutcome outcome = mockOutcome(ImmutableList.of(bazRecord, fooRecord, barRecord), null);
+        ArgumentCaptor<BatchGetItemSpec> specCaptor = ArgumentCaptor.forClass(BatchGetItemSpec.class);
+        when(mockDdbClient.batchGetItem(specCaptor.capture())).thenReturn(outcome);
+
+        // execute and validate
+        List<Item> recordList = fetcher.getRecords(ImmutableList.of("foo", "bar", "missing", "foo", "baz"),
+                failedRecordIdSet);
+        assertEquals(recordList.size(), 5);
+        assertSame(recordList.get(0), fooRecord);
+        assertSame(recordList.get(1), barRecord);
+        assertNull(recordList.get(2));
+        assertSame(recordList.get(3), fooRecord);
+        assertSame(recordList.get(4), bazRecord);
+
+        // Duplicate keys are removed before calling DDB.
+        BatchGetItemSpec spec = specCaptor.getValue();
+        TableKeysAndAttributes keysAndAttributes = Iterables.getOnlyElement(
+                spec.getTableKeysAndAttributes());
+        assertEquals(keysAndAttributes.getTableName(), TABLE_NAME);
+        List<String> requestedIdList = new ArrayList<>();
+        for (PrimaryKey onePrimaryKey : keysAndAttributes.getPrimaryKeys()) {
+            for (KeyAttribute oneKeyAttribute : onePrimaryKey.getComponents()) {
+                requestedIdList.add((String) oneKeyAttribute.getValue());
+            }
+        }
+        assertEquals(requestedIdList, ImmutableList.of("foo", "bar", "missing", "baz"));
+    }
+
+    @Test
+    public void splitsIntoBatchesOf100() {
+        List<String> recordIdList = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            recordIdList.add("record-" + i);
+        }
+
+        BatchGetItemOutcome outcome = mockOutcome(ImmutableList.of(), null);
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenReturn(outcome);
+
+        // execute and validate
+        List<Item> recordList = fetcher.getRecords(recordIdList, failedRecordIdSet);
+        assertEquals(recordList.size(), 150);
+        verify(mockDdbClient, times(2)).batchGetItem(any(BatchGetItemSpec.class));
+    }
+
+    @Test
+    public void retriesUnprocessedKeys() {
+        Item fooRecord = makeRecord("foo");
+        Item barRecord = makeRecord("bar");
+
+        Map<String, KeysAndAttributes> unprocessedKeys = ImmutableMap.of(TABLE_NAME, new KeysAndAttributes()
+                .withKeys(ImmutableMap.of("id", new AttributeValue("bar"))));
+        BatchGetItemOutcome firstOutcome = mockOutcome(ImmutableList.of(fooRecord), unprocessedKeys);
+        BatchGetItemOutcome secondOutcome = mockOutcome(ImmutableList.of(barRecord), null);
+
+        ArgumentCaptor<BatchGetItemSpec> specCaptor = ArgumentCaptor.forClass(BatchGetItemSpec.class);
+        when(mockDdbClient.batchGetItem(specCaptor.capture())).thenReturn(firstOutcome, secondOutcome);
+
+        // execute and validate
+        List<Item> recordList = fetcher.getRecords(ImmutableList.of("foo", "bar"), failedRecordIdSet);
+        assertEquals(recordList.size(), 2);
+        assertSame(recordList.get(0), fooRecord);
+        assertSame(recordList.get(1), barRecord);
+
+        // The second call is for the unprocessed keys.
+        List<BatchGetItemSpec> specList = specCaptor.getAllValues();
+        assertEquals(specList.size(), 2);
+        assertSame(specList.get(1).getUnprocessedKeys(), unprocessedKeys);
+    }
+
+    @Test
+    public void unprocessedKeysAfterMaxAttempts() {
+        // Foo is fetched on the first attempt. Bar is never processed.
+        Item fooRecord = makeRecord("foo");
+        Item barRecord = makeRecord("bar");
+        Map<String, KeysAndAttributes> unprocessedKeys = ImmutableMap.of(TABLE_NAME, new KeysAndAttributes()
+                .withKeys(ImmutableMap.of("id", new AttributeValue("bar"))));
+        BatchGetItemOutcome firstOutcome = mockOutcome(ImmutableList.of(fooRecord), unprocessedKeys);
+        BatchGetItemOutcome secondOutcome = mockOutcome(ImmutableList.of(), unprocessedKeys);
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenReturn(firstOutcome, secondOutcome);
+        when(mockRecordTable.getItem("id", "bar")).thenReturn(barRecord);
+
+        // execute and validate - Foo is kept, and bar is fetched by itself.
+        List<Item> recordList = fetcher.getRecords(ImmutableList.of("foo", "bar"), failedRecordIdSet);
+        assertSame(recordList.get(0), fooRecord);
+        assertSame(recordList.get(1), barRecord);
+        assertTrue(failedRecordIdSet.isEmpty());
+
+        verify(mockDdbClient, times(2)).batchGetItem(any(BatchGetItemSpec.class));
+        verify(mockRecordTable, never()).getItem("id", "foo");
+    }
+
+    @Test
+    public void batchGetItemThrows() {
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenThrow(new AmazonClientException(
+                "test exception"));
+
+        // Foo is fetched by itself. Bar doesn't exist. Baz can't be fetched either way.
+        Item fooRecord = makeRecord("foo");
+        when(mockRecordTable.getItem("id", "foo")).thenReturn(fooRecord);
+        when(mockRecordTable.getItem("id", "baz")).thenThrow(new AmazonClientException("test exception"));
+
+        // execute and validate
+        List<Item> recordList = fetcher.getRecords(ImmutableList.of("foo", "bar", "baz"), failedRecordIdSet);
+        assertEquals(recordList.size(), 3);
+        assertSame(recordList.get(0), fooRecord);
+        assertNull(recordList.get(1));
+        assertNull(recordList.get(2));
+        assertEquals(failedRecordIdSet, ImmutableSet.of("baz"));
+    }
+
+    @Test
+    public void interruptedWhileRetrying() {
+        // First call returns foo, but leaves bar unprocessed.
+        Item fooRecord = makeRecord("foo");
+        Map<String, KeysAndAttributes> unprocessedKeys = ImmutableMap.of(TABLE_NAME, new KeysAndAttributes()
+                .withKeys(ImmutableMap.of("id", new AttributeValue("bar"))));
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenReturn(mockOutcome(ImmutableList.of(
+                fooRecord), unprocessedKeys));
+
+        // execute - interrupt the thread first, so the fetcher is interrupted before it retries
+        List<Item> recordList;
+        boolean interrupted;
+        Thread.currentThread().interrupt();
+        try {
+            recordList = fetcher.getRecords(ImmutableList.of("foo", "bar"), failedRecordIdSet);
+        } finally {
+            // Clear the interrupt, so it doesn't leak into other tests.
+            interrupted = Thread.interrupted();
+        }
+
+        // validate - Foo is kept. Bar isn't retried or fetched by itself, and is marked as failed. The interrupt is
+        // restored.
+        assertTrue(interrupted);
+        assertSame(recordList.get(0), fooRecord);
+        assertNull(recordList.get(1));
+        assertEquals(failedRecordIdSet, ImmutableSet.of("bar"));
+
+        verify(mockDdbClient, times(1)).batchGetItem(any(BatchGetItemSpec.class));
+        verify(mockRecordTable, never()).getItem(any(String.class), any());
+    }
+
+    private static Item makeRecord(String recordId) {
+        return new Item().withString("id", recordId);
+    }
+
+    private static BatchGetItemOutcome mockOutcome(List<Item> itemList,
+            Map<String, KeysAndAttributes> unprocessedKeys) {
+        BatchGetItemResult result = new BatchGetItemResult().withConsumedCapacity(new ConsumedCapacity()
+                .withTableName(TABLE_NAME).withCapacityUnits(1.5));
+
+        BatchGetItemOutcome mockOutcome = mock(BatchGetItemOutcome.class);
+        when(mockOutcome.getBatchGetItemResult()).thenReturn(result);
+        when(mockOutcome.getTableItems()).thenReturn(ImmutableMap.of(TABLE_NAME, itemList));
+        when(mockOutcome.getUnprocessedKeys()).thenReturn(unprocessedKeys);
+        return mockOutcome;
+    }
+}
@@ -32,8 +32,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(null, TEST_STUDY);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.SPONSORS_AND_PARTNERS);
-        assertTrue(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.SPONSORS_AND_PARTNERS);
+        assertTrue(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[NO_SHARING]"), 0);
@@ -48,8 +49,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(null, TEST_STUDY).withString("userSharingScope", "not a valid sharing scope");
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.SPONSORS_AND_PARTNERS);
-        assertTrue(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.SPONSORS_AND_PARTNERS);
+        assertTrue(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[NO_SHARING]"), 0);
@@ -129,8 +131,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(recordSharingScope, TEST_STUDY);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(userSharingScope);
-        assertEquals(helper.shouldExcludeRecord(metrics, request, record), expected);
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, userSharingScope);
+        assertEquals(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record), expected);
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[" + minimalSharingScope.name() + "]"), expected ? 0 : 1);
@@ -145,8 +148,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(SharingScope.ALL_QUALIFIED_RESEARCHERS, null);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.ALL_QUALIFIED_RESEARCHERS);
-        helper.shouldExcludeRecord(metrics, request, record);
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record);
     }
 
     @Test
@@ -157,8 +161,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(SharingScope.ALL_QUALIFIED_RESEARCHERS, TEST_STUDY);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.ALL_QUALIFIED_RESEARCHERS);
-        assertFalse(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertFalse(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[test-study]"), 1);
@@ -173,8 +178,9 @@ public class RecordFilterHelperTest {
         Item record = makeRecord(SharingScope.ALL_QUALIFIED_RESEARCHERS, "excluded-study");
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.ALL_QUALIFIED_RESEARCHERS);
-        assertTrue(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertTrue(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[excluded-study]"), 0);
@@ -193,8 +199,9 @@ public class RecordFilterHelperTest {
                 .withString("schemaId", "test-schema").withInt("schemaRevision", 3);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.ALL_QUALIFIED_RESEARCHERS);
-        assertFalse(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertFalse(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[test-study-test-schema-v3]"), 1);
@@ -215,8 +222,9 @@ public class RecordFilterHelperTest {
                 .withString("schemaId", "test-schema").withInt("schemaRevision", 5);
 
         // execute and validate
-        RecordFilterHelper helper = makeRecordFilterHelper(SharingScope.ALL_QUALIFIED_RESEARCHERS);
-        assertTrue(helper.shouldExcludeRecord(metrics, request, record));
+        RecordFilterHelper helper = new RecordFilterHelper();
+        SharingScopeResolver sharingScopeResolver = makeSharingScopeResolver(metrics, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertTrue(helper.shouldExcludeRecord(metrics, request, sharingScopeResolver, record));
 
         Multiset<String> counterMap = metrics.getCounterMap();
         assertEquals(counterMap.count("accepted[test-study-test-schema-v5]"), 0);
@@ -237,15 +245,12 @@ public class RecordFilterHelperTest {
         return record;
     }
 
-    private static RecordFilterHelper makeRecordFilterHelper(SharingScope userSharingScope) {
+    private static SharingScopeResolver makeSharingScopeResolver(Metrics metrics, SharingScope userSharingScope) {
         // mock DynamoHelper
         DynamoHelper mockDynamoHelper = mock(DynamoHelper.class);
         when(mockDynamoHelper.getSharingScopeForUser(DUMMY_HEALTH_CODE)).thenReturn(userSharingScope);
 
-        // set up record filter helper
-        RecordFilterHelper helper = new RecordFilterHelper();
-        helper.setDynamoHelper(mockDynamoHelper);
-        return helper;
+        return new SharingScopeResolver(mockDynamoHelper, metrics);
     }
 
     private static BridgeExporterRequest.Builder makeRequestBuilder() {
@@ -0,0 +1,98 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class RecordPipelineStageTest {
+    @Test
+    public void submitBlocksWhenQueueIsFull() throws Exception {
+        // 1 thread, queue size 1.
+        RecordPipelineStage stage = new RecordPipelineStage("test", 1, 1);
+        CountDownLatch releaseLatch = new CountDownLatch(1);
+        AtomicInteger numCompleted = new AtomicInteger();
+
+        // First work item occupies the thread. Second work item fills the queue.
+        stage.submit(() -> awaitLatch(releaseLatch, numCompleted), 10);
+        stage.submit(() -> awaitLatch(releaseLatch, numCompleted), 20);
+
+        // Third submit should block, because the queue is full.
+        AtomicBoolean thirdSubmitted = new AtomicBoolean();
+        Thread submitter = new Thread(() -> {
+            stage.submit(numCompleted::incrementAndGet, 30);
+            thirdSubmitted.set(true);
+        });
+        submitter.start();
+        submitter.join(200);
+        assertFalse(thirdSubmitted.get());
+
+        // Release the latch. Everything completes.
+        releaseLatch.countDown();
+        submitter.join();
+        assertTrue(thirdSubmitted.get());
+        assertTrue(stage.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(numCompleted.get(), 3);
+        assertEquals(stage.getNumRecordsCompleted(), 60);
+        assertEquals(stage.getQueueDepth(), 0);
+
+        String status = stage.getStatus();
+        assertTrue(status.startsWith("test: "), "status=" + status);
+        assertTrue(status.contains("maxQueueDepth=1"), "status=" + status);
+        assertTrue(status.contains("recordsCompleted=60"), "status=" + status);
+    }
+
+    @Test
+    public void addRecordsCompleted() {
+        RecordPipelineStage stage = new RecordPipelineStage("test", 1, 1);
+        stage.addRecordsCompleted(5);
+        stage.addRecordsCompleted(7);
+        assertEquals(stage.getNumRecordsCompleted(), 12);
+        stage.shutdownNow();
+    }
+
+    @Test
+    public void exceptionPropagatesToFuture() throws Exception {
+        RecordPipelineStage stage = new RecordPipelineStage("test", 1, 1);
+        Future<?> future = stage.submit(() -> {
+            throw new IllegalArgumentException("test exception");
+        }, 1);
+
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+
+        // Failed work still counts as completed.
+        assertTrue(stage.awaitCompletion(10, TimeUnit.SECONDS));
+        assertEquals(stage.getNumRecordsCompleted(), 1);
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void submitAfterCompletion() throws Exception {
+        RecordPipelineStage stage = new RecordPipelineStage("test", 1, 1);
+        assertTrue(stage.awaitCompletion(10, TimeUnit.SECONDS));
+        stage.submit(() -> {}, 1);
+    }
+
+    private static void awaitLatch(CountDownLatch latch, AtomicInteger numCompleted) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+        numCompleted.incrementAndGet();
+    }
+}
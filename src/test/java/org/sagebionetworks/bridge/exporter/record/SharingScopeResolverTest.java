@@ -0,0 +1,125 @@
+package org.sagebionetworks.bridge.exporter.record;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
+import org.sagebionetworks.bridge.exporter.dynamo.SharingScope;
+import org.sagebionetworks.bridge.exporter.metrics.Metrics;
+
+@SuppressWarnings("unchecked")
+public class SharingScopeResolverTest {
+    private Metrics metrics;
+    private DynamoHelper mockDynamoHelper;
+    private SharingScopeResolver resolver;
+
+    @BeforeMethod
+    public void setup() {
+        metrics = new Metrics();
+        mockDynamoHelper = mock(DynamoHelper.class);
+        resolver = new SharingScopeResolver(mockDynamoHelper, metrics);
+    }
+
+    @Test
+    public void prefetchResolvesUnseenHealthCodesOnce() {
+        when(mockDynamoHelper.getSharingScopesForUsers(any())).thenReturn(ImmutableMap.of(
+                "health-code-1", SharingScope.ALL_QUALIFIED_RESEARCHERS,
+                "health-code-2", SharingScope.SPONSORS_AND_PARTNERS));
+
+        // Duplicate health codes and records without health codes.
+        resolver.prefetch(ImmutableList.of(makeRecord("health-code-1"), makeRecord("health-code-2"),
+                makeRecord("health-code-1"), new Item()));
+
+        ArgumentCaptor<Collection> healthCodeCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(mockDynamoHelper).getSharingScopesForUsers(healthCodeCaptor.capture());
+        assertEquals(new ArrayList<>(healthCodeCaptor.getValue()), ImmutableList.of("health-code-1",
+                "health-code-2"));
+
+        // Prefetching the same health codes again doesn't call DDB.
+        resolver.prefetch(ImmutableList.of(makeRecord("health-code-2"), makeRecord("health-code-1")));
+        verify(mockDynamoHelper, times(1)).getSharingScopesForUsers(any());
+
+        // Lookups are all cache hits.
+        assertEquals(resolver.getSharingScopeForUser("health-code-1"), SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        assertEquals(resolver.getSharingScopeForUser("health-code-2"), SharingScope.SPONSORS_AND_PARTNERS);
+        verify(mockDynamoHelper, never()).getSharingScopeForUser(any());
+
+        Multiset<String> counterMap = metrics.getCounterMap();
+        assertEquals(counterMap.count("sharingScopeCacheHit"), 2);
+        assertEquals(counterMap.count("sharingScopeCacheMiss"), 0);
+        assertEquals(counterMap.count("sharingScopeBatchGet[<=000100ms]"), 1);
+    }
+
+    @Test
+    public void prefetchSplitsIntoBatches() {
+        when(mockDynamoHelper.getSharingScopesForUsers(any())).thenAnswer(invocation -> {
+            Map<String, SharingScope> sharingScopeMap = new HashMap<>();
+            for (Object oneHealthCode : invocation.getArgumentAt(0, Collection.class)) {
+                sharingScopeMap.put((String) oneHealthCode, SharingScope.NO_SHARING);
+            }
+            return sharingScopeMap;
+        });
+
+        List<Item> recordList = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            recordList.add(makeRecord("health-code-" + i));
+        }
+        resolver.prefetch(recordList);
+
+        ArgumentCaptor<Collection> healthCodeCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(mockDynamoHelper, times(2)).getSharingScopesForUsers(healthCodeCaptor.capture());
+        assertEquals(healthCodeCaptor.getAllValues().get(0).size(), DynamoHelper.MAX_BATCH_GET_SIZE);
+        assertEquals(healthCodeCaptor.getAllValues().get(1).size(), 50);
+
+        assertEquals(resolver.getSharingScopeForUser("health-code-149"), SharingScope.NO_SHARING);
+        verify(mockDynamoHelper, never()).getSharingScopeForUser(any());
+    }
+
+    @Test
+    public void missFallsBackToSingleLookup() {
+        // Batch didn't process the health code.
+        when(mockDynamoHelper.getSharingScopesForUsers(any())).thenReturn(ImmutableMap.of());
+        when(mockDynamoHelper.getSharingScopeForUser("health-code")).thenReturn(
+                SharingScope.SPONSORS_AND_PARTNERS);
+
+        resolver.prefetch(ImmutableList.of(makeRecord("health-code")));
+
+        // First lookup misses and is cached. Second lookup hits.
+        assertEquals(resolver.getSharingScopeForUser("health-code"), SharingScope.SPONSORS_AND_PARTNERS);
+        assertEquals(resolver.getSharingScopeForUser("health-code"), SharingScope.SPONSORS_AND_PARTNERS);
+        verify(mockDynamoHelper, times(1)).getSharingScopeForUser("health-code");
+
+        Multiset<String> counterMap = metrics.getCounterMap();
+        assertEquals(counterMap.count("sharingScopeCacheHit"), 1);
+        assertEquals(counterMap.count("sharingScopeCacheMiss"), 1);
+    }
+
+    @Test
+    public void prefetchEmptyBatch() {
+        resolver.prefetch(ImmutableList.of());
+        verify(mockDynamoHelper, never()).getSharingScopesForUsers(any());
+    }
+
+    private static Item makeRecord(String healthCode) {
+        return new Item().withString("healthCode", healthCode);
+    }
+}
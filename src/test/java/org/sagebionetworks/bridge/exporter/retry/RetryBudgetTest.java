@@ -0,0 +1,48 @@
+package org.sagebionetworks.bridge.exporter.retry;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+
+public class RetryBudgetTest {
+    private static final double DELTA = 0.001;
+
+    @Test
+    public void retriesLimitedToFractionOfCalls() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(RetryBudget.CONFIG_KEY_MAX_TOKENS)).thenReturn(2);
+        when(mockConfig.getInt(RetryBudget.CONFIG_KEY_PERCENT)).thenReturn(50);
+
+        RetryBudget retryBudget = new RetryBudget();
+        retryBudget.setConfig(mockConfig);
+
+        // Starts full. Burst of 2 retries.
+        assertTrue(retryBudget.tryAcquireRetry());
+        assertTrue(retryBudget.tryAcquireRetry());
+        assertFalse(retryBudget.tryAcquireRetry());
+        assertEquals(retryBudget.getNumRetriesDenied(), 1);
+
+        // At 50%, 2 calls earn 1 retry.
+        retryBudget.onCall();
+        assertFalse(retryBudget.tryAcquireRetry());
+        retryBudget.onCall();
+        assertTrue(retryBudget.tryAcquireRetry());
+        assertEquals(retryBudget.getNumRetriesDenied(), 2);
+    }
+
+    @Test
+    public void tokensCappedAtMax() {
+        RetryBudget retryBudget = new RetryBudget();
+        retryBudget.configure(0.5, 2.0);
+        for (int i = 0; i < 10; i++) {
+            retryBudget.onCall();
+        }
+        assertEquals(retryBudget.getTokens(), 2.0, DELTA);
+    }
+}
@@ -0,0 +1,171 @@
+package org.sagebionetworks.bridge.exporter.retry;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.google.gson.JsonParseException;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
+
+public class RetryPolicyTest {
+    @Test
+    public void retriesUntilSuccess() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy("test", 3, 0, 0);
+        AtomicInteger numAttempts = new AtomicInteger();
+        String result = retryPolicy.call(() -> {
+            if (numAttempts.incrementAndGet() < 3) {
+                throw new IOException("test exception");
+            }
+            return "success";
+        });
+
+        assertEquals(result, "success");
+        assertEquals(numAttempts.get(), 3);
+        assertEquals(retryPolicy.getNumCalls(), 1);
+        assertEquals(retryPolicy.getNumRetries(), 2);
+        assertEquals(retryPolicy.getNumFailures(), 0);
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        RetryPolicy retryPolicy = new RetryPolicy("test", 3, 0, 0);
+        IOException testEx = new IOException("test exception");
+        AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            retryPolicy.call(() -> {
+                numAttempts.incrementAndGet();
+                throw testEx;
+            });
+            fail("expected exception");
+        } catch (IOException ex) {
+            assertSame(ex, testEx);
+        }
+
+        assertEquals(numAttempts.get(), 3);
+        assertEquals(retryPolicy.getNumRetries(), 2);
+        assertEquals(retryPolicy.getNumFailures(), 1);
+    }
+
+    @Test
+    public void nonRetryableExceptionIsNotRetried() {
+        RetryPolicy retryPolicy = new RetryPolicy("test", 3, 0, 0);
+        AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            retryPolicy.call(() -> {
+                numAttempts.incrementAndGet();
+                throw new BridgeExporterNonRetryableException("test exception");
+            });
+            fail("expected exception");
+        } catch (BridgeExporterNonRetryableException ex) {
+            // expected exception
+        }
+
+        assertEquals(numAttempts.get(), 1);
+        assertEquals(retryPolicy.getNumRetries(), 0);
+        assertEquals(retryPolicy.getNumFailures(), 1);
+    }
+
+    @Test
+    public void retryBudget() {
+        // Budget allows 1 retry, and no calls deposit enough tokens for another.
+        RetryBudget retryBudget = new RetryBudget();
+        retryBudget.configure(0.0, 1.0);
+
+        RetryPolicy retryPolicy = new RetryPolicy("test", 5, 0, 0);
+        retryPolicy.setRetryBudget(retryBudget);
+
+        AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            retryPolicy.call(() -> {
+                numAttempts.incrementAndGet();
+                throw new IOException("test exception");
+            });
+            fail("expected exception");
+        } catch (IOException ex) {
+            // expected exception
+        }
+
+        assertEquals(numAttempts.get(), 2);
+        assertEquals(retryPolicy.getNumRetries(), 1);
+        assertEquals(retryPolicy.getNumRetriesDenied(), 1);
+        assertEquals(retryPolicy.getNumFailures(), 1);
+        assertEquals(retryBudget.getNumRetriesDenied(), 1);
+    }
+
+    @Test
+    public void backoffCap() {
+        assertEquals(RetryPolicy.getBackoffCapMillis(1, 100, 1000), 100);
+        assertEquals(RetryPolicy.getBackoffCapMillis(2, 100, 1000), 200);
+        assertEquals(RetryPolicy.getBackoffCapMillis(4, 100, 1000), 800);
+        assertEquals(RetryPolicy.getBackoffCapMillis(5, 100, 1000), 1000);
+
+        // Doesn't overflow.
+        assertEquals(RetryPolicy.getBackoffCapMillis(100, 100, 1000), 1000);
+        assertEquals(RetryPolicy.getBackoffCapMillis(30, Long.MAX_VALUE / 2, Long.MAX_VALUE), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void fullJitter() {
+        for (int i = 0; i < 100; i++) {
+            long delay = RetryPolicy.computeFullJitterDelayMillis(3, 100, 1000);
+            assertTrue(delay >= 0 && delay <= 400, "delay=" + delay);
+        }
+        assertEquals(RetryPolicy.computeFullJitterDelayMillis(3, 0, 0), 0);
+    }
+
+    @DataProvider(name = "isRetryableProvider")
+    public Object[][] isRetryableProvider() {
+        AmazonServiceException awsClientEx = new AmazonServiceException("test exception");
+        awsClientEx.setStatusCode(400);
+
+        AmazonServiceException awsThrottleEx = new AmazonServiceException("test exception");
+        awsThrottleEx.setStatusCode(400);
+        awsThrottleEx.setErrorCode("ProvisionedThroughputExceededException");
+
+        AmazonServiceException awsServerEx = new AmazonServiceException("test exception");
+        awsServerEx.setStatusCode(500);
+
+        return new Object[][] {
+                { null, false },
+                { new InterruptedException(), false },
+                { mock(SynapseResultNotReadyException.class), false },
+                { new SynapseServerException(400, "test exception"), false },
+                { new SynapseServerException(404, "test exception"), false },
+                { new SynapseServerException(429, "test exception"), true },
+                { new SynapseServerException(500, "test exception"), true },
+                { new SynapseServerException(503, "test exception"), false },
+                { new SynapseClientException(), true },
+                { awsClientEx, false },
+                { awsThrottleEx, true },
+                { awsServerEx, true },
+                { new AmazonClientException("test exception"), true },
+                { new BridgeSDKException("test exception", 400), false },
+                { new BridgeSDKException("test exception", 429), true },
+                { new BridgeSDKException("test exception", 503), true },
+                { new JsonParseException("test exception"), false },
+                { new BridgeExporterNonRetryableException("test exception"), false },
+                { new BridgeExporterException("test exception"), true },
+                { new IOException("test exception"), true },
+        };
+    }
+
+    @Test(dataProvider = "isRetryableProvider")
+    public void isRetryable(Throwable t, boolean expected) {
+        assertEquals(RetryPolicy.isRetryable(t), expected);
+    }
+}
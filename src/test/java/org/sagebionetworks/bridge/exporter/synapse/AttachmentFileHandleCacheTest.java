@@ -0,0 +1,110 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+
+public class AttachmentFileHandleCacheTest {
+    private static final String TEST_ATTACHMENT_ID = "attachment-id";
+    private static final String TEST_FILE_HANDLE_ID = "file-handle-id";
+    private static final String TEST_PROJECT_ID = "project-id";
+
+    private AttachmentFileHandleCache cache;
+    private Table mockDdbTable;
+
+    @BeforeMethod
+    public void setup() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(AttachmentFileHandleCache.CONFIG_KEY_MAX_SIZE)).thenReturn(10);
+
+        mockDdbTable = mock(Table.class);
+
+        cache = new AttachmentFileHandleCache();
+        cache.setConfig(mockConfig);
+        cache.setDdbAttachmentFileHandleTable(mockDdbTable);
+    }
+
+    @Test
+    public void notCached() {
+        assertNull(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID));
+        assertNull(cache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID));
+        verify(mockDdbTable).getItem(AttachmentFileHandleCache.DDB_KEY_ATTACHMENT_ID, TEST_ATTACHMENT_ID,
+                AttachmentFileHandleCache.DDB_KEY_PROJECT_ID, TEST_PROJECT_ID);
+    }
+
+    @Test
+    public void fromDdb() {
+        Item item = new Item().withString(AttachmentFileHandleCache.DDB_KEY_FILE_HANDLE_ID, TEST_FILE_HANDLE_ID);
+        when(mockDdbTable.getItem(AttachmentFileHandleCache.DDB_KEY_ATTACHMENT_ID, TEST_ATTACHMENT_ID,
+                AttachmentFileHandleCache.DDB_KEY_PROJECT_ID, TEST_PROJECT_ID)).thenReturn(item);
+
+        // Not in the LRU until we look it up in DDB.
+        assertNull(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID));
+
+        // Look it up twice. The second lookup comes from the LRU.
+        assertEquals(cache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+        assertEquals(cache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+        assertEquals(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+        verify(mockDdbTable, times(1)).getItem(AttachmentFileHandleCache.DDB_KEY_ATTACHMENT_ID, TEST_ATTACHMENT_ID,
+                AttachmentFileHandleCache.DDB_KEY_PROJECT_ID, TEST_PROJECT_ID);
+    }
+
+    @Test
+    public void ddbGetError() {
+        when(mockDdbTable.getItem(AttachmentFileHandleCache.DDB_KEY_ATTACHMENT_ID, TEST_ATTACHMENT_ID,
+                AttachmentFileHandleCache.DDB_KEY_PROJECT_ID, TEST_PROJECT_ID)).thenThrow(
+                new AmazonClientException("test exception"));
+        assertNull(cache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID));
+    }
+
+    @Test
+    public void put() {
+        cache.putFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID, TEST_FILE_HANDLE_ID);
+
+        // validate DDB
+        ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+        verify(mockDdbTable).putItem(itemCaptor.capture());
+        Item item = itemCaptor.getValue();
+        assertEquals(item.getString(AttachmentFileHandleCache.DDB_KEY_ATTACHMENT_ID), TEST_ATTACHMENT_ID);
+        assertEquals(item.getString(AttachmentFileHandleCache.DDB_KEY_PROJECT_ID), TEST_PROJECT_ID);
+        assertEquals(item.getString(AttachmentFileHandleCache.DDB_KEY_FILE_HANDLE_ID), TEST_FILE_HANDLE_ID);
+
+        // Lookups come from the LRU, without calling DDB.
+        assertEquals(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+        assertEquals(cache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+        verify(mockDdbTable, never()).getItem(any(String.class), any(), any(String.class), any());
+
+        // Different project is a different key.
+        assertNull(cache.getCachedFileHandleId("other-project", TEST_ATTACHMENT_ID));
+    }
+
+    @Test
+    public void ddbPutError() {
+        when(mockDdbTable.putItem(any(Item.class))).thenThrow(new AmazonClientException("test exception"));
+        cache.putFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID, TEST_FILE_HANDLE_ID);
+
+        // Still in the LRU.
+        assertEquals(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID), TEST_FILE_HANDLE_ID);
+    }
+
+    @Test
+    public void cachedLookupDoesNotCallDdb() {
+        assertNull(cache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID));
+        verifyZeroInteractions(mockDdbTable);
+    }
+}
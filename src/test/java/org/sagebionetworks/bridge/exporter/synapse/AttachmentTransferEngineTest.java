@@ -0,0 +1,280 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import com.amazonaws.AmazonClientException;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
+import org.sagebionetworks.repo.model.file.FileHandle;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
+import org.sagebionetworks.bridge.file.InMemoryFileHelper;
+import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
+import org.sagebionetworks.bridge.rest.model.UploadFieldType;
+import org.sagebionetworks.bridge.s3.S3Helper;
+
+public class AttachmentTransferEngineTest {
+    private static final String TEST_ATTACHMENT_ID = "attId";
+    private static final String TEST_ATTACHMENTS_BUCKET = "attachments-bucket";
+    private static final String TEST_FILE_CONTENT = "This is some file content.";
+    private static final long TEST_FILE_SIZE = TEST_FILE_CONTENT.length();
+    private static final long LARGE_FILE_SIZE = 2 * 1024 * 1024;
+    private static final String TEST_FILE_HANDLE_ID = "file-handle-id";
+    private static final String TEST_PROJECT_ID = "project-id";
+    private static final UploadFieldDefinition TEST_FIELD_DEF = new UploadFieldDefinition().name("test.csv")
+            .type(UploadFieldType.ATTACHMENT_CSV);
+
+    private AttachmentTransferEngine engine;
+    private AttachmentFileHandleCache mockAttachmentFileHandleCache;
+    private InMemoryFileHelper mockFileHelper;
+    private S3Helper mockS3Helper;
+    private SynapseHelper synapseHelper;
+    private File tmpDir;
+
+    @BeforeMethod
+    public void setup() {
+        // mock config
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET)).thenReturn(TEST_ATTACHMENTS_BUCKET);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE)).thenReturn(
+                1000);
+
+        // Only allow 1 transfer in flight, so we can test that permits are released.
+        when(mockConfig.getInt(AttachmentTransferEngine.CONFIG_KEY_MAX_IN_FLIGHT)).thenReturn(1);
+        when(mockConfig.getInt(AttachmentTransferEngine.CONFIG_KEY_MAX_IN_FLIGHT_MB)).thenReturn(1);
+        when(mockConfig.getInt(AttachmentTransferEngine.CONFIG_KEY_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(AttachmentTransferEngine.CONFIG_KEY_STREAM_MAX_MB)).thenReturn(1);
+
+        // mock (in-memory) file helper and S3 helper
+        mockFileHelper = new InMemoryFileHelper();
+        tmpDir = mockFileHelper.createTempDir();
+        mockS3Helper = mock(S3Helper.class);
+
+        // Spy Synapse helper, so we use the real downloadAttachment(), but mock out S3 metadata and Synapse uploads.
+        synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setConfig(mockConfig);
+        synapseHelper.setFileHelper(mockFileHelper);
+        synapseHelper.setS3Helper(mockS3Helper);
+
+        // By default, nothing is cached.
+        mockAttachmentFileHandleCache = mock(AttachmentFileHandleCache.class);
+
+        // Run transfers on the calling thread, to make tests deterministic.
+        engine = new AttachmentTransferEngine();
+        engine.setAttachmentFileHandleCache(mockAttachmentFileHandleCache);
+        engine.setConfig(mockConfig);
+        engine.setExecutor(MoreExecutors.newDirectExecutorService());
+        engine.setFileHelper(mockFileHelper);
+        engine.setSynapseHelper(synapseHelper);
+    }
+
+    @Test
+    public void relay() throws Exception {
+        doReturn(TEST_FILE_SIZE).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+        doReturn(mockFileHandle()).when(synapseHelper).relayAttachmentToSynapseFileHandleWithRetry(
+                eq(TEST_ATTACHMENT_ID), eq(TEST_FILE_SIZE), eq("test-attId.csv"), eq("text/csv"),
+                eq(TEST_PROJECT_ID), any());
+
+        // execute twice, to make sure permits are released
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                    TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+            assertEquals(future.join(), TEST_FILE_HANDLE_ID);
+        }
+
+        // Small attachments never touch local disk.
+        verify(mockS3Helper, never()).downloadS3File(any(), any(), any());
+        assertTempFilesDeleted();
+
+        verify(mockAttachmentFileHandleCache, times(2)).putFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID,
+                TEST_FILE_HANDLE_ID);
+    }
+
+    @Test
+    public void attachmentInLru() throws Exception {
+        when(mockAttachmentFileHandleCache.getCachedFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID)).thenReturn(
+                TEST_FILE_HANDLE_ID);
+
+        // Mock executor never runs anything. LRU hits shouldn't go through the executor at all.
+        engine.setExecutor(mock(ExecutorService.class));
+
+        // More than the in-flight limit, to make sure LRU hits don't take permits.
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                    TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+            assertTrue(future.isDone());
+            assertEquals(future.join(), TEST_FILE_HANDLE_ID);
+        }
+
+        verify(synapseHelper, never()).getAttachmentSize(any());
+        verify(mockAttachmentFileHandleCache, never()).putFileHandleId(any(), any(), any());
+    }
+
+    @Test
+    public void attachmentInDdb() throws Exception {
+        when(mockAttachmentFileHandleCache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID)).thenReturn(
+                TEST_FILE_HANDLE_ID);
+
+        CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+        assertEquals(future.join(), TEST_FILE_HANDLE_ID);
+
+        // Nothing is transferred.
+        verify(synapseHelper, never()).getAttachmentSize(any());
+        verify(synapseHelper, never()).relayAttachmentToSynapseFileHandleWithRetry(any(), anyLong(), any(), any(),
+                any(), any());
+        verify(mockS3Helper, never()).downloadS3File(any(), any(), any());
+        verify(mockAttachmentFileHandleCache, never()).putFileHandleId(any(), any(), any());
+    }
+
+    @Test
+    public void emptyAttachment() throws Exception {
+        doReturn(0L).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+
+        CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+        assertNull(future.join());
+
+        verify(synapseHelper, never()).relayAttachmentToSynapseFileHandleWithRetry(any(), anyLong(), any(), any(),
+                any(), any());
+        verify(mockS3Helper, never()).downloadS3File(any(), any(), any());
+    }
+
+    @Test
+    public void relayFailure() throws Exception {
+        doReturn(TEST_FILE_SIZE).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+        doThrow(SynapseClientException.class).when(synapseHelper).relayAttachmentToSynapseFileHandleWithRetry(
+                eq(TEST_ATTACHMENT_ID), eq(TEST_FILE_SIZE), eq("test-attId.csv"), eq("text/csv"),
+                eq(TEST_PROJECT_ID), any());
+
+        // execute twice, to make sure permits are released
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                    TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+            try {
+                future.join();
+                fail("expected exception");
+            } catch (CompletionException ex) {
+                assertTrue(ex.getCause() instanceof SynapseClientException);
+            }
+        }
+
+        verify(mockAttachmentFileHandleCache, never()).putFileHandleId(any(), any(), any());
+    }
+
+    @Test
+    public void largeAttachmentUsesTempFile() throws Exception {
+        // Stream max is 1 MB. Make the attachment bigger than that.
+        doReturn(LARGE_FILE_SIZE).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+        mockS3Download(TEST_FILE_CONTENT);
+        doReturn(mockFileHandle()).when(synapseHelper).createAttachmentFileHandleWithRetry(any(), eq("text/csv"),
+                eq(TEST_PROJECT_ID), any());
+
+        CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+        assertEquals(future.join(), TEST_FILE_HANDLE_ID);
+
+        verify(synapseHelper, never()).relayAttachmentToSynapseFileHandleWithRetry(any(), anyLong(), any(), any(),
+                any(), any());
+
+        // validate that the engine cleans up after itself
+        assertTempFilesDeleted();
+    }
+
+    @Test
+    public void largeAttachmentUploadFailure() throws Exception {
+        doReturn(LARGE_FILE_SIZE).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+        mockS3Download(TEST_FILE_CONTENT);
+        doThrow(SynapseClientException.class).when(synapseHelper).createAttachmentFileHandleWithRetry(any(),
+                eq("text/csv"), eq(TEST_PROJECT_ID), any());
+
+        CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+        try {
+            future.join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof SynapseClientException);
+        }
+
+        assertTempFilesDeleted();
+    }
+
+    @Test
+    public void largeAttachmentDownloadFailure() throws Exception {
+        doReturn(LARGE_FILE_SIZE).when(synapseHelper).getAttachmentSize(TEST_ATTACHMENT_ID);
+
+        // Simulate a partial download.
+        doAnswer(invocation -> {
+            File destFile = invocation.getArgumentAt(2, File.class);
+            try (Writer destFileWriter = mockFileHelper.getWriter(destFile)) {
+                destFileWriter.write("partial");
+            }
+            throw new AmazonClientException("test exception");
+        }).when(mockS3Helper).downloadS3File(eq(TEST_ATTACHMENTS_BUCKET), eq(TEST_ATTACHMENT_ID), any());
+
+        CompletableFuture<String> future = engine.uploadFromS3ToSynapseFileHandleAsync(tmpDir, TEST_PROJECT_ID,
+                TEST_FIELD_DEF, TEST_ATTACHMENT_ID);
+        try {
+            future.join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertTrue(ex.getCause() instanceof AmazonClientException);
+        }
+
+        verify(synapseHelper, never()).createAttachmentFileHandleWithRetry(any(), any(), any(), any());
+        assertTempFilesDeleted();
+    }
+
+    private static FileHandle mockFileHandle() {
+        FileHandle mockFileHandle = mock(FileHandle.class);
+        when(mockFileHandle.getId()).thenReturn(TEST_FILE_HANDLE_ID);
+        return mockFileHandle;
+    }
+
+    private void mockS3Download(String fileContent) throws IOException {
+        doAnswer(invocation -> {
+            // write to file to simulate an actual download
+            File destFile = invocation.getArgumentAt(2, File.class);
+            assertEquals(destFile.getName(), "test-attId.csv");
+            try (Writer destFileWriter = mockFileHelper.getWriter(destFile)) {
+                destFileWriter.write(fileContent);
+            }
+
+            // Java doesn't know that we don't need to return anything.
+            return null;
+        }).when(mockS3Helper).downloadS3File(eq(TEST_ATTACHMENTS_BUCKET), eq(TEST_ATTACHMENT_ID), any());
+    }
+
+    private void assertTempFilesDeleted() {
+        mockFileHelper.deleteDir(tmpDir);
+        assertTrue(mockFileHelper.isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentCaptor;
+import org.sagebionetworks.repo.model.table.ColumnModel;
+import org.sagebionetworks.repo.model.table.ColumnType;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.dynamodb.DynamoScanHelper;
+
+public class ColumnModelIdCacheTest {
+    private static final ColumnModel FOO_COLUMN = makeColumn("foo", ColumnType.STRING, 48L);
+    private static final String FOO_COLUMN_KEY = "foo\tSTRING\t48";
+    private static final ColumnModel BAR_COLUMN = makeColumn("bar", ColumnType.INTEGER, null);
+    private static final String BAR_COLUMN_KEY = "bar\tINTEGER\tnull";
+
+    private ColumnModelIdCache cache;
+    private Table mockDdbTable;
+    private DynamoScanHelper mockScanHelper;
+
+    @BeforeMethod
+    public void setup() {
+        mockDdbTable = mock(Table.class);
+
+        // DDB already has foo.
+        mockScanHelper = mock(DynamoScanHelper.class);
+        when(mockScanHelper.scan(mockDdbTable)).thenReturn(ImmutableList.of(new Item()
+                .withString(ColumnModelIdCache.DDB_KEY_COLUMN_KEY, FOO_COLUMN_KEY)
+                .withString(ColumnModelIdCache.DDB_KEY_COLUMN_ID, "foo-id")));
+
+        cache = new ColumnModelIdCache();
+        cache.setDdbColumnModelIdTable(mockDdbTable);
+        cache.setDdbScanHelper(mockScanHelper);
+    }
+
+    @Test
+    public void loadsOnce() {
+        assertEquals(cache.getColumnId(FOO_COLUMN), "foo-id");
+        assertNull(cache.getColumnId(BAR_COLUMN));
+
+        // Columns with the same name, type, and max length match, even if they're different objects.
+        assertEquals(cache.getColumnId(makeColumn("foo", ColumnType.STRING, 48L)), "foo-id");
+        assertNull(cache.getColumnId(makeColumn("foo", ColumnType.STRING, 100L)));
+
+        verify(mockScanHelper, times(1)).scan(mockDdbTable);
+    }
+
+    @Test
+    public void loadErrorIsRetried() {
+        when(mockScanHelper.scan(mockDdbTable)).thenThrow(new AmazonClientException("test exception"))
+                .thenReturn(ImmutableList.of());
+        assertNull(cache.getColumnId(FOO_COLUMN));
+        assertNull(cache.getColumnId(FOO_COLUMN));
+        assertNull(cache.getColumnId(FOO_COLUMN));
+        verify(mockScanHelper, times(2)).scan(mockDdbTable);
+    }
+
+    @Test
+    public void put() {
+        cache.putColumnId(BAR_COLUMN, "bar-id");
+
+        // validate DDB
+        ArgumentCaptor<Item> itemCaptor = ArgumentCaptor.forClass(Item.class);
+        verify(mockDdbTable).putItem(itemCaptor.capture());
+        Item item = itemCaptor.getValue();
+        assertEquals(item.getString(ColumnModelIdCache.DDB_KEY_COLUMN_KEY), BAR_COLUMN_KEY);
+        assertEquals(item.getString(ColumnModelIdCache.DDB_KEY_COLUMN_ID), "bar-id");
+
+        assertEquals(cache.getColumnId(BAR_COLUMN), "bar-id");
+
+        // Putting the same ID again doesn't write to DDB again.
+        cache.putColumnId(BAR_COLUMN, "bar-id");
+        verify(mockDdbTable, times(1)).putItem(any(Item.class));
+    }
+
+    @Test
+    public void ddbPutError() {
+        when(mockDdbTable.putItem(any(Item.class))).thenThrow(new AmazonClientException("test exception"));
+        cache.putColumnId(BAR_COLUMN, "bar-id");
+
+        // Still in the in-process cache.
+        assertEquals(cache.getColumnId(BAR_COLUMN), "bar-id");
+    }
+
+    @Test
+    public void enumColumnNotCached() {
+        ColumnModel enumColumn = makeColumn("enum", ColumnType.STRING, 10L);
+        enumColumn.setEnumValues(ImmutableList.of("a", "b"));
+
+        cache.putColumnId(enumColumn, "enum-id");
+        assertNull(cache.getColumnId(enumColumn));
+        verify(mockDdbTable, never()).putItem(any(Item.class));
+        verifyZeroInteractions(mockScanHelper);
+    }
+
+    private static ColumnModel makeColumn(String name, ColumnType type, Long maxSize) {
+        ColumnModel column = new ColumnModel();
+        column.setName(name);
+        column.setColumnType(type);
+        column.setMaximumSize(maxSize);
+        return column;
+    }
+}
@@ -0,0 +1,184 @@
+package org.sagebionetworks.bridge.exporter.synapse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
+
+public class SynapseAsyncJobPollerTest {
+    private List<Long> delayList;
+    private SynapseAsyncJobPoller poller;
+
+    @BeforeMethod
+    public void setup() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(SynapseAsyncJobPoller.CONFIG_KEY_INITIAL_DELAY_MILLIS)).thenReturn(100);
+        when(mockConfig.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_DELAY_MILLIS)).thenReturn(1000);
+        when(mockConfig.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_CHECKS)).thenReturn(6);
+
+        // Mock scheduler runs checks right away and records the requested delays.
+        delayList = new ArrayList<>();
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        when(mockExecutor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(
+                invocation -> {
+                    delayList.add(invocation.getArgumentAt(1, Long.class));
+                    invocation.getArgumentAt(0, Runnable.class).run();
+                    return null;
+                });
+
+        poller = new SynapseAsyncJobPoller();
+        poller.setConfig(mockConfig);
+        poller.setExecutor(mockExecutor);
+    }
+
+    @Test
+    public void completesWithBackoff() throws Exception {
+        // Not ready for 4 checks, then done.
+        AtomicInteger numChecks = new AtomicInteger();
+        String result = "job result";
+        CompletableFuture<String> future = poller.poll("test-job", () -> numChecks.incrementAndGet() < 5 ? null :
+                result);
+
+        assertSame(future.get(), result);
+        assertEquals(delayList, ImmutableList.of(100L, 200L, 400L, 800L, 1000L));
+
+        assertEquals(poller.getNumJobsInFlight(), 0);
+        assertEquals(poller.getNumJobsCompleted(), 1);
+        assertEquals(poller.getNumChecks(), 5);
+    }
+
+    @Test
+    public void checkThrows() throws Exception {
+        SynapseServerException checkEx = new SynapseServerException(503, "test exception");
+        CompletableFuture<String> future = poller.poll("test-job", () -> {
+            throw checkEx;
+        });
+
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(ex.getCause(), checkEx);
+        }
+        assertEquals(poller.getNumJobsFailed(), 1);
+        assertEquals(poller.getNumJobsCompleted(), 0);
+    }
+
+    @Test
+    public void retryableCheckErrorIsRescheduled() throws Exception {
+        // First check fails with a retryable error, second check is done.
+        AtomicInteger numChecks = new AtomicInteger();
+        String result = "job result";
+        CompletableFuture<String> future = poller.poll("test-job", () -> {
+            if (numChecks.incrementAndGet() == 1) {
+                throw new SynapseServerException(500, "test exception");
+            }
+            return result;
+        });
+
+        assertSame(future.get(), result);
+        assertEquals(delayList, ImmutableList.of(100L, 200L));
+        assertEquals(poller.getNumChecks(), 2);
+        assertEquals(poller.getNumJobsCompleted(), 1);
+    }
+
+    @Test
+    public void retryableCheckErrorOnLastCheck() throws Exception {
+        SynapseServerException checkEx = new SynapseServerException(500, "test exception");
+        CompletableFuture<String> future = poller.poll("test-job", () -> {
+            throw checkEx;
+        });
+
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(ex.getCause(), checkEx);
+        }
+        assertEquals(poller.getNumChecks(), 6);
+        assertEquals(poller.getNumJobsFailed(), 1);
+    }
+
+    @Test
+    public void rateLimitedCheckWaitsForPermit() throws Exception {
+        // No permit for the first try. Permits are 250ms apart.
+        AdaptiveRateLimiter mockRateLimiter = mock(AdaptiveRateLimiter.class);
+        when(mockRateLimiter.tryAcquire()).thenReturn(false, true);
+        when(mockRateLimiter.getRate()).thenReturn(4.0);
+
+        AtomicInteger numChecks = new AtomicInteger();
+        String result = "job result";
+        CompletableFuture<String> future = poller.poll("test-job", mockRateLimiter,
+                () -> numChecks.incrementAndGet() < 2 ? null : result);
+
+        // Waiting for the permit doesn't count as a check or increase the backoff.
+        assertSame(future.get(), result);
+        assertEquals(delayList, ImmutableList.of(100L, 250L, 200L));
+        assertEquals(numChecks.get(), 2);
+        assertEquals(poller.getNumChecks(), 2);
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<String> future = poller.poll("test-job", () -> null);
+
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertEquals(delayList.size(), 6);
+        assertEquals(poller.getNumChecks(), 6);
+        assertEquals(poller.getNumJobsTimedOut(), 1);
+        assertEquals(poller.getNumJobsInFlight(), 0);
+    }
+
+    @Test
+    public void cancelledJobIsNotChecked() throws Exception {
+        // Scheduler that never runs anything, so we can cancel before the first check.
+        ScheduledExecutorService mockExecutor = mock(ScheduledExecutorService.class);
+        List<Runnable> checkList = new ArrayList<>();
+        when(mockExecutor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(
+                invocation -> {
+                    checkList.add(invocation.getArgumentAt(0, Runnable.class));
+                    return null;
+                });
+        poller.setExecutor(mockExecutor);
+
+        AtomicInteger numChecks = new AtomicInteger();
+        CompletableFuture<String> future = poller.poll("test-job", () -> {
+            numChecks.incrementAndGet();
+            return null;
+        });
+        assertFalse(future.isDone());
+        future.cancel(false);
+
+        assertEquals(checkList.size(), 1);
+        checkList.get(0).run();
+        assertEquals(numChecks.get(), 0);
+    }
+}
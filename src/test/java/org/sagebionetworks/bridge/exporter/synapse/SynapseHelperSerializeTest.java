@@ -187,10 +187,9 @@ public class SynapseHelperSerializeTest {
         // mock config
         Config mockConfig = mock(Config.class);
         when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET)).thenReturn(TEST_ATTACHMENTS_BUCKET);
-        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS)).thenReturn(0);
-        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS)).thenReturn(2);
         // Set a very high number for rate limiting, since we don't want the rate limiter to interfere with our tests.
         when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
         when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE)).thenReturn(
                 1000);
 
@@ -1,18 +1,22 @@
 package org.sagebionetworks.bridge.exporter.synapse;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.util.List;
@@ -21,7 +25,9 @@ import java.util.Set;
 import com.google.common.collect.ImmutableList;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseClientException;
 import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+import org.sagebionetworks.client.exceptions.SynapseServerException;
 import org.sagebionetworks.repo.model.AccessControlList;
 import org.sagebionetworks.repo.model.ResourceAccess;
 import org.sagebionetworks.repo.model.file.FileHandle;
@@ -39,7 +45,9 @@ import org.sagebionetworks.repo.model.table.UploadToTableResult;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadFieldType;
 
@@ -133,6 +141,35 @@ public class SynapseHelperTest {
         assertEquals(SynapseHelper.isCompatibleColumn(oldColumn, newColumn), expected);
     }
 
+    @Test
+    public void computeColumnFingerprint() {
+        ColumnModel fooColumn = makeFingerprintColumn("foo", ColumnType.STRING, 100L, null);
+        ColumnModel barColumn = makeFingerprintColumn("bar", ColumnType.INTEGER, null, null);
+        String fingerprint = SynapseHelper.computeColumnFingerprint(ImmutableList.of(fooColumn, barColumn));
+
+        // Same columns give the same fingerprint. Column IDs are ignored.
+        assertEquals(SynapseHelper.computeColumnFingerprint(ImmutableList.of(
+                makeFingerprintColumn("foo", ColumnType.STRING, 100L, "foo-id"),
+                makeFingerprintColumn("bar", ColumnType.INTEGER, null, "bar-id"))), fingerprint);
+
+        // Changing the order, type, or max length changes the fingerprint.
+        assertFalse(SynapseHelper.computeColumnFingerprint(ImmutableList.of(barColumn, fooColumn)).equals(
+                fingerprint));
+        assertFalse(SynapseHelper.computeColumnFingerprint(ImmutableList.of(fooColumn,
+                makeFingerprintColumn("bar", ColumnType.DOUBLE, null, null))).equals(fingerprint));
+        assertFalse(SynapseHelper.computeColumnFingerprint(ImmutableList.of(
+                makeFingerprintColumn("foo", ColumnType.STRING, 200L, null), barColumn)).equals(fingerprint));
+    }
+
+    private static ColumnModel makeFingerprintColumn(String name, ColumnType type, Long maxSize, String id) {
+        ColumnModel column = new ColumnModel();
+        column.setName(name);
+        column.setColumnType(type);
+        column.setMaximumSize(maxSize);
+        column.setId(id);
+        return column;
+    }
+
     // branch coverage
     @Test(expectedExceptions = BridgeExporterNonRetryableException.class, expectedExceptionsMessageRegExp =
             "old column my-string has type STRING and no max length")
@@ -198,6 +235,107 @@ public class SynapseHelperTest {
         verify(mockSynapseClient).appendRowsToTable(same(rowset), anyLong(), eq("test-table-id"));
     }
 
+    @DataProvider(name = "isThrottledProvider")
+    public Object[][] isThrottledProvider() {
+        // { exception, expected }
+        return new Object[][] {
+                { new SynapseServerException(429), true },
+                { new SynapseServerException(503), false },
+                { new SynapseServerException(500), false },
+                { new SynapseClientException(), false },
+                { new IllegalArgumentException(), false },
+                { null, false },
+        };
+    }
+
+    @Test(dataProvider = "isThrottledProvider")
+    public void isThrottled(Exception exception, boolean expected) {
+        assertEquals(SynapseHelper.isThrottled(exception), expected);
+    }
+
+    @Test
+    public void rateBudgetSharedAcrossLimiters() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(5);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(10);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_MIN_PER_SECOND)).thenReturn(2);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_MAX_PER_SECOND)).thenReturn(20);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_INCREASE_PER_SECOND)).thenReturn(1);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_DECREASE_PERCENT)).thenReturn(50);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE))
+                .thenReturn(24);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setConfig(mockConfig);
+
+        // The first limiter is the shared budget. Every other limiter draws from it, and can use the whole budget.
+        List<AdaptiveRateLimiter> limiterList = synapseHelper.getSharedRateLimiterList();
+        AdaptiveRateLimiter sharedLimiter = limiterList.get(0);
+        assertNull(sharedLimiter.getSharedLimiter());
+        assertEquals(sharedLimiter.getRate(), 10.0, 0.001);
+        for (AdaptiveRateLimiter oneLimiter : limiterList.subList(1, limiterList.size())) {
+            assertSame(oneLimiter.getSharedLimiter(), sharedLimiter);
+            assertEquals(oneLimiter.getRate(), 10.0, 0.001);
+        }
+
+        // Async job checks have their own allowance, outside the shared budget.
+        AdaptiveRateLimiter asyncPollLimiter = synapseHelper.getAsyncPollRateLimiter();
+        assertNull(asyncPollLimiter.getSharedLimiter());
+        assertEquals(asyncPollLimiter.getRate(), 5.0, 0.001);
+    }
+
+    @Test
+    public void throttledCallIsRethrown() throws Exception {
+        SynapseServerException throttleEx = new SynapseServerException(429, "test exception");
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.createACL(any())).thenThrow(throttleEx);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        try {
+            synapseHelper.createAclWithRetry(new AccessControlList());
+            fail("expected exception");
+        } catch (SynapseServerException ex) {
+            assertSame(ex, throttleEx);
+        }
+
+        // Throttling is retried once.
+        verify(mockSynapseClient, times(2)).createACL(any());
+    }
+
+    @Test
+    public void serverErrorIsRetried() throws Exception {
+        AccessControlList outputAcl = new AccessControlList();
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.createACL(any())).thenThrow(new SynapseServerException(500, "test exception"))
+                .thenReturn(outputAcl);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        assertSame(synapseHelper.createAclWithRetry(new AccessControlList()), outputAcl);
+        verify(mockSynapseClient, times(2)).createACL(any());
+    }
+
+    @Test
+    public void synapseDownIsNotRetried() throws Exception {
+        SynapseServerException synapseDownEx = new SynapseServerException(503, "test exception");
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.createACL(any())).thenThrow(synapseDownEx);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        try {
+            synapseHelper.createAclWithRetry(new AccessControlList());
+            fail("expected exception");
+        } catch (SynapseServerException ex) {
+            assertSame(ex, synapseDownEx);
+        }
+        verify(mockSynapseClient, times(1)).createACL(any());
+    }
+
     @Test
     public void createAcl() throws Exception {
         // mock Synapse Client - Unclear whether Synapse client just passes back the input ACL or if it creates a new
@@ -231,6 +369,59 @@ public class SynapseHelperTest {
         assertSame(retVal, outputColumnModelList);
     }
 
+    @Test
+    public void createColumnModelsWithCache() throws Exception {
+        ColumnModel fooColumn = makeFingerprintColumn("foo", ColumnType.STRING, 48L, null);
+        ColumnModel barColumn = makeFingerprintColumn("bar", ColumnType.INTEGER, null, null);
+        ColumnModel bazColumn = makeFingerprintColumn("baz", ColumnType.DATE, null, null);
+
+        // Bar was created before. Foo and baz are new.
+        ColumnModelIdCache mockCache = mock(ColumnModelIdCache.class);
+        when(mockCache.getColumnId(barColumn)).thenReturn("bar-id");
+
+        ColumnModel createdFooColumn = makeFingerprintColumn("foo", ColumnType.STRING, 48L, "foo-id");
+        ColumnModel createdBazColumn = makeFingerprintColumn("baz", ColumnType.DATE, null, "baz-id");
+
+        SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setColumnModelIdCache(mockCache);
+        doReturn(ImmutableList.of(createdFooColumn, createdBazColumn)).when(synapseHelper)
+                .createColumnModelsWithRetry(ImmutableList.of(fooColumn, bazColumn));
+
+        // execute and validate - Results are in the original order.
+        List<ColumnModel> retVal = synapseHelper.createColumnModelsWithCache(ImmutableList.of(fooColumn, barColumn,
+                bazColumn));
+        assertEquals(retVal.size(), 3);
+        assertSame(retVal.get(0), createdFooColumn);
+        assertEquals(retVal.get(1).getId(), "bar-id");
+        assertEquals(retVal.get(1).getName(), "bar");
+        assertEquals(retVal.get(1).getColumnType(), ColumnType.INTEGER);
+        assertSame(retVal.get(2), createdBazColumn);
+
+        // The caller's column isn't modified.
+        assertNull(barColumn.getId());
+
+        // New columns are saved to the cache.
+        verify(mockCache).putColumnId(fooColumn, "foo-id");
+        verify(mockCache).putColumnId(bazColumn, "baz-id");
+    }
+
+    @Test
+    public void createColumnModelsAllCached() throws Exception {
+        ColumnModel fooColumn = makeFingerprintColumn("foo", ColumnType.STRING, 48L, null);
+        ColumnModelIdCache mockCache = mock(ColumnModelIdCache.class);
+        when(mockCache.getColumnId(fooColumn)).thenReturn("foo-id");
+
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setColumnModelIdCache(mockCache);
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        List<ColumnModel> retVal = synapseHelper.createColumnModelsWithCache(ImmutableList.of(fooColumn));
+        assertEquals(retVal.size(), 1);
+        assertEquals(retVal.get(0).getId(), "foo-id");
+        verifyZeroInteractions(mockSynapseClient);
+    }
+
     @Test
     public void createFileHandle() throws Exception {
         // mock Synapse Client
@@ -283,7 +474,7 @@ public class SynapseHelperTest {
 
         List<ColumnModel> createdColumnList = ImmutableList.of(createdFooColumn, createdBarColumn);
 
-        doReturn(createdColumnList).when(synapseHelper).createColumnModelsWithRetry(columnList);
+        doReturn(createdColumnList).when(synapseHelper).createColumnModelsWithCache(columnList);
 
         // mock create table call - We only care about the table ID, so don't bother instantiating the rest.
         TableEntity createdTable = new TableEntity();
@@ -427,7 +618,7 @@ public class SynapseHelperTest {
         synapseHelper.setSynapseClient(mockSynapseClient);
 
         // execute and validate
-        List<TableUpdateResponse> retVal = synapseHelper.getTableTransactionResultWithRetry("job-token", "table-id");
+        List<TableUpdateResponse> retVal = synapseHelper.getTableTransactionResult("job-token", "table-id");
         assertSame(retVal, dummyResponseList);
     }
 
@@ -442,7 +633,7 @@ public class SynapseHelperTest {
         synapseHelper.setSynapseClient(mockSynapseClient);
 
         // execute and validate
-        List<TableUpdateResponse> retVal = synapseHelper.getTableTransactionResultWithRetry("job-token", "table-id");
+        List<TableUpdateResponse> retVal = synapseHelper.getTableTransactionResult("job-token", "table-id");
         assertNull(retVal);
     }
 
@@ -11,6 +11,8 @@ import static org.testng.Assert.assertSame;
 import static org.testng.Assert.fail;
 
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import com.google.common.collect.ImmutableList;
 import org.mockito.ArgumentCaptor;
@@ -21,6 +23,7 @@ import org.sagebionetworks.repo.model.table.TableSchemaChangeResponse;
 import org.sagebionetworks.repo.model.table.TableUpdateRequest;
 import org.sagebionetworks.repo.model.table.TableUpdateResponse;
 import org.sagebionetworks.repo.model.table.UploadToTableResult;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -35,16 +38,20 @@ public class SynapseHelperUpdateTableColumnsTest {
 
     private ArgumentCaptor<List> changeListCaptor;
     private SynapseClient mockSynapseClient;
+    private ScheduledExecutorService pollerExecutor;
     private SynapseHelper synapseHelper;
 
     @BeforeMethod
     public void setup() throws Exception {
+        pollerExecutor = Executors.newSingleThreadScheduledExecutor();
+
         // mock config
         Config config = mock(Config.class);
-        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS)).thenReturn(0);
-        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS)).thenReturn(2);
+        when(config.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_DELAY_MILLIS)).thenReturn(0);
+        when(config.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_CHECKS)).thenReturn(2);
         // Set a very high number for rate limiting, since we don't want the rate limiter to interfere with our tests.
         when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
         when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE)).thenReturn(1000);
 
         // mock Synapse Client and startTableTransactionJob
@@ -58,6 +65,17 @@ public class SynapseHelperUpdateTableColumnsTest {
         synapseHelper = new SynapseHelper();
         synapseHelper.setConfig(config);
         synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // Async job poller, with no delay between checks.
+        SynapseAsyncJobPoller asyncJobPoller = new SynapseAsyncJobPoller();
+        asyncJobPoller.setConfig(config);
+        asyncJobPoller.setExecutor(pollerExecutor);
+        synapseHelper.setAsyncJobPoller(asyncJobPoller);
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        pollerExecutor.shutdownNow();
     }
 
     @Test
@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.exporter.synapse;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -14,18 +15,30 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.Writer;
 
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import org.apache.http.client.methods.HttpGet;
+import org.sagebionetworks.client.SynapseClient;
 import org.sagebionetworks.client.exceptions.SynapseClientException;
 import org.sagebionetworks.client.exceptions.SynapseException;
 import org.sagebionetworks.repo.model.file.FileHandle;
+import org.sagebionetworks.repo.model.file.S3FileHandle;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.util.AdaptiveRateLimiter;
 import org.sagebionetworks.bridge.exporter.util.BridgeExporterUtil;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
@@ -33,7 +46,8 @@ import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadFieldType;
 import org.sagebionetworks.bridge.s3.S3Helper;
 
-// Tests for SynapseHelper.uploadFromS3ToSynapseFileHandle() and related methods.
+// Tests for SynapseHelper.uploadFromS3ToSynapseFileHandle(), relayAttachmentToSynapseFileHandleWithRetry(), and related
+// methods.
 @SuppressWarnings("unchecked")
 public class SynapseHelperUploadAttachmentTest {
     private static final String TEST_ATTACHMENT_ID = "attId";
@@ -153,7 +167,9 @@ public class SynapseHelperUploadAttachmentTest {
         File tmpDir = mockFileHelper.createTempDir();
 
         // set up other mocks
+        AttachmentFileHandleCache mockAttachmentFileHandleCache = mock(AttachmentFileHandleCache.class);
         SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setAttachmentFileHandleCache(mockAttachmentFileHandleCache);
         synapseHelper.setConfig(mockConfig());
         synapseHelper.setFileHelper(mockFileHelper);
         synapseHelper.setS3Helper(mockS3Helper(mockFileHelper, expectedFilename, DUMMY_FILE_CONTENT));
@@ -180,12 +196,41 @@ public class SynapseHelperUploadAttachmentTest {
         String fileHandleId = synapseHelper.uploadFromS3ToSynapseFileHandle(tmpDir, TEST_PROJECT_ID,
                 fieldDef, TEST_ATTACHMENT_ID);
         assertEquals(fileHandleId, TEST_FILE_HANDLE_ID);
+        verify(mockAttachmentFileHandleCache).putFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID,
+                TEST_FILE_HANDLE_ID);
 
         // validate that SynapseHelper cleans up after itself
         mockFileHelper.deleteDir(tmpDir);
         assertTrue(mockFileHelper.isEmpty());
     }
 
+    @Test
+    public void uploadCachedAttachment() throws Exception {
+        // Attachment was already uploaded to this project.
+        AttachmentFileHandleCache mockAttachmentFileHandleCache = mock(AttachmentFileHandleCache.class);
+        when(mockAttachmentFileHandleCache.getFileHandleId(TEST_PROJECT_ID, TEST_ATTACHMENT_ID)).thenReturn(
+                TEST_FILE_HANDLE_ID);
+
+        S3Helper mockS3Helper = mock(S3Helper.class);
+
+        SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setAttachmentFileHandleCache(mockAttachmentFileHandleCache);
+        synapseHelper.setConfig(mockConfig());
+        synapseHelper.setFileHelper(new InMemoryFileHelper());
+        synapseHelper.setS3Helper(mockS3Helper);
+
+        // execute and validate
+        String fileHandleId = synapseHelper.uploadFromS3ToSynapseFileHandle(mock(File.class), TEST_PROJECT_ID,
+                new UploadFieldDefinition().name("test.blob").type(UploadFieldType.ATTACHMENT_BLOB),
+                TEST_ATTACHMENT_ID);
+        assertEquals(fileHandleId, TEST_FILE_HANDLE_ID);
+
+        // Nothing is downloaded or uploaded.
+        verify(mockS3Helper, never()).downloadS3File(any(), any(), any());
+        verify(synapseHelper, never()).createFileHandleWithRetry(any(), any(), any());
+        verify(mockAttachmentFileHandleCache, never()).putFileHandleId(any(), any(), any());
+    }
+
     @Test
     public void uploadEmptyAttachment() throws Exception {
         // mock (in-memory) file helper
@@ -193,7 +238,9 @@ public class SynapseHelperUploadAttachmentTest {
         File tmpDir = mockFileHelper.createTempDir();
 
         // set up other mocks
+        AttachmentFileHandleCache mockAttachmentFileHandleCache = mock(AttachmentFileHandleCache.class);
         SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setAttachmentFileHandleCache(mockAttachmentFileHandleCache);
         synapseHelper.setConfig(mockConfig());
         synapseHelper.setFileHelper(mockFileHelper);
         synapseHelper.setS3Helper(mockS3Helper(mockFileHelper, "test-attId.blob", ""));
@@ -219,7 +266,9 @@ public class SynapseHelperUploadAttachmentTest {
         File tmpDir = mockFileHelper.createTempDir();
 
         // set up other mocks
+        AttachmentFileHandleCache mockAttachmentFileHandleCache = mock(AttachmentFileHandleCache.class);
         SynapseHelper synapseHelper = spy(new SynapseHelper());
+        synapseHelper.setAttachmentFileHandleCache(mockAttachmentFileHandleCache);
         synapseHelper.setConfig(mockConfig());
         synapseHelper.setFileHelper(mockFileHelper);
         synapseHelper.setS3Helper(mockS3Helper(mockFileHelper, "test-attId.blob", DUMMY_FILE_CONTENT));
@@ -244,12 +293,99 @@ public class SynapseHelperUploadAttachmentTest {
         assertTrue(mockFileHelper.isEmpty());
     }
 
+    @Test
+    public void getAttachmentSize() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(42);
+        AmazonS3Client mockS3Client = mock(AmazonS3Client.class);
+        when(mockS3Client.getObjectMetadata(TEST_ATTACHMENTS_BUCKET, TEST_ATTACHMENT_ID)).thenReturn(metadata);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setConfig(mockConfig());
+        synapseHelper.setS3Client(mockS3Client);
+        assertEquals(synapseHelper.getAttachmentSize(TEST_ATTACHMENT_ID), 42);
+    }
+
+    @Test
+    public void relayAttachment() throws Exception {
+        // mock S3 client
+        byte[] content = DUMMY_FILE_CONTENT.getBytes(Charsets.UTF_8);
+        S3ObjectInputStream s3Stream = spy(new S3ObjectInputStream(new ByteArrayInputStream(content),
+                new HttpGet()));
+        AmazonS3Client mockS3Client = mockS3ClientGetObject(s3Stream);
+
+        // mock Synapse client - Validate that the stream has the attachment content.
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.multipartUpload(any(InputStream.class), eq((long) content.length), eq("foo-attId.csv"),
+                eq("text/csv"), any(), any(), any())).thenAnswer(invocation -> {
+                    InputStream relayStream = invocation.getArgumentAt(0, InputStream.class);
+                    assertEquals(new String(ByteStreams.toByteArray(relayStream), Charsets.UTF_8),
+                            DUMMY_FILE_CONTENT);
+
+                    S3FileHandle fileHandle = new S3FileHandle();
+                    fileHandle.setId(TEST_FILE_HANDLE_ID);
+                    return fileHandle;
+                });
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setConfig(mockConfig());
+        synapseHelper.setS3Client(mockS3Client);
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // execute and validate
+        FileHandle fileHandle = synapseHelper.relayAttachmentToSynapseFileHandleWithRetry(TEST_ATTACHMENT_ID,
+                content.length, "foo-attId.csv", "text/csv", TEST_PROJECT_ID,
+                new AdaptiveRateLimiter("test", 1000.0));
+        assertEquals(fileHandle.getId(), TEST_FILE_HANDLE_ID);
+
+        // S3 stream is closed, not aborted.
+        verify(s3Stream).close();
+        verify(s3Stream, never()).abort();
+    }
+
+    @Test
+    public void relayAttachmentFailureAbortsS3Stream() throws Exception {
+        byte[] content = DUMMY_FILE_CONTENT.getBytes(Charsets.UTF_8);
+        S3ObjectInputStream s3Stream = spy(new S3ObjectInputStream(new ByteArrayInputStream(content),
+                new HttpGet()));
+        AmazonS3Client mockS3Client = mockS3ClientGetObject(s3Stream);
+
+        SynapseClient mockSynapseClient = mock(SynapseClient.class);
+        when(mockSynapseClient.multipartUpload(any(InputStream.class), eq((long) content.length), eq("foo-attId.csv"),
+                eq("text/csv"), any(), any(), any())).thenThrow(SynapseClientException.class);
+
+        SynapseHelper synapseHelper = new SynapseHelper();
+        synapseHelper.setConfig(mockConfig());
+        synapseHelper.setS3Client(mockS3Client);
+        synapseHelper.setSynapseClient(mockSynapseClient);
+
+        // execute and validate
+        try {
+            synapseHelper.relayAttachmentToSynapseFileHandleWithRetry(TEST_ATTACHMENT_ID, content.length,
+                    "foo-attId.csv", "text/csv", TEST_PROJECT_ID, new AdaptiveRateLimiter("test", 1000.0));
+            fail("expected exception");
+        } catch (SynapseException ex) {
+            // expected exception
+        }
+        verify(s3Stream, atLeastOnce()).abort();
+    }
+
+    private static AmazonS3Client mockS3ClientGetObject(S3ObjectInputStream s3Stream) {
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(s3Stream);
+
+        AmazonS3Client mockS3Client = mock(AmazonS3Client.class);
+        when(mockS3Client.getObject(TEST_ATTACHMENTS_BUCKET, TEST_ATTACHMENT_ID)).thenReturn(s3Object);
+        return mockS3Client;
+    }
+
     private static Config mockConfig() {
         Config mockConfig = mock(Config.class);
         when(mockConfig.get(BridgeExporterUtil.CONFIG_KEY_ATTACHMENT_S3_BUCKET)).thenReturn(TEST_ATTACHMENTS_BUCKET);
 
         // Set a very high number for rate limiting, since we don't want the rate limiter to interfere with our tests.
         when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
         when(mockConfig.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE)).thenReturn(
                 1000);
 
@@ -11,6 +11,8 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.SynapseClient;
@@ -18,6 +20,7 @@ import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
 import org.sagebionetworks.repo.model.file.FileHandle;
 import org.sagebionetworks.repo.model.table.CsvTableDescriptor;
 import org.sagebionetworks.repo.model.table.UploadToTableResult;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -34,20 +37,24 @@ public class SynapseHelperUploadTsvToTableTest {
 
     private File mockTsvFile;
     private SynapseClient mockSynapseClient;
+    private ScheduledExecutorService pollerExecutor;
     private SynapseHelper synapseHelper;
     private ArgumentCaptor<CsvTableDescriptor> tableDescCaptor;
 
     @BeforeMethod
     public void before() throws Exception {
+        pollerExecutor = Executors.newSingleThreadScheduledExecutor();
+
         // mock TSV
         mockTsvFile = mock(File.class);
 
         // mock config
         Config config = mock(Config.class);
-        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_INTERVAL_MILLIS)).thenReturn(0);
-        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_TIMEOUT_LOOPS)).thenReturn(2);
+        when(config.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_DELAY_MILLIS)).thenReturn(0);
+        when(config.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_CHECKS)).thenReturn(2);
         // Set a very high number for rate limiting, since we don't want the rate limiter to interfere with our tests.
         when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
+        when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_ASYNC_POLL_RATE_LIMIT_PER_SECOND)).thenReturn(1000);
         when(config.getInt(SynapseHelper.CONFIG_KEY_SYNAPSE_GET_COLUMN_MODELS_RATE_LIMIT_PER_MINUTE)).thenReturn(1000);
 
         // mock Synapse Client - Mock everything except uploadCsvToTableAsyncGet(), which depends on the test.
@@ -62,6 +69,12 @@ public class SynapseHelperUploadTsvToTableTest {
         synapseHelper.setConfig(config);
         synapseHelper.setSynapseClient(mockSynapseClient);
 
+        // Async job poller, with no delay between checks.
+        SynapseAsyncJobPoller asyncJobPoller = new SynapseAsyncJobPoller();
+        asyncJobPoller.setConfig(config);
+        asyncJobPoller.setExecutor(pollerExecutor);
+        synapseHelper.setAsyncJobPoller(asyncJobPoller);
+
         // Spy createFileHandle. This is tested somewhere else, and spying it here means we don't have to change tests
         // in 3 different places when we change the createFileHandle implementation.
         FileHandle mockFileHandle = mock(FileHandle.class);
@@ -70,6 +83,11 @@ public class SynapseHelperUploadTsvToTableTest {
                 "text/tab-separated-values", TEST_PROJECT_ID);
     }
 
+    @AfterMethod
+    public void cleanup() {
+        pollerExecutor.shutdownNow();
+    }
+
     @Test
     public void normalCase() throws Exception {
         // mock synapseClient.uploadCsvToTableAsyncGet() - first loop not ready, second loop has results
@@ -13,6 +13,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import com.google.common.collect.ImmutableList;
 import org.sagebionetworks.client.SynapseClient;
@@ -22,14 +24,38 @@ import org.sagebionetworks.repo.model.table.QueryResultBundle;
 import org.sagebionetworks.repo.model.table.Row;
 import org.sagebionetworks.repo.model.table.RowSet;
 import org.sagebionetworks.repo.model.table.SelectColumn;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.exporter.retry.RetryPolicy;
+
 @SuppressWarnings("unchecked")
 public class SynapseTableIteratorTest {
     private static final List<SelectColumn> DUMMY_HEADER_LIST = ImmutableList.of();
     private static final String TEST_SYNAPSE_TABLE_ID = "test-syn001";
 
+    private SynapseAsyncJobPoller asyncJobPoller;
+    private ScheduledExecutorService pollerExecutor;
+
+    @BeforeClass
+    public void setupPoller() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(SynapseAsyncJobPoller.CONFIG_KEY_MAX_CHECKS)).thenReturn(2);
+
+        pollerExecutor = Executors.newSingleThreadScheduledExecutor();
+        asyncJobPoller = new SynapseAsyncJobPoller();
+        asyncJobPoller.setConfig(mockConfig);
+        asyncJobPoller.setExecutor(pollerExecutor);
+    }
+
+    @AfterClass
+    public void cleanupPoller() {
+        pollerExecutor.shutdownNow();
+    }
+
     @DataProvider(name = "dataProvider")
     public Iterator<Object[]> dataProvider() {
         List<Object[]> testParamList = new ArrayList<>();
@@ -113,7 +139,8 @@ public class SynapseTableIteratorTest {
         }
 
         // set up iterator, execute, and validate
-        SynapseTableIterator tableIter = new SynapseTableIterator(mockSynapseClient, null, TEST_SYNAPSE_TABLE_ID);
+        SynapseTableIterator tableIter = new SynapseTableIterator(asyncJobPoller, mockSynapseClient,
+                new RetryPolicy("synapseTableQuery", 1, 0, 0), null, TEST_SYNAPSE_TABLE_ID);
         for (int i = 0; i < numRows; i++) {
             assertTrue(tableIter.hasNext());
             // extra call to hasNext() just to make sure it doesn't advance the iterator
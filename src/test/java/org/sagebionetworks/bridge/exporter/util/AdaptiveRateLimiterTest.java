@@ -0,0 +1,126 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AdaptiveRateLimiterTest {
+    private static final double DELTA = 0.001;
+
+    private long nowMillis;
+
+    @BeforeMethod
+    public void setup() {
+        nowMillis = 1000000;
+        DateTimeUtils.setCurrentMillisFixed(nowMillis);
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void fixedUntilConfigured() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 10.0);
+        limiter.onSuccess();
+        assertEquals(limiter.getRate(), 10.0, DELTA);
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 10.0, DELTA);
+        assertEquals(limiter.getNumThrottles(), 1);
+    }
+
+    @Test
+    public void additiveIncrease() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 10.0);
+        limiter.configure(10.0, 2.0, 12.0, 1.0, 0.5);
+
+        // 10 successes at 10 per second is about a second of calls, which adds about 1 per second.
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(limiter.getRate(), 11.0, 0.05);
+
+        // Rate never goes above the max.
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(limiter.getRate(), 12.0, DELTA);
+    }
+
+    @Test
+    public void multiplicativeDecrease() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 10.0);
+        limiter.configure(10.0, 2.0, 20.0, 1.0, 0.5);
+
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 5.0, DELTA);
+
+        // Throttles in the same burst don't lower the rate again.
+        limiter.onThrottle();
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 5.0, DELTA);
+        assertEquals(limiter.getNumThrottles(), 3);
+
+        // A second later, it does. Rate never goes below the min.
+        advanceMillis(1000);
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 2.5, DELTA);
+
+        advanceMillis(1000);
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 2.0, DELTA);
+    }
+
+    @Test
+    public void boundsIncludeInitialRate() {
+        // Unconfigured min and max don't let the rate move.
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 10.0);
+        limiter.configure(10.0, 0.0, 0.0, 1.0, 0.5);
+        limiter.onThrottle();
+        limiter.onSuccess();
+        assertEquals(limiter.getRate(), 10.0, DELTA);
+    }
+
+    @Test
+    public void sharedLimiterSignaled() {
+        AdaptiveRateLimiter sharedLimiter = new AdaptiveRateLimiter("shared", 10.0);
+        sharedLimiter.configure(10.0, 2.0, 20.0, 1.0, 0.5);
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 10.0, sharedLimiter);
+        limiter.configure(10.0, 2.0, 20.0, 1.0, 0.5);
+
+        // Successes raise both rates.
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(limiter.getRate(), 11.0, 0.05);
+        assertEquals(sharedLimiter.getRate(), 11.0, 0.05);
+
+        // Throttles lower both rates.
+        limiter.onThrottle();
+        assertEquals(limiter.getRate(), 5.5, 0.05);
+        assertEquals(sharedLimiter.getRate(), 5.5, 0.05);
+        assertEquals(limiter.getNumThrottles(), 1);
+        assertEquals(sharedLimiter.getNumThrottles(), 1);
+    }
+
+    @Test
+    public void sharedLimiterPermits() {
+        // A limiter with its own permits still has to wait for the shared budget.
+        AdaptiveRateLimiter sharedLimiter = new AdaptiveRateLimiter("shared", 1.0);
+        AdaptiveRateLimiter limiter1 = new AdaptiveRateLimiter("test1", 1.0, sharedLimiter);
+        AdaptiveRateLimiter limiter2 = new AdaptiveRateLimiter("test2", 1.0, sharedLimiter);
+        assertTrue(limiter1.tryAcquire());
+        assertFalse(limiter2.tryAcquire());
+    }
+
+    private void advanceMillis(long millis) {
+        nowMillis += millis;
+        DateTimeUtils.setCurrentMillisFixed(nowMillis);
+    }
+}
@@ -5,7 +5,6 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +13,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
 import org.sagebionetworks.bridge.exporter.synapse.ColumnDefinition;
 import org.sagebionetworks.bridge.exporter.synapse.TransferMethod;
+import org.sagebionetworks.bridge.exporter.worker.TsvRow;
+import org.sagebionetworks.bridge.exporter.worker.TsvRowLayout;
 import org.sagebionetworks.repo.model.table.ColumnModel;
 import org.sagebionetworks.repo.model.table.ColumnType;
 import org.testng.annotations.DataProvider;
@@ -277,17 +278,17 @@ public class BridgeExporterUtilTest {
                 .withString("truncate-me", "truncate-me-value");
 
         // execute and validate
-        Map<String, String> rowMap = new HashMap<>();
-        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(rowMap, ddbRecord, columnDefinitionList,
+        TsvRow row = new TsvRow(new TsvRowLayout(ImmutableList.of("my-string", "my-string-set", "my-date",
+                "my-large-text", "renamed-column", "sanitize-me", "truncate-me")));
+        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(row, ddbRecord, columnDefinitionList,
                 "record-id");
-        assertEquals(rowMap.size(), 7);
-        assertEquals("my-string-value", rowMap.get("my-string"));
-        assertEquals("val1,val2", rowMap.get("my-string-set"));
-        assertEquals("1234567890", rowMap.get("my-date"));
-        assertEquals("my-large-text-value", rowMap.get("my-large-text"));
-        assertEquals("ddb-column-value", rowMap.get("renamed-column"));
-        assertEquals("Sanitize me!", rowMap.get("sanitize-me"));
-        assertEquals("tru", rowMap.get("truncate-me"));
+        assertEquals("my-string-value", row.get("my-string"));
+        assertEquals("val1,val2", row.get("my-string-set"));
+        assertEquals("1234567890", row.get("my-date"));
+        assertEquals("my-large-text-value", row.get("my-large-text"));
+        assertEquals("ddb-column-value", row.get("renamed-column"));
+        assertEquals("Sanitize me!", row.get("sanitize-me"));
+        assertEquals("tru", row.get("truncate-me"));
     }
 
     @Test
@@ -298,10 +299,6 @@ public class BridgeExporterUtilTest {
         Item testRecord = new Item();
         testRecord.withString(testStringName, "test_string_value");
 
-        // create expected map
-        Map<String, String> expectedMap = new HashMap<>();
-        expectedMap.put(testStringName, "test_string_value");
-
         // create mock column definitions
         List<ColumnDefinition> testColumnDefinitions;
 
@@ -316,10 +313,10 @@ public class BridgeExporterUtilTest {
         testColumnDefinitions = columnDefinitionBuilder.build();
 
         // process
-        Map<String, String> retMap = new HashMap<>();
-        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(retMap, testRecord, testColumnDefinitions, "recordId");
+        TsvRow row = new TsvRow(new TsvRowLayout(ImmutableList.of(testStringName)));
+        BridgeExporterUtil.getRowValuesFromRecordBasedOnColumnDefinition(row, testRecord, testColumnDefinitions, "recordId");
 
         // verify
-        assertEquals(retMap, expectedMap);
+        assertEquals(row.get(testStringName), "test_string_value");
     }
 }
@@ -0,0 +1,77 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+public class JsonFieldExtractorTest {
+    private static final Set<String> FIELD_NAME_SET = ImmutableSet.of("foo", "bar", "baz", "not-present");
+
+    @Test
+    public void extractsOnlyRequestedFields() throws Exception {
+        String jsonText = "{\n" +
+                "   \"skipped-object\":{\"foo\":\"nested foo is not top-level\", \"arr\":[{}, [], null]},\n" +
+                "   \"foo\":\"foo value\",\n" +
+                "   \"skipped-array\":[1, {\"bar\":false}, \"two\"],\n" +
+                "   \"bar\":{\"nested\":[1, 2, 3]},\n" +
+                "   \"skipped-scalar\":3.14,\n" +
+                "   \"baz\":null\n" +
+                "}";
+        JsonNode extractedNode = JsonFieldExtractor.extractFields(jsonText, FIELD_NAME_SET);
+
+        // Values are the same as if we'd parsed the whole tree.
+        JsonNode fullNode = DefaultObjectMapper.INSTANCE.readTree(jsonText);
+        assertEquals(extractedNode.size(), 3);
+        assertEquals(extractedNode.get("foo"), fullNode.get("foo"));
+        assertEquals(extractedNode.get("bar"), fullNode.get("bar"));
+        assertTrue(extractedNode.get("baz").isNull());
+    }
+
+    @Test
+    public void duplicateFieldLastValueWins() throws Exception {
+        // Same as ObjectMapper.readTree().
+        JsonNode extractedNode = JsonFieldExtractor.extractFields("{\"foo\":\"first\", \"foo\":\"second\"}",
+                FIELD_NAME_SET);
+        assertEquals(extractedNode.size(), 1);
+        assertEquals(extractedNode.get("foo").textValue(), "second");
+    }
+
+    @DataProvider(name = "nonObjectProvider")
+    public Object[][] nonObjectProvider() {
+        return new Object[][] {
+                { "null" },
+                { "\"foo\"" },
+                { "[{\"foo\":\"foo value\"}]" },
+        };
+    }
+
+    @Test(dataProvider = "nonObjectProvider")
+    public void nonObject(String jsonText) throws Exception {
+        JsonNode extractedNode = JsonFieldExtractor.extractFields(jsonText, FIELD_NAME_SET);
+        assertEquals(extractedNode.size(), 0);
+    }
+
+    @DataProvider(name = "malformedJsonProvider")
+    public Object[][] malformedJsonProvider() {
+        return new Object[][] {
+                { "this is bad json" },
+                { "{\"foo\":\"foo value\"" },
+                { "{\"skipped\":[1, 2, \"foo\":\"foo value\"}" },
+                { "[1, 2" },
+        };
+    }
+
+    @Test(dataProvider = "malformedJsonProvider", expectedExceptions = JsonProcessingException.class)
+    public void malformedJson(String jsonText) throws Exception {
+        JsonFieldExtractor.extractFields(jsonText, FIELD_NAME_SET);
+    }
+}
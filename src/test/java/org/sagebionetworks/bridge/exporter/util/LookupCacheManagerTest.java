@@ -0,0 +1,44 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+
+public class LookupCacheManagerTest {
+    @Test
+    public void newCache() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt("cache.test.max.size")).thenReturn(10);
+        when(mockConfig.getInt("cache.test.ttl.seconds")).thenReturn(300);
+        when(mockConfig.getInt("cache.test.refresh.seconds")).thenReturn(240);
+
+        LookupCacheManager lookupCacheManager = new LookupCacheManager();
+        lookupCacheManager.setConfig(mockConfig);
+        lookupCacheManager.setRefreshExecutor(MoreExecutors.newDirectExecutorService());
+
+        // Cache is configured from config.
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = lookupCacheManager.newCache("test", key -> {
+            numLoads.incrementAndGet();
+            return key + "-value";
+        });
+        assertEquals(cache.getName(), "test");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(numLoads.get(), 1);
+
+        // Manager keeps track of the cache, for stats reporting.
+        List<LookupCache<?, ?>> cacheList = lookupCacheManager.getCaches();
+        assertEquals(cacheList.size(), 1);
+        assertSame(cacheList.get(0), cache);
+    }
+}
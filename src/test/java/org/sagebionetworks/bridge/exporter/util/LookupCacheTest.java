@@ -0,0 +1,112 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+
+public class LookupCacheTest {
+    private static final Executor REFRESH_EXECUTOR = MoreExecutors.directExecutor();
+
+    @Test
+    public void cachesValues() {
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = new LookupCache<>("test", 10, 300, 0, REFRESH_EXECUTOR, key -> {
+            numLoads.incrementAndGet();
+            return key + "-value";
+        });
+
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(cache.get("bar"), "bar-value");
+        assertEquals(numLoads.get(), 2);
+
+        CacheStats stats = cache.getStats();
+        assertEquals(stats.hitCount(), 1);
+        assertEquals(stats.missCount(), 2);
+        assertEquals(stats.loadSuccessCount(), 2);
+
+        // Invalidate and load again.
+        cache.invalidateAll();
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(numLoads.get(), 3);
+    }
+
+    @Test
+    public void cachesNull() {
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = new LookupCache<>("test", 10, 300, 0, REFRESH_EXECUTOR, key -> {
+            numLoads.incrementAndGet();
+            return null;
+        });
+
+        assertNull(cache.get("foo"));
+        assertNull(cache.get("foo"));
+        assertEquals(numLoads.get(), 1);
+    }
+
+    @Test
+    public void loaderExceptionRethrownAndNotCached() {
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = new LookupCache<>("test", 10, 300, 0, REFRESH_EXECUTOR, key -> {
+            if (numLoads.incrementAndGet() == 1) {
+                throw new IllegalStateException("test exception");
+            }
+            return key + "-value";
+        });
+
+        try {
+            cache.get("foo");
+            fail("expected exception");
+        } catch (IllegalStateException ex) {
+            assertEquals(ex.getMessage(), "test exception");
+        }
+
+        // Second call succeeds.
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(numLoads.get(), 2);
+        assertEquals(cache.getStats().loadExceptionCount(), 1);
+    }
+
+    @Test
+    public void zeroMaxSizeDisablesCaching() {
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = new LookupCache<>("test", 0, 300, 0, REFRESH_EXECUTOR, key -> {
+            numLoads.incrementAndGet();
+            return key + "-value";
+        });
+
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(numLoads.get(), 2);
+    }
+
+    @Test
+    public void fromConfig() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt("cache.test.config.max.size")).thenReturn(10);
+        when(mockConfig.getInt("cache.test.config.ttl.seconds")).thenReturn(300);
+        when(mockConfig.getInt("cache.test.config.refresh.seconds")).thenReturn(240);
+
+        AtomicInteger numLoads = new AtomicInteger();
+        LookupCache<String, String> cache = LookupCache.fromConfig("test.config", mockConfig, REFRESH_EXECUTOR, key -> {
+            numLoads.incrementAndGet();
+            return key + "-value";
+        });
+
+        assertEquals(cache.getName(), "test.config");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(cache.get("foo"), "foo-value");
+        assertEquals(numLoads.get(), 1);
+    }
+}
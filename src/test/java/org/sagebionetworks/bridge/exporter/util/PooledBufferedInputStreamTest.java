@@ -0,0 +1,85 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+import org.testng.annotations.Test;
+
+public class PooledBufferedInputStreamTest {
+    @Test
+    public void readAll() throws Exception {
+        // Bigger than the buffer, so we test refilling the buffer.
+        byte[] content = randomBytes(PooledBufferedInputStream.BUFFER_SIZE * 3 + 17);
+        try (InputStream in = new PooledBufferedInputStream(new ByteArrayInputStream(content))) {
+            assertTrue(Arrays.equals(ByteStreams.toByteArray(in), content));
+        }
+    }
+
+    @Test
+    public void singleByteReads() throws Exception {
+        byte[] content = randomBytes(1000);
+        try (InputStream in = new PooledBufferedInputStream(new ByteArrayInputStream(content))) {
+            for (byte oneByte : content) {
+                assertEquals(in.read(), oneByte & 0xff);
+            }
+            assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void largeReadBypassesBuffer() throws Exception {
+        byte[] content = randomBytes(PooledBufferedInputStream.BUFFER_SIZE * 2);
+        try (InputStream in = new PooledBufferedInputStream(new ByteArrayInputStream(content))) {
+            // Read a few bytes into the buffer, then read past the end of the buffer.
+            byte[] output = new byte[content.length];
+            assertEquals(in.read(output, 0, 10), 10);
+            ByteStreams.readFully(in, output, 10, content.length - 10);
+            assertTrue(Arrays.equals(output, content));
+            assertEquals(in.read(output, 0, output.length), -1);
+        }
+    }
+
+    @Test
+    public void emptyStream() throws Exception {
+        try (InputStream in = new PooledBufferedInputStream(new ByteArrayInputStream(new byte[0]))) {
+            assertEquals(in.read(), -1);
+            assertEquals(in.read(new byte[10], 0, 10), -1);
+        }
+    }
+
+    @Test
+    public void closeClosesUnderlyingStreamAndReturnsBuffer() throws Exception {
+        InputStream underlyingStream = spy(new ByteArrayInputStream(new byte[10]));
+        InputStream in = new PooledBufferedInputStream(underlyingStream);
+        in.close();
+        verify(underlyingStream).close();
+        assertTrue(PooledBufferedInputStream.getNumPooledBuffers() >= 1);
+        assertTrue(PooledBufferedInputStream.getNumPooledBuffers() <= PooledBufferedInputStream.MAX_POOLED_BUFFERS);
+
+        // Closing twice is a no-op.
+        in.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readAfterClose() throws Exception {
+        InputStream in = new PooledBufferedInputStream(new ByteArrayInputStream(new byte[10]));
+        in.close();
+        in.read();
+    }
+
+    private static byte[] randomBytes(int numBytes) {
+        // Fixed seed, so failures are reproducible.
+        byte[] bytes = new byte[numBytes];
+        new Random(1234).nextBytes(bytes);
+        return bytes;
+    }
+}
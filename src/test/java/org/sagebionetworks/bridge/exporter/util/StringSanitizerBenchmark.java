@@ -0,0 +1,76 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * JMH benchmark comparing string sanitization. "jsoup" is the old implementation, which parses every value with
+ * Jsoup. "sanitize" is the current StringSanitizer, which skips values that don't need sanitizing and handles simple
+ * markup in a single pass.
+ * </p>
+ * <p>
+ * Inputs are typical survey values: short plain answers, app version strings, inline JSON multi-choice answers (which
+ * need quote escaping), free text with newlines, and free text with simple markup.
+ * </p>
+ * <p>
+ * This isn't run as part of the unit tests. To run it, run main() from the test classpath (for example,
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.sagebionetworks.bridge.exporter.util.StringSanitizerBenchmark).
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class StringSanitizerBenchmark {
+    private static final Map<String, String> INPUT_BY_TYPE = ImmutableMap.<String, String>builder()
+            .put("plainAnswer", "Somewhat agree").put("appVersion", "version 1.2.3, build 45")
+            .put("jsonAnswers", "[\"Walking\",\"Running\",\"Swimming\"]")
+            .put("freeText", "I slept badly last night.\nWoke up twice,\tand had a headache in the morning.")
+            .put("markup", "Felt <b>much</b> better today, <i>finally</i>.").build();
+
+    @Param({ "plainAnswer", "appVersion", "jsonAnswers", "freeText", "markup" })
+    public String inputType;
+
+    private String input;
+
+    @Setup
+    public void setup() {
+        input = INPUT_BY_TYPE.get(inputType);
+    }
+
+    @Benchmark
+    public String jsoup() {
+        return StringSanitizer.sanitizeWithJsoup(input);
+    }
+
+    @Benchmark
+    public String sanitize() {
+        return StringSanitizer.sanitize(input);
+    }
+
+    /** Runs the benchmarks. */
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(StringSanitizerBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
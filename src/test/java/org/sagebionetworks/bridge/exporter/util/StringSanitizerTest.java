@@ -0,0 +1,115 @@
+package org.sagebionetworks.bridge.exporter.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Random;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+// Differential tests. StringSanitizer.sanitize() must always match the original Jsoup-based implementation.
+public class StringSanitizerTest {
+    // Fragments used to generate random strings. Includes things the single pass handles and things it falls back to
+    // Jsoup for, so we test both, and the boundaries between them.
+    private static final String[] FRAGMENTS = {
+            "lorem", "ipsum", "42", "3.14", "a/b", "'", "\"", "\\", ">", "<", "< ", "<3", "<>", " ", "  ", "\n", "\r\n",
+            "\t", "\f", "\u000b", "\u0000", "\u007f", "\u0085", "\u00a0", "\u00e9", "\u4e2d\u6587", "\u2003",
+            "\ud83d\ude00", "\ud83d", "\ufeff", "\uffff", "&", "&amp;", "&lt;", "&nbsp;", "&#65;", "&foo", "<b>", "</b>",
+            "<B>", "<i>", "</i>", "<u>", "</u>", "<em>", "</em>", "<strong>", "<span>", "</span>", "<br>", "</br>",
+            "<br/>", "<br />", "<p>", "</p>", "<div>", "<table>", "<td>", "<script>", "</script>", "<style>",
+            "<title>", "<textarea>", "<!-- comment -->", "<!", "<?", "</", "</ >", "<a href=\"x\">", "</a>",
+            "<b1>", "<h1>", "<pre>", "\n\n",
+    };
+
+    @DataProvider(name = "sanitizeDataProvider")
+    public Object[][] sanitizeDataProvider() {
+        return new Object[][] {
+                // plain
+                { "", "" },
+                { "lorem ipsum", "lorem ipsum" },
+                { "8/15/2016", "8/15/2016" },
+                { "it's", "it's" },
+
+                // whitespace
+                { "  leading and trailing  ", "leading and trailing" },
+                { "double  space", "double space" },
+                { "newlines\n\n\nCRLF\r\ntabs\t\ttabs", "newlines CRLF tabs tabs" },
+                { " \n\t ", "" },
+
+                // escaping
+                { "quote\"quote", "quote\\\"quote" },
+                { "escaped\\\"quote", "escaped\\\\\\\"quote" },
+                { "[ \"inline\", \"json\", \"blob\" ]", "[ \\\"inline\\\", \\\"json\\\", \\\"blob\\\" ]" },
+                { "caf\u00e9", "caf\\u00E9" },
+                { "\u4e2d\u6587", "\\u4E2D\\u6587" },
+
+                // HTML
+                { "<b>bold text</b>", "bold text" },
+                { "<b><i><u>Sanitize me!</b></i></u>", "Sanitize me!" },
+                { "a <b> b </b> c", "a  b  c" },
+                { "line<br>break", "linebreak" },
+                { "imbalanced</i> <p>tags", "imbalanced tags" },
+                { "1 < 2", "1 &lt; 2" },
+                { "2 > 1", "2 &gt; 1" },
+                { "<3", "&lt;3" },
+                { "trailing <", "trailing &lt;" },
+
+                // falls back to Jsoup
+                { "fish &amp; chips", "fish &amp; chips" },
+                { "<p>paragraph</p>", "paragraph" },
+                { "<a href=\"http://example.com/\">link</a>", "link" },
+                { "<script>alert('hi')</script>text", "text" },
+                { "<!-- comment -->text", "text" },
+        };
+    }
+
+    @Test(dataProvider = "sanitizeDataProvider")
+    public void sanitize(String in, String expected) {
+        assertEquals(StringSanitizer.sanitize(in), expected);
+        assertEquals(StringSanitizer.sanitizeWithJsoup(in), expected);
+    }
+
+    @Test
+    public void nullString() {
+        assertNull(StringSanitizer.sanitize(null));
+    }
+
+    @Test
+    public void plainStringNotCopied() {
+        String in = "plain survey answer, with punctuation: (1) and [2]!";
+        assertSame(StringSanitizer.sanitize(in), in);
+    }
+
+    @Test
+    public void differentialFragments() {
+        // Each fragment on its own, and each pair of fragments, with and without surrounding text.
+        for (String oneFragment : FRAGMENTS) {
+            assertSameAsJsoup(oneFragment);
+            assertSameAsJsoup("text" + oneFragment + "text");
+            for (String otherFragment : FRAGMENTS) {
+                assertSameAsJsoup(oneFragment + otherFragment);
+                assertSameAsJsoup(" x " + oneFragment + " y " + otherFragment + " z ");
+            }
+        }
+    }
+
+    @Test
+    public void differentialRandom() {
+        // Fixed seed, so failures are reproducible.
+        Random random = new Random(1234);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int numFragments = random.nextInt(12);
+            for (int j = 0; j < numFragments; j++) {
+                builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSameAsJsoup(builder.toString());
+        }
+    }
+
+    private static void assertSameAsJsoup(String in) {
+        assertEquals(StringSanitizer.sanitize(in), StringSanitizer.sanitizeWithJsoup(in), "input: " + in);
+    }
+}
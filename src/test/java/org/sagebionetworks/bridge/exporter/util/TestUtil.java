@@ -1,11 +1,18 @@
 package org.sagebionetworks.bridge.exporter.util;
 
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.List;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.sagebionetworks.bridge.config.Config;
 
 public class TestUtil {
     public static List<String> bytesToLines(byte[] bytes) throws IOException {
@@ -14,4 +21,26 @@ public class TestUtil {
             return CharStreams.readLines(stringReader);
         }
     }
+
+    /**
+     * Makes a lookup cache manager for unit tests. Caches hold up to 1000 entries for 5 minutes, with no refresh-ahead.
+     */
+    public static LookupCacheManager newLookupCacheManager() {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.getInt(anyString())).thenAnswer(invocation -> {
+            String key = invocation.getArgumentAt(0, String.class);
+            if (key.endsWith(".max.size")) {
+                return 1000;
+            } else if (key.endsWith(".ttl.seconds")) {
+                return 300;
+            } else {
+                return 0;
+            }
+        });
+
+        LookupCacheManager lookupCacheManager = new LookupCacheManager();
+        lookupCacheManager.setConfig(mockConfig);
+        lookupCacheManager.setRefreshExecutor(MoreExecutors.newDirectExecutorService());
+        return lookupCacheManager;
+    }
 }
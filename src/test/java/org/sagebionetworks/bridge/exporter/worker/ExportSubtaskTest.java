@@ -2,16 +2,19 @@ package org.sagebionetworks.bridge.exporter.worker;
 
 import static org.mockito.Mockito.mock;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertSame;
 
 import java.io.File;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exporter.handler.PhoneAppVersionInfo;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.json.DefaultObjectMapper;
@@ -58,7 +61,7 @@ public class ExportSubtaskTest {
     }
 
     @Test
-    public void happyCase() {
+    public void happyCase() throws Exception {
         // build
         Item originalRecord = new Item().withString(ExportSubtask.KEY_RECORD_ID, "dummy-id");
         ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(originalRecord)
@@ -72,4 +75,51 @@ public class ExportSubtaskTest {
         assertEquals(subtask.getRecordId(), "dummy-id");
         assertEquals(subtask.getSchemaKey(), DUMMY_SCHEMA_KEY);
     }
+
+    @Test
+    public void recordDataText() throws Exception {
+        // build
+        String recordDataText = "{\"foo\":\"foo value\", \"bar\":{\"nested\":[1, 2, 3]}, \"baz\":42}";
+        ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(new Item())
+                .withParentTask(DUMMY_PARENT_TASK).withRecordDataText(recordDataText).withSchemaKey(DUMMY_SCHEMA_KEY)
+                .build();
+
+        // getRecordData() parses the whole thing
+        JsonNode recordDataNode = subtask.getRecordData();
+        assertEquals(recordDataNode.size(), 3);
+        assertEquals(recordDataNode.get("foo").textValue(), "foo value");
+        assertEquals(recordDataNode.get("bar").get("nested").size(), 3);
+        assertEquals(recordDataNode.get("baz").intValue(), 42);
+
+        // getRecordDataFields() only extracts the requested fields
+        JsonNode extractedNode = subtask.getRecordDataFields(ImmutableSet.of("bar", "not-present"));
+        assertEquals(extractedNode.size(), 1);
+        assertEquals(extractedNode.get("bar"), recordDataNode.get("bar"));
+        assertFalse(extractedNode.has("not-present"));
+    }
+
+    @Test
+    public void recordDataNodeTakesPrecedence() throws Exception {
+        ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(new Item())
+                .withParentTask(DUMMY_PARENT_TASK).withRecordData(DUMMY_RECORD_DATA)
+                .withRecordDataText("{\"foo\":\"foo value\"}").withSchemaKey(DUMMY_SCHEMA_KEY).build();
+        assertSame(subtask.getRecordData(), DUMMY_RECORD_DATA);
+        assertSame(subtask.getRecordDataFields(ImmutableSet.of("foo")), DUMMY_RECORD_DATA);
+    }
+
+    @Test
+    public void phoneAppVersionInfoParsedOnce() {
+        // build
+        Item originalRecord = new Item().withString(ExportSubtask.KEY_RECORD_ID, "dummy-id").withString("metadata",
+                "{\"appVersion\":\"Bridge-EX 2.0\", \"phoneInfo\":\"My Debugger\", \"other\":[true]}");
+        ExportSubtask subtask = new ExportSubtask.Builder().withOriginalRecord(originalRecord)
+                .withParentTask(DUMMY_PARENT_TASK).withRecordData(DUMMY_RECORD_DATA).withSchemaKey(DUMMY_SCHEMA_KEY)
+                .build();
+
+        // validate
+        PhoneAppVersionInfo info = subtask.getPhoneAppVersionInfo();
+        assertEquals(info.getAppVersion(), "Bridge-EX 2.0");
+        assertEquals(info.getPhoneInfo(), "My Debugger");
+        assertSame(subtask.getPhoneAppVersionInfo(), info);
+    }
 }
@@ -2,12 +2,12 @@ package org.sagebionetworks.bridge.exporter.worker;
 
 import static org.mockito.Mockito.mock;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.io.PrintWriter;
-import java.util.Queue;
 import java.util.Set;
 
 import com.google.common.collect.ImmutableList;
@@ -15,6 +15,7 @@ import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
@@ -105,21 +106,28 @@ public class ExportTaskTest {
     }
 
     @Test
-    public void taskQueue() {
+    public void outstandingSubtasks() {
         ExportTask task = createTask();
 
-        // add mock tasks to queue
-        ExportSubtaskFuture mockFooFuture = mock(ExportSubtaskFuture.class);
+        // add mock subtasks
+        ExportWorkerFuture mockFooFuture = mock(ExportWorkerFuture.class);
         task.addSubtaskFuture(mockFooFuture);
 
-        ExportSubtaskFuture mockBarFuture = mock(ExportSubtaskFuture.class);
+        ExportWorkerFuture mockBarFuture = mock(ExportWorkerFuture.class);
         task.addSubtaskFuture(mockBarFuture);
 
-        // get tasks back in order
-        Queue<ExportSubtaskFuture> taskQueue = task.getSubtaskFutureQueue();
-        assertSame(taskQueue.remove(), mockFooFuture);
-        assertSame(taskQueue.remove(), mockBarFuture);
-        assertTrue(taskQueue.isEmpty());
+        Set<ExportWorkerFuture> outstandingSubtaskSet = task.getOutstandingSubtaskSet();
+        assertEquals(outstandingSubtaskSet.size(), 2);
+        assertTrue(outstandingSubtaskSet.contains(mockFooFuture));
+        assertTrue(outstandingSubtaskSet.contains(mockBarFuture));
+
+        // remove one
+        task.removeSubtaskFuture(mockFooFuture);
+        assertEquals(outstandingSubtaskSet.size(), 1);
+        assertTrue(outstandingSubtaskSet.contains(mockBarFuture));
+
+        // completed subtask queue starts empty
+        assertTrue(task.getCompletedSubtaskQueue().isEmpty());
     }
 
     @Test
@@ -136,6 +144,29 @@ public class ExportTaskTest {
         assertTrue(studyIdSet.contains("baz"));
     }
 
+    @Test
+    public void redriveRecordIdSet() {
+        ExportTask task = createTask();
+        task.addRedriveRecordId("foo");
+        task.addRedriveRecordId("bar");
+        task.addRedriveRecordId("foo");
+
+        Set<String> redriveRecordIdSet = task.getRedriveRecordIdSet();
+        assertEquals(redriveRecordIdSet.size(), 2);
+        assertTrue(redriveRecordIdSet.contains("foo"));
+        assertTrue(redriveRecordIdSet.contains("bar"));
+    }
+
+    @Test
+    public void restartException() {
+        ExportTask task = createTask();
+        assertNull(task.getRestartException());
+
+        RestartBridgeExporterException ex = new RestartBridgeExporterException("test exception");
+        task.setRestartException(ex);
+        assertSame(task.getRestartException(), ex);
+    }
+
     private static ExportTask createTask() {
         return new ExportTask.Builder().withExporterDate(DUMMY_EXPORTER_DATE).withMetrics(new Metrics())
                 .withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
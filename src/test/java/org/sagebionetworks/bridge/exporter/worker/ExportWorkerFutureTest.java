@@ -0,0 +1,112 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.handler.ExportHandler;
+
+public class ExportWorkerFutureTest {
+    @Test
+    public void addsItselfToCompletionQueue() throws Exception {
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        ExportWorker worker = new ExportWorker(mockHandler, mockSubtask);
+        Queue<ExportWorkerFuture> completionQueue = new ConcurrentLinkedQueue<>();
+
+        ExportWorkerFuture future = new ExportWorkerFuture(worker, completionQueue);
+        assertSame(future.getWorker(), worker);
+        assertSame(future.getSubtask(), mockSubtask);
+        assertTrue(completionQueue.isEmpty());
+
+        // execute and validate
+        future.run();
+        verify(mockHandler).handleAsync(mockSubtask);
+        assertEquals(completionQueue.size(), 1);
+        assertSame(completionQueue.remove(), future);
+        assertTrue(future.getElapsedMillis() >= 0);
+    }
+
+    @Test
+    public void failedWorkerStillCompletes() throws Exception {
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        doThrow(BridgeExporterException.class).when(mockHandler).handleAsync(mockSubtask);
+        Queue<ExportWorkerFuture> completionQueue = new ConcurrentLinkedQueue<>();
+
+        ExportWorkerFuture future = new ExportWorkerFuture(new ExportWorker(mockHandler, mockSubtask),
+                completionQueue);
+        future.run();
+
+        // Future is in the completion queue, and holds the exception.
+        assertSame(completionQueue.remove(), future);
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeExporterException);
+        }
+    }
+
+    @Test
+    public void waitsForPendingCompletion() throws Exception {
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        CompletableFuture<Void> pendingCompletion = new CompletableFuture<>();
+        when(mockHandler.handleAsync(mockSubtask)).thenReturn(pendingCompletion);
+        Queue<ExportWorkerFuture> completionQueue = new ConcurrentLinkedQueue<>();
+
+        ExportWorkerFuture future = new ExportWorkerFuture(new ExportWorker(mockHandler, mockSubtask),
+                completionQueue);
+        future.run();
+
+        // Worker has returned, but the future isn't done until the pending completion is.
+        assertFalse(future.isDone());
+        assertTrue(completionQueue.isEmpty());
+
+        pendingCompletion.complete(null);
+        assertTrue(future.isDone());
+        assertSame(completionQueue.remove(), future);
+        future.get();
+    }
+
+    @Test
+    public void failedPendingCompletion() throws Exception {
+        ExportHandler mockHandler = mock(ExportHandler.class);
+        ExportSubtask mockSubtask = mock(ExportSubtask.class);
+        CompletableFuture<Void> pendingCompletion = new CompletableFuture<>();
+        when(mockHandler.handleAsync(mockSubtask)).thenReturn(pendingCompletion.thenRun(() -> {}));
+        Queue<ExportWorkerFuture> completionQueue = new ConcurrentLinkedQueue<>();
+
+        ExportWorkerFuture future = new ExportWorkerFuture(new ExportWorker(mockHandler, mockSubtask),
+                completionQueue);
+        future.run();
+        assertTrue(completionQueue.isEmpty());
+
+        // Dependent stages wrap the exception in a CompletionException. The future unwraps it.
+        IOException originalEx = new IOException("test exception");
+        pendingCompletion.completeExceptionally(originalEx);
+        assertSame(completionQueue.remove(), future);
+        try {
+            future.get();
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertSame(ex.getCause(), originalEx);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.exporter.worker;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -22,13 +23,17 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.LocalDate;
@@ -41,6 +46,7 @@ import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
+import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterPartialUploadException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterTsvException;
 import org.sagebionetworks.bridge.exporter.exceptions.RestartBridgeExporterException;
 import org.sagebionetworks.bridge.exporter.handler.AppVersionExportHandler;
@@ -74,7 +80,8 @@ public class ExportWorkerManagerEndOfStreamTest {
     private ExportWorkerManager manager;
     private List<AppVersionExportHandler> mockAppVersionHandlerList;
     private ExecutorService mockExecutor;
-    private List<Future<?>> mockFutureList;
+    private List<ExportWorkerFuture> pendingSubtaskList;
+    private List<ExportWorkerFuture> subtaskFutureList;
     private List<HealthDataExportHandler> mockHealthDataHandlerList;
     private SynapseStatusTableHelper mockSynapseStatusTableHelper;
     private S3Helper mockS3Helper;
@@ -92,9 +99,10 @@ public class ExportWorkerManagerEndOfStreamTest {
 
     @BeforeMethod
     public void setup() {
-        // Reset future and handler lists.
+        // Reset subtask and handler lists.
         mockAppVersionHandlerList = new ArrayList<>();
-        mockFutureList = new ArrayList<>();
+        pendingSubtaskList = new ArrayList<>();
+        subtaskFutureList = new ArrayList<>();
         mockHealthDataHandlerList = new ArrayList<>();
 
         // Mock config - Set progress report interval to 2 to test branch coverage
@@ -121,23 +129,46 @@ public class ExportWorkerManagerEndOfStreamTest {
         manager.setS3Helper(mockS3Helper);
         manager.setSqsHelper(mockSqsHelper);
         manager.setSynapseStatusTableHelper(mockSynapseStatusTableHelper);
+
+        // Run end of stream uploads inline, so tests are deterministic. See uploadsRunInParallel() for the parallel
+        // case.
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
     }
 
     private void mockRecordIdExceptions(Map<String, Exception> recordIdToException) {
-        // Mock the executor to create mock futures. This allows us to inject failures into record processing.
-        when(mockExecutor.submit(any(ExportWorker.class))).thenAnswer(invocation -> {
-            Future<?> mockFuture = mock(Future.class);
+        mockRecordIdExceptions(recordIdToException, false);
+    }
 
-            ExportWorker worker = invocation.getArgumentAt(0, ExportWorker.class);
-            Exception ex = recordIdToException.get(worker.getSubtask().getRecordId());
+    private void mockRecordIdExceptions(Map<String, Exception> recordIdToException, boolean runImmediately) {
+        // Mock the executor to capture subtasks. This allows us to inject failures into record processing, and to
+        // control when subtasks run. If runImmediately is true, subtasks run as soon as they're submitted, so they'll
+        // be harvested as soon as they're queued. Otherwise, they run when the test calls runPendingSubtasks().
+        doAnswer(invocation -> {
+            ExportWorkerFuture subtaskFuture = invocation.getArgumentAt(0, ExportWorkerFuture.class);
+
+            Exception ex = recordIdToException.get(subtaskFuture.getSubtask().getRecordId());
             if (ex != null) {
-                // Future.get() exceptions are always wrapped in an ExecutionException.
-                when(mockFuture.get()).thenThrow(new ExecutionException(ex));
+                ExportWorker worker = subtaskFuture.getWorker();
+                doThrow(ex).when(worker.getHandler()).handleAsync(same(worker.getSubtask()));
             }
 
-            mockFutureList.add(mockFuture);
-            return mockFuture;
-        });
+            subtaskFutureList.add(subtaskFuture);
+            if (runImmediately) {
+                subtaskFuture.run();
+            } else {
+                pendingSubtaskList.add(subtaskFuture);
+            }
+
+            // Mockito requires a return value.
+            return null;
+        }).when(mockExecutor).execute(any(Runnable.class));
+    }
+
+    private void runPendingSubtasks() {
+        for (ExportWorkerFuture onePendingSubtask : pendingSubtaskList) {
+            onePendingSubtask.run();
+        }
+        pendingSubtaskList.clear();
     }
 
     private void mockSchemaIdExceptions(Map<String, Exception> schemaIdToException) throws Exception {
@@ -249,13 +280,24 @@ public class ExportWorkerManagerEndOfStreamTest {
         manager.addSubtaskForRecord(task, zRecord);
 
         // end of stream
+        runPendingSubtasks();
         manager.endOfStream(task, startDateTimeByStudy);
 
-        // verify futures processed (6 records, plus 1 duplicate A, doubled for the appVersion handlers)
-        assertEquals(mockFutureList.size(), 14);
-        for (Future<?> oneMockFuture : mockFutureList) {
-            verify(oneMockFuture).get();
+        // verify subtasks processed (6 records, plus 1 duplicate A, doubled for the appVersion handlers)
+        assertEquals(subtaskFutureList.size(), 14);
+        for (ExportWorkerFuture oneSubtaskFuture : subtaskFutureList) {
+            assertTrue(oneSubtaskFuture.isDone());
+        }
+        assertTrue(task.getOutstandingSubtaskSet().isEmpty());
+
+        // Every subtask's latency is in the latency histogram.
+        int numLatencies = 0;
+        for (Multiset.Entry<String> oneCounterEntry : task.getMetrics().getCounterMap().entrySet()) {
+            if (oneCounterEntry.getElement().startsWith(ExportWorkerManager.METRICS_SUBTASK_LATENCY + "[")) {
+                numLatencies += oneCounterEntry.getCount();
+            }
         }
+        assertEquals(numLatencies, 14);
 
         // verify handlers called to uploaded TSVs (6 tables, 6 studies (appVersion table))
         assertEquals(mockHealthDataHandlerList.size(), 6);
@@ -358,6 +400,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         // set up test and execute
         manager.addSubtaskForRecord(task, aRecord);
         manager.addSubtaskForRecord(task, bRecord);
+        runPendingSubtasks();
         manager.endOfStream(task, START_DATES_BY_STUDY);
 
         // Skip verifying futures and handlers. This is tested elsewhere.
@@ -414,6 +457,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         // set up test and execute
         manager.addSubtaskForRecord(task, aRecord);
         manager.addSubtaskForRecord(task, bRecord);
+        runPendingSubtasks();
         manager.endOfStream(task, ImmutableMap.of());
 
         // Skip verifying futures and handlers. This is tested elsewhere.
@@ -441,6 +485,46 @@ public class ExportWorkerManagerEndOfStreamTest {
         verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
     }
 
+    @Test
+    public void partialTableUploadRedrivesFailedRecords() throws Exception {
+        // Two tables. Schema A imported some TSV segments before failing. Schema B failed before importing anything.
+        Item aRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-A")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-A");
+        Item bRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "schema-B")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "record-B");
+
+        mockSchemaIdExceptions(ImmutableMap.<String, Exception>builder()
+                .put("schema-A", new BridgeExporterPartialUploadException("test exception",
+                        new BridgeExporterException(), ImmutableList.of("record-A2", "record-A3")))
+                .put("schema-B", new BridgeExporterException()).build());
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        manager.addSubtaskForRecord(task, aRecord);
+        manager.addSubtaskForRecord(task, bRecord);
+        runPendingSubtasks();
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+
+        // Schema A's failed records are redriven individually, so its imported segments aren't imported again.
+        verify(mockS3Helper).writeLinesToS3(DUMMY_RECORD_ID_OVERRIDE_BUCKET,
+                "redrive-record-ids.2016-08-16T01:30:00.001Z", ImmutableSet.of("record-A2", "record-A3"));
+
+        // Only schema B is redriven as a table.
+        ArgumentCaptor<BridgeExporterRequest> redriveRequestCaptor = ArgumentCaptor.forClass(
+                BridgeExporterRequest.class);
+        verify(mockSqsHelper, times(2)).sendMessageAsJson(eq(DUMMY_SQS_QUEUE_URL), redriveRequestCaptor.capture(),
+                eq(ExportWorkerManager.REDRIVE_DELAY_SECONDS));
+        List<BridgeExporterRequest> redriveRequestList = redriveRequestCaptor.getAllValues();
+
+        assertEquals(redriveRequestList.get(0).getRecordIdS3Override(),
+                "redrive-record-ids.2016-08-16T01:30:00.001Z");
+        assertEquals(redriveRequestList.get(1).getTableWhitelist(), ImmutableSet.of(new UploadSchemaKey.Builder()
+                .withStudyId(TEST_STUDY).withSchemaId("schema-B").withRevision(1).build()));
+    }
+
     @Test
     public void firstRedrive() throws Exception {
         // This tests the first redrive, which on failure will redrive again.
@@ -468,6 +552,7 @@ public class ExportWorkerManagerEndOfStreamTest {
 
         // set up test and execute
         manager.addSubtaskForRecord(task, record);
+        runPendingSubtasks();
         manager.endOfStream(task, START_DATES_BY_STUDY);
 
         // Skip verifying futures and handlers. This is tested elsewhere.
@@ -523,6 +608,7 @@ public class ExportWorkerManagerEndOfStreamTest {
 
         // set up test and execute
         manager.addSubtaskForRecord(task, record);
+        runPendingSubtasks();
         manager.endOfStream(task, START_DATES_BY_STUDY);
 
         // Skip verifying futures and handlers. This is tested elsewhere.
@@ -555,6 +641,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         // set up test
         manager.addSubtaskForRecord(task, badRecord);
         manager.addSubtaskForRecord(task, goodRecord);
+        runPendingSubtasks();
 
         // end of stream
         try {
@@ -566,12 +653,10 @@ public class ExportWorkerManagerEndOfStreamTest {
             assertEquals(cause.getStatusCode(), 503);
         }
 
-        // We have 4 futures, but only the first one throws and the rest are never executed.
-        assertEquals(mockFutureList.size(), 4);
-        verify(mockFutureList.get(0)).get();
-        for (int i = 1; i < 4; i++) {
-            verify(mockFutureList.get(i), never()).get();
-        }
+        // We have 4 subtasks. They all complete, but only the first one is harvested, since it throws.
+        assertEquals(subtaskFutureList.size(), 4);
+        assertEquals(task.getOutstandingSubtaskSet().size(), 3);
+        assertFalse(task.getOutstandingSubtaskSet().contains(subtaskFutureList.get(0)));
 
         // 1 study, 1 schema, 2 handlers (table, appVersion), but neither one is ever called
         assertEquals(mockHealthDataHandlerList.size(), 1);
@@ -581,7 +666,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         verify(mockAppVersionHandlerList.get(0), never()).uploadToSynapseForTask(any());
 
         // status tables are never written
-        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), any());
+        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), anyString());
 
         // no redrives
         verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
@@ -611,6 +696,7 @@ public class ExportWorkerManagerEndOfStreamTest {
         // set up test
         manager.addSubtaskForRecord(task, badRecord);
         manager.addSubtaskForRecord(task, goodRecord);
+        runPendingSubtasks();
 
         // end of stream
         try {
@@ -623,11 +709,9 @@ public class ExportWorkerManagerEndOfStreamTest {
             assertEquals(cause.getStatusCode(), 503);
         }
 
-        // 2 records = 4 futures (health data and app version). All of these are processed.
-        assertEquals(mockFutureList.size(), 4);
-        for (Future<?> oneMockFuture : mockFutureList) {
-            verify(oneMockFuture).get();
-        }
+        // 2 records = 4 subtasks (health data and app version). All of these are processed.
+        assertEquals(subtaskFutureList.size(), 4);
+        assertTrue(task.getOutstandingSubtaskSet().isEmpty());
 
         // 3 handlers (bad-schema, good-schema, appVersion). We know that health data handlers are processed before
         // appVersion handlers, so we know the appVersion handler was never uploaded. However, because we use a hash
@@ -641,10 +725,188 @@ public class ExportWorkerManagerEndOfStreamTest {
         verify(mockAppVersionHandlerList.get(0), never()).uploadToSynapseForTask(any());
 
         // status tables are never written
-        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), any());
+        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), anyString());
 
         // no redrives
         verify(mockS3Helper, never()).writeLinesToS3(any(), any(), any());
         verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
     }
+
+    @Test
+    public void completedSubtasksHarvestedIncrementally() throws Exception {
+        Item failedRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "failed-record");
+        Item goodRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "good-record");
+
+        // Subtasks run immediately, so they're harvested as they're queued.
+        mockRecordIdExceptions(ImmutableMap.of("failed-record", new BridgeExporterException()), true);
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // Before end of stream, all subtasks have been harvested, and the failed record is already marked for redrive.
+        manager.addSubtaskForRecord(task, failedRecord);
+        manager.addSubtaskForRecord(task, goodRecord);
+        assertTrue(task.getOutstandingSubtaskSet().isEmpty());
+        assertTrue(task.getCompletedSubtaskQueue().isEmpty());
+        assertEquals(task.getRedriveRecordIdSet(), ImmutableSet.of("failed-record"));
+        assertEquals(subtaskFutureList.size(), 4);
+
+        // End of stream redrives the failed record.
+        manager.endOfStream(task, START_DATES_BY_STUDY);
+        verify(mockS3Helper).writeLinesToS3(DUMMY_RECORD_ID_OVERRIDE_BUCKET,
+                "redrive-record-ids.2016-08-16T01:30:00.001Z", ImmutableSet.of("failed-record"));
+    }
+
+    @Test
+    public void harvestedSubtaskSynapse503() throws Exception {
+        Item badRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bad-record");
+
+        mockRecordIdExceptions(ImmutableMap.of("bad-record", new SynapseServerException(503, "test exception")),
+                true);
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        // Harvesting finds Synapse is down and saves the exception on the task.
+        manager.addSubtaskForRecord(task, badRecord);
+        assertEquals(task.getRestartException().getMessage(),
+                "Restarting Bridge Exporter; last recordId=bad-record: test exception");
+
+        // End of stream throws that exception.
+        try {
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+            fail("expected exception");
+        } catch (RestartBridgeExporterException ex) {
+            assertEquals(ex.getMessage(), "Restarting Bridge Exporter; last recordId=bad-record: test exception");
+        }
+
+        // Nothing is uploaded.
+        verify(mockHealthDataHandlerList.get(0), never()).uploadToSynapseForTask(any());
+        verify(mockSynapseStatusTableHelper, never()).initTableAndWriteStatus(any(), anyString());
+    }
+
+    @Test
+    public void subtasksHarvestedInCompletionOrder() throws Exception {
+        // The first record is slow and fails with a Synapse 503. The second record finishes first and fails with a
+        // retryable error.
+        Item slowRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "slow-record");
+        Item fastRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "fast-record");
+
+        mockRecordIdExceptions(ImmutableMap.of("slow-record", new SynapseServerException(503, "test exception"),
+                "fast-record", new BridgeExporterException()));
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+
+        manager.addSubtaskForRecord(task, slowRecord);
+        manager.addSubtaskForRecord(task, fastRecord);
+
+        // Run the subtasks in reverse order.
+        assertEquals(pendingSubtaskList.size(), 4);
+        for (int i = 3; i >= 0; i--) {
+            pendingSubtaskList.get(i).run();
+        }
+        pendingSubtaskList.clear();
+
+        // The fast record's subtasks are harvested before the slow record's.
+        try {
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+            fail("expected exception");
+        } catch (RestartBridgeExporterException ex) {
+            assertEquals(ex.getMessage(), "Restarting Bridge Exporter; last recordId=slow-record: test exception");
+        }
+        assertEquals(task.getRedriveRecordIdSet(), ImmutableSet.of("fast-record"));
+        assertEquals(task.getOutstandingSubtaskSet().size(), 1);
+    }
+
+    @Test
+    public void interruptedWhileWaitingForSubtasks() throws Exception {
+        Item record = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "test-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "test-record");
+
+        // Subtasks never run, so end of stream waits on them until it's interrupted.
+        mockRecordIdExceptions(ImmutableMap.of());
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+        manager.addSubtaskForRecord(task, record);
+        assertEquals(task.getOutstandingSubtaskSet().size(), 2);
+
+        Thread.currentThread().interrupt();
+        try {
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+
+            // The interrupt is preserved.
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            // Clear the interrupt, so it doesn't leak into other tests.
+            Thread.interrupted();
+        }
+
+        // The unstarted subtasks are cancelled and their record is redriven.
+        assertTrue(task.getOutstandingSubtaskSet().isEmpty());
+        for (ExportWorkerFuture oneSubtaskFuture : pendingSubtaskList) {
+            assertTrue(oneSubtaskFuture.isCancelled());
+        }
+        verify(mockS3Helper).writeLinesToS3(DUMMY_RECORD_ID_OVERRIDE_BUCKET,
+                "redrive-record-ids.2016-08-16T01:30:00.001Z", ImmutableSet.of("test-record"));
+    }
+
+    @Test
+    public void uploadsRunInParallel() throws Exception {
+        // Two tables. Each upload waits for the other to start, so this only finishes if they run in parallel.
+        Item fooRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "foo-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "foo-record");
+        Item barRecord = new Item().withString("studyId", TEST_STUDY).withString("schemaId", "bar-schema")
+                .withInt("schemaRevision", 1).withString("data", DUMMY_JSON_TEXT).withString("id", "bar-record");
+
+        mockRecordIdExceptions(ImmutableMap.of(), true);
+        mockSchemaIdExceptions(ImmutableMap.of());
+        mockStudyIdExceptions(ImmutableMap.of());
+
+        ExportTask task = new ExportTask.Builder().withExporterDate(LocalDate.parse("2015-12-09"))
+                .withMetrics(new Metrics()).withRequest(DUMMY_REQUEST).withTmpDir(mock(File.class)).build();
+        manager.addSubtaskForRecord(task, fooRecord);
+        manager.addSubtaskForRecord(task, barRecord);
+
+        CountDownLatch uploadLatch = new CountDownLatch(2);
+        assertEquals(mockHealthDataHandlerList.size(), 2);
+        for (HealthDataExportHandler oneMockHandler : mockHealthDataHandlerList) {
+            doAnswer(invocation -> {
+                uploadLatch.countDown();
+                if (!uploadLatch.await(10, TimeUnit.SECONDS)) {
+                    throw new BridgeExporterException("uploads didn't run in parallel");
+                }
+                return null;
+            }).when(oneMockHandler).uploadToSynapseForTask(task);
+        }
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(2);
+        try {
+            manager.setSynapseUploadExecutor(uploadExecutor);
+            manager.endOfStream(task, START_DATES_BY_STUDY);
+        } finally {
+            uploadExecutor.shutdownNow();
+        }
+
+        // Both tables, the app version table, and the status table were uploaded. Nothing was redriven.
+        verify(mockHealthDataHandlerList.get(0)).uploadToSynapseForTask(task);
+        verify(mockHealthDataHandlerList.get(1)).uploadToSynapseForTask(task);
+        verify(mockAppVersionHandlerList.get(0)).uploadToSynapseForTask(task);
+        verify(mockSynapseStatusTableHelper).initTableAndWriteStatus(task, TEST_STUDY);
+        verify(mockSqsHelper, never()).sendMessageAsJson(any(), any(), any());
+    }
 }
@@ -3,26 +3,46 @@ package org.sagebionetworks.bridge.exporter.worker;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.MalformedJsonException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
 import org.sagebionetworks.client.exceptions.SynapseClientException;
 import org.sagebionetworks.client.exceptions.SynapseServerException;
@@ -35,13 +55,16 @@ import org.sagebionetworks.bridge.exporter.dynamo.DynamoHelper;
 import org.sagebionetworks.bridge.exporter.dynamo.StudyInfo;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterException;
 import org.sagebionetworks.bridge.exporter.exceptions.BridgeExporterNonRetryableException;
+import org.sagebionetworks.bridge.exporter.exceptions.SchemaNotFoundException;
 import org.sagebionetworks.bridge.exporter.handler.AppVersionExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.HealthDataExportHandler;
 import org.sagebionetworks.bridge.exporter.handler.IosSurveyExportHandler;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelper;
 import org.sagebionetworks.bridge.exporter.helper.BridgeHelperTest;
+import org.sagebionetworks.bridge.exporter.helper.SchemaRegistry;
 import org.sagebionetworks.bridge.exporter.metrics.Metrics;
 import org.sagebionetworks.bridge.exporter.request.BridgeExporterRequest;
+import org.sagebionetworks.bridge.exporter.synapse.SynapseHelper;
 import org.sagebionetworks.bridge.rest.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.rest.exceptions.BridgeSDKException;
 import org.sagebionetworks.bridge.schema.UploadSchemaKey;
@@ -129,6 +152,115 @@ public class ExportWorkerManagerTest {
         assertEquals(putItem.getString(ExportWorkerManager.DDB_KEY_TABLE_ID), TEST_SYNAPSE_TABLE_ID);
     }
 
+    @Test
+    public void columnFingerprint() {
+        // mock config and task
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+
+        // mock DDB client
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.getItem(TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME))
+                .thenAnswer(invocation -> ddbSynapseMapItem);
+        when(mockDdbTable.putItem(any(Item.class))).thenAnswer(invocation -> {
+            ddbSynapseMapItem = invocation.getArgumentAt(0, Item.class);
+            return null;
+        });
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(DEFAULT_DDB_PREFIX + TEST_DDB_TABLE_NAME)).thenReturn(mockDdbTable);
+
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+
+        // No mapping, no fingerprint.
+        assertNull(manager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID));
+
+        // Set the fingerprint. It's written next to the table ID.
+        manager.setColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME,
+                TEST_SYNAPSE_TABLE_ID, "test-fingerprint");
+        assertEquals(ddbSynapseMapItem.getString(ExportWorkerManager.DDB_KEY_TABLE_ID), TEST_SYNAPSE_TABLE_ID);
+        assertEquals(ddbSynapseMapItem.getString(ExportWorkerManager.DDB_KEY_COLUMN_FINGERPRINT),
+                "test-fingerprint");
+        assertEquals(manager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID), "test-fingerprint");
+
+        // A new manager (like after a restart) reads the fingerprint from DDB, then caches it.
+        ExportWorkerManager newManager = new ExportWorkerManager();
+        newManager.setConfig(mockConfig);
+        newManager.setDdbClient(mockDdbClient);
+        assertEquals(newManager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID), "test-fingerprint");
+        assertEquals(newManager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID), "test-fingerprint");
+        verify(mockDdbTable, times(2)).getItem(TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME);
+
+        // The fingerprint doesn't apply to a different table.
+        assertNull(newManager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, "other-table-id"));
+
+        // Invalidate clears the fingerprint, but keeps the table ID.
+        newManager.invalidateColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID);
+        assertEquals(ddbSynapseMapItem.getString(ExportWorkerManager.DDB_KEY_TABLE_ID), TEST_SYNAPSE_TABLE_ID);
+        assertNull(ddbSynapseMapItem.getString(ExportWorkerManager.DDB_KEY_COLUMN_FINGERPRINT));
+        assertNull(newManager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID));
+    }
+
+    @Test
+    public void columnFingerprintCacheExpires() {
+        // mock config and task
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+
+        // mock DDB client
+        Table mockDdbTable = mock(Table.class);
+        when(mockDdbTable.getItem(TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME))
+                .thenAnswer(invocation -> ddbSynapseMapItem);
+        when(mockDdbTable.putItem(any(Item.class))).thenAnswer(invocation -> {
+            ddbSynapseMapItem = invocation.getArgumentAt(0, Item.class);
+            return null;
+        });
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.getTable(DEFAULT_DDB_PREFIX + TEST_DDB_TABLE_NAME)).thenReturn(mockDdbTable);
+
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setConfig(mockConfig);
+        manager.setDdbClient(mockDdbClient);
+
+        long nowMillis = DateTime.parse("2017-08-15T18:30:00.000-0700").getMillis();
+        long expiresMillis = nowMillis + ExportWorkerManager.COLUMN_FINGERPRINT_CACHE_TTL_MILLIS;
+        try {
+            DateTimeUtils.setCurrentMillisFixed(nowMillis);
+            manager.setColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME,
+                    TEST_SYNAPSE_TABLE_ID, "test-fingerprint");
+
+            // Another Exporter instance clears the fingerprint in DDB. We still have it cached.
+            ddbSynapseMapItem = new Item().withString(TEST_DDB_KEY_NAME, TEST_SYNAPSE_TABLE_NAME)
+                    .withString(ExportWorkerManager.DDB_KEY_TABLE_ID, TEST_SYNAPSE_TABLE_ID);
+            DateTimeUtils.setCurrentMillisFixed(expiresMillis - 1);
+            assertEquals(manager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                    TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID), "test-fingerprint");
+
+            // Once the cached fingerprint expires, we read it from DDB again.
+            DateTimeUtils.setCurrentMillisFixed(expiresMillis);
+            assertNull(manager.getColumnFingerprint(mockTask, TEST_DDB_TABLE_NAME, TEST_DDB_KEY_NAME,
+                    TEST_SYNAPSE_TABLE_NAME, TEST_SYNAPSE_TABLE_ID));
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+
     @Test
     public void getDataAccessTeamIdForStudy() {
         // mock DynamoHelper
@@ -239,13 +371,12 @@ public class ExportWorkerManagerTest {
 
     @Test
     public void addIosSurveySubtask() throws Exception {
-        // mock executor
-        ArgumentCaptor<ExportWorker> workerCaptor = ArgumentCaptor.forClass(ExportWorker.class);
+        // mock executor - Don't run the subtasks. We just want to validate them.
         ExecutorService mockExecutor = mock(ExecutorService.class);
-        when(mockExecutor.submit(workerCaptor.capture())).thenAnswer(invocation -> mock(Future.class));
 
         // Mock task. This is passed into the subtask and worker, so we don't need real data in it.
         ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getCompletedSubtaskQueue()).thenReturn(new LinkedBlockingQueue<>());
 
         // set up worker manager
         ExportWorkerManager manager = new ExportWorkerManager();
@@ -262,9 +393,11 @@ public class ExportWorkerManagerTest {
         manager.addSubtaskForRecord(mockTask, record2);
 
         // validate subtasks submitted to executor
-        verify(mockExecutor, times(2)).submit(any(ExportWorker.class));
+        ArgumentCaptor<ExportWorkerFuture> futureCaptor = ArgumentCaptor.forClass(ExportWorkerFuture.class);
+        verify(mockExecutor, times(2)).execute(futureCaptor.capture());
 
-        List<ExportWorker> workerList = workerCaptor.getAllValues();
+        List<ExportWorker> workerList = futureCaptor.getAllValues().stream().map(ExportWorkerFuture::getWorker)
+                .collect(Collectors.toList());
         assertEquals(workerList.size(), 2);
 
         // Just check the important things, like making sure it corresponds with our task and record.
@@ -284,15 +417,45 @@ public class ExportWorkerManagerTest {
         verify(mockTask, times(2)).addSubtaskFuture(any());
     }
 
+    @Test
+    public void getSchemaFromRegistry() throws Exception {
+        SchemaRegistry mockRegistry = mock(SchemaRegistry.class);
+        when(mockRegistry.getSchema(BridgeHelperTest.TEST_SCHEMA_KEY)).thenReturn(BridgeHelperTest.TEST_SCHEMA);
+
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getSchemaRegistry()).thenReturn(mockRegistry);
+
+        BridgeHelper mockBridgeHelper = mock(BridgeHelper.class);
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setBridgeHelper(mockBridgeHelper);
+
+        assertSame(manager.getSchema(mockTask, BridgeHelperTest.TEST_SCHEMA_KEY), BridgeHelperTest.TEST_SCHEMA);
+        verifyZeroInteractions(mockBridgeHelper);
+    }
+
+    @Test
+    public void getSchemaWithoutRegistry() throws Exception {
+        Metrics metrics = new Metrics();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getMetrics()).thenReturn(metrics);
+
+        BridgeHelper mockBridgeHelper = mock(BridgeHelper.class);
+        when(mockBridgeHelper.getSchema(metrics, BridgeHelperTest.TEST_SCHEMA_KEY)).thenReturn(
+                BridgeHelperTest.TEST_SCHEMA);
+        ExportWorkerManager manager = new ExportWorkerManager();
+        manager.setBridgeHelper(mockBridgeHelper);
+
+        assertSame(manager.getSchema(mockTask, BridgeHelperTest.TEST_SCHEMA_KEY), BridgeHelperTest.TEST_SCHEMA);
+    }
+
     @Test
     public void addHealthDataSubtask() throws Exception {
-        // mock executor
-        ArgumentCaptor<ExportWorker> workerCaptor = ArgumentCaptor.forClass(ExportWorker.class);
+        // mock executor - Don't run the subtasks. We just want to validate them.
         ExecutorService mockExecutor = mock(ExecutorService.class);
-        when(mockExecutor.submit(workerCaptor.capture())).thenAnswer(invocation -> mock(Future.class));
 
         // Mock task. We only need metrics.
         ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getCompletedSubtaskQueue()).thenReturn(new LinkedBlockingQueue<>());
         when(mockTask.getMetrics()).thenReturn(new Metrics());
 
         // mock DynamoHelper to get schema
@@ -316,9 +479,11 @@ public class ExportWorkerManagerTest {
         manager.addSubtaskForRecord(mockTask, record2);
 
         // validate subtasks submitted to executor (4, 2 for app version, 2 for health data)
-        verify(mockExecutor, times(4)).submit(any(ExportWorker.class));
+        ArgumentCaptor<ExportWorkerFuture> futureCaptor = ArgumentCaptor.forClass(ExportWorkerFuture.class);
+        verify(mockExecutor, times(4)).execute(futureCaptor.capture());
 
-        List<ExportWorker> workerList = workerCaptor.getAllValues();
+        List<ExportWorker> workerList = futureCaptor.getAllValues().stream().map(ExportWorkerFuture::getWorker)
+                .collect(Collectors.toList());
         assertEquals(workerList.size(), 4);
 
         // We assume the order is record1 app version, record1 health data, record2 app version, record2 health data.
@@ -357,6 +522,189 @@ public class ExportWorkerManagerTest {
         verify(mockBridgeHelper, times(1)).getSchema(any(), any());
     }
 
+    @Test
+    public void prewarmTablesAfterColdStart() throws Exception {
+        UploadSchemaKey fooSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("foo")
+                .withRevision(1).build();
+        UploadSchemaKey barSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("bar")
+                .withRevision(1).build();
+        UploadSchemaKey oldSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("old")
+                .withRevision(1).build();
+        UploadSchemaKey neverExportedSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID)
+                .withSchemaId("never-exported").withRevision(1).build();
+        UploadSchemaKey unmappedSchemaKey = new UploadSchemaKey.Builder().withStudyId("other-study")
+                .withSchemaId("unmapped").withRevision(1).build();
+        UploadSchemaKey surveySchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID)
+                .withSchemaId(ExportWorkerManager.SCHEMA_IOS_SURVEY).withRevision(1).build();
+
+        Metrics metrics = new Metrics();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getCompletedSubtaskQueue()).thenReturn(new LinkedBlockingQueue<>());
+        when(mockTask.getMetrics()).thenReturn(metrics);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+
+        // The Synapse table map in DDB is the only state. Foo and bar were exported an hour ago, old was exported 8
+        // days ago, never-exported has a table but no export time, and unmapped has no table.
+        String ddbTableName = DEFAULT_DDB_PREFIX + SynapseHelper.DDB_TABLE_SYNAPSE_TABLES;
+        long nowMillis = DateTime.parse("2017-08-15T18:30:00.000-0700").getMillis();
+        long recentMillis = nowMillis - TimeUnit.HOURS.toMillis(1);
+        long oldMillis = nowMillis - TimeUnit.DAYS.toMillis(8);
+        List<Item> itemList = ImmutableList.of(
+                makeSynapseTableMapItem(fooSchemaKey).withLong(ExportWorkerManager.DDB_KEY_LAST_EXPORTED_ON,
+                        recentMillis),
+                makeSynapseTableMapItem(barSchemaKey).withLong(ExportWorkerManager.DDB_KEY_LAST_EXPORTED_ON,
+                        recentMillis),
+                makeSynapseTableMapItem(oldSchemaKey).withLong(ExportWorkerManager.DDB_KEY_LAST_EXPORTED_ON,
+                        oldMillis),
+                makeSynapseTableMapItem(neverExportedSchemaKey));
+        BatchGetItemOutcome mockOutcome = mock(BatchGetItemOutcome.class);
+        when(mockOutcome.getTableItems()).thenReturn(ImmutableMap.of(ddbTableName, itemList));
+        when(mockOutcome.getUnprocessedKeys()).thenReturn(ImmutableMap.of());
+
+        ArgumentCaptor<BatchGetItemSpec> specCaptor = ArgumentCaptor.forClass(BatchGetItemSpec.class);
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.batchGetItem(specCaptor.capture())).thenReturn(mockOutcome);
+
+        // Foo pre-warms, bar fails, and the app version table throws.
+        HealthDataExportHandler mockFooHandler = mock(HealthDataExportHandler.class);
+        when(mockFooHandler.prewarmForTask(mockTask)).thenReturn(true);
+        HealthDataExportHandler mockBarHandler = mock(HealthDataExportHandler.class);
+        when(mockBarHandler.prewarmForTask(mockTask)).thenReturn(false);
+        AppVersionExportHandler mockAppVersionHandler = mock(AppVersionExportHandler.class);
+        when(mockAppVersionHandler.prewarmForTask(mockTask)).thenThrow(new RuntimeException("test exception"));
+
+        // A new manager, as if the Exporter just started. No records have been exported in this process.
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setConfig(mockConfigWithPrewarm(true));
+        manager.setDdbClient(mockDdbClient);
+        manager.setExecutor(mock(ExecutorService.class));
+        manager.setSynapseUploadExecutor(MoreExecutors.newDirectExecutorService());
+        doReturn(mockFooHandler).when(manager).createHealthDataHandler(metrics, fooSchemaKey);
+        doReturn(mockBarHandler).when(manager).createHealthDataHandler(metrics, barSchemaKey);
+        doReturn(mockAppVersionHandler).when(manager).createAppVersionHandler(TEST_STUDY_ID);
+
+        // execute
+        try {
+            DateTimeUtils.setCurrentMillisFixed(nowMillis);
+            manager.prewarmTables(mockTask, ImmutableSet.of(fooSchemaKey, barSchemaKey, oldSchemaKey,
+                    neverExportedSchemaKey, unmappedSchemaKey, surveySchemaKey));
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+
+        // All schemas except the survey schema are looked up in a single batch.
+        TableKeysAndAttributes keysAndAttributes = Iterables.getOnlyElement(
+                specCaptor.getValue().getTableKeysAndAttributes());
+        assertEquals(keysAndAttributes.getTableName(), ddbTableName);
+        Set<String> requestedKeySet = new HashSet<>();
+        for (PrimaryKey onePrimaryKey : keysAndAttributes.getPrimaryKeys()) {
+            for (KeyAttribute oneKeyAttribute : onePrimaryKey.getComponents()) {
+                requestedKeySet.add((String) oneKeyAttribute.getValue());
+            }
+        }
+        assertEquals(requestedKeySet, ImmutableSet.of(fooSchemaKey.toString(), barSchemaKey.toString(),
+                oldSchemaKey.toString(), neverExportedSchemaKey.toString(), unmappedSchemaKey.toString()));
+
+        // Only recently exported schemas are pre-warmed.
+        verify(mockFooHandler).prewarmForTask(mockTask);
+        verify(mockBarHandler).prewarmForTask(mockTask);
+        verify(mockAppVersionHandler).prewarmForTask(mockTask);
+        verify(manager, never()).createHealthDataHandler(metrics, oldSchemaKey);
+        verify(manager, never()).createHealthDataHandler(metrics, neverExportedSchemaKey);
+        verify(manager, never()).createHealthDataHandler(metrics, unmappedSchemaKey);
+        verify(manager, never()).createHealthDataHandler(metrics, surveySchemaKey);
+        verify(manager, never()).createAppVersionHandler("other-study");
+        assertEquals(metrics.getCounterMap().count("numTablesPrewarmed"), 1);
+    }
+
+    @Test
+    public void prewarmTablesDdbError() throws Exception {
+        UploadSchemaKey fooSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("foo")
+                .withRevision(1).build();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(mock(BridgeExporterRequest.class));
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+
+        DynamoDB mockDdbClient = mock(DynamoDB.class);
+        when(mockDdbClient.batchGetItem(any(BatchGetItemSpec.class))).thenThrow(new RuntimeException(
+                "test exception"));
+
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setConfig(mockConfigWithPrewarm(true));
+        manager.setDdbClient(mockDdbClient);
+        manager.setSynapseUploadExecutor(mockExecutor);
+
+        // Pre-warming is best effort, so this is logged and skipped.
+        manager.prewarmTables(mockTask, ImmutableSet.of(fooSchemaKey));
+        verifyZeroInteractions(mockExecutor);
+        verify(manager, never()).createHealthDataHandler(any(), any());
+    }
+
+    @DataProvider(name = "prewarmSkippedRequestProvider")
+    public Object[][] prewarmSkippedRequestProvider() {
+        BridgeExporterRequest recordOverrideRequest = mock(BridgeExporterRequest.class);
+        when(recordOverrideRequest.getRecordIdS3Override()).thenReturn("record-ids.txt");
+
+        BridgeExporterRequest redriveRequest = mock(BridgeExporterRequest.class);
+        when(redriveRequest.getRedriveCount()).thenReturn(1);
+
+        BridgeExporterRequest tableWhitelistRequest = mock(BridgeExporterRequest.class);
+        when(tableWhitelistRequest.getTableWhitelist()).thenReturn(ImmutableSet.of(new UploadSchemaKey.Builder()
+                .withStudyId(TEST_STUDY_ID).withSchemaId(TEST_SCHEMA_ID).withRevision(TEST_SCHEMA_REV).build()));
+
+        return new Object[][] {
+                { recordOverrideRequest },
+                { redriveRequest },
+                { tableWhitelistRequest },
+        };
+    }
+
+    @Test(dataProvider = "prewarmSkippedRequestProvider")
+    public void prewarmTablesSkipped(BridgeExporterRequest request) throws Exception {
+        UploadSchemaKey fooSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("foo")
+                .withRevision(1).build();
+        ExportTask mockTask = mock(ExportTask.class);
+        when(mockTask.getRequest()).thenReturn(request);
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setConfig(mockConfigWithPrewarm(true));
+        manager.setSynapseUploadExecutor(mockExecutor);
+
+        manager.prewarmTables(mockTask, ImmutableSet.of(fooSchemaKey));
+        verifyZeroInteractions(mockExecutor);
+        verify(manager, never()).createHealthDataHandler(any(), any());
+    }
+
+    @Test
+    public void prewarmTablesDisabled() throws Exception {
+        UploadSchemaKey fooSchemaKey = new UploadSchemaKey.Builder().withStudyId(TEST_STUDY_ID).withSchemaId("foo")
+                .withRevision(1).build();
+        ExecutorService mockExecutor = mock(ExecutorService.class);
+
+        ExportWorkerManager manager = spy(new ExportWorkerManager());
+        manager.setConfig(mockConfigWithPrewarm(false));
+        manager.setSynapseUploadExecutor(mockExecutor);
+
+        manager.prewarmTables(mock(ExportTask.class), ImmutableSet.of(fooSchemaKey));
+        verifyZeroInteractions(mockExecutor);
+        verify(manager, never()).createHealthDataHandler(any(), any());
+    }
+
+    private static Config mockConfigWithPrewarm(boolean prewarmEnabled) {
+        Config mockConfig = mock(Config.class);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_SYNAPSE_TABLE_PREWARM_ENABLED)).thenReturn(
+                String.valueOf(prewarmEnabled));
+        when(mockConfig.getInt(ExportWorkerManager.CONFIG_KEY_SYNAPSE_TABLE_PREWARM_MAX_AGE_HOURS)).thenReturn(168);
+        when(mockConfig.get(ExportWorkerManager.CONFIG_KEY_EXPORTER_DDB_PREFIX)).thenReturn(DEFAULT_DDB_PREFIX);
+        return mockConfig;
+    }
+
+    private static Item makeSynapseTableMapItem(UploadSchemaKey schemaKey) {
+        return new Item().withString(SynapseHelper.DDB_KEY_SCHEMA_KEY, schemaKey.toString())
+                .withString(ExportWorkerManager.DDB_KEY_TABLE_ID, "table-" + schemaKey.getSchemaId());
+    }
+
     @DataProvider(name = "isSynapseDownProvider")
     public Object[][] isSynapseDownProvider() {
         // { exception, expected }
@@ -17,6 +17,6 @@ public class ExportWorkerTest {
 
         // execute and verify call-through
         new ExportWorker(mockHandler, mockSubtask).call();
-        verify(mockHandler).handle(mockSubtask);
+        verify(mockHandler).handleAsync(mockSubtask);
     }
 }
@@ -0,0 +1,131 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * JMH benchmark comparing contended TSV row writing throughput. "legacyWriteRow" is the old implementation, which
+ * joined each row into a new string and wrote it under a lock. "writeRowIfOpen" is the current TsvInfo, the same way
+ * SynapseExportHandler uses it: fill in the thread's reusable row by column index, then write it with its record ID.
+ * Rows are buffered per thread and handed off in chunks to a single writer.
+ * </p>
+ * <p>
+ * This isn't run as part of the unit tests. To run it at 4, 16, and 64 threads, run main() from the test classpath
+ * (for example, mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.sagebionetworks.bridge.exporter.worker.TsvInfoBenchmark). The TSV is recreated for each
+ * iteration, so the record ID list doesn't grow for the whole run.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class TsvInfoBenchmark {
+    private static final int[] THREAD_COUNTS = { 4, 16, 64 };
+
+    // Realistic-ish health data row, with a mix of short and long values.
+    private static final List<String> COLUMN_NAME_LIST = ImmutableList.of("recordId", "appVersion", "phoneInfo",
+            "uploadDate", "createdOn", "createdOnTimeZone", "userSharingScope", "healthCode", "externalId",
+            "dataGroups", "answers", "score");
+    private static final Map<String, String> ROW_VALUE_MAP = ImmutableMap.<String, String>builder()
+            .put("recordId", "0a1b2c3d-4e5f-6789-abcd-ef0123456789")
+            .put("appVersion", "version 1.2.3, build 45").put("phoneInfo", "iPhone 6s")
+            .put("uploadDate", "2016-08-15").put("createdOn", "1471305600000").put("createdOnTimeZone", "-0700")
+            .put("userSharingScope", "ALL_QUALIFIED_RESEARCHERS")
+            .put("healthCode", "9876543210-fedc-ba98-7654-3210fedcba98").put("dataGroups", "group1,group2")
+            .put("answers", "[\"lorem ipsum dolor sit amet\",\"consectetur adipiscing elit\"]").put("score", "42")
+            .build();
+    private static final String[] ROW_VALUES = COLUMN_NAME_LIST.stream().map(ROW_VALUE_MAP::get)
+            .toArray(String[]::new);
+    private static final String RECORD_ID = ROW_VALUE_MAP.get("recordId");
+
+    private LegacyTsvWriter legacyTsvWriter;
+    private TsvInfo tsvInfo;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // Write to a null writer, so we measure serialization and contention, not disk I/O.
+        legacyTsvWriter = new LegacyTsvWriter(COLUMN_NAME_LIST, new PrintWriter(CharStreams.nullWriter()));
+        tsvInfo = new TsvInfo(COLUMN_NAME_LIST, new File("benchmark.tsv"),
+                new PrintWriter(CharStreams.nullWriter()));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        tsvInfo.flushAndCloseWriter();
+    }
+
+    @Benchmark
+    public void legacyWriteRow() {
+        legacyTsvWriter.writeRow(ROW_VALUE_MAP);
+    }
+
+    @Benchmark
+    public boolean writeRowIfOpen() throws Exception {
+        TsvRow row = tsvInfo.getReusableRow();
+        for (int i = 0; i < ROW_VALUES.length; i++) {
+            row.set(i, ROW_VALUES[i]);
+        }
+        return tsvInfo.writeRowIfOpen(row, RECORD_ID);
+    }
+
+    /** Runs the benchmarks at each thread count. */
+    public static void main(String[] args) throws Exception {
+        for (int oneThreadCount : THREAD_COUNTS) {
+            Options options = new OptionsBuilder().include(TsvInfoBenchmark.class.getSimpleName())
+                    .threads(oneThreadCount).build();
+            new Runner(options).run();
+        }
+    }
+
+    // Copy of the old TsvInfo.writeRow(), for comparison.
+    private static class LegacyTsvWriter {
+        private static final Joiner JOINER_COLUMN_JOINER = Joiner.on('\t').useForNull("");
+
+        private final List<String> columnNameList;
+        private final PrintWriter writer;
+        private int lineCount = 0;
+
+        LegacyTsvWriter(List<String> columnNameList, PrintWriter writer) {
+            this.columnNameList = columnNameList;
+            this.writer = writer;
+        }
+
+        synchronized void writeRow(Map<String, String> rowValueMap) {
+            List<String> rowValueList = new ArrayList<>();
+            for (String oneColumnName : columnNameList) {
+                rowValueList.add(rowValueMap.get(oneColumnName));
+            }
+
+            writer.println(JOINER_COLUMN_JOINER.join(rowValueList));
+            lineCount++;
+        }
+    }
+}
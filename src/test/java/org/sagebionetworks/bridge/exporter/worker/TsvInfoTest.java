@@ -1,12 +1,15 @@
 package org.sagebionetworks.bridge.exporter.worker;
 
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.*;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.List;
 
 import com.google.common.collect.ImmutableList;
@@ -34,8 +37,10 @@ public class TsvInfoTest {
 
     @Test
     public void happyCase() throws Exception {
-        // set up mocks
-        when(mockWriter.checkError()).thenReturn(false);
+        // Use a real writer, so we can check the file contents. Spy it so we can verify flush and close.
+        StringWriter stringWriter = new StringWriter();
+        PrintWriter spyWriter = spy(new PrintWriter(stringWriter));
+        tsvInfo = new TsvInfo(COLUMN_NAME_LIST, mockFile, spyWriter);
 
         // write some lines
         tsvInfo.writeRow(new ImmutableMap.Builder<String, String>().put("foo", "foo value").put("bar", "bar value")
@@ -51,14 +56,93 @@ public class TsvInfoTest {
         assertEquals(tsvInfo.getLineCount(), 3);
         assertEquals(tsvInfo.getRecordIds().get(0), TEST_RECORD_ID);
 
+        // validate file contents - Same as if each line were written with println()
+        String newline = System.lineSeparator();
+        assertEquals(stringWriter.toString(), "foo\tbar" + newline +
+                "foo value\tbar value" + newline +
+                "second foo value\tsecond bar value" + newline +
+                "\thas bar but not foo" + newline);
+
         // validate writer
-        verify(mockWriter).println("foo\tbar");
-        verify(mockWriter).println("foo value\tbar value");
-        verify(mockWriter).println("second foo value\tsecond bar value");
-        verify(mockWriter).println("\thas bar but not foo");
-        verify(mockWriter).flush();
-        verify(mockWriter).checkError();
-        verify(mockWriter).close();
+        verify(spyWriter, atLeastOnce()).flush();
+        verify(spyWriter).checkError();
+        verify(spyWriter).close();
+    }
+
+    @Test
+    public void writeReusableRow() throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        tsvInfo = new TsvInfo(COLUMN_NAME_LIST, mockFile, new PrintWriter(stringWriter));
+        assertEquals(tsvInfo.getRowLayout().getColumnNameList(), COLUMN_NAME_LIST);
+
+        // write a row by index and by name
+        TsvRow row = tsvInfo.getReusableRow();
+        row.set(tsvInfo.getRowLayout().getColumnIndex("foo"), "foo value");
+        row.set("bar", "bar value");
+        row.set("extraneous", "extraneous value");
+        tsvInfo.writeRow(row);
+
+        // The same row is reused, and it's cleared before it's returned.
+        TsvRow reusedRow = tsvInfo.getReusableRow();
+        assertSame(reusedRow, row);
+        assertNull(reusedRow.get("foo"));
+        assertNull(reusedRow.get("bar"));
+        reusedRow.set("bar", "second bar value");
+        tsvInfo.writeRow(reusedRow);
+        tsvInfo.flushAndCloseWriter();
+
+        // validate
+        assertEquals(tsvInfo.getLineCount(), 2);
+        String newline = System.lineSeparator();
+        assertEquals(stringWriter.toString(), "foo\tbar" + newline +
+                "foo value\tbar value" + newline +
+                "\tsecond bar value" + newline);
+    }
+
+    @Test
+    public void segments() throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        tsvInfo = new TsvInfo(COLUMN_NAME_LIST, mockFile, new PrintWriter(stringWriter));
+        assertEquals(tsvInfo.getSegmentNum(), 0);
+
+        TsvRow row = tsvInfo.getReusableRow();
+        row.set("foo", "foo value");
+        assertTrue(tsvInfo.writeRowIfOpen(row, TEST_RECORD_ID));
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(TEST_RECORD_ID));
+
+        // "foo value" plus tab plus newline
+        String newline = System.lineSeparator();
+        assertEquals(tsvInfo.getCharCount(), 10 + newline.length());
+
+        // Once closed, rows are rejected.
+        tsvInfo.flushAndCloseWriter();
+        assertFalse(tsvInfo.writeRowIfOpen(row, "other record id"));
+        assertEquals(tsvInfo.getLineCount(), 1);
+        assertEquals(tsvInfo.getRecordIds(), ImmutableList.of(TEST_RECORD_ID));
+        assertEquals(stringWriter.toString(), "foo\tbar" + newline + "foo value\t" + newline);
+
+        // The next segment has its own header, and accepts rows created for the previous segment.
+        StringWriter nextStringWriter = new StringWriter();
+        File nextFile = mock(File.class);
+        TsvInfo nextSegment = new TsvInfo(tsvInfo, nextFile, new PrintWriter(nextStringWriter));
+        assertEquals(nextSegment.getSegmentNum(), 1);
+        assertSame(nextSegment.getFile(), nextFile);
+        assertSame(nextSegment.getRowLayout(), tsvInfo.getRowLayout());
+        assertSame(nextSegment.getReusableRow(), row);
+        row.set("foo", "foo value");
+
+        assertTrue(nextSegment.writeRowIfOpen(row, "other record id"));
+        nextSegment.flushAndCloseWriter();
+        assertEquals(nextSegment.getLineCount(), 1);
+        assertEquals(nextSegment.getRecordIds(), ImmutableList.of("other record id"));
+        assertEquals(nextStringWriter.toString(), "foo\tbar" + newline + "foo value\t" + newline);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void writeRowFromOtherTsv() throws Exception {
+        TsvInfo otherTsvInfo = new TsvInfo(COLUMN_NAME_LIST, mockFile, mock(PrintWriter.class));
+        tsvInfo.writeRow(otherTsvInfo.createRow());
     }
 
     @Test(expectedExceptions = BridgeExporterException.class, expectedExceptionsMessageRegExp =
@@ -91,6 +175,14 @@ public class TsvInfoTest {
             assertSame(ex.getCause(), testEx);
         }
 
+        try {
+            errorTsvInfo.getReusableRow();
+            fail("expected exception");
+        } catch (BridgeExporterException ex) {
+            assertTrue(ex instanceof BridgeExporterTsvException);
+            assertSame(ex.getCause(), testEx);
+        }
+
         try {
             errorTsvInfo.flushAndCloseWriter();
             fail("expected exception");
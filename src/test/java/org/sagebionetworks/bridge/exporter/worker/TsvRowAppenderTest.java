@@ -0,0 +1,132 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Splitter;
+import org.testng.annotations.Test;
+
+public class TsvRowAppenderTest {
+    private static final String NEWLINE = System.lineSeparator();
+
+    @Test
+    public void nullAndMissingValues() {
+        StringWriter stringWriter = new StringWriter();
+        TsvRowAppender appender = new TsvRowAppender(new PrintWriter(stringWriter));
+
+        appender.appendRow(new String[] { "foo value", null, null });
+        appender.appendRow(new String[] { null, null, "baz value" });
+
+        // Rows are buffered until flush.
+        assertEquals(stringWriter.toString(), "");
+        appender.flush();
+        assertEquals(stringWriter.toString(), "foo value\t\t" + NEWLINE + "\t\tbaz value" + NEWLINE);
+
+        // Flushing again writes nothing new.
+        appender.flush();
+        assertEquals(stringWriter.toString(), "foo value\t\t" + NEWLINE + "\t\tbaz value" + NEWLINE);
+    }
+
+    @Test
+    public void fullChunksWrittenBeforeFlush() {
+        // Chunk size is small enough that the second row fills the buffer.
+        StringWriter stringWriter = new StringWriter();
+        TsvRowAppender appender = new TsvRowAppender(new PrintWriter(stringWriter), 20);
+
+        appender.appendRow(new String[] { "aaaa", null, null });
+        assertEquals(stringWriter.toString(), "");
+
+        appender.appendRow(new String[] { "bbbbbbbbbbbbbbbb", null, null });
+        assertEquals(stringWriter.toString(), "aaaa\t\t" + NEWLINE + "bbbbbbbbbbbbbbbb\t\t" + NEWLINE);
+    }
+
+    @Test
+    public void closeReleasesBuffers() throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        TsvRowAppender appender = new TsvRowAppender(new PrintWriter(stringWriter));
+
+        // Append a row from this thread and a row from another thread, so there are two thread-local buffers.
+        appender.appendRow(new String[] { "foo value", null });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> appender.appendRow(new String[] { null, "bar value" })).get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(appender.getNumBuffers(), 2);
+
+        // Close writes both rows and releases both buffers.
+        appender.close();
+        assertEquals(appender.getNumBuffers(), 0);
+        assertEquals(stringWriter.toString(), "foo value\t" + NEWLINE + "\tbar value" + NEWLINE);
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        int numThreads = 8;
+        int numRowsPerThread = 2000;
+
+        // Small chunk size, so we get a lot of hand-offs between threads.
+        StringWriter stringWriter = new StringWriter();
+        TsvRowAppender appender = new TsvRowAppender(new PrintWriter(stringWriter), 256);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<?>> futureList = new ArrayList<>();
+        try {
+            for (int t = 0; t < numThreads; t++) {
+                String threadId = "thread" + t;
+                futureList.add(executor.submit(() -> {
+                    startLatch.await();
+                    for (int i = 0; i < numRowsPerThread; i++) {
+                        appender.appendRow(new String[] { threadId, String.valueOf(i),
+                                "some longer value to fill up chunks" });
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> oneFuture : futureList) {
+                oneFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Some rows have been written before flush.
+        assertFalse(stringWriter.toString().isEmpty());
+        appender.flush();
+
+        // Every row is written exactly once and intact, and each thread's rows are in order.
+        String output = stringWriter.toString();
+        assertTrue(output.endsWith(NEWLINE));
+        List<String> lineList = Splitter.on(NEWLINE).omitEmptyStrings().splitToList(output);
+        assertEquals(lineList.size(), numThreads * numRowsPerThread);
+
+        Set<String> lineSet = new HashSet<>(lineList);
+        assertEquals(lineSet.size(), numThreads * numRowsPerThread);
+
+        int[] nextRowByThread = new int[numThreads];
+        for (String oneLine : lineList) {
+            List<String> valueList = Splitter.on('\t').splitToList(oneLine);
+            assertEquals(valueList.size(), 3);
+            assertEquals(valueList.get(2), "some longer value to fill up chunks");
+
+            int threadNum = Integer.parseInt(valueList.get(0).substring("thread".length()));
+            assertEquals(Integer.parseInt(valueList.get(1)), nextRowByThread[threadNum]);
+            nextRowByThread[threadNum]++;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.sagebionetworks.bridge.exporter.worker;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+public class TsvRowTest {
+    private static final TsvRowLayout LAYOUT = new TsvRowLayout(ImmutableList.of("foo", "bar", "baz"));
+
+    @Test
+    public void layout() {
+        assertEquals(LAYOUT.getColumnNameList(), ImmutableList.of("foo", "bar", "baz"));
+        assertEquals(LAYOUT.getNumColumns(), 3);
+        assertEquals(LAYOUT.getColumnIndex("foo"), 0);
+        assertEquals(LAYOUT.getColumnIndex("bar"), 1);
+        assertEquals(LAYOUT.getColumnIndex("baz"), 2);
+        assertEquals(LAYOUT.getColumnIndex("not-a-column"), -1);
+    }
+
+    // branch coverage
+    @Test
+    public void layoutWithDuplicateColumn() {
+        TsvRowLayout layout = new TsvRowLayout(ImmutableList.of("foo", "bar", "foo"));
+        assertEquals(layout.getNumColumns(), 3);
+        assertEquals(layout.getColumnIndex("foo"), 0);
+    }
+
+    @Test
+    public void setAndGet() {
+        TsvRow row = new TsvRow(LAYOUT);
+        assertSame(row.getLayout(), LAYOUT);
+
+        // set by name and by index
+        row.set("foo", "foo value");
+        row.set(2, "baz value");
+
+        // Unknown columns are silently ignored.
+        row.set("not-a-column", "not-a-column value");
+
+        // validate
+        assertEquals(row.get(0), "foo value");
+        assertEquals(row.get("foo"), "foo value");
+        assertNull(row.get("bar"));
+        assertEquals(row.get("baz"), "baz value");
+        assertNull(row.get("not-a-column"));
+
+        // clear
+        row.clear();
+        assertNull(row.get("foo"));
+        assertNull(row.get("baz"));
+    }
+
+    @Test
+    public void completedPendingValueSetImmediately() {
+        TsvRow row = new TsvRow(LAYOUT);
+        row.setPending(0, CompletableFuture.completedFuture("foo value"));
+        assertFalse(row.hasPendingValues());
+        assertEquals(row.get("foo"), "foo value");
+    }
+
+    @Test
+    public void resolvePendingValues() {
+        TsvRow row = new TsvRow(LAYOUT);
+        CompletableFuture<String> fooFuture = new CompletableFuture<>();
+        CompletableFuture<String> bazFuture = new CompletableFuture<>();
+        row.set("bar", "bar value");
+        row.setPending(0, fooFuture);
+        row.setPending(2, bazFuture);
+        assertTrue(row.hasPendingValues());
+
+        // Copy the row and clear the original, like SynapseExportHandler does with the reusable row.
+        TsvRow copy = row.copy();
+        row.clear();
+        assertFalse(row.hasPendingValues());
+        assertTrue(copy.hasPendingValues());
+
+        CompletableFuture<Void> resolveFuture = copy.resolvePendingValues();
+        fooFuture.complete("foo value");
+        assertFalse(resolveFuture.isDone());
+        assertNull(copy.get("foo"));
+
+        bazFuture.complete("baz value");
+        assertTrue(resolveFuture.isDone());
+        assertFalse(copy.hasPendingValues());
+        assertEquals(copy.get("foo"), "foo value");
+        assertEquals(copy.get("bar"), "bar value");
+        assertEquals(copy.get("baz"), "baz value");
+    }
+
+    @Test
+    public void setOverwritesPendingValue() {
+        TsvRow row = new TsvRow(LAYOUT);
+        CompletableFuture<String> fooFuture = new CompletableFuture<>();
+        row.setPending(0, fooFuture);
+        row.set("foo", "overwritten value");
+        assertFalse(row.hasPendingValues());
+
+        // Resolving does nothing, since there's nothing pending.
+        assertTrue(row.resolvePendingValues().isDone());
+        assertEquals(row.get("foo"), "overwritten value");
+    }
+
+    @Test
+    public void failedPendingValue() {
+        TsvRow row = new TsvRow(LAYOUT);
+        CompletableFuture<String> fooFuture = new CompletableFuture<>();
+        row.setPending(0, fooFuture);
+        row.setPending(1, CompletableFuture.completedFuture("bar value"));
+
+        CompletableFuture<Void> resolveFuture = row.resolvePendingValues();
+        IllegalStateException originalEx = new IllegalStateException("test exception");
+        fooFuture.completeExceptionally(originalEx);
+        try {
+            resolveFuture.join();
+            fail("expected exception");
+        } catch (CompletionException ex) {
+            assertSame(ex.getCause(), originalEx);
+        }
+    }
+}